@@ -0,0 +1,35 @@
+package jp.gr.java_conf.falius.communication.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * 送受信に利用するバッファを確保するインターフェースです。
+ *
+ * <p>
+ * {@link allocate}メソッドで確保したバッファは、利用し終えた時点で{@link release}メソッドに渡して返却します。
+ * 返却されたバッファは再利用される可能性があるため、返却後はそのバッファを参照しないでください。
+ * 返却されなかったバッファは通常のオブジェクトと同様にガベージコレクションによって回収されます。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+public interface BufferAllocator {
+
+    /**
+     * 指定したサイズのデータを格納するバッファを確保します。
+     * 返されるバッファはpositionが0、limitがsizeに設定されています。capacityはsizeより大きいことがあります。
+     * @param size
+     * @return
+     * @since 1.6.0
+     */
+    ByteBuffer allocate(int size);
+
+    /**
+     * 利用し終えたバッファを返却します。
+     * このオブジェクトのallocateメソッドで確保したものではないバッファが渡された場合は何もしません。
+     * @param buf
+     * @since 1.6.0
+     */
+    void release(ByteBuffer buf);
+}
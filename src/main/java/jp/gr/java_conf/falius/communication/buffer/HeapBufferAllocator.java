@@ -0,0 +1,33 @@
+package jp.gr.java_conf.falius.communication.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 呼び出しごとに新しいヒープバッファを確保する、デフォルトのBufferAllocatorです。
+ * バッファの返却では何もしません。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+public class HeapBufferAllocator implements BufferAllocator {
+    public static final HeapBufferAllocator INSTANCE = new HeapBufferAllocator();
+
+    private HeapBufferAllocator() {
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size);
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public void release(ByteBuffer buf) {
+        // empty
+    }
+}
@@ -0,0 +1,146 @@
+package jp.gr.java_conf.falius.communication.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * ダイレクトバッファをサイズごとにプールして再利用するBufferAllocatorです。
+ *
+ * <p>
+ * 要求されたサイズは最小サイズ以上の２のべき乗に切り上げられ、そのサイズごとのプールからバッファを取り出します。
+ * プールが空であれば新しくダイレクトバッファを確保します。
+ * 最大サイズを超えるバッファはプールせず、要求されたサイズのダイレクトバッファをその都度確保します。
+ *
+ * <p>
+ * ダイレクトバッファはチャネルへの読み書きの際にJDK内部での一時バッファへのコピーが不要になる一方で、
+ *     確保と解放のコストがヒープバッファより大きいため、プールして再利用することで効果を発揮します。
+ * 確保したバッファはヒープバッファではないため、ByteBuffer#arrayメソッドは利用できません。
+ *
+ * <p>
+ * このクラスはスレッドセーフです。ひとつのインスタンスを複数のサーバーやクライアントで共有することができます。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+public class PooledDirectBufferAllocator implements BufferAllocator {
+    public static final int DEFAULT_MIN_SIZE = 64;
+    public static final int DEFAULT_MAX_SIZE = 1 << 20;
+    public static final int DEFAULT_MAX_POOLED_COUNT = 256;
+
+    private final int mMinSize;
+    private final int mMaxSize;
+    private final int mMaxPooledCount;
+    private final List<Queue<ByteBuffer>> mPools;
+    private final AtomicInteger[] mPooledCounts;
+
+    /**
+     * デフォルトの設定でプールを作成します。
+     * @since 1.6.0
+     */
+    public PooledDirectBufferAllocator() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_MAX_POOLED_COUNT);
+    }
+
+    /**
+     *
+     * @param minSize プールするバッファの最小サイズ。２のべき乗に切り上げられます
+     * @param maxSize プールするバッファの最大サイズ。２のべき乗に切り上げられます
+     * @param maxPooledCount サイズごとにプールしておくバッファの最大数
+     * @throws IllegalArgumentException minSizeが1未満の場合、maxSizeがminSizeより小さい場合、
+     *     maxSizeが2^30より大きい場合、maxPooledCountが負の場合
+     * @since 1.6.0
+     */
+    public PooledDirectBufferAllocator(int minSize, int maxSize, int maxPooledCount) {
+        if (minSize < 1 || maxSize < minSize || maxSize > 1 << 30 || maxPooledCount < 0) {
+            throw new IllegalArgumentException(
+                    "min size: " + minSize + ", max size: " + maxSize + ", max pooled count: " + maxPooledCount);
+        }
+        mMinSize = roundUp(minSize);
+        mMaxSize = roundUp(maxSize);
+        mMaxPooledCount = maxPooledCount;
+
+        int classCount = Integer.numberOfTrailingZeros(mMaxSize) - Integer.numberOfTrailingZeros(mMinSize) + 1;
+        mPools = new ArrayList<>(classCount);
+        mPooledCounts = new AtomicInteger[classCount];
+        for (int i = 0; i < classCount; i++) {
+            mPools.add(new ConcurrentLinkedQueue<>());
+            mPooledCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException sizeが負の場合
+     * @since 1.6.0
+     */
+    @Override
+    public ByteBuffer allocate(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("negative size: " + size);
+        }
+        if (size > mMaxSize) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        int capacity = Math.max(roundUp(size), mMinSize);
+        int index = classIndex(capacity);
+        ByteBuffer buf = mPools.get(index).poll();
+        if (buf == null) {
+            buf = ByteBuffer.allocateDirect(capacity);
+        } else {
+            mPooledCounts[index].decrementAndGet();
+        }
+        buf.clear();
+        buf.limit(size);
+        return buf;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public void release(ByteBuffer buf) {
+        if (buf == null || !buf.isDirect() || buf.isReadOnly()) {
+            return;
+        }
+        int capacity = buf.capacity();
+        if (capacity < mMinSize || capacity > mMaxSize || Integer.bitCount(capacity) != 1) {
+            // このプールで扱うサイズではない
+            return;
+        }
+        int index = classIndex(capacity);
+        if (mPooledCounts[index].incrementAndGet() > mMaxPooledCount) {
+            mPooledCounts[index].decrementAndGet();
+            return;
+        }
+        buf.clear();
+        mPools.get(index).offer(buf);
+    }
+
+    /**
+     * 指定したサイズのバッファが、現在いくつプールされているかを返します。
+     * @param size
+     * @return
+     * @since 1.6.0
+     */
+    public int pooledCount(int size) {
+        if (size > mMaxSize) {
+            return 0;
+        }
+        return mPooledCounts[classIndex(Math.max(roundUp(size), mMinSize))].get();
+    }
+
+    private int classIndex(int capacity) {
+        return Integer.numberOfTrailingZeros(capacity) - Integer.numberOfTrailingZeros(mMinSize);
+    }
+
+    private static int roundUp(int size) {
+        if (size <= 1) {
+            return 1;
+        }
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+}
@@ -0,0 +1,251 @@
+package jp.gr.java_conf.falius.communication.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import jp.gr.java_conf.falius.communication.buffer.BufferAllocator;
+
+/**
+ * <p>
+ * 固定長のメッセージを、バッファ上で直接読み書きするためのクラスです。
+ * サブクラスで、各フィールドのメッセージ先頭からの位置を指定してこのクラスの読み書きメソッドを呼び出す
+ *     アクセサを定義してください。
+ * <pre>
+ * public class Quote extends Flyweight {
+ *     public static final int ENCODED_LENGTH = 20;
+ *
+ *     public int encodedLength() { return ENCODED_LENGTH; }
+ *     public int instrumentId() { return getInt(0); }
+ *     public Quote instrumentId(int value) { putInt(0, value); return this; }
+ *     public long price() { return getLong(4); }
+ *     public Quote price(long value) { putLong(4, value); return this; }
+ *     ...
+ * }
+ * </pre>
+ *
+ * <p>
+ * 各フィールドはバッファの絶対位置で読み書きされ、値ごとにバッファやオブジェクトを作成することはありません。
+ * 一つのインスタンスを異なるバッファや位置に{@link #wrap}し直して使い回すことができます。
+ * 送信時は{@link #allocate}で確保したバッファにフィールドを書き込み、{@link #toSend}が返すバッファを送信データに追加します。
+ * 送信を終えた後は同じバッファにフィールドを書き込み直して再び送信できます。
+ * 受信時はReceiveData#getメソッドで取り出したバッファをwrapしてフィールドを読み取り、読み終えたらバッファを返却します。
+ * サーバーやクライアントにプールするBufferAllocatorを設定していれば、受信したバッファもプールから取り出されたものになります。
+ *
+ * <p>
+ * このクラスはスレッドセーフではありません。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+public abstract class Flyweight {
+    private ByteBuffer mBuf = null;
+    private int mOffset = 0;
+
+    /**
+     *
+     * @return メッセージのバイト数
+     * @since 1.6.0
+     */
+    public abstract int encodedLength();
+
+    /**
+     * バッファの指定した位置から始まるメッセージを読み書きするようにします。
+     * バッファのpositionとlimitは変更しません。
+     * 各フィールドはlimitまでの範囲で読み書きするため、メッセージはlimitまでに収まっている必要があります。
+     * {@link #toSend}はlimitをメッセージの終端に変更するため、同じバッファの別の位置にwrapし直す場合は
+     *     先にlimitを戻してください。
+     * @param buf
+     * @param offset バッファの先頭からのメッセージの位置
+     * @return このインスタンス
+     * @throws IllegalArgumentException バッファのlimitまでにメッセージが収まらない場合
+     * @since 1.6.0
+     */
+    public Flyweight wrap(ByteBuffer buf, int offset) {
+        Objects.requireNonNull(buf);
+        if (offset < 0 || (long) offset + encodedLength() > buf.limit()) {
+            throw new IllegalArgumentException(
+                    "offset: " + offset + ", length: " + encodedLength() + ", limit: " + buf.limit());
+        }
+        mBuf = buf;
+        mOffset = offset;
+        return this;
+    }
+
+    /**
+     * バッファのpositionから始まるメッセージを読み書きするようにします。
+     * @param buf
+     * @return このインスタンス
+     * @throws IllegalArgumentException バッファの残りがメッセージを格納するのに足りない場合
+     * @since 1.6.0
+     */
+    public Flyweight wrap(ByteBuffer buf) {
+        if (buf.remaining() < encodedLength()) {
+            throw new IllegalArgumentException("remaining: " + buf.remaining() + ", length: " + encodedLength());
+        }
+        return wrap(buf, buf.position());
+    }
+
+    /**
+     * メッセージのバイト数のバッファを確保し、その先頭に書き込むようにします。
+     * 確保したバッファはゼロで初期化されているとは限りません。
+     * 不要になったら{@link #release}で返却してください。
+     * @param allocator
+     * @return このインスタンス
+     * @since 1.6.0
+     */
+    public Flyweight allocate(BufferAllocator allocator) {
+        return wrap(allocator.allocate(encodedLength()), 0);
+    }
+
+    /**
+     * {@link #allocate}で確保したバッファを返却します。
+     * 返却した後は、再びwrapするまで読み書きできません。
+     * @param allocator
+     * @since 1.6.0
+     */
+    public void release(BufferAllocator allocator) {
+        checkWrapped();
+        allocator.release(mBuf);
+        mBuf = null;
+        mOffset = 0;
+    }
+
+    /**
+     * メッセージの範囲をpositionからlimitまでとしたバッファを返します。
+     * 新しいバッファは作成せず、読み書きしているバッファのpositionとlimitを変更します。
+     * @return 読み書きしているバッファ
+     * @since 1.6.0
+     */
+    public ByteBuffer toSend() {
+        checkWrapped();
+        mBuf.limit(mOffset + encodedLength());
+        mBuf.position(mOffset);
+        return mBuf;
+    }
+
+    /**
+     *
+     * @return 読み書きしているバッファ。wrapしていなければnull
+     * @since 1.6.0
+     */
+    public ByteBuffer buffer() {
+        return mBuf;
+    }
+
+    /**
+     *
+     * @return バッファの先頭からのメッセージの位置
+     * @since 1.6.0
+     */
+    public int offset() {
+        return mOffset;
+    }
+
+    private void checkWrapped() {
+        if (mBuf == null) {
+            throw new IllegalStateException("buffer is not wrapped");
+        }
+    }
+
+    /**
+     * @param index メッセージの先頭からの位置
+     * @since 1.6.0
+     */
+    protected final byte getByte(int index) {
+        return mBuf.get(mOffset + index);
+    }
+
+    /**
+     * @param index メッセージの先頭からの位置
+     * @param value
+     * @since 1.6.0
+     */
+    protected final void putByte(int index, byte value) {
+        mBuf.put(mOffset + index, value);
+    }
+
+    /**
+     * @param index メッセージの先頭からの位置
+     * @since 1.6.0
+     */
+    protected final short getShort(int index) {
+        return mBuf.getShort(mOffset + index);
+    }
+
+    /**
+     * @param index メッセージの先頭からの位置
+     * @param value
+     * @since 1.6.0
+     */
+    protected final void putShort(int index, short value) {
+        mBuf.putShort(mOffset + index, value);
+    }
+
+    /**
+     * @param index メッセージの先頭からの位置
+     * @since 1.6.0
+     */
+    protected final int getInt(int index) {
+        return mBuf.getInt(mOffset + index);
+    }
+
+    /**
+     * @param index メッセージの先頭からの位置
+     * @param value
+     * @since 1.6.0
+     */
+    protected final void putInt(int index, int value) {
+        mBuf.putInt(mOffset + index, value);
+    }
+
+    /**
+     * @param index メッセージの先頭からの位置
+     * @since 1.6.0
+     */
+    protected final long getLong(int index) {
+        return mBuf.getLong(mOffset + index);
+    }
+
+    /**
+     * @param index メッセージの先頭からの位置
+     * @param value
+     * @since 1.6.0
+     */
+    protected final void putLong(int index, long value) {
+        mBuf.putLong(mOffset + index, value);
+    }
+
+    /**
+     * @param index メッセージの先頭からの位置
+     * @since 1.6.0
+     */
+    protected final float getFloat(int index) {
+        return mBuf.getFloat(mOffset + index);
+    }
+
+    /**
+     * @param index メッセージの先頭からの位置
+     * @param value
+     * @since 1.6.0
+     */
+    protected final void putFloat(int index, float value) {
+        mBuf.putFloat(mOffset + index, value);
+    }
+
+    /**
+     * @param index メッセージの先頭からの位置
+     * @since 1.6.0
+     */
+    protected final double getDouble(int index) {
+        return mBuf.getDouble(mOffset + index);
+    }
+
+    /**
+     * @param index メッセージの先頭からの位置
+     * @param value
+     * @since 1.6.0
+     */
+    protected final void putDouble(int index, double value) {
+        mBuf.putDouble(mOffset + index, value);
+    }
+}
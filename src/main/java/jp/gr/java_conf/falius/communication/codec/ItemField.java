@@ -0,0 +1,34 @@
+package jp.gr.java_conf.falius.communication.codec;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>
+ * {@link PojoCodec}で送受信するフィールドを表すアノテーションです。
+ * 注釈したフィールドは、valueの小さい順に一つずつ送信データの一項目として送信されます。
+ * {@link MessageSchema}で注釈したインターフェースでは、フィールドの代わりに引数のないメソッドに注釈します。
+ *
+ * <p>
+ * 注釈できるフィールドの型は、int、long、double、float、boolean、String、byte[]です。
+ * finalフィールド及びstaticフィールドには注釈できません。
+ * 送信データは空の項目を持てないため、String及びbyte[]のフィールドの値は、送信時にnullでも空でもない必要があります。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.METHOD })
+public @interface ItemField {
+
+    /**
+     *
+     * @return 送信データの中での順番。クラスの中で重複しない値を指定してください
+     * @since 1.6.0
+     */
+    int value();
+}
@@ -0,0 +1,44 @@
+package jp.gr.java_conf.falius.communication.codec;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>
+ * 送受信するメッセージの構成を定義するインターフェースであることを表すアノテーションです。
+ * コンパイル時に{@link jp.gr.java_conf.falius.communication.codec.processor.MessageSchemaProcessor}が、
+ *     このインターフェースを実装し、SendDataへの書き込みとReceiveDataからの読み取りを行うクラスを生成します。
+ *
+ * <p>
+ * インターフェースの引数のないメソッドに{@link ItemField}で順番を注釈してください。
+ * メソッドの戻り値の型は、int、long、double、float、boolean、String、byte[]のいずれかです。
+ * 生成されるクラスは同じパッケージに置かれ、名前はインターフェースの名前に{@link #suffix}を付け加えたものになります。
+ * <pre>
+ * {@literal @}MessageSchema
+ * public interface Login {
+ *     {@literal @}ItemField(1) int userId();
+ *     {@literal @}ItemField(2) String token();
+ * }
+ *
+ * SendData data = LoginMessage.encode(new LoginMessage(12, "abc"), new BasicSendData());
+ * Login login = LoginMessage.decode(receiveData);
+ * </pre>
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface MessageSchema {
+
+    /**
+     *
+     * @return 生成するクラスの名前に付け加える文字列
+     * @since 1.6.0
+     */
+    String suffix() default "Message";
+}
@@ -0,0 +1,418 @@
+package jp.gr.java_conf.falius.communication.codec;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
+import jp.gr.java_conf.falius.communication.senddata.SendData;
+
+/**
+ * <p>
+ * {@link ItemField}で注釈したフィールドを持つクラスのインスタンスを、送信データの各項目に変換するクラスです。
+ * 注釈したフィールドが一つずつ、{@link SendData#put(int)}などのメソッドで送信データに追加されます。
+ * そのため、同じ順番で{@link ReceiveData#getInt()}などのメソッドを呼び出せば、このクラスを使わずに受信することもできます。
+ *
+ * <p>
+ * フィールドへのアクセスには、インスタンスの作成時に一度だけ解決したMethodHandleを利用します。
+ * 変換のたびにリフレクションを行うことはありません。
+ * インスタンスはクラスごとに{@link #of}メソッドでキャッシュされます。
+ *
+ * <p>
+ * 受信側でインスタンスを作成するため、対象のクラスには引数のないコンストラクタが必要です。
+ * コンストラクタ及びフィールドはprivateでも構いません。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ * @param <T> 変換する対象のクラス
+ */
+public final class PojoCodec<T> {
+    private static final ClassValue<PojoCodec<?>> CODECS = new ClassValue<PojoCodec<?>>() {
+        @Override
+        protected PojoCodec<?> computeValue(Class<?> type) {
+            return new PojoCodec<>(type);
+        }
+    };
+
+    private final Class<T> mType;
+    private final MethodHandle mConstructor;  // () -> Object
+    private final FieldCodec[] mFields;
+
+    /**
+     *
+     * @param type
+     * @return typeに対応するPojoCodec
+     * @throws IllegalArgumentException ItemFieldで注釈したフィールドが一つもない場合、
+     *     注釈できない型あるいは修飾子のフィールドに注釈している場合、順番が重複している場合、
+     *     引数のないコンストラクタがない場合
+     * @since 1.6.0
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> PojoCodec<T> of(Class<T> type) {
+        Objects.requireNonNull(type);
+        return (PojoCodec<T>) CODECS.get(type);
+    }
+
+    private PojoCodec(Class<T> type) {
+        mType = type;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Constructor<T> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            mConstructor = lookup.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException | SecurityException e) {
+            throw new IllegalArgumentException("no-arg constructor is not accessible: " + type.getName(), e);
+        }
+
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> cls = type; cls != null && cls != Object.class; cls = cls.getSuperclass()) {
+            for (Field field : cls.getDeclaredFields()) {
+                if (field.isAnnotationPresent(ItemField.class)) {
+                    fields.add(field);
+                }
+            }
+        }
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("no field annotated with ItemField: " + type.getName());
+        }
+        Collections.sort(fields, Comparator.comparingInt((Field field) -> field.getAnnotation(ItemField.class).value()));
+
+        mFields = new FieldCodec[fields.size()];
+        for (int i = 0; i < mFields.length; i++) {
+            Field field = fields.get(i);
+            if (i > 0 && order(field) == order(fields.get(i - 1))) {
+                throw new IllegalArgumentException("duplicate order " + order(field) + ": " + type.getName());
+            }
+            mFields[i] = FieldCodec.of(lookup, field);
+        }
+    }
+
+    private static int order(Field field) {
+        return field.getAnnotation(ItemField.class).value();
+    }
+
+    /**
+     *
+     * @return 変換する対象のクラス
+     * @since 1.6.0
+     */
+    public Class<T> type() {
+        return mType;
+    }
+
+    /**
+     *
+     * @return 一つのインスタンスが占める送信データの項目数
+     * @since 1.6.0
+     */
+    public int itemCount() {
+        return mFields.length;
+    }
+
+    /**
+     * 注釈したフィールドの値を、順番に送信データに追加します。
+     * 追加する前にすべてのフィールドの値を確かめるため、例外を投げた場合はdstに何も追加されません。
+     * 途中までのフィールドだけを追加した送信データが送信されることはありません。
+     * ただし、変換している間に他のスレッドがフィールドを変更した場合はこの限りではありません。
+     * @param obj
+     * @param dst
+     * @return dst
+     * @throws NullPointerException objがnullの場合、String及びbyte[]のフィールドの値がnullの場合
+     * @throws IllegalArgumentException String及びbyte[]のフィールドの値が空の場合
+     * @since 1.6.0
+     */
+    public SendData encode(T obj, SendData dst) {
+        Objects.requireNonNull(obj);
+        for (FieldCodec field : mFields) {
+            field.check(obj);
+        }
+        for (FieldCodec field : mFields) {
+            field.write(obj, dst);
+        }
+        return dst;
+    }
+
+    /**
+     * 受信データから順番に値を取り出し、新しいインスタンスのフィールドに設定します。
+     * @param src
+     * @return 作成したインスタンス
+     * @throws NoSuchElementException 受信データの項目が足りない場合
+     * @throws java.lang.invoke.WrongMethodTypeException 受信データの項目がフィールドの型に変換できない場合
+     * @since 1.6.0
+     */
+    public T decode(ReceiveData src) {
+        T obj = newInstance();
+        for (FieldCodec field : mFields) {
+            field.read(src, obj);
+        }
+        return obj;
+    }
+
+    private T newInstance() {
+        try {
+            return mType.cast((Object) mConstructor.invokeExact());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("could not create instance: " + mType.getName(), e);
+        }
+    }
+
+    /**
+     * 一つのフィールドを変換するクラスです。
+     * フィールドの型ごとにサブクラスを用意し、プリミティブ型をボクシングせずにinvokeExactで読み書きします。
+     */
+    private static abstract class FieldCodec {
+        final String mName;
+        final MethodHandle mGetter;  // (Object) -> フィールドの型
+        final MethodHandle mSetter;  // (Object, フィールドの型) -> void
+
+        FieldCodec(String name, MethodHandle getter, MethodHandle setter) {
+            mName = name;
+            mGetter = getter;
+            mSetter = setter;
+        }
+
+        static FieldCodec of(MethodHandles.Lookup lookup, Field field) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)) {
+                throw new IllegalArgumentException("ItemField must not be static or final: " + field);
+            }
+            Class<?> type = field.getType();
+            String name = field.getDeclaringClass().getName() + "." + field.getName();
+            MethodHandle getter;
+            MethodHandle setter;
+            try {
+                field.setAccessible(true);
+                getter = lookup.unreflectGetter(field)
+                        .asType(MethodType.methodType(type, Object.class));
+                setter = lookup.unreflectSetter(field)
+                        .asType(MethodType.methodType(void.class, Object.class, type));
+            } catch (IllegalAccessException | SecurityException e) {
+                throw new IllegalArgumentException("field is not accessible: " + field, e);
+            }
+
+            if (type == int.class) {
+                return new IntCodec(name, getter, setter);
+            }
+            if (type == long.class) {
+                return new LongCodec(name, getter, setter);
+            }
+            if (type == double.class) {
+                return new DoubleCodec(name, getter, setter);
+            }
+            if (type == float.class) {
+                return new FloatCodec(name, getter, setter);
+            }
+            if (type == boolean.class) {
+                return new BooleanCodec(name, getter, setter);
+            }
+            if (type == String.class) {
+                return new StringCodec(name, getter, setter);
+            }
+            if (type == byte[].class) {
+                return new BytesCodec(name, getter, setter);
+            }
+            throw new IllegalArgumentException("unsupported field type: " + field);
+        }
+
+        final void check(Object obj) {
+            try {
+                doCheck(obj);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("could not get " + mName, e);
+            }
+        }
+
+        final void write(Object obj, SendData dst) {
+            try {
+                doWrite(obj, dst);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("could not get " + mName, e);
+            }
+        }
+
+        final void read(ReceiveData src, Object obj) {
+            try {
+                doRead(src, obj);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("could not set " + mName, e);
+            }
+        }
+
+        /**
+         * 送信データに追加できない値であれば例外を投げます。
+         * プリミティブ型のフィールドは常に追加できるため、何もしません。
+         */
+        void doCheck(Object obj) throws Throwable {
+        }
+
+        abstract void doWrite(Object obj, SendData dst) throws Throwable;
+
+        abstract void doRead(ReceiveData src, Object obj) throws Throwable;
+    }
+
+    private static final class IntCodec extends FieldCodec {
+
+        IntCodec(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, getter, setter);
+        }
+
+        @Override
+        void doWrite(Object obj, SendData dst) throws Throwable {
+            dst.put((int) mGetter.invokeExact(obj));
+        }
+
+        @Override
+        void doRead(ReceiveData src, Object obj) throws Throwable {
+            mSetter.invokeExact(obj, src.getInt());
+        }
+    }
+
+    private static final class LongCodec extends FieldCodec {
+
+        LongCodec(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, getter, setter);
+        }
+
+        @Override
+        void doWrite(Object obj, SendData dst) throws Throwable {
+            dst.put((long) mGetter.invokeExact(obj));
+        }
+
+        @Override
+        void doRead(ReceiveData src, Object obj) throws Throwable {
+            mSetter.invokeExact(obj, src.getLong());
+        }
+    }
+
+    private static final class DoubleCodec extends FieldCodec {
+
+        DoubleCodec(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, getter, setter);
+        }
+
+        @Override
+        void doWrite(Object obj, SendData dst) throws Throwable {
+            dst.put((double) mGetter.invokeExact(obj));
+        }
+
+        @Override
+        void doRead(ReceiveData src, Object obj) throws Throwable {
+            mSetter.invokeExact(obj, src.getDouble());
+        }
+    }
+
+    private static final class FloatCodec extends FieldCodec {
+
+        FloatCodec(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, getter, setter);
+        }
+
+        @Override
+        void doWrite(Object obj, SendData dst) throws Throwable {
+            dst.put((float) mGetter.invokeExact(obj));
+        }
+
+        @Override
+        void doRead(ReceiveData src, Object obj) throws Throwable {
+            mSetter.invokeExact(obj, src.getFloat());
+        }
+    }
+
+    private static final class BooleanCodec extends FieldCodec {
+
+        BooleanCodec(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, getter, setter);
+        }
+
+        @Override
+        void doWrite(Object obj, SendData dst) throws Throwable {
+            dst.put((boolean) mGetter.invokeExact(obj));
+        }
+
+        @Override
+        void doRead(ReceiveData src, Object obj) throws Throwable {
+            mSetter.invokeExact(obj, src.getBoolean());
+        }
+    }
+
+    private static final class StringCodec extends FieldCodec {
+
+        StringCodec(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, getter, setter);
+        }
+
+        @Override
+        void doCheck(Object obj) throws Throwable {
+            String value = (String) mGetter.invokeExact(obj);
+            if (Objects.requireNonNull(value, mName).isEmpty()) {
+                throw new IllegalArgumentException("empty value: " + mName);
+            }
+        }
+
+        @Override
+        void doWrite(Object obj, SendData dst) throws Throwable {
+            String value = (String) mGetter.invokeExact(obj);
+            dst.put(Objects.requireNonNull(value, mName));
+        }
+
+        @Override
+        void doRead(ReceiveData src, Object obj) throws Throwable {
+            String value = src.getString();
+            if (value == null) {
+                throw new NoSuchElementException("no data for " + mName);
+            }
+            mSetter.invokeExact(obj, value);
+        }
+    }
+
+    private static final class BytesCodec extends FieldCodec {
+
+        BytesCodec(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, getter, setter);
+        }
+
+        @Override
+        void doCheck(Object obj) throws Throwable {
+            byte[] value = (byte[]) mGetter.invokeExact(obj);
+            if (Objects.requireNonNull(value, mName).length == 0) {
+                throw new IllegalArgumentException("empty value: " + mName);
+            }
+        }
+
+        @Override
+        void doWrite(Object obj, SendData dst) throws Throwable {
+            byte[] value = (byte[]) mGetter.invokeExact(obj);
+            dst.put(Objects.requireNonNull(value, mName));
+        }
+
+        @Override
+        void doRead(ReceiveData src, Object obj) throws Throwable {
+            ByteBuffer buf = src.get();
+            if (buf == null) {
+                throw new NoSuchElementException("no data for " + mName);
+            }
+            byte[] value = new byte[buf.remaining()];
+            buf.get(value);
+            src.release(buf);
+            mSetter.invokeExact(obj, value);
+        }
+    }
+}
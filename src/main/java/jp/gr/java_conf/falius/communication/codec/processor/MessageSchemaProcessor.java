@@ -0,0 +1,364 @@
+package jp.gr.java_conf.falius.communication.codec.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import jp.gr.java_conf.falius.communication.codec.ItemField;
+import jp.gr.java_conf.falius.communication.codec.MessageSchema;
+
+/**
+ * <p>
+ * {@link MessageSchema}で注釈したインターフェースから、メッセージのクラスを生成するアノテーションプロセッサです。
+ *
+ * <p>
+ * 生成されるクラスはインターフェースを実装した不変クラスで、次のメンバーを持ちます。
+ * <ul>
+ * <li>ITEM_COUNT: 一つのメッセージが占める送信データの項目数
+ * <li>FIXED_DATA_SIZE: 固定長の項目のバイト数の合計
+ * <li>IS_FIXED_SIZE: すべての項目が固定長であればtrue
+ * <li>HEADER_SIZE: このメッセージだけを送信する場合の、通常の形式のヘッダーのバイト数。
+ *     各サイズを可変長整数で表す形式やサイズを８バイトで表す形式のヘッダーには当てはまりません
+ * <li>すべての項目を順番に受け取るコンストラクタ
+ * <li>encode(インターフェース): ITEM_COUNTとFIXED_DATA_SIZEから大きさを求めて確保したPackedSendDataに、
+ *     各項目を格納する静的メソッド。バッファを確保し直すことなく、ヘッダーとデータを一度に送信できます
+ * <li>encode(インターフェース, SendData): 各項目を順番に送信データに追加する静的メソッド
+ * <li>decode(ReceiveData): 受信データから各項目を順番に読み取る静的メソッド
+ * </ul>
+ * 書き込みと読み取りは項目ごとにSendData及びReceiveDataのメソッドを直接呼び出すコードとして生成されるため、
+ *     実行時にリフレクションを行うことはありません。
+ *
+ * <p>
+ * このライブラリをコンパイル時のクラスパスに含めると、自動的に実行されます。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+@SupportedAnnotationTypes("jp.gr.java_conf.falius.communication.codec.MessageSchema")
+public class MessageSchemaProcessor extends AbstractProcessor {
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(MessageSchema.class)) {
+            if (element.getKind() != ElementKind.INTERFACE) {
+                error(element, "@MessageSchema must be placed on an interface");
+                continue;
+            }
+            TypeElement schema = (TypeElement) element;
+            List<Item> items = collectItems(schema);
+            if (items == null) {
+                continue;
+            }
+            try {
+                generate(schema, items);
+            } catch (IOException e) {
+                error(schema, "could not generate message class: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @param schema
+     * @return 順番に並べた項目。定義に誤りがあればnull
+     */
+    private List<Item> collectItems(TypeElement schema) {
+        List<Item> items = new ArrayList<>();
+        boolean hasError = false;
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(schema))) {
+            if (!method.getModifiers().contains(Modifier.ABSTRACT)
+                    || method.getEnclosingElement().getKind() != ElementKind.INTERFACE) {
+                continue;
+            }
+            ItemField field = method.getAnnotation(ItemField.class);
+            if (field == null) {
+                error(method, "abstract method of @MessageSchema must be annotated with @ItemField");
+                hasError = true;
+                continue;
+            }
+            if (!method.getParameters().isEmpty()) {
+                error(method, "@ItemField method must not have parameters");
+                hasError = true;
+                continue;
+            }
+            ItemType type = ItemType.of(method.getReturnType());
+            if (type == null) {
+                error(method, "unsupported item type: " + method.getReturnType());
+                hasError = true;
+                continue;
+            }
+            items.add(new Item(field.value(), method.getSimpleName().toString(), type));
+        }
+        if (items.isEmpty() && !hasError) {
+            error(schema, "@MessageSchema has no @ItemField method");
+            return null;
+        }
+        Collections.sort(items, Comparator.comparingInt((Item item) -> item.mOrder));
+        for (int i = 1; i < items.size(); i++) {
+            if (items.get(i).mOrder == items.get(i - 1).mOrder) {
+                error(schema, "duplicate order " + items.get(i).mOrder);
+                hasError = true;
+            }
+        }
+        return hasError ? null : items;
+    }
+
+    private void generate(TypeElement schema, List<Item> items) throws IOException {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(schema);
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String schemaName = schema.getQualifiedName().toString();
+        String className = schema.getSimpleName() + schema.getAnnotation(MessageSchema.class).suffix();
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+
+        int fixedSize = 0;
+        boolean isFixedSize = true;
+        for (Item item : items) {
+            if (item.mType.mSize < 0) {
+                isFixedSize = false;
+            } else {
+                fixedSize += item.mType.mSize;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            sb.append("package ").append(packageName).append(";\n\n");
+        }
+        sb.append("/**\n");
+        sb.append(" * {@link ").append(schemaName).append("}の構成で送受信するメッセージです。\n");
+        sb.append(" * ").append(MessageSchemaProcessor.class.getName()).append("によって生成されました。\n");
+        sb.append(" */\n");
+        sb.append("public final class ").append(className).append(" implements ").append(schemaName).append(" {\n");
+        sb.append("    /** 一つのメッセージが占める送信データの項目数 */\n");
+        sb.append("    public static final int ITEM_COUNT = ").append(items.size()).append(";\n");
+        sb.append("    /** 固定長の項目のバイト数の合計 */\n");
+        sb.append("    public static final int FIXED_DATA_SIZE = ").append(fixedSize).append(";\n");
+        sb.append("    /** すべての項目が固定長であればtrue */\n");
+        sb.append("    public static final boolean IS_FIXED_SIZE = ").append(isFixedSize).append(";\n");
+        sb.append("    /**\n");
+        sb.append("     * このメッセージだけを送信する場合の、通常の形式のヘッダーのバイト数です。\n");
+        sb.append("     * 各サイズを可変長整数で表す形式やサイズを８バイトで表す形式のヘッダーには当てはまりません。\n");
+        sb.append("     */\n");
+        sb.append("    public static final int HEADER_SIZE = Integer.BYTES * (2 + ITEM_COUNT);\n\n");
+
+        for (Item item : items) {
+            sb.append("    private final ").append(item.mType.mJavaType).append(' ').append(item.fieldName()).append(";\n");
+        }
+        sb.append('\n');
+
+        sb.append("    public ").append(className).append('(');
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            sb.append(i == 0 ? "" : ", ").append(item.mType.mJavaType).append(' ').append(item.mName);
+        }
+        sb.append(") {\n");
+        for (Item item : items) {
+            if (item.mType.mSize < 0) {
+                sb.append("        java.util.Objects.requireNonNull(").append(item.mName).append(", \"")
+                        .append(item.mName).append("\");\n");
+            }
+            sb.append("        ").append(item.fieldName()).append(" = ").append(item.mName).append(";\n");
+        }
+        sb.append("    }\n\n");
+
+        for (Item item : items) {
+            sb.append("    @Override\n");
+            sb.append("    public ").append(item.mType.mJavaType).append(' ').append(item.mName).append("() {\n");
+            sb.append("        return ").append(item.fieldName()).append(";\n");
+            sb.append("    }\n\n");
+        }
+
+        sb.append("    /**\n");
+        sb.append("     * 各項目を、ちょうど収まる大きさで確保したPackedSendDataに格納します。\n");
+        sb.append("     * 固定長の項目の大きさは生成時に求めたFIXED_DATA_SIZEを使い、ヘッダーのための領域はITEM_COUNTから求めるため、\n");
+        sb.append("     *     格納する途中でバッファを確保し直すことはなく、どの形式のヘッダーもデータの直前に書き込んで送信できます。\n");
+        sb.append("     * @throws NullPointerException 可変長の項目がnullの場合\n");
+        sb.append("     * @throws IllegalArgumentException 可変長の項目が空の場合\n");
+        sb.append("     */\n");
+        sb.append("    public static jp.gr.java_conf.falius.communication.senddata.PackedSendData encode(")
+                .append(schemaName).append(" message) {\n");
+        StringBuilder size = new StringBuilder("FIXED_DATA_SIZE");
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            if (item.mType == ItemType.STRING) {
+                sb.append("        byte[] v").append(i).append(" = java.util.Objects.requireNonNull(message.")
+                        .append(item.mName).append("(), \"").append(item.mName)
+                        .append("\").getBytes(java.nio.charset.StandardCharsets.UTF_8);\n");
+                size.append(" + v").append(i).append(".length");
+            } else if (item.mType == ItemType.BYTES) {
+                sb.append("        byte[] v").append(i).append(" = java.util.Objects.requireNonNull(message.")
+                        .append(item.mName).append("(), \"").append(item.mName).append("\");\n");
+                size.append(" + v").append(i).append(".length");
+            }
+        }
+        sb.append("        jp.gr.java_conf.falius.communication.senddata.PackedSendData dst")
+                .append(" = new jp.gr.java_conf.falius.communication.senddata.PackedSendData(\n");
+        sb.append("                Math.max(").append(size).append(", 1),\n");
+        sb.append("                jp.gr.java_conf.falius.communication.senddata.PackedSendData.headerRoomFor(ITEM_COUNT),")
+                .append(" false);\n");
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            if (item.mType.mSize < 0) {
+                sb.append("        dst.put(v").append(i).append(");\n");
+            } else {
+                sb.append("        dst.put(message.").append(item.mName).append("());\n");
+            }
+        }
+        sb.append("        return dst;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    /**\n");
+        sb.append("     * 各項目を順番に送信データに追加します。\n");
+        sb.append("     * @throws NullPointerException 可変長の項目がnullの場合\n");
+        sb.append("     */\n");
+        sb.append("    public static jp.gr.java_conf.falius.communication.senddata.SendData encode(")
+                .append(schemaName).append(" message, jp.gr.java_conf.falius.communication.senddata.SendData dst) {\n");
+        for (Item item : items) {
+            if (item.mType.mSize < 0) {
+                sb.append("        dst.put(java.util.Objects.requireNonNull(message.").append(item.mName)
+                        .append("(), \"").append(item.mName).append("\"));\n");
+            } else {
+                sb.append("        dst.put(message.").append(item.mName).append("());\n");
+            }
+        }
+        sb.append("        return dst;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    /**\n");
+        sb.append("     * 受信データから各項目を順番に読み取ります。\n");
+        sb.append("     * @throws java.util.NoSuchElementException 受信データの項目が足りない場合\n");
+        sb.append("     */\n");
+        sb.append("    public static ").append(className)
+                .append(" decode(jp.gr.java_conf.falius.communication.rcvdata.ReceiveData src) {\n");
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            sb.append("        ").append(item.mType.mJavaType).append(" v").append(i).append(" = ")
+                    .append(item.mType.mReadExpression).append(";\n");
+        }
+        sb.append("        return new ").append(className).append('(');
+        for (int i = 0; i < items.size(); i++) {
+            sb.append(i == 0 ? "" : ", ").append('v').append(i);
+        }
+        sb.append(");\n");
+        sb.append("    }\n\n");
+
+        sb.append("    private static <T> T required(T value) {\n");
+        sb.append("        if (value == null) {\n");
+        sb.append("            throw new java.util.NoSuchElementException(\"no data\");\n");
+        sb.append("        }\n");
+        sb.append("        return value;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    private static byte[] bytes(jp.gr.java_conf.falius.communication.rcvdata.ReceiveData src) {\n");
+        sb.append("        java.nio.ByteBuffer buf = required(src.get());\n");
+        sb.append("        byte[] ret = new byte[buf.remaining()];\n");
+        sb.append("        buf.get(ret);\n");
+        sb.append("        src.release(buf);\n");
+        sb.append("        return ret;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, schema).openWriter()) {
+            writer.write(sb.toString());
+        }
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * メッセージの一項目です。
+     */
+    private static class Item {
+        private final int mOrder;
+        private final String mName;
+        private final ItemType mType;
+
+        private Item(int order, String name, ItemType type) {
+            mOrder = order;
+            mName = name;
+            mType = type;
+        }
+
+        private String fieldName() {
+            return "m" + Character.toUpperCase(mName.charAt(0)) + mName.substring(1);
+        }
+    }
+
+    /**
+     * 項目の型と、その型の値を受信データから読み取る式です。
+     */
+    private enum ItemType {
+        INT("int", Integer.BYTES, "src.getInt()"),
+        LONG("long", Long.BYTES, "src.getLong()"),
+        DOUBLE("double", Double.BYTES, "src.getDouble()"),
+        FLOAT("float", Float.BYTES, "src.getFloat()"),
+        BOOLEAN("boolean", Integer.BYTES, "src.getBoolean()"),
+        STRING("java.lang.String", -1, "required(src.getString())"),
+        BYTES("byte[]", -1, "bytes(src)");
+
+        private final String mJavaType;
+        private final int mSize;  // 可変長であれば-1
+        private final String mReadExpression;
+
+        ItemType(String javaType, int size, String readExpression) {
+            mJavaType = javaType;
+            mSize = size;
+            mReadExpression = readExpression;
+        }
+
+        private static ItemType of(TypeMirror type) {
+            switch (type.getKind()) {
+            case INT:
+                return INT;
+            case LONG:
+                return LONG;
+            case DOUBLE:
+                return DOUBLE;
+            case FLOAT:
+                return FLOAT;
+            case BOOLEAN:
+                return BOOLEAN;
+            case ARRAY:
+                return ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE ? BYTES : null;
+            case DECLARED:
+                return type.toString().equals("java.lang.String") ? STRING : null;
+            default:
+                return null;
+            }
+        }
+    }
+}
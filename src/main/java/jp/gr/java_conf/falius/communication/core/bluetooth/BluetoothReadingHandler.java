@@ -1,9 +1,12 @@
 package jp.gr.java_conf.falius.communication.core.bluetooth;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.ArrayDeque;
 import java.util.Queue;
 
@@ -75,24 +78,34 @@ class BluetoothReadingHandler implements BluetoothHandler {
      */
     private static class Entry {
         private Header mHeader;
-        private int mRemain;
+        private long mRemain;
         private Queue<ByteBuffer> mItemData = null;
+        private boolean[] mIsChunked = null;
 
-        private Entry(Header header) {
+        private Entry(Header header) throws IOException {
             mHeader = header;
-            mRemain = mHeader.allDataSize() - mHeader.size();
-            log.debug("all data size: {}", mHeader.allDataSize());
+            mRemain = mHeader.allDataSizeAsLong() - mHeader.size();
+            log.debug("all data size: {}", mHeader.allDataSizeAsLong());
             initItemData();
         }
 
-        private void initItemData() {
+        private void initItemData() throws IOException {
             mItemData = new ArrayDeque<>();
-            IntBuffer sizeBuf = mHeader.dataSizeBuffer();
+            LongBuffer sizeBuf = mHeader.dataSizeBufferAsLong();
             log.debug("data size buffer : {}", sizeBuf);
-            while (sizeBuf.hasRemaining()) {
-                int size = sizeBuf.get();
+            mIsChunked = new boolean[sizeBuf.remaining()];
+            for (int i = 0; sizeBuf.hasRemaining(); i++) {
+                long size = sizeBuf.get();
                 log.debug("item buf size", size);
-                ByteBuffer buf = ByteBuffer.allocate(size);
+                if (size == Header.CHUNKED) {
+                    // サイズの分からないデータは、読み取り時にバッファを作成する
+                    mIsChunked[i] = true;
+                    size = 0;
+                }
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("item is too large to hold in memory: " + size);
+                }
+                ByteBuffer buf = ByteBuffer.allocate((int) size);
                 mItemData.add(buf);
             }
         }
@@ -100,7 +113,19 @@ class BluetoothReadingHandler implements BluetoothHandler {
         private int read(InputStream is) throws IOException {
             log.debug("entry read");
             int readed = 0;
+            Queue<ByteBuffer> items = new ArrayDeque<>();
+            int index = 0;
             for (ByteBuffer itemBuf : mItemData) {
+                if (mIsChunked[index++]) {
+                    ByteBuffer chunkedBuf = readChunks(is);
+                    if (chunkedBuf == null) {
+                        log.debug("read error -1 return");
+                        return -1;
+                    }
+                    items.add(chunkedBuf);
+                    continue;
+                }
+                items.add(itemBuf);
                 byte[] bytes = new byte[itemBuf.limit()];
                 int tmp = is.read(bytes);
                 if (tmp < 0) {
@@ -111,11 +136,38 @@ class BluetoothReadingHandler implements BluetoothHandler {
                 itemBuf.put(bytes);
                 readed += tmp;
             }
+            mItemData = items;
             mRemain -= readed;
             log.debug("entry readed : mRemain is {}", mRemain);
             return readed;
         }
 
+        /**
+         * サイズ0のチャンクを読み取るまで、チャンクに分けて送られてくるデータを読み取ります。
+         * @return 読み取ったデータを格納したバッファ。終端に達した場合はnull
+         * @since 1.6.0
+         */
+        private ByteBuffer readChunks(InputStream is) throws IOException {
+            DataInputStream dis = new DataInputStream(is);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                int size;
+                while ((size = dis.readInt()) != 0) {
+                    if (size < 0) {
+                        throw new IOException("illegal chunk size: " + size);
+                    }
+                    byte[] bytes = new byte[size];
+                    dis.readFully(bytes);
+                    out.write(bytes);
+                }
+            } catch (EOFException e) {
+                return null;
+            }
+            ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+            buf.position(buf.limit());
+            return buf;
+        }
+
         private ReceiveData getData() {
             if (!isFinished()) {
                 return null;
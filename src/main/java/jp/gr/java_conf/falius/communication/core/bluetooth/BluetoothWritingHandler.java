@@ -1,24 +1,31 @@
 package jp.gr.java_conf.falius.communication.core.bluetooth;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import jp.gr.java_conf.falius.communication.header.Header;
 import jp.gr.java_conf.falius.communication.header.HeaderFactory;
+import jp.gr.java_conf.falius.communication.senddata.FileRegion;
 import jp.gr.java_conf.falius.communication.senddata.SendData;
 
 /**
  *
  * @author "ymiyauchi"
  * @since 1.4.2
+ * @version 1.6.0
  *
  */
 class BluetoothWritingHandler implements BluetoothHandler {
     private static final Logger log = LoggerFactory.getLogger(BluetoothWritingHandler.class);
+    private static final int CHUNK_SIZE = 8192;
     private final Session mSession;
     private final SendData mSendData;
 
@@ -35,6 +42,7 @@ class BluetoothWritingHandler implements BluetoothHandler {
 
     /**
      * @since 1.4.2
+     * @version 1.6.0
      */
     public void handle() throws IOException {
         log.debug("writing handle");
@@ -46,13 +54,28 @@ class BluetoothWritingHandler implements BluetoothHandler {
         OutputStream os = mSession.getOutputStream();
         Header header = HeaderFactory.from(mSendData);
         ByteBuffer headerBuf = header.toByteBuffer();
-        byte[] headerBytes = headerBuf.array();
-        os.write(headerBytes);
+        write(os, headerBuf);
 
         header.size();
+        int index = 0;
         for (ByteBuffer buf : mSendData) {
-            byte[] b = buf.array();
-            os.write(b);
+            InputStream in = mSendData.chunkedStream(index);
+            if (in != null) {
+                index++;
+                writeChunks(os, in);
+                continue;
+            }
+            FileRegion region = mSendData.fileRegion(index++);
+            if (region != null) {
+                WritableByteChannel channel = Channels.newChannel(os);
+                try (FileRegion.Transfer transfer = region.newTransfer()) {
+                    while (transfer.hasRemaining()) {
+                        transfer.transferTo(channel);
+                    }
+                }
+                continue;
+            }
+            write(os, buf);
         }
         os.flush();
 
@@ -65,4 +88,46 @@ class BluetoothWritingHandler implements BluetoothHandler {
             mSession.disconnect(null);
         }
     }
+
+    /**
+     * バッファのpositionからlimitまでを書き込みます。bufのpositionは変更しません。
+     * ダイレクトバッファや読み取り専用のバッファのように配列にアクセスできない場合は、
+     *     一時的な配列にコピーしながら書き込みます。
+     * @since 1.6.0
+     */
+    private void write(OutputStream os, ByteBuffer buf) throws IOException {
+        if (buf.hasArray()) {
+            // スライスされたバッファは配列の途中から始まるため、配列全体ではなく残りの部分だけを書き込む
+            os.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            return;
+        }
+        ByteBuffer src = buf.duplicate();
+        byte[] bytes = new byte[Math.min(src.remaining(), CHUNK_SIZE)];
+        while (src.hasRemaining()) {
+            int len = Math.min(src.remaining(), bytes.length);
+            src.get(bytes, 0, len);
+            os.write(bytes, 0, len);
+        }
+    }
+
+    /**
+     * ストリームの終端まで、サイズを先頭に付けたチャンクに分けて書き込みます。
+     * 最後にサイズ0のチャンクを書き込み、ストリームを閉じます。
+     * @since 1.6.0
+     */
+    private void writeChunks(OutputStream os, InputStream in) throws IOException {
+        try (InputStream is = in) {
+            DataOutputStream dos = new DataOutputStream(os);
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int len;
+            while ((len = is.read(chunk)) >= 0) {
+                if (len == 0) {
+                    continue;
+                }
+                dos.writeInt(len);
+                dos.write(chunk, 0, len);
+            }
+            dos.writeInt(0);
+        }
+    }
 }
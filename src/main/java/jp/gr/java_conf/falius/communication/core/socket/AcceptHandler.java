@@ -4,13 +4,21 @@ import java.io.IOException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jp.gr.java_conf.falius.communication.buffer.BufferAllocator;
+import jp.gr.java_conf.falius.communication.buffer.HeapBufferAllocator;
 import jp.gr.java_conf.falius.communication.core.Server;
 import jp.gr.java_conf.falius.communication.listener.OnReceiveListener;
 import jp.gr.java_conf.falius.communication.listener.OnSendListener;
+import jp.gr.java_conf.falius.communication.listener.StreamingReceiveListener;
+import jp.gr.java_conf.falius.communication.rcvdata.FileSink;
+import jp.gr.java_conf.falius.communication.swapper.AsyncSwapperFactory;
 import jp.gr.java_conf.falius.communication.swapper.SwapperFactory;
 
 /**
@@ -25,11 +33,24 @@ import jp.gr.java_conf.falius.communication.swapper.SwapperFactory;
 class AcceptHandler implements SocketHandler {
     private static final Logger log = LoggerFactory.getLogger(AcceptHandler.class);
     private final SwapperFactory mSwapperFactory;
+    private final AsyncSwapperFactory mAsyncSwapperFactory;
     private final Disconnectable mDisconnectable;
 
+    private List<WorkerLoop> mWorkers = null;
+    private int mNextWorker = 0;
+    private Executor mLoop = null;
+
     private Server.OnAcceptListener mOnAcceptListener = null;
     private OnSendListener mOnSendListener = null;
     private OnReceiveListener mOnReceiveListener = null;
+    private Executor mSwapExecutor = null;
+    private boolean mIsFullDuplex = false;
+    private boolean mIsMultiplexed = false;
+    private BufferAllocator mAllocator = HeapBufferAllocator.INSTANCE;
+    private FileSink mFileSink = null;
+    private StreamingReceiveListener mStreamingReceiveListener = null;
+    private ReceiveLimits mReceiveLimits = ReceiveLimits.DEFAULT;
+    private boolean mIsRecycleReceiveData = false;
 
     /**
      *
@@ -40,6 +61,19 @@ class AcceptHandler implements SocketHandler {
     AcceptHandler(Disconnectable disconnectable, SwapperFactory swapperFactory) {
         mDisconnectable = disconnectable;
         mSwapperFactory = swapperFactory;
+        mAsyncSwapperFactory = null;
+    }
+
+    /**
+     *
+     * @param disconnectable
+     * @param swapperFactory
+     * @since 1.6.0
+     */
+    AcceptHandler(Disconnectable disconnectable, AsyncSwapperFactory swapperFactory) {
+        mDisconnectable = disconnectable;
+        mSwapperFactory = null;
+        mAsyncSwapperFactory = swapperFactory;
     }
 
     /**
@@ -62,15 +96,38 @@ class AcceptHandler implements SocketHandler {
             remoteAddress = clientChannel.socket().getRemoteSocketAddress().toString();
             log.debug("success accept: {}", remoteAddress);
 
-            Remote remote = new Remote(remoteAddress, mSwapperFactory);
-            remote.addOnAcceptListener(mOnAcceptListener);
-            remote.addOnSendListener(mOnSendListener);
-            remote.addOnReceiveListener(mOnReceiveListener);
-            remote.onAccept();
+            // 受け入れた接続の選択キーは、登録先のSelectorのイベントループのスレッドで操作する
+            WorkerLoop worker = mWorkers == null ? null : nextWorker();
+            Executor loop = worker == null ? mLoop : worker;
+
+            SocketHandler handler;
+            if (mIsMultiplexed) {
+                if (mOnAcceptListener != null) {
+                    mOnAcceptListener.onAccept(remoteAddress);
+                }
+                String address = remoteAddress;
+                MultiplexHandler multiplexHandler = new MultiplexHandler(mDisconnectable, streamId -> {
+                    Remote remote = newRemote(address);
+                    remote.setStreamId(streamId);
+                    return remote;
+                }, mOnReceiveListener, mAllocator, loop);
+                multiplexHandler.setFileSink(mFileSink);
+                multiplexHandler.addStreamingReceiveListener(mStreamingReceiveListener);
+                multiplexHandler.setReceiveLimits(mReceiveLimits);
+                handler = multiplexHandler;
+            } else {
+                Remote remote = newRemote(remoteAddress);
+                remote.onAccept();
+                handler = mIsFullDuplex ? new DuplexHandler(mDisconnectable, remote, false, loop)
+                        : new ReadingHandler(mDisconnectable, remote, false, loop);
+            }
 
             clientChannel.configureBlocking(false);
-            clientChannel.register(key.selector(), SelectionKey.OP_READ,
-                    new ReadingHandler(mDisconnectable, remote, false)); // 新しいチャンネルなのでregister
+            if (worker == null) {
+                clientChannel.register(key.selector(), SelectionKey.OP_READ, handler); // 新しいチャンネルなのでregister
+            } else {
+                worker.register(clientChannel, SelectionKey.OP_READ, handler);
+            }
         } catch (Exception e) {
             if (clientChannel != null) {
                 mDisconnectable.disconnect(clientChannel, key,
@@ -80,6 +137,130 @@ class AcceptHandler implements SocketHandler {
         }
     }
 
+    private Remote newRemote(String remoteAddress) {
+        Remote remote = mSwapperFactory != null ? new Remote(remoteAddress, mSwapperFactory)
+                : new Remote(remoteAddress, mAsyncSwapperFactory);
+        remote.addOnAcceptListener(mOnAcceptListener);
+        remote.addOnSendListener(mOnSendListener);
+        remote.addOnReceiveListener(mOnReceiveListener);
+        remote.setSwapExecutor(mSwapExecutor);
+        remote.setBufferAllocator(mAllocator);
+        remote.setFileSink(mFileSink);
+        remote.addStreamingReceiveListener(mStreamingReceiveListener);
+        remote.setReceiveLimits(mReceiveLimits);
+        remote.setRecycleReceiveData(mIsRecycleReceiveData);
+        return remote;
+    }
+
+    /**
+     * 接続を受け入れるSelectorのイベントループのスレッドで処理を実行するExecutorを設定します。
+     * イベントループが設定されていない場合に、受け入れた接続の選択キーを別スレッドから操作するために利用します。
+     * @param loop
+     * @since 1.6.0
+     */
+    void setLoop(Executor loop) {
+        mLoop = loop;
+    }
+
+    /**
+     * 受け入れた接続の読み書きを行うイベントループを設定します。
+     * 設定されていなければ、接続を受け入れたSelectorでそのまま読み書きを行います。
+     * @param workers
+     * @since 1.6.0
+     */
+    void setWorkers(List<WorkerLoop> workers) {
+        mWorkers = workers;
+    }
+
+    /**
+     * 設定されたイベントループをすべて停止します。
+     * @since 1.6.0
+     */
+    void shutdownWorkers() {
+        if (mWorkers == null) {
+            return;
+        }
+        for (WorkerLoop worker : mWorkers) {
+            worker.shutdown();
+        }
+    }
+
+    private WorkerLoop nextWorker() {
+        WorkerLoop worker = mWorkers.get(mNextWorker);
+        mNextWorker = (mNextWorker + 1) % mWorkers.size();
+        return worker;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    public void setSwapExecutor(Executor executor) {
+        mSwapExecutor = executor;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    public void setFullDuplex(boolean isFullDuplex) {
+        mIsFullDuplex = isFullDuplex;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    public void setMultiplexed(boolean isMultiplexed) {
+        mIsMultiplexed = isMultiplexed;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    public void setBufferAllocator(BufferAllocator allocator) {
+        mAllocator = allocator;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    public void setFileSink(FileSink sink) {
+        mFileSink = sink;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    public void addStreamingReceiveListener(StreamingReceiveListener listener) {
+        mStreamingReceiveListener = listener;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    void setMaxFrameSize(long size) {
+        mReceiveLimits = mReceiveLimits.withMaxFrameSize(size);
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    void setMaxItemSize(long size) {
+        mReceiveLimits = mReceiveLimits.withMaxItemSize(size);
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    void setSpillThreshold(int threshold, Path directory) {
+        mReceiveLimits = mReceiveLimits.withSpillThreshold(threshold, directory);
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    void setRecycleReceiveData(boolean isRecyclable) {
+        mIsRecycleReceiveData = isRecyclable;
+    }
+
     /**
      * @since 1.4.3
      */
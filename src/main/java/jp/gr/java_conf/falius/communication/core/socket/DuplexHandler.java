@@ -0,0 +1,375 @@
+package jp.gr.java_conf.falius.communication.core.socket;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
+
+/**
+ * <p>
+ * 読み込みと書き込みを同時に扱うハンドラです。
+ * {@link ReadingHandler}と{@link WritingHandler}が読み込みと書き込みを交互に切り替えるのに対して、
+ * このハンドラは接続の間ずっと読み込みの通知を受け取り続け、送信データは接続ごとのキューに格納して
+ * 書き込み可能になった時点で送信します。
+ * ハンドラは接続ごとにひとつだけ作成され、切り替えられることはありません。
+ *
+ * <p>
+ * Swapperによる送受信の対応関係は変わりません。
+ * サーバーは受信データひとつごとにswapメソッドを実行して送信データをキューに追加し、
+ * クライアントは受信データひとつごとにswapメソッドを実行して次の送信データをキューに追加します。
+ * swapメソッドは一つの接続につき必ず受信した順番にひとつずつ実行され、送信も同じ順番で行われます。
+ *
+ * <p>
+ * クライアントは応答を待たずに複数の送信データを送ることもできます(パイプライン)。
+ * サーバーは届いた順番に処理して同じ順番で応答するため、クライアントは送信した順番に応答を受け取ります。
+ *
+ * <p>
+ * 送信を終えていない送信データ(作成中のものを含む)が{@link #HIGH_WATER_MARK}に達すると、読み込みの通知を止めます。
+ * 応答を読み取らずに要求を送り続ける相手に対して、送信キューが際限なく大きくなることはありません。
+ * 送信が進んで{@link #LOW_WATER_MARK}まで減った時点で、読み込みを再開します。
+ *
+ * <p>
+ * 非同期に送信データを作成した場合も、選択キーの操作と切断はイベントループのスレッドで行います。
+ *
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+class DuplexHandler implements SocketHandler {
+    private static final Logger log = LoggerFactory.getLogger(DuplexHandler.class);
+
+    /**
+     * 送信を終えていない送信データがこの数に達すると、読み込みを止めます。
+     * @since 1.6.0
+     */
+    static final int HIGH_WATER_MARK = 64;
+
+    /**
+     * 読み込みを止めた後、送信を終えていない送信データがこの数まで減ると読み込みを再開します。
+     * @since 1.6.0
+     */
+    static final int LOW_WATER_MARK = 16;
+
+    private final Disconnectable mDisconnectable;
+    private final Remote mRemote;
+    private final boolean mIsClient;
+    private final Executor mLoop;
+    private final Queue<Sender> mOutbound = new ConcurrentLinkedQueue<>();
+
+    // 非同期にswapを行う場合に、受信した順番に一つずつ実行するためのFuture
+    private CompletableFuture<Void> mSwapChain = CompletableFuture.completedFuture(null);
+    // 送信データの作成を依頼してから、その応答を受信し終えるまでの数(クライアントのみ)
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    // 送信データの作成を依頼してから、その送信を終えるまでの数
+    private final AtomicInteger mPending = new AtomicInteger();
+    private boolean mIsReadPaused = false;
+    private volatile boolean mIsFinished = false;
+    private volatile boolean mIsDisconnected = false;
+
+    /**
+     *
+     * @param disconnectable
+     * @param remote
+     * @param isClient
+     * @param loop チャネルを登録したSelectorのイベントループのスレッドで処理を実行するExecutor
+     * @since 1.6.0
+     */
+    DuplexHandler(Disconnectable disconnectable, Remote remote, boolean isClient, Executor loop) {
+        mDisconnectable = disconnectable;
+        mRemote = remote;
+        mIsClient = isClient;
+        mLoop = loop;
+    }
+
+    /**
+     * クライアントが最初の送信データを作成します。
+     * チャネルをSelectorに登録した直後に呼び出してください。
+     * @param key
+     * @since 1.6.0
+     */
+    void start(SelectionKey key) {
+        start(key, 1);
+    }
+
+    /**
+     * <p>
+     * クライアントが、応答を待たずに送信できる数だけ最初の送信データを作成します。
+     * チャネルをSelectorに登録した直後に呼び出してください。
+     *
+     * <p>
+     * 最初のpipelineDepth回のswapメソッドには受信データとしてnullが渡されます。
+     * それ以降は応答をひとつ受信するごとにswapメソッドを実行して次の送信データを作成するため、
+     *     応答を待っている送信データの数は常にpipelineDepth以下に保たれます。
+     * @param key
+     * @param pipelineDepth 応答を待たずに送信できる送信データの数
+     * @since 1.6.0
+     */
+    void start(SelectionKey key, int pipelineDepth) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        try {
+            for (int i = 0; i < pipelineDepth && !mIsFinished && !mIsDisconnected; i++) {
+                request(key, null);
+            }
+        } catch (Throwable e) {
+            disconnect(channel, key, e);
+            log.warn("duplex start error", e);
+        }
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public void handle(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        try {
+            if (key.isReadable()) {
+                read(key, channel);
+            }
+            if (key.isValid() && key.isWritable()) {
+                write(key, channel);
+            }
+        } catch (Throwable e) {
+            disconnect(channel, key, e);
+            log.warn("duplex handle error", e);
+        }
+    }
+
+    private void read(SelectionKey key, SocketChannel channel) throws Exception {
+        log.debug("{} duplex reading", mIsClient ? "client" : "server");
+        Receiver receiver = mRemote.receiver();
+
+        // パイプライン化された送信では一度に複数の受信単位が届くため、読み取れるだけ読み取る
+        while (!mIsDisconnected) {
+            Receiver.Result result = receiver.receive(channel);
+
+            if (result == Receiver.Result.DISCONNECT) {
+                disconnect(channel, key, null);
+                return;
+            }
+
+            if (result == Receiver.Result.ERROR) {
+                log.warn("receive error");
+                disconnect(channel, key, new IOException("reading channel returns -1"));
+                return;
+            }
+
+            if (result == Receiver.Result.UNFINISHED) {
+                return;
+            }
+
+            onReceived(key, channel, receiver.getData());
+
+            if (mPending.get() >= HIGH_WATER_MARK) {
+                // 残りの受信データは読み込み用のバッファに残したまま、送信が進むのを待つ
+                log.debug("pause reading. pending: {}", mPending.get());
+                synchronized (this) {
+                    mIsReadPaused = true;
+                    updateInterestOps(key);
+                }
+                return;
+            }
+        }
+    }
+
+    private void onReceived(SelectionKey key, SocketChannel channel, ReceiveData data) throws Exception {
+        if (mIsClient) {
+            int inFlight = mInFlight.decrementAndGet();
+            if (mIsFinished) {
+                if (inFlight == 0) {
+                    disconnect(channel, key, null);
+                }
+                return;
+            }
+        } else if (mIsFinished) {
+            // 通信を終える送信データを作成したあとに受信したデータは処理しない
+            return;
+        }
+        request(key, data);
+    }
+
+    /**
+     * 受信データをもとに送信データを作成し、送信キューに追加します。
+     * @param key
+     * @param data
+     * @throws Exception
+     */
+    private void request(SelectionKey key, ReceiveData data) throws Exception {
+        if (mIsClient) {
+            mInFlight.incrementAndGet();
+        }
+        mPending.incrementAndGet();
+        if (!mRemote.isSwapAsync()) {
+            Sender sender = mRemote.sender(data);
+            if (sender == null) {
+                log.debug("disconnect by send data returned null");
+                disconnect((SocketChannel) key.channel(), key, null);
+            } else if (onSwapped(key, sender)) {
+                resumeWriting(key);
+            }
+            return;
+        }
+
+        mSwapChain = mSwapChain.thenCompose(v -> {
+            if (mIsFinished || mIsDisconnected) {
+                // 先に作成した送信データで通信を終えることになったため、この送信データは作成しない
+                mPending.decrementAndGet();
+                if (mIsClient && mInFlight.decrementAndGet() == 0) {
+                    disconnectOnLoop(key, null);
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+            return mRemote.senderAsync(data).thenAccept(sender -> {
+                if (sender == null) {
+                    log.debug("disconnect by send data returned null");
+                    disconnectOnLoop(key, null);
+                } else if (onSwapped(key, sender)) {
+                    mLoop.execute(() -> resumeWriting(key));
+                }
+            });
+        }).exceptionally(e -> {
+            log.warn("swap error", e);
+            disconnectOnLoop(key, e);
+            return null;
+        });
+    }
+
+    /**
+     * swapメソッドによって作成された送信データを送信キューに追加します。
+     * 非同期に送信データを作成した場合、このメソッドは読み書きを行うスレッドとは別のスレッドから呼ばれるため、
+     *     選択キーは操作しません。
+     * @param key
+     * @param sender
+     * @return 送信キューに追加した場合はtrue。すでに切断されていて送信を中止した場合はfalse
+     */
+    private boolean onSwapped(SelectionKey key, Sender sender) {
+        try {
+            boolean doContinue = mRemote.doContinue();
+            synchronized (this) {
+                if (mIsDisconnected) {
+                    sender.abort();
+                    return false;
+                }
+                // 送信キューが空になったときに切断するかどうかの判断と矛盾しないよう、同時に更新する
+                if (!doContinue) {
+                    mIsFinished = true;
+                }
+                mOutbound.add(sender);
+            }
+            return true;
+        } catch (RuntimeException e) {
+            sender.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * 送信キューに追加した送信データを書き込めるよう、通知を受け取る操作を設定し直します。
+     * イベントループのスレッドから呼び出してください。
+     * 設定できなかった場合は切断し、送信キューに残っている送信データの送信を中止します。
+     */
+    private void resumeWriting(SelectionKey key) {
+        try {
+            synchronized (this) {
+                if (mIsDisconnected || !key.isValid()) {
+                    return;
+                }
+                updateInterestOps(key);
+            }
+        } catch (Throwable e) {
+            log.warn("resuming writing error", e);
+            disconnect((SocketChannel) key.channel(), key, e);
+        }
+    }
+
+    private void write(SelectionKey key, SocketChannel channel) throws Exception {
+        log.debug("{} duplex writing", mIsClient ? "client" : "server");
+        Sender sender;
+        while ((sender = mOutbound.peek()) != null) {
+            if (sender.send(channel) == Sender.Result.UNFINISHED) {
+                break;
+            }
+            mOutbound.poll();
+            mPending.decrementAndGet();
+        }
+
+        boolean isFinished;
+        boolean doResume;
+        synchronized (this) {
+            doResume = mIsReadPaused && mPending.get() <= LOW_WATER_MARK;
+            if (doResume) {
+                mIsReadPaused = false;
+            }
+            updateInterestOps(key);
+            isFinished = mIsFinished && mOutbound.isEmpty();
+        }
+
+        if (doResume) {
+            // 読み込み用のバッファに残っている受信データは新たな読み込みの通知を待たずに処理する
+            log.debug("resume reading. pending: {}", mPending.get());
+            read(key, channel);
+        }
+        if (!mIsClient && isFinished && !mIsDisconnected) {
+            disconnect(channel, key, null);
+        }
+    }
+
+    /**
+     * 読み込みを止めているかどうかと送信キューの状態から、通知を受け取る操作を設定し直します。
+     * 呼び出し側でこのオブジェクトの同期をとってください。
+     */
+    private void updateInterestOps(SelectionKey key) {
+        int ops = mIsReadPaused ? 0 : SelectionKey.OP_READ;
+        if (!mOutbound.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * 送信データを作成したスレッドから、イベントループのスレッドで切断するよう依頼します。
+     * 切断されるまでの間に、新たな送信データは作成しません。
+     */
+    private void disconnectOnLoop(SelectionKey key, Throwable cause) {
+        mIsFinished = true;
+        mLoop.execute(() -> disconnect((SocketChannel) key.channel(), key, cause));
+    }
+
+    private void disconnect(SocketChannel channel, SelectionKey key, Throwable cause) {
+        if (mIsDisconnected) {
+            return;
+        }
+        mIsDisconnected = true;
+        try {
+            mDisconnectable.disconnect(channel, key, cause);
+        } catch (IOException e) {
+            log.warn("disconnect error", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 送信キューに残っている送信データの送信を中止します。
+     * @since 1.6.0
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            // これ以降に作成された送信データは、送信キューに追加せずに中止する
+            mIsDisconnected = true;
+        }
+        Sender sender;
+        while ((sender = mOutbound.poll()) != null) {
+            sender.abort();
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package jp.gr.java_conf.falius.communication.core.socket;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jp.gr.java_conf.falius.communication.buffer.BufferAllocator;
+import jp.gr.java_conf.falius.communication.listener.OnReceiveListener;
+import jp.gr.java_conf.falius.communication.listener.StreamingReceiveListener;
+import jp.gr.java_conf.falius.communication.rcvdata.FileSink;
+import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
+
+/**
+ * <p>
+ * ひとつの接続を複数のストリームで共有する、多重化された送受信を扱うサーバー側のハンドラです。
+ * 受信単位の先頭にはそれぞれストリームIDが付加されており、ストリームごとにRemoteオブジェクトを作成して
+ *     Swapperによる送受信を行います。応答にも同じストリームIDを付加して送信します。
+ *
+ * <p>
+ * ひとつのストリームの中ではswapメソッドは受信した順番にひとつずつ実行されますが、
+ *     非同期にswapを行う場合、異なるストリーム同士は並行して処理されるため、応答は受信した順番とは限りません。
+ *
+ * <p>
+ * ストリームIDの最上位ビット({@link END_OF_STREAM})は、そのストリームの最後の受信単位であることを表します。
+ * そのストリームはこの受信単位に応答した時点、あるいはSwapper#doContinueメソッドがfalseを返した時点で破棄されます。
+ * ストリームが終わっても接続は維持され、接続は相手が切断するまで続きます。
+ *
+ * <p>
+ * {@link DuplexHandler}と同じく、送信を終えていない送信データが{@link DuplexHandler#HIGH_WATER_MARK}に達すると
+ *     {@link DuplexHandler#LOW_WATER_MARK}まで減るまで読み込みを止めます。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+class MultiplexHandler implements SocketHandler {
+    private static final Logger log = LoggerFactory.getLogger(MultiplexHandler.class);
+
+    /**
+     * ストリームの最後の受信単位であることを表す、ストリームIDのフラグです。
+     * @since 1.6.0
+     */
+    static final int END_OF_STREAM = 0x80000000;
+
+    private final Disconnectable mDisconnectable;
+    private final Function<Integer, Remote> mStreamFactory;
+    private final Executor mLoop;
+    private final Receiver mReceiver = new Receiver(true);
+    private final Map<Integer, Stream> mStreams = new ConcurrentHashMap<>();
+    private final Queue<Sender> mOutbound = new ConcurrentLinkedQueue<>();
+    // 送信データの作成を依頼してから、その送信を終えるまでの数
+    private final AtomicInteger mPending = new AtomicInteger();
+    private boolean mIsReadPaused = false;
+
+    private volatile boolean mIsDisconnected = false;
+
+    /**
+     *
+     * @param disconnectable
+     * @param streamFactory ストリームIDを受け取り、そのストリームのRemoteオブジェクトを作成する関数
+     * @param listener
+     * @param allocator 受信データを格納するバッファを確保するBufferAllocator
+     * @param loop チャネルを登録したSelectorのイベントループのスレッドで処理を実行するExecutor
+     * @since 1.6.0
+     */
+    MultiplexHandler(Disconnectable disconnectable, Function<Integer, Remote> streamFactory,
+            OnReceiveListener listener, BufferAllocator allocator, Executor loop) {
+        mDisconnectable = disconnectable;
+        mStreamFactory = streamFactory;
+        mLoop = loop;
+        mReceiver.addOnReceiveListener(listener);
+        mReceiver.setBufferAllocator(allocator);
+    }
+
+    /**
+     * 受信単位のすべてを読み取り終えるのを待たずに、受信したデータを順次受け取るリスナーを設定します。
+     * @param listener
+     * @since 1.6.0
+     */
+    void addStreamingReceiveListener(StreamingReceiveListener listener) {
+        mReceiver.addStreamingReceiveListener(listener);
+    }
+
+    /**
+     * 受信単位の大きさの上限と、一時ファイルに退避するデータの大きさを設定します。
+     * @param limits
+     * @since 1.6.0
+     */
+    void setReceiveLimits(ReceiveLimits limits) {
+        mReceiver.setReceiveLimits(limits);
+    }
+
+    /**
+     * 受信するデータをファイルに直接書き込むかどうかを問い合わせるFileSinkを設定します。
+     * @param sink
+     * @since 1.6.0
+     */
+    void setFileSink(FileSink sink) {
+        mReceiver.setFileSink(sink);
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public void handle(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        try {
+            if (key.isReadable()) {
+                read(key, channel);
+            }
+            if (key.isValid() && key.isWritable()) {
+                write(key, channel);
+            }
+        } catch (Throwable e) {
+            disconnect(channel, key, e);
+            log.warn("multiplex handle error", e);
+        }
+    }
+
+    private void read(SelectionKey key, SocketChannel channel) throws Exception {
+        log.debug("server multiplex reading");
+        while (!mIsDisconnected) {
+            Receiver.Result result = mReceiver.receive(channel);
+
+            if (result == Receiver.Result.DISCONNECT) {
+                disconnect(channel, key, null);
+                return;
+            }
+
+            if (result == Receiver.Result.ERROR) {
+                log.warn("receive error");
+                disconnect(channel, key, new IOException("reading channel returns -1"));
+                return;
+            }
+
+            if (result == Receiver.Result.UNFINISHED) {
+                return;
+            }
+
+            int streamId = mReceiver.getStreamId();
+            int id = streamId & ~END_OF_STREAM;
+            boolean isLast = (streamId & END_OF_STREAM) != 0;
+            Stream stream = mStreams.computeIfAbsent(id, k -> new Stream(mStreamFactory.apply(k)));
+            if (mReceiver.isCompact()) {
+                // 接続の先頭でハンドシェイクの値を受け取っていれば、同じ形式で応答する
+                stream.mRemote.useCompactHeader(false);
+            }
+            request(key, id, stream, mReceiver.getData(), isLast);
+
+            if (mPending.get() >= DuplexHandler.HIGH_WATER_MARK) {
+                // 残りの受信データは読み込み用のバッファに残したまま、送信が進むのを待つ
+                log.debug("pause reading. pending: {}", mPending.get());
+                synchronized (this) {
+                    mIsReadPaused = true;
+                    updateInterestOps(key);
+                }
+                return;
+            }
+        }
+    }
+
+    private void request(SelectionKey key, int id, Stream stream, ReceiveData data, boolean isLast)
+            throws Exception {
+        Remote remote = stream.mRemote;
+        mPending.incrementAndGet();
+        if (!remote.isSwapAsync()) {
+            Sender sender = remote.sender(data);
+            if (sender == null) {
+                // 応答を待っている相手に知らせる手段がないため、接続ごと切断する
+                log.debug("disconnect by send data returned null");
+                disconnect((SocketChannel) key.channel(), key, null);
+            } else if (onSwapped(id, stream, sender, isLast)) {
+                resumeWriting(key);
+            }
+            return;
+        }
+
+        // 同じストリームの中では受信した順番に実行する
+        stream.mSwapChain = stream.mSwapChain
+                .thenCompose(v -> remote.senderAsync(data))
+                .thenAccept(sender -> {
+                    if (sender == null) {
+                        log.debug("disconnect by send data returned null");
+                        mLoop.execute(() -> disconnect((SocketChannel) key.channel(), key, null));
+                    } else if (onSwapped(id, stream, sender, isLast)) {
+                        mLoop.execute(() -> resumeWriting(key));
+                    }
+                })
+                .exceptionally(e -> {
+                    log.warn("swap error", e);
+                    mLoop.execute(() -> disconnect((SocketChannel) key.channel(), key, e));
+                    return null;
+                });
+    }
+
+    /**
+     * swapメソッドによって作成された送信データを送信キューに追加します。
+     * 非同期に送信データを作成した場合、このメソッドは読み書きを行うスレッドとは別のスレッドから呼ばれるため、
+     *     選択キーは操作しません。
+     * @return 送信キューに追加した場合はtrue。すでに切断されていて送信を中止した場合はfalse
+     */
+    private boolean onSwapped(int id, Stream stream, Sender sender, boolean isLast) {
+        try {
+            if (isLast || !stream.mRemote.doContinue()) {
+                mStreams.remove(id, stream);
+            }
+            synchronized (this) {
+                if (mIsDisconnected) {
+                    sender.abort();
+                    return false;
+                }
+                mOutbound.add(sender);
+            }
+            return true;
+        } catch (RuntimeException e) {
+            sender.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * 送信キューに追加した送信データを書き込めるよう、通知を受け取る操作を設定し直します。
+     * イベントループのスレッドから呼び出してください。
+     * 設定できなかった場合は切断し、送信キューに残っている送信データの送信を中止します。
+     */
+    private void resumeWriting(SelectionKey key) {
+        try {
+            synchronized (this) {
+                if (mIsDisconnected || !key.isValid()) {
+                    return;
+                }
+                updateInterestOps(key);
+            }
+        } catch (Throwable e) {
+            log.warn("resuming writing error", e);
+            disconnect((SocketChannel) key.channel(), key, e);
+        }
+    }
+
+    private void write(SelectionKey key, SocketChannel channel) throws Exception {
+        log.debug("server multiplex writing");
+        Sender sender;
+        while ((sender = mOutbound.peek()) != null) {
+            if (sender.send(channel) == Sender.Result.UNFINISHED) {
+                break;
+            }
+            mOutbound.poll();
+            mPending.decrementAndGet();
+        }
+
+        boolean doResume;
+        synchronized (this) {
+            doResume = mIsReadPaused && mPending.get() <= DuplexHandler.LOW_WATER_MARK;
+            if (doResume) {
+                mIsReadPaused = false;
+            }
+            updateInterestOps(key);
+        }
+
+        if (doResume) {
+            // 読み込み用のバッファに残っている受信データは新たな読み込みの通知を待たずに処理する
+            log.debug("resume reading. pending: {}", mPending.get());
+            read(key, channel);
+        }
+    }
+
+    /**
+     * 読み込みを止めているかどうかと送信キューの状態から、通知を受け取る操作を設定し直します。
+     * 呼び出し側でこのオブジェクトの同期をとってください。
+     */
+    private void updateInterestOps(SelectionKey key) {
+        int ops = mIsReadPaused ? 0 : SelectionKey.OP_READ;
+        if (!mOutbound.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    private void disconnect(SocketChannel channel, SelectionKey key, Throwable cause) {
+        if (mIsDisconnected) {
+            return;
+        }
+        mIsDisconnected = true;
+        mStreams.clear();
+        try {
+            mDisconnectable.disconnect(channel, key, cause);
+        } catch (IOException e) {
+            log.warn("disconnect error", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 送信キューに残っている送信データの送信を中止します。
+     * @since 1.6.0
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            // これ以降に作成された送信データは、送信キューに追加せずに中止する
+            mIsDisconnected = true;
+        }
+        Sender sender;
+        while ((sender = mOutbound.poll()) != null) {
+            sender.abort();
+        }
+    }
+
+    /**
+     * 多重化された接続の中のひとつのストリーム
+     * @author "ymiyauchi"
+     * @since 1.6.0
+     */
+    private static class Stream {
+        private final Remote mRemote;
+        private CompletableFuture<Void> mSwapChain = CompletableFuture.completedFuture(null);
+
+        private Stream(Remote remote) {
+            mRemote = remote;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -20,13 +21,19 @@ import java.util.concurrent.TimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jp.gr.java_conf.falius.communication.buffer.BufferAllocator;
+import jp.gr.java_conf.falius.communication.buffer.HeapBufferAllocator;
 import jp.gr.java_conf.falius.communication.core.Client;
 import jp.gr.java_conf.falius.communication.core.SwapClient;
 import jp.gr.java_conf.falius.communication.listener.OnDisconnectCallback;
 import jp.gr.java_conf.falius.communication.listener.OnReceiveListener;
 import jp.gr.java_conf.falius.communication.listener.OnSendListener;
+import jp.gr.java_conf.falius.communication.listener.StreamingReceiveListener;
+import jp.gr.java_conf.falius.communication.rcvdata.FileSink;
 import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
 import jp.gr.java_conf.falius.communication.senddata.SendData;
+import jp.gr.java_conf.falius.communication.swapper.AsyncSwapper;
+import jp.gr.java_conf.falius.communication.swapper.AsyncSwapperFactory;
 import jp.gr.java_conf.falius.communication.swapper.OnceSwapper;
 import jp.gr.java_conf.falius.communication.swapper.Swapper;
 import jp.gr.java_conf.falius.communication.swapper.SwapperFactory;
@@ -101,6 +108,14 @@ public class NonBlockingClient implements SwapClient, Disconnectable {
     private OnDisconnectCallback mOnDisconnectCallback = null;
     private Client.OnConnectListener mOnConnectListener = null;
 
+    private boolean mIsFullDuplex = false;
+    private int mPipelineDepth = 1;
+    private BufferAllocator mAllocator = HeapBufferAllocator.INSTANCE;
+    private FileSink mFileSink = null;
+    private StreamingReceiveListener mStreamingReceiveListener = null;
+    private ReceiveLimits mReceiveLimits = ReceiveLimits.DEFAULT;
+    private boolean mIsCompactHeader = false;
+
     /**
      *
      * @param serverHost
@@ -176,6 +191,139 @@ public class NonBlockingClient implements SwapClient, Disconnectable {
         mOnConnectListener = listener;
     }
 
+    /**
+     * <p>
+     * サーバーとの送受信を全二重で行うかどうかを設定します。
+     * 詳細は{@link NonBlockingServer#setFullDuplex}を参照してください。
+     *
+     * <p>
+     * 変更後に開始された接続から有効になります。
+     * @param isFullDuplex
+     * @since 1.6.0
+     */
+    public void setFullDuplex(boolean isFullDuplex) {
+        mIsFullDuplex = isFullDuplex;
+    }
+
+    /**
+     * <p>
+     * 一つの接続で、応答を待たずに送信できる送信データの数を設定します。
+     * 2以上を設定すると、送受信は全二重で行われます({@link setFullDuplex}の設定は無視されます)。
+     *
+     * <p>
+     * 通信開始時には、Swapper#swapメソッドを受信データをnullとして最大depth回実行し、
+     *     作成された送信データを応答を待たずに続けて送信します。
+     * それ以降は応答をひとつ受信するごとにswapメソッドを実行して次の送信データを送信します。
+     * サーバーは届いた順番に処理して同じ順番で応答するため、n回目に受信したデータはn回目に送信したデータへの応答です。
+     * 往復時間の大きい回線で、多数の要求を一つの接続で送る場合に有効です。
+     *
+     * <p>
+     * 変更後に開始された接続から有効になります。
+     * @param depth 応答を待たずに送信できる送信データの数。デフォルトは1
+     * @throws IllegalArgumentException depthが1未満の場合
+     * @since 1.6.0
+     */
+    public void setPipelineDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("pipeline depth must be positive: " + depth);
+        }
+        mPipelineDepth = depth;
+    }
+
+    /**
+     * 送受信に利用するバッファを確保するBufferAllocatorを設定します。
+     * 詳細は{@link NonBlockingServer#setBufferAllocator}を参照してください。
+     *
+     * <p>
+     * 変更後に開始された接続から有効になります。
+     * @param allocator
+     * @throws NullPointerException allocatorがnullの場合
+     * @since 1.6.0
+     */
+    public void setBufferAllocator(BufferAllocator allocator) {
+        mAllocator = Objects.requireNonNull(allocator);
+    }
+
+    /**
+     * 受信するデータをファイルに直接書き込むかどうかを問い合わせるFileSinkを設定します。
+     * 詳細は{@link NonBlockingServer#setFileSink}を参照してください。
+     *
+     * <p>
+     * 変更後に開始された接続から有効になります。
+     * @param sink nullであれば、すべてのデータをメモリ上に受信します
+     * @since 1.6.0
+     */
+    public void setFileSink(FileSink sink) {
+        mFileSink = sink;
+    }
+
+    /**
+     * 受信単位のすべてを読み取り終えるのを待たずに、受信したデータを順次受け取るリスナーを設定します。
+     * 詳細は{@link NonBlockingServer#addStreamingReceiveListener}を参照してください。
+     *
+     * <p>
+     * 変更後に開始された接続から有効になります。
+     * @param listener
+     * @since 1.6.0
+     */
+    public void addStreamingReceiveListener(StreamingReceiveListener listener) {
+        mStreamingReceiveListener = listener;
+    }
+
+    /**
+     * <p>
+     * 各サイズを可変長整数で表す、小さなヘッダーを使って通信するかどうかを設定します。
+     * 通常のヘッダーは８バイトとデータごとに４バイトを必要としますが、この形式では小さなデータであれば
+     *     ２バイトとデータごとに１バイトで済むため、小さな受信単位を頻繁に送受信する場合の通信量を減らせます。
+     *
+     * <p>
+     * 有効にすると、接続の開始時に一度だけハンドシェイクの値を送信し、以降はこの形式のヘッダーで送受信します。
+     * サーバーはハンドシェイクの値を受け取った接続でのみこの形式を使い、そうでない接続では通常の形式を使い続けます。
+     * この形式を読み取れない1.6.0より前のサーバーに接続する場合は有効にしないでください。
+     *
+     * <p>
+     * 変更後に開始された接続から有効になります。
+     * @param isCompact デフォルトはfalse
+     * @since 1.6.0
+     */
+    public void setCompactHeader(boolean isCompact) {
+        mIsCompactHeader = isCompact;
+    }
+
+    /**
+     * 一つの受信単位の大きさの上限を設定します。
+     * 詳細は{@link NonBlockingServer#setMaxFrameSize}を参照してください。
+     * @param size ヘッダーを含めた受信単位のバイト数の上限
+     * @throws IllegalArgumentException sizeが正の数でない場合
+     * @since 1.6.0
+     */
+    public void setMaxFrameSize(long size) {
+        mReceiveLimits = mReceiveLimits.withMaxFrameSize(size);
+    }
+
+    /**
+     * 受信単位に含まれる一つのデータの大きさの上限を設定します。
+     * 詳細は{@link NonBlockingServer#setMaxItemSize}を参照してください。
+     * @param size データのバイト数の上限
+     * @throws IllegalArgumentException sizeが正の数でない場合
+     * @since 1.6.0
+     */
+    public void setMaxItemSize(long size) {
+        mReceiveLimits = mReceiveLimits.withMaxItemSize(size);
+    }
+
+    /**
+     * 指定したバイト数を超えるデータを、メモリ上のバッファではなく一時ファイルに受信するようにします。
+     * 詳細は{@link NonBlockingServer#setSpillThreshold}を参照してください。
+     * @param threshold メモリ上に受信するデータのバイト数の上限
+     * @param directory 一時ファイルを作成するディレクトリ。nullであればシステムのデフォルト
+     * @throws IllegalArgumentException thresholdが負の数の場合
+     * @since 1.6.0
+     */
+    public void setSpillThreshold(int threshold, Path directory) {
+        mReceiveLimits = mReceiveLimits.withSpillThreshold(threshold, directory);
+    }
+
     /**
      * {@inheritDoc}
      * @throws IOException
@@ -217,6 +365,7 @@ public class NonBlockingClient implements SwapClient, Disconnectable {
         String remote = channel.socket().getInetAddress().toString();
         channel.close();
         key.selector().wakeup();
+        SocketHandler.close(key);
 
         if (mOnDisconnectCallback != null) {
             mOnDisconnectCallback.onDissconnect(remote, cause);
@@ -288,29 +437,100 @@ public class NonBlockingClient implements SwapClient, Disconnectable {
         Objects.requireNonNull(swapper, "swapper is null");
         try (Selector selector = Selector.open(); SocketChannel channel = SocketChannel.open()) {
             Remote remote = connect(channel, swapper); // 接続はブロッキングモード
-            channel.configureBlocking(false);
+            return exec(selector, channel, remote);
+        }
+    }
+
+    /**
+     * <p>
+     * 送信データを非同期に作成するswapperを渡して送受信を繰り返します。
+     * AsyncSwapper#swapメソッドが返すFutureが完了した時点で送信を開始します。
+     *
+     * <p>
+     * コンストラクタでタイムアウトを指定した場合、Futureの完了を待つ時間もタイムアウトの対象になります。
+     * @param swapper
+     * @return 最終受信データ。受信に失敗するとnull
+     * @throws NullPointerException swapperがnullの場合
+     * @throws ConnectException 接続に失敗した場合
+     * @throws IOException その他入出力エラーが発生した場合
+     * @throws TimeoutException 接続がタイムアウトした場合
+     * @since 1.6.0
+     */
+    public ReceiveData start(AsyncSwapper swapper) throws IOException, TimeoutException {
+        log.debug("client start");
+        Objects.requireNonNull(swapper, "swapper is null");
+        try (Selector selector = Selector.open(); SocketChannel channel = SocketChannel.open()) {
+            String remoteAddress = connect(channel);
+            Remote remote = configure(new Remote(remoteAddress, new AsyncSwapperFactory() {
+
+                @Override
+                public AsyncSwapper get() {
+                    return swapper;
+                }
+            }));
+            return exec(selector, channel, remote);
+        }
+    }
+
+    /**
+     * 接続済のチャネルで、切断されるまで送受信を行います。
+     * @param selector
+     * @param channel
+     * @param remote
+     * @return 最終受信データ
+     * @throws IOException
+     * @throws TimeoutException
+     */
+    private ReceiveData exec(Selector selector, SocketChannel channel, Remote remote)
+            throws IOException, TimeoutException {
+        channel.configureBlocking(false);
+        SelectorTaskQueue tasks = new SelectorTaskQueue(selector);
+        try {
+            loop(selector, channel, remote, tasks);
+        } finally {
+            // 切断した後に送信データの作成を終えた場合は、その場で送信を中止する
+            tasks.close();
+        }
+        log.debug("client finish");
+        return remote.receiver().getData();
+    }
+
+    private void loop(Selector selector, SocketChannel channel, Remote remote, SelectorTaskQueue tasks)
+            throws IOException, TimeoutException {
+        if (mIsFullDuplex || mPipelineDepth > 1) {
+            DuplexHandler handler = new DuplexHandler(this, remote, true, tasks);
+            handler.start(channel.register(selector, SelectionKey.OP_READ, handler), mPipelineDepth);
+        } else {
             channel.register(selector, SelectionKey.OP_WRITE,
-                    new WritingHandler(this, remote, true));
-
-            while (channel.isOpen()) {
-                if (selector.select(mPollTimeout) > 0 || selector.selectedKeys().size() > 0) {
-
-                    Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
-                    while (iter.hasNext()) {
-                        SelectionKey key = iter.next();
-                        mKeys.add(key);
-                        SocketHandler handler = (SocketHandler) key.attachment();
-                        handler.handle(key);
-                        iter.remove();
-                    }
-
-                } else {
-                    throw new TimeoutException("could not get selected operation during " +
-                            ((int) (double) mPollTimeout / 1000) + " sec.");
+                    new WritingHandler(this, remote, true, tasks));
+        }
+
+        long lastSelected = System.currentTimeMillis();
+        while (channel.isOpen()) {
+            long wait = 0;
+            if (mPollTimeout > 0) {
+                wait = Math.max(mPollTimeout - (System.currentTimeMillis() - lastSelected), 1);
+            }
+            if (selector.select(wait) > 0 || selector.selectedKeys().size() > 0) {
+
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    mKeys.add(key);
+                    SocketHandler handler = (SocketHandler) key.attachment();
+                    handler.handle(key);
+                    iter.remove();
                 }
+                lastSelected = System.currentTimeMillis();
+
+            } else if (channel.isOpen() && mPollTimeout > 0
+                    && System.currentTimeMillis() - lastSelected >= mPollTimeout) {
+                // AsyncSwapperのFutureの完了や全二重の送信データの追加によって他のスレッドからwakeupされると
+                // 操作が選択されないままselectが戻るため、最後に操作が選択されてから実際に経過した時間で判断する
+                throw new TimeoutException("could not get selected operation during " +
+                        ((int) (double) mPollTimeout / 1000) + " sec.");
             }
-            log.debug("client finish");
-            return remote.receiver().getData();
+            tasks.runTasks();
         }
     }
 
@@ -324,15 +544,7 @@ public class NonBlockingClient implements SwapClient, Disconnectable {
      * @since 1.0
      */
     private Remote connect(SocketChannel channel, Swapper swapper) throws IOException {
-        InetSocketAddress address = new InetSocketAddress(mServerHost, mServerPort);
-        log.info("connect to ...{}", address.getAddress());
-        channel.connect(address);
-        log.info("success conect");
-
-        String remoteAddress = channel.getRemoteAddress().toString();
-        if (mOnConnectListener != null) {
-            mOnConnectListener.onConnect(remoteAddress);
-        }
+        String remoteAddress = connect(channel);
         SwapperFactory swapperFactory = new SwapperFactory() {
 
             @Override
@@ -340,9 +552,47 @@ public class NonBlockingClient implements SwapClient, Disconnectable {
                 return swapper;
             }
         };
-        Remote remote = new Remote(remoteAddress, swapperFactory);
+        return configure(new Remote(remoteAddress, swapperFactory));
+    }
+
+    /**
+     * このクライアントに設定されたリスナーなどを、作成したRemoteオブジェクトに設定します。
+     * 同期と非同期のどちらのSwapperで送受信する場合も、このメソッドを通して設定してください。
+     * @param remote
+     * @return 引数のremote
+     * @since 1.6.0
+     */
+    private Remote configure(Remote remote) {
         remote.addOnSendListener(mOnSendListener);
         remote.addOnReceiveListener(mOnReceiveListener);
+        remote.setBufferAllocator(mAllocator);
+        remote.setFileSink(mFileSink);
+        remote.addStreamingReceiveListener(mStreamingReceiveListener);
+        remote.setReceiveLimits(mReceiveLimits);
+        if (mIsCompactHeader) {
+            remote.useCompactHeader(true);
+        }
         return remote;
     }
+
+    /**
+     *
+     * @param channel
+     * @return 接続先のアドレス
+     * @throws IOException
+     * @throws ConnectException 接続に失敗した場合
+     * @since 1.6.0
+     */
+    private String connect(SocketChannel channel) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(mServerHost, mServerPort);
+        log.info("connect to ...{}", address.getAddress());
+        channel.connect(address);
+        log.info("success conect");
+
+        String remoteAddress = channel.getRemoteAddress().toString();
+        if (mOnConnectListener != null) {
+            mOnConnectListener.onConnect(remoteAddress);
+        }
+        return remoteAddress;
+    }
 }
@@ -0,0 +1,532 @@
+package jp.gr.java_conf.falius.communication.core.socket;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jp.gr.java_conf.falius.communication.buffer.BufferAllocator;
+import jp.gr.java_conf.falius.communication.buffer.HeapBufferAllocator;
+import jp.gr.java_conf.falius.communication.core.Client;
+import jp.gr.java_conf.falius.communication.core.SwapClient;
+import jp.gr.java_conf.falius.communication.listener.OnDisconnectCallback;
+import jp.gr.java_conf.falius.communication.listener.OnReceiveListener;
+import jp.gr.java_conf.falius.communication.listener.OnSendListener;
+import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
+import jp.gr.java_conf.falius.communication.senddata.SendData;
+import jp.gr.java_conf.falius.communication.swapper.Swapper;
+
+/**
+ * <p>
+ * ひとつの接続を複数のスレッドで共有して送受信を行うクライアントです。
+ * 接続先のサーバーは{@link NonBlockingServer#setMultiplexed}で多重化を有効にしている必要があります。
+ *
+ * <p>
+ * {@link NonBlockingClient}がsendメソッドの実行ごとに新しい接続を確立するのに対して、
+ *     このクラスは最初の送信時に確立した接続を{@link close}メソッドが呼ばれるまで維持し、すべての送信で共有します。
+ * 送信データにはそれぞれストリームIDが付加され、応答は同じストリームIDによって対応する送信と結び付けられるため、
+ *     応答が送信と異なる順番で届いても正しい呼び出し元に返されます。
+ *
+ * <p>
+ * sendメソッドおよびsendAsyncメソッドはスレッドセーフで、複数のスレッドから同時に実行することができます。
+ * 接続の読み書きは内部で作成する専用のスレッドで行われます。
+ *
+ * <p>
+ * 以下に、基本的な使用例を示します。
+ * <pre>
+ * {@code
+ * try (NonBlockingMultiplexClient client = new NonBlockingMultiplexClient(HOST, PORT)) {
+ *     List<CompletableFuture<ReceiveData>> futures = new ArrayList<>();
+ *     for (int i = 0; i < 10; i++) {
+ *         SendData sendData = new BasicSendData();
+ *         sendData.put(i);
+ *         futures.add(client.sendAsync(sendData));
+ *     }
+ *     for (CompletableFuture<ReceiveData> future : futures) {
+ *         System.out.println(future.get().getInt());
+ *     }
+ * }
+ * }
+ * </pre>
+ *
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+public class NonBlockingMultiplexClient implements SwapClient, Disconnectable {
+    private static final Logger log = LoggerFactory.getLogger(NonBlockingMultiplexClient.class);
+
+    private final String mServerHost;
+    private final int mServerPort;
+    private final long mTimeout;
+    private final Swapper mSwapper;
+    private final AtomicInteger mNextStreamId = new AtomicInteger();
+
+    private ExecutorService mExecutor = null;
+    private ExecutorService mLoopExecutor = null;
+    private WorkerLoop mLoop = null;
+    private Connection mConnection = null;
+
+    private OnSendListener mOnSendListener = null;
+    private OnReceiveListener mOnReceiveListener = null;
+    private OnDisconnectCallback mOnDisconnectCallback = null;
+    private Client.OnConnectListener mOnConnectListener = null;
+    private BufferAllocator mAllocator = HeapBufferAllocator.INSTANCE;
+
+    /**
+     *
+     * @param serverHost
+     * @param serverPort
+     * @since 1.6.0
+     */
+    public NonBlockingMultiplexClient(String serverHost, int serverPort) {
+        this(serverHost, serverPort, 0L);
+    }
+
+    /**
+     *
+     * @param serverHost
+     * @param serverPort
+     * @param timeout 応答を待つ最大の時間(ミリ秒)。0以下であれば応答があるまで待ち続けます
+     * @since 1.6.0
+     */
+    public NonBlockingMultiplexClient(String serverHost, int serverPort, long timeout) {
+        this(serverHost, serverPort, timeout, null);
+    }
+
+    /**
+     * このオブジェクトをCallableとして扱う際のコンストラクター
+     * @param serverHost
+     * @param serverPort
+     * @param timeout 応答を待つ最大の時間(ミリ秒)。0以下であれば応答があるまで待ち続けます
+     * @param swapper
+     * @since 1.6.0
+     */
+    public NonBlockingMultiplexClient(String serverHost, int serverPort, long timeout, Swapper swapper) {
+        mServerHost = serverHost;
+        mServerPort = serverPort;
+        mTimeout = timeout;
+        mSwapper = swapper;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 変更後に確立された接続から有効になります。
+     * @since 1.6.0
+     */
+    @Override
+    public void addOnSendListener(OnSendListener listener) {
+        mOnSendListener = listener;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 変更後に確立された接続から有効になります。
+     * @since 1.6.0
+     */
+    @Override
+    public void addOnReceiveListener(OnReceiveListener listener) {
+        mOnReceiveListener = listener;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @since 1.6.0
+     */
+    @Override
+    public void addOnDisconnectCallback(OnDisconnectCallback callback) {
+        mOnDisconnectCallback = callback;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @since 1.6.0
+     */
+    @Override
+    public void addOnConnectListener(Client.OnConnectListener listener) {
+        mOnConnectListener = listener;
+    }
+
+    /**
+     * 送受信に利用するバッファを確保するBufferAllocatorを設定します。
+     * 詳細は{@link NonBlockingServer#setBufferAllocator}を参照してください。
+     * 変更後に確立された接続から有効になります。
+     * @param allocator
+     * @throws NullPointerException allocatorがnullの場合
+     * @since 1.6.0
+     */
+    public void setBufferAllocator(BufferAllocator allocator) {
+        mAllocator = Objects.requireNonNull(allocator);
+    }
+
+    /**
+     * <p>
+     * 送信データを新しいストリームで送信し、応答を受け取るFutureを返します。
+     * 応答を待たずに処理が戻るため、ひとつのスレッドから続けて複数の送信を行うこともできます。
+     *
+     * <p>
+     * 接続が確立されていなければ、このメソッドの中で接続を確立します。
+     * 応答を受信する前に接続が切断された場合、FutureはIOExceptionで例外完了します。
+     * @param sendData
+     * @return 応答を受け取るFuture
+     * @throws IOException 接続に失敗した場合
+     * @throws NullPointerException sendDataがnullの場合
+     * @since 1.6.0
+     */
+    public CompletableFuture<ReceiveData> sendAsync(SendData sendData) throws IOException {
+        Objects.requireNonNull(sendData);
+        return connection().send(nextStreamId() | MultiplexHandler.END_OF_STREAM, sendData);
+    }
+
+    /**
+     * 送信データを新しいストリームで送信し、応答を受信するまで待ちます。
+     * @param sendData
+     * @return 受信データ
+     * @throws IOException 接続に失敗した場合、応答を受信する前に接続が切断された場合
+     * @throws TimeoutException コンストラクタで指定した時間内に応答がなかった場合
+     * @throws NullPointerException sendDataがnullの場合
+     * @since 1.6.0
+     */
+    @Override
+    public ReceiveData send(SendData sendData) throws IOException, TimeoutException {
+        return await(sendAsync(sendData));
+    }
+
+    /**
+     * <p>
+     * ひとつのストリームで、swapperによる送受信を繰り返します。
+     * サーバーでもこのストリームにひとつのSwapperが割り当てられるため、
+     *     {@link NonBlockingClient#start}と同じように送受信を繰り返すことができます。
+     *
+     * <p>
+     * 接続は他のストリームと共有しており、このメソッドが終わっても切断されません。
+     * @param swapper
+     * @return 最終受信データ
+     * @throws IOException 接続に失敗した場合、swapメソッドが例外を投げた場合、応答を受信する前に接続が切断された場合
+     * @throws TimeoutException コンストラクタで指定した時間内に応答がなかった場合
+     * @throws NullPointerException swapperがnullの場合
+     * @since 1.6.0
+     */
+    @Override
+    public ReceiveData start(Swapper swapper) throws IOException, TimeoutException {
+        Objects.requireNonNull(swapper, "swapper is null");
+        int streamId = nextStreamId();
+        Connection connection = connection();
+        ReceiveData receiveData = null;
+        while (true) {
+            SendData sendData;
+            try {
+                sendData = swapper.swap(connection.mRemoteAddress, receiveData);
+            } catch (Exception e) {
+                throw new IOException("thrown exception from swap method", e);
+            }
+            if (sendData == null) {
+                break;
+            }
+            boolean isLast = !swapper.doContinue();
+            receiveData = await(connection.send(isLast ? streamId | MultiplexHandler.END_OF_STREAM : streamId,
+                    sendData));
+            if (isLast) {
+                break;
+            }
+        }
+        return receiveData;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws NullPointerException コンストラクタにSwapperが渡されていない場合
+     * @since 1.6.0
+     */
+    @Override
+    public ReceiveData call() throws IOException, TimeoutException {
+        Objects.requireNonNull(mSwapper, "could not call() without swapper");
+        return start(mSwapper);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws NullPointerException コンストラクタにSwapperが渡されていない場合
+     * @since 1.6.0
+     */
+    @Override
+    public Future<ReceiveData> startOnNewThread() {
+        Objects.requireNonNull(mSwapper);
+
+        synchronized (this) {
+            if (mExecutor == null) {
+                mExecutor = Executors.newCachedThreadPool();
+            }
+        }
+        return mExecutor.submit(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @since 1.6.0
+     */
+    @Override
+    public void disconnect(SocketChannel channel, SelectionKey key, Throwable cause) throws IOException {
+        String remote = channel.socket().getInetAddress().toString();
+        channel.close();
+        SocketHandler.close(key);
+
+        if (mOnDisconnectCallback != null) {
+            mOnDisconnectCallback.onDissconnect(remote, cause);
+        }
+
+        log.info("multiplex client disconnect");
+    }
+
+    /**
+     * 接続を切断し、読み書きを行うスレッドを終了します。
+     * 応答を待っているすべての送信はIOExceptionで例外完了します。
+     * @since 1.6.0
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mConnection != null) {
+            mConnection.fail(new IOException("client closed"));
+            mConnection = null;
+        }
+        if (mLoop != null) {
+            mLoop.shutdown();
+            mLoopExecutor.shutdown();
+            mLoop = null;
+        }
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+        }
+        log.info("multiplex client close");
+    }
+
+    private int nextStreamId() {
+        return mNextStreamId.getAndIncrement() & ~MultiplexHandler.END_OF_STREAM;
+    }
+
+    private ReceiveData await(CompletableFuture<ReceiveData> future) throws IOException, TimeoutException {
+        try {
+            if (mTimeout > 0) {
+                return future.get(mTimeout, TimeUnit.MILLISECONDS);
+            }
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * 確立済みの接続を返します。まだ接続していないか、切断されていれば新しく接続を確立します。
+     * @return
+     * @throws IOException
+     * @throws ConnectException 接続に失敗した場合
+     */
+    private synchronized Connection connection() throws IOException {
+        if (mConnection != null && mConnection.isOpen()) {
+            return mConnection;
+        }
+        if (mLoop == null) {
+            mLoop = new WorkerLoop();
+            mLoopExecutor = Executors.newSingleThreadExecutor();
+            mLoopExecutor.execute(mLoop);
+        }
+
+        SocketChannel channel = SocketChannel.open();
+        try {
+            InetSocketAddress address = new InetSocketAddress(mServerHost, mServerPort);
+            log.info("connect to ...{}", address.getAddress());
+            channel.connect(address); // 接続はブロッキングモード
+            log.info("success conect");
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        String remoteAddress = channel.getRemoteAddress().toString();
+        if (mOnConnectListener != null) {
+            mOnConnectListener.onConnect(remoteAddress);
+        }
+        mConnection = new Connection(channel, remoteAddress);
+        mLoop.register(channel, SelectionKey.OP_READ, mConnection);
+        return mConnection;
+    }
+
+    /**
+     * 多重化されたひとつの接続です。
+     * 読み書きはイベントループのスレッドで行い、送信データは他のスレッドから追加されます。
+     * @author "ymiyauchi"
+     * @since 1.6.0
+     */
+    private class Connection implements SocketHandler {
+        private final SocketChannel mChannel;
+        private final String mRemoteAddress;
+        private final Receiver mReceiver = new Receiver(true);
+        private final BufferAllocator mConnectionAllocator = mAllocator;
+        private final Queue<Sender> mOutbound = new ConcurrentLinkedQueue<>();
+        private final Map<Integer, CompletableFuture<ReceiveData>> mPending = new ConcurrentHashMap<>();
+
+        private volatile boolean mIsClosed = false;
+
+        private Connection(SocketChannel channel, String remoteAddress) {
+            mChannel = channel;
+            mRemoteAddress = remoteAddress;
+            mReceiver.addOnReceiveListener(mOnReceiveListener);
+            mReceiver.setBufferAllocator(mConnectionAllocator);
+        }
+
+        private boolean isOpen() {
+            return !mIsClosed && mChannel.isOpen();
+        }
+
+        private CompletableFuture<ReceiveData> send(int streamId, SendData sendData) {
+            int id = streamId & ~MultiplexHandler.END_OF_STREAM;
+            CompletableFuture<ReceiveData> future = new CompletableFuture<>();
+            if (mPending.putIfAbsent(id, future) != null) {
+                throw new IllegalStateException("stream " + id + " is waiting for response");
+            }
+            // タイムアウトなどで待つのをやめた場合にも取り除く
+            future.whenComplete((data, e) -> mPending.remove(id, future));
+
+            Sender sender = new Sender(sendData, mOnSendListener, mConnectionAllocator, streamId);
+            mOutbound.add(sender);
+            WorkerLoop loop = mLoop;
+            if (mIsClosed || loop == null) {
+                if (mOutbound.remove(sender)) {
+                    sender.abort();
+                }
+                future.completeExceptionally(new IOException("connection closed"));
+                return future;
+            }
+            loop.execute(() -> {
+                SelectionKey key = loop.keyFor(mChannel);
+                if (key != null && key.isValid()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            });
+            return future;
+        }
+
+        /**
+         * @since 1.6.0
+         */
+        @Override
+        public void handle(SelectionKey key) throws IOException {
+            try {
+                if (key.isReadable()) {
+                    read(key);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    write(key);
+                }
+            } catch (Throwable e) {
+                disconnect(key, e);
+                log.warn("multiplex client handle error", e);
+            }
+        }
+
+        private void read(SelectionKey key) throws IOException {
+            while (!mIsClosed) {
+                Receiver.Result result = mReceiver.receive(mChannel);
+
+                if (result == Receiver.Result.DISCONNECT) {
+                    disconnect(key, null);
+                    return;
+                }
+
+                if (result == Receiver.Result.ERROR) {
+                    log.warn("receive error");
+                    disconnect(key, new IOException("reading channel returns -1"));
+                    return;
+                }
+
+                if (result == Receiver.Result.UNFINISHED) {
+                    return;
+                }
+
+                int id = mReceiver.getStreamId() & ~MultiplexHandler.END_OF_STREAM;
+                CompletableFuture<ReceiveData> future = mPending.remove(id);
+                if (future == null) {
+                    log.debug("response for stream {} is discarded", id);
+                    continue;
+                }
+                future.complete(mReceiver.getData());
+            }
+        }
+
+        private void write(SelectionKey key) throws IOException {
+            Sender sender;
+            while ((sender = mOutbound.peek()) != null) {
+                if (sender.send(mChannel) == Sender.Result.UNFINISHED) {
+                    return;
+                }
+                mOutbound.poll();
+            }
+            // 送信データの追加時には、このあとで必ず書き込みの通知が再設定される
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void disconnect(SelectionKey key, Throwable cause) {
+            if (mIsClosed) {
+                return;
+            }
+            fail(new IOException("disconnected", cause));
+            try {
+                NonBlockingMultiplexClient.this.disconnect(mChannel, key, cause);
+            } catch (IOException e) {
+                log.warn("disconnect error", e);
+            }
+        }
+
+        private void fail(IOException cause) {
+            mIsClosed = true;
+            for (CompletableFuture<ReceiveData> future : mPending.values()) {
+                future.completeExceptionally(cause);
+            }
+            mPending.clear();
+            Sender sender;
+            while ((sender = mOutbound.poll()) != null) {
+                sender.abort();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         * 送信キューに残っている送信データの送信を中止し、応答を待っているすべての送信を例外完了させます。
+         * @since 1.6.0
+         */
+        @Override
+        public void close() {
+            fail(new IOException("connection closed"));
+        }
+    }
+}
@@ -10,8 +10,13 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -20,10 +25,17 @@ import java.util.concurrent.RejectedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jp.gr.java_conf.falius.communication.buffer.BufferAllocator;
+import jp.gr.java_conf.falius.communication.buffer.HeapBufferAllocator;
+import jp.gr.java_conf.falius.communication.buffer.PooledDirectBufferAllocator;
 import jp.gr.java_conf.falius.communication.core.Server;
 import jp.gr.java_conf.falius.communication.listener.OnDisconnectCallback;
 import jp.gr.java_conf.falius.communication.listener.OnReceiveListener;
 import jp.gr.java_conf.falius.communication.listener.OnSendListener;
+import jp.gr.java_conf.falius.communication.listener.StreamingReceiveListener;
+import jp.gr.java_conf.falius.communication.rcvdata.FileSink;
+import jp.gr.java_conf.falius.communication.swapper.AsyncSwapper;
+import jp.gr.java_conf.falius.communication.swapper.AsyncSwapperFactory;
 import jp.gr.java_conf.falius.communication.swapper.Swapper;
 import jp.gr.java_conf.falius.communication.swapper.SwapperFactory;
 
@@ -77,6 +89,20 @@ import jp.gr.java_conf.falius.communication.swapper.SwapperFactory;
  * </pre>
  *
  * <p>
+ * 通常は接続の受け入れと各接続先との送受信をひとつのスレッドで行いますが、
+ * ワーカー数を指定してインスタンスを作成した場合は、接続の受け入れのみをひとつのスレッドで行い、
+ * 受け入れた接続は指定した数のワーカースレッドに順番に割り振られます。
+ * 各ワーカーはそれぞれ独自のSelectorを持つため、送受信の処理を複数のコアに分散させることができます。
+ * <pre>
+ * {@code
+ * try (Server server = new NonBlockingServer(PORT, swapperFactory, NonBlockingServer.DEFAULT_WORKER_COUNT)) {
+ *     server.startOnNewThread();
+ *     ...
+ * }
+ * }
+ * </pre>
+ *
+ * <p>
  * Timeoutの設定はなく、{@link shutdown}メソッドあるいは{@link close}メソッドが実行されるまで起動を
  * 続けます。
  *
@@ -92,12 +118,20 @@ import jp.gr.java_conf.falius.communication.swapper.SwapperFactory;
 public class NonBlockingServer implements SocketServer, Disconnectable {
     private static final Logger log = LoggerFactory.getLogger(NonBlockingServer.class);
 
+    /**
+     * ワーカー数の既定値です。利用可能なプロセッサ数と等しくなります。
+     * @since 1.6.0
+     */
+    public static final int DEFAULT_WORKER_COUNT = Runtime.getRuntime().availableProcessors();
+
     private final int mServerPort;
+    private final int mWorkerCount;
 
     private volatile ServerSocketChannel mServerSocketChannel = null;
     private volatile Selector mSelector = null;
 
     private ExecutorService mExecutor = null;
+    private ExecutorService mWorkerExecutor = null;
 
     private final AcceptHandler mAcceptHandler;
 
@@ -114,9 +148,60 @@ public class NonBlockingServer implements SocketServer, Disconnectable {
      */
     public NonBlockingServer(int serverPort, SwapperFactory swapperFactory) {
         mServerPort = serverPort;
+        mWorkerCount = 0;
+        mAcceptHandler = new AcceptHandler(this, swapperFactory);
+    }
+
+    /**
+     * 接続の受け入れと送受信を別のスレッドで行うサーバーを作成します。
+     * 受け入れた接続は、workerCount個のワーカーに順番に割り振られます。
+     * @param serverPort
+     * @param swapperFactory
+     * @param workerCount 送受信を行うワーカーの数。{@link DEFAULT_WORKER_COUNT}を渡すとプロセッサ数と同じになります。
+     * @throws IllegalArgumentException workerCountが1未満の場合
+     * @since 1.6.0
+     */
+    public NonBlockingServer(int serverPort, SwapperFactory swapperFactory, int workerCount) {
+        mServerPort = serverPort;
+        mWorkerCount = requirePositiveWorkerCount(workerCount);
+        mAcceptHandler = new AcceptHandler(this, swapperFactory);
+    }
+
+    /**
+     * 送信データを非同期に作成するサーバーを作成します。
+     * AsyncSwapper#swapメソッドが返すFutureが完了するまでの間、読み書きを行うスレッドは他の接続先の処理を続けます。
+     * @param serverPort
+     * @param swapperFactory
+     * @since 1.6.0
+     */
+    public NonBlockingServer(int serverPort, AsyncSwapperFactory swapperFactory) {
+        mServerPort = serverPort;
+        mWorkerCount = 0;
+        mAcceptHandler = new AcceptHandler(this, swapperFactory);
+    }
+
+    /**
+     * 送信データを非同期に作成し、接続の受け入れと送受信を別のスレッドで行うサーバーを作成します。
+     * @param serverPort
+     * @param swapperFactory
+     * @param workerCount 送受信を行うワーカーの数。{@link DEFAULT_WORKER_COUNT}を渡すとプロセッサ数と同じになります。
+     * @throws IllegalArgumentException workerCountが1未満の場合
+     * @since 1.6.0
+     * @see AsyncSwapper
+     */
+    public NonBlockingServer(int serverPort, AsyncSwapperFactory swapperFactory, int workerCount) {
+        mServerPort = serverPort;
+        mWorkerCount = requirePositiveWorkerCount(workerCount);
         mAcceptHandler = new AcceptHandler(this, swapperFactory);
     }
 
+    private static int requirePositiveWorkerCount(int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("worker count must be positive: " + workerCount);
+        }
+        return workerCount;
+    }
+
     /**
      * {@inheritDoc}
      * @since 1.0
@@ -158,6 +243,195 @@ public class NonBlockingServer implements SocketServer, Disconnectable {
         mOnDisconnectCallback = callback;
     }
 
+    /**
+     * <p>
+     * {@link Swapper#swap}メソッドを実行するExecutorを設定します。
+     * 設定しなければ、swapメソッドは読み書きを行うスレッドでそのまま実行されます。
+     *
+     * <p>
+     * swapメソッドの処理に時間がかかる場合に設定すると、その間も他の接続先との送受信を続けることができます。
+     * swapメソッドの実行中はその接続先との読み書きを停止し、送信データが作成された時点で再開します。
+     * そのため、同じ接続先に対するswapメソッドが並行して実行されることはありません。
+     *
+     * <p>
+     * リスナーと同様に、変更後に開始された接続から有効になります。
+     * {@link AsyncSwapperFactory}を渡して作成したサーバーでは利用されません。
+     * @param executor swapメソッドを実行するExecutor。nullを渡すと読み書きを行うスレッドで実行するように戻ります。
+     * @since 1.6.0
+     */
+    public void setSwapExecutor(Executor executor) {
+        mAcceptHandler.setSwapExecutor(executor);
+    }
+
+    /**
+     * <p>
+     * 各接続先との送受信を全二重で行うかどうかを設定します。
+     *
+     * <p>
+     * 通常は読み込みと書き込みを交互に切り替えて行いますが、全二重で行う場合は接続の間ずっと読み込みを続け、
+     * 送信データは接続ごとのキューに格納して書き込み可能になった時点で送信します。
+     * そのため、送信中でも次の受信データを読み込むことができ、送受信を切り替えるための待ち時間もなくなります。
+     * Swapperの使い方に変わりはなく、swapメソッドは受信した順番に実行され、送信もその順番で行われます。
+     *
+     * <p>
+     * リスナーと同様に、変更後に開始された接続から有効になります。
+     * @param isFullDuplex
+     * @since 1.6.0
+     */
+    public void setFullDuplex(boolean isFullDuplex) {
+        mAcceptHandler.setFullDuplex(isFullDuplex);
+    }
+
+    /**
+     * <p>
+     * 各接続を多重化して扱うかどうかを設定します。
+     * {@link NonBlockingMultiplexClient}からの接続を受け入れる場合に設定してください。
+     *
+     * <p>
+     * 多重化された接続では、受信データの先頭にストリームIDが付加されており、
+     *     ひとつの接続の中にストリームIDで区別される複数のストリームが存在します。
+     * SwapperFactory#getメソッドは接続ごとではなくストリームごとに実行され、
+     *     応答には受信データと同じストリームIDを付加して送信します。
+     * Swapper#doContinueメソッドがfalseを返すとそのストリームは終わりますが、接続は相手が切断するまで維持されます。
+     *
+     * <p>
+     * {@link setSwapExecutor}でExecutorを設定した場合や{@link AsyncSwapperFactory}を渡して作成したサーバーでは、
+     *     異なるストリームのswapメソッドは並行して実行され、応答は完了した順番に送信されます。
+     * 全二重の設定({@link setFullDuplex})は無視されます。
+     *
+     * <p>
+     * リスナーと同様に、変更後に開始された接続から有効になります。
+     * @param isMultiplexed
+     * @since 1.6.0
+     */
+    public void setMultiplexed(boolean isMultiplexed) {
+        mAcceptHandler.setMultiplexed(isMultiplexed);
+    }
+
+    /**
+     * <p>
+     * 送受信に利用するバッファを確保するBufferAllocatorを設定します。
+     * デフォルトでは送受信の度に新しいヒープバッファを確保します({@link HeapBufferAllocator})。
+     *
+     * <p>
+     * {@link PooledDirectBufferAllocator}を設定すると、ダイレクトバッファをプールして再利用するようになり、
+     *     多数の送受信を行う場合のガベージコレクションの負荷とJDK内部でのバッファのコピーを減らすことができます。
+     * 受信データを格納したバッファは、ReceiveDataのgetXXXメソッドでデータを取得した時点、
+     *     あるいはReceiveData#clearメソッドを実行した時点で返却されます。
+     * ReceiveData#getメソッドなどでバッファそのものを取得した場合は返却されず、
+     *     ガベージコレクションによって回収されます。
+     * 送信用のバッファは送信を終えた時点で返却されます。
+     *
+     * <p>
+     * リスナーと同様に、変更後に開始された接続から有効になります。
+     * @param allocator
+     * @throws NullPointerException allocatorがnullの場合
+     * @since 1.6.0
+     */
+    public void setBufferAllocator(BufferAllocator allocator) {
+        mAcceptHandler.setBufferAllocator(Objects.requireNonNull(allocator));
+    }
+
+    /**
+     * <p>
+     * 受信するデータをファイルに直接書き込むかどうかを問い合わせるFileSinkを設定します。
+     * FileSinkがファイルのチャネルを返したデータは、メモリ上に格納されることなく
+     *     FileChannel#transferFromメソッドでソケット・チャネルから直接ファイルに書き込まれます。
+     * 大きなファイルを受信する場合でも、ヒープにファイル全体を格納する必要がなくなります。
+     *
+     * <p>
+     * リスナーと同様に、変更後に開始された接続から有効になります。
+     * @param sink nullであれば、すべてのデータをメモリ上に受信します
+     * @since 1.6.0
+     */
+    public void setFileSink(FileSink sink) {
+        mAcceptHandler.setFileSink(sink);
+    }
+
+    /**
+     * <p>
+     * 受信単位のすべてを読み取り終えるのを待たずに、受信したデータを順次受け取るリスナーを設定します。
+     * 大きなデータを複数含む受信単位であっても、先に読み取り終えたデータから処理を始めることができます。
+     * 受信単位のすべてを読み取り終えた後には、これまで通りSwapperや{@link OnReceiveListener}に受信データが渡されます。
+     *
+     * <p>
+     * 他のリスナーと同様に、変更後に開始された接続から有効になります。
+     * @param listener
+     * @since 1.6.0
+     */
+    public void addStreamingReceiveListener(StreamingReceiveListener listener) {
+        mAcceptHandler.addStreamingReceiveListener(listener);
+    }
+
+    /**
+     * <p>
+     * 一つの受信単位の大きさの上限を設定します。
+     * ヘッダーに書かれた大きさが上限を超えている場合は、データ本体のためのバッファを確保することなく接続を切断します。
+     * サイズの分からないチャンクに分けられたデータは、読み取った大きさが上限を超えた時点で切断します。
+     *
+     * <p>
+     * デフォルトでは上限はありません。変更後に開始された接続から有効になります。
+     * @param size ヘッダーを含めた受信単位のバイト数の上限
+     * @throws IllegalArgumentException sizeが正の数でない場合
+     * @since 1.6.0
+     */
+    public void setMaxFrameSize(long size) {
+        mAcceptHandler.setMaxFrameSize(size);
+    }
+
+    /**
+     * <p>
+     * 受信単位に含まれる一つのデータの大きさの上限を設定します。
+     * 上限を超えるデータを含む受信単位を受け取った場合は、接続を切断します。
+     *
+     * <p>
+     * デフォルトでは上限はありません。変更後に開始された接続から有効になります。
+     * @param size データのバイト数の上限
+     * @throws IllegalArgumentException sizeが正の数でない場合
+     * @since 1.6.0
+     */
+    public void setMaxItemSize(long size) {
+        mAcceptHandler.setMaxItemSize(size);
+    }
+
+    /**
+     * <p>
+     * 指定したバイト数を超えるデータを、メモリ上のバッファではなく一時ファイルに受信するようにします。
+     * 一時ファイルに受信したデータは、受信を終えた時点でメモリにマップされた読み取り専用のバッファとして受信データに格納されます。
+     * 大きなデータを受信する場合でも、ヒープを圧迫することがなくなります。
+     *
+     * <p>
+     * FileSinkがファイルのチャネルを返したデータには適用されません。
+     * 変更後に開始された接続から有効になります。
+     * @param threshold メモリ上に受信するデータのバイト数の上限
+     * @param directory 一時ファイルを作成するディレクトリ。nullであればシステムのデフォルト
+     * @throws IllegalArgumentException thresholdが負の数の場合
+     * @since 1.6.0
+     */
+    public void setSpillThreshold(int threshold, Path directory) {
+        mAcceptHandler.setSpillThreshold(threshold, directory);
+    }
+
+    /**
+     * <p>
+     * Swapper#swapメソッドに渡した受信データを、swapメソッドが戻った後に接続ごとに再利用するようにします。
+     * 受信単位ごとに受信データのオブジェクトを作成しなくなります。
+     *
+     * <p>
+     * 有効にした場合、swapメソッドが戻った時点で受信データに残っているバッファはBufferAllocatorに返却され、
+     *     受信データは次の受信単位の格納に使われます。
+     * swapメソッドやOnReceiveListenerの外に受信データを持ち出さないでください。getメソッドで取り出したバッファはこれまで通り利用できます。
+     * Swapper#swapメソッドを非同期に実行する場合は再利用しません。
+     *
+     * <p>
+     * デフォルトでは無効です。変更後に開始された接続から有効になります。
+     * @param isRecyclable
+     * @since 1.6.0
+     */
+    public void setRecycleReceiveData(boolean isRecyclable) {
+        mAcceptHandler.setRecycleReceiveData(isRecyclable);
+    }
+
     /**
      * 独自に作成したスレッドで実行する際に利用します。
      * しかし、同一インスタンスを並列実行することは想定されていませんので注意してください。
@@ -214,6 +488,7 @@ public class NonBlockingServer implements SocketServer, Disconnectable {
 
     /**
      * @since 1.0
+     * @version 1.6.0
      */
     @Override
     public void shutdown() throws IOException {
@@ -221,8 +496,9 @@ public class NonBlockingServer implements SocketServer, Disconnectable {
             return;
         }
 
-        mSelector.wakeup();
+        // 先にチャネルを閉じてからselectを抜けさせないと、ループがもう一度selectで待機してしまう
         mServerSocketChannel.close();
+        mSelector.wakeup();
         if (mExecutor != null) {
             mExecutor.shutdown();
             log.debug("executor shutdown");
@@ -254,29 +530,67 @@ public class NonBlockingServer implements SocketServer, Disconnectable {
 
             channel.configureBlocking(false);
             channel.register(selector, SelectionKey.OP_ACCEPT, mAcceptHandler);
+            SelectorTaskQueue tasks = new SelectorTaskQueue(selector);
+            mAcceptHandler.setLoop(tasks);
+            startWorkers();
+
+            try {
+                while (channel.isOpen()) {
+                    // select()メソッドの戻り値は新しく通知(OP_ACCEPT)のあったキーの数
+                    // selectedKeys(Setオブジェクト)から明示的に削除しない限り、
+                    // キーはselectedKeysに格納されたままになる
+                    // 削除しないと、次回も再び同じキーで通知される
+                    if (selector.select() > 0 || selector.selectedKeys().size() > 0) {
+
+                        Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                        while (iter.hasNext()) {
+                            SelectionKey key = iter.next();
+                            SocketHandler handler = (SocketHandler) key.attachment();
+                            handler.handle(key);
+                            iter.remove();
+                        }
 
-            while (channel.isOpen()) {
-                // select()メソッドの戻り値は新しく通知(OP_ACCEPT)のあったキーの数
-                // selectedKeys(Setオブジェクト)から明示的に削除しない限り、
-                // キーはselectedKeysに格納されたままになる
-                // 削除しないと、次回も再び同じキーで通知される
-                if (selector.select() > 0 || selector.selectedKeys().size() > 0) {
-
-                    Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
-                    while (iter.hasNext()) {
-                        SelectionKey key = iter.next();
-                        SocketHandler handler = (SocketHandler) key.attachment();
-                        handler.handle(key);
-                        iter.remove();
                     }
-
+                    tasks.runTasks();
                 }
+            } finally {
+                tasks.close();
             }
 
+        } finally {
+            shutdownWorkers();
         }
 
     }
 
+    /**
+     * ワーカー数が指定されていれば、ワーカーを作成して起動します。
+     * @throws IOException
+     */
+    private void startWorkers() throws IOException {
+        if (mWorkerCount == 0) {
+            return;
+        }
+        List<WorkerLoop> workers = new ArrayList<>(mWorkerCount);
+        mWorkerExecutor = Executors.newFixedThreadPool(mWorkerCount);
+        for (int i = 0; i < mWorkerCount; i++) {
+            WorkerLoop worker = new WorkerLoop();
+            workers.add(worker);
+            mWorkerExecutor.submit(worker);
+        }
+        mAcceptHandler.setWorkers(workers);
+        log.debug("{} workers start", mWorkerCount);
+    }
+
+    private void shutdownWorkers() {
+        if (mWorkerExecutor == null) {
+            return;
+        }
+        mAcceptHandler.shutdownWorkers();
+        mWorkerExecutor.shutdown();
+        log.debug("workers shutdown");
+    }
+
     /**
      *
      * @param channel
@@ -301,6 +615,7 @@ public class NonBlockingServer implements SocketServer, Disconnectable {
                 channel.close();
             }
             key.cancel();
+            SocketHandler.close(key);
 
             if (mOnDisconnectCallback != null) {
                 mOnDisconnectCallback.onDissconnect(remote, cause);
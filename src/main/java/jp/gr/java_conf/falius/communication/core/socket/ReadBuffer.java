@@ -0,0 +1,139 @@
+package jp.gr.java_conf.falius.communication.core.socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import jp.gr.java_conf.falius.communication.buffer.BufferAllocator;
+
+/**
+ * <p>
+ * 接続ごとに保持される読み込み用のバッファです。
+ * チャネルからまとめて読み込んだデータを保持し、{@link Receiver}はここから受信単位を切り出します。
+ *
+ * <p>
+ * バッファのサイズは実際に読み込めたデータ量に応じて調整されます。
+ * 一度の読み込みでバッファを使い切った場合は次回から倍のサイズで読み込み、
+ * 半分のサイズで足りる読み込みが続いた場合には半分のサイズに縮めます。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+class ReadBuffer {
+    static final int MIN_SIZE = 64;
+    static final int INITIAL_SIZE = 2048;
+    static final int MAX_SIZE = 64 * 1024;
+
+    private final BufferAllocator mAllocator;
+    private ByteBuffer mBuf;  // 未処理のデータがpositionからlimitまでに格納された状態を保つ
+    private int mNextSize = INITIAL_SIZE;
+    private boolean mDecreaseNow = false;
+
+    /**
+     *
+     * @param allocator バッファを確保するBufferAllocator。サイズを変更した際には古いバッファを返却します
+     * @since 1.6.0
+     */
+    ReadBuffer(BufferAllocator allocator) {
+        mAllocator = allocator;
+        mBuf = allocator.allocate(mNextSize);
+        mBuf.flip();
+    }
+
+    /**
+     * 未処理のデータを格納したバッファを返します。
+     * 呼び出し側はデータを処理した分だけpositionを進めてください。
+     * @return positionからlimitまでに未処理のデータが格納されたバッファ
+     * @since 1.6.0
+     */
+    ByteBuffer buffer() {
+        return mBuf;
+    }
+
+    /**
+     * チャネルからバッファの空き容量いっぱいまで読み込みます。
+     * @param channel
+     * @return 読み込んだバイト数。チャネルが終端に達していれば-1
+     * @throws IOException
+     * @since 1.6.0
+     */
+    int read(SocketChannel channel) throws IOException {
+        prepare();
+        int start = mBuf.position();
+        int tmp = channel.read(mBuf);
+        record(mBuf.position() - start);
+        mBuf.flip();
+        return tmp;
+    }
+
+    /**
+     * 指定されたバッファを先に埋め、さらに読み込めるデータがあればこのバッファに読み込みます。
+     * 未処理のデータが残っていない状態で呼び出してください。
+     * @param channel
+     * @param dsts 先に埋めるバッファの配列
+     * @param offset
+     * @param length
+     * @return 読み込んだバイト数。チャネルが終端に達していれば-1
+     * @throws IOException
+     * @since 1.6.0
+     */
+    long read(SocketChannel channel, ByteBuffer[] dsts, int offset, int length) throws IOException {
+        if (mBuf.hasRemaining()) {
+            throw new IllegalStateException("unprocessed data remains");
+        }
+        prepare();
+        ByteBuffer[] bufs = new ByteBuffer[length + 1];
+        System.arraycopy(dsts, offset, bufs, 0, length);
+        bufs[length] = mBuf;
+        long tmp = channel.read(bufs);
+        record(mBuf.position());
+        mBuf.flip();
+        return tmp;
+    }
+
+    /**
+     * 未処理のデータを先頭に詰め、読み込むサイズに合わせてバッファを確保し直します。
+     * 呼び出し後のバッファは書き込み可能な状態になります。
+     */
+    private void prepare() {
+        int capacity = mBuf.capacity();
+        int size = mNextSize;
+        if (mBuf.remaining() == capacity) {
+            // 未処理のデータだけでバッファが埋まっている(ヘッダーがバッファに収まらない)場合は、最大サイズを超えて広げる
+            size = capacity * 2;
+        }
+        if (size != capacity && mBuf.remaining() <= size) {
+            ByteBuffer newBuf = mAllocator.allocate(size);
+            newBuf.put(mBuf);
+            mAllocator.release(mBuf);
+            mBuf = newBuf;
+            return;
+        }
+        mBuf.compact();
+    }
+
+    /**
+     * 実際にこのバッファに読み込めたデータ量から、次回読み込むサイズを決めます。
+     * @param actualBytes
+     */
+    private void record(int actualBytes) {
+        int capacity = mBuf.capacity();
+        if (!mBuf.hasRemaining()) {
+            // バッファを使い切ったので、次回はより大きなバッファで読み込む
+            mNextSize = Math.min(capacity * 2, MAX_SIZE);
+            mDecreaseNow = false;
+            return;
+        }
+        if (actualBytes <= capacity / 2 && capacity > MIN_SIZE) {
+            // 一度だけの小さな読み込みでは縮めず、続いた場合に縮める
+            if (mDecreaseNow) {
+                mNextSize = Math.max(capacity / 2, MIN_SIZE);
+                mDecreaseNow = false;
+            } else {
+                mDecreaseNow = true;
+            }
+            return;
+        }
+        mDecreaseNow = false;
+    }
+}
@@ -3,6 +3,7 @@ package jp.gr.java_conf.falius.communication.core.socket;
 import java.io.IOException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +12,7 @@ import org.slf4j.LoggerFactory;
  * 読み込み処理を行うハンドラ
  * @author "ymiyauchi"
  * @since 1.0
+ * @version 1.6.0
  *
  */
 class ReadingHandler implements SocketHandler {
@@ -19,11 +21,21 @@ class ReadingHandler implements SocketHandler {
     private final Disconnectable mDisconnectable;
     private final Remote mRemote;
     private final boolean mIsClient;
+    private final Executor mLoop;
 
-    ReadingHandler(Disconnectable disconnectable, Remote remote, boolean isClient) {
+    /**
+     *
+     * @param disconnectable
+     * @param remote
+     * @param isClient
+     * @param loop チャネルを登録したSelectorのイベントループのスレッドで処理を実行するExecutor
+     * @since 1.6.0
+     */
+    ReadingHandler(Disconnectable disconnectable, Remote remote, boolean isClient, Executor loop) {
         mDisconnectable = disconnectable;
         mRemote = remote;
         mIsClient = isClient;
+        mLoop = loop;
     }
 
     /**
@@ -58,7 +70,7 @@ class ReadingHandler implements SocketHandler {
 
             if (!mIsClient || mRemote.doContinue()) {
                 key.interestOps(SelectionKey.OP_WRITE);
-                key.attach(new WritingHandler(mDisconnectable, mRemote, mIsClient));
+                key.attach(new WritingHandler(mDisconnectable, mRemote, mIsClient, mLoop));
             } else {
                 mDisconnectable.disconnect(channel, key, null);
             }
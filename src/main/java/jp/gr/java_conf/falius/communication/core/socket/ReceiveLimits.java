@@ -0,0 +1,103 @@
+package jp.gr.java_conf.falius.communication.core.socket;
+
+import java.nio.file.Path;
+
+/**
+ * <p>
+ * 受信単位の大きさの上限と、ファイルに退避するデータの大きさをまとめたクラスです。
+ * 接続ごとの{@link Receiver}に渡されます。
+ *
+ * <p>
+ * 不変クラスです。設定を変更する際には新しいインスタンスを作成します。
+ * 変更前のインスタンスを保持している接続には、変更が反映されません。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+final class ReceiveLimits {
+    static final ReceiveLimits DEFAULT = new ReceiveLimits(Long.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, null);
+
+    private final long mMaxFrameSize;
+    private final long mMaxItemSize;
+    private final int mSpillThreshold;
+    private final Path mSpillDirectory;
+
+    private ReceiveLimits(long maxFrameSize, long maxItemSize, int spillThreshold, Path spillDirectory) {
+        mMaxFrameSize = maxFrameSize;
+        mMaxItemSize = maxItemSize;
+        mSpillThreshold = spillThreshold;
+        mSpillDirectory = spillDirectory;
+    }
+
+    /**
+     * @return 受信単位全体の大きさの上限
+     * @since 1.6.0
+     */
+    long maxFrameSize() {
+        return mMaxFrameSize;
+    }
+
+    /**
+     * @return 一つのデータの大きさの上限
+     * @since 1.6.0
+     */
+    long maxItemSize() {
+        return mMaxItemSize;
+    }
+
+    /**
+     * @return メモリ上に受信するデータの大きさの上限。これを超えるデータは一時ファイルに退避されます
+     * @since 1.6.0
+     */
+    int spillThreshold() {
+        return mSpillThreshold;
+    }
+
+    /**
+     * @return 一時ファイルを作成するディレクトリ。nullであればシステムのデフォルト
+     * @since 1.6.0
+     */
+    Path spillDirectory() {
+        return mSpillDirectory;
+    }
+
+    /**
+     * @param size
+     * @return 受信単位全体の大きさの上限を変更したインスタンス
+     * @throws IllegalArgumentException sizeが正の数でない場合
+     * @since 1.6.0
+     */
+    ReceiveLimits withMaxFrameSize(long size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("max frame size must be positive: " + size);
+        }
+        return new ReceiveLimits(size, mMaxItemSize, mSpillThreshold, mSpillDirectory);
+    }
+
+    /**
+     * @param size
+     * @return 一つのデータの大きさの上限を変更したインスタンス
+     * @throws IllegalArgumentException sizeが正の数でない場合
+     * @since 1.6.0
+     */
+    ReceiveLimits withMaxItemSize(long size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("max item size must be positive: " + size);
+        }
+        return new ReceiveLimits(mMaxFrameSize, size, mSpillThreshold, mSpillDirectory);
+    }
+
+    /**
+     * @param threshold
+     * @param directory
+     * @return 一時ファイルに退避するデータの大きさと一時ファイルを作成するディレクトリを変更したインスタンス
+     * @throws IllegalArgumentException thresholdが負の数の場合
+     * @since 1.6.0
+     */
+    ReceiveLimits withSpillThreshold(int threshold, Path directory) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("spill threshold must not be negative: " + threshold);
+        }
+        return new ReceiveLimits(mMaxFrameSize, mMaxItemSize, threshold, directory);
+    }
+}
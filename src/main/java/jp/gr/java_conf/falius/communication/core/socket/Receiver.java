@@ -2,18 +2,26 @@ package jp.gr.java_conf.falius.communication.core.socket;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayDeque;
 import java.util.Queue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jp.gr.java_conf.falius.communication.buffer.BufferAllocator;
+import jp.gr.java_conf.falius.communication.buffer.HeapBufferAllocator;
 import jp.gr.java_conf.falius.communication.header.Header;
 import jp.gr.java_conf.falius.communication.header.HeaderFactory;
 import jp.gr.java_conf.falius.communication.listener.OnReceiveListener;
+import jp.gr.java_conf.falius.communication.listener.StreamingReceiveListener;
 import jp.gr.java_conf.falius.communication.rcvdata.BasicReceiveData;
+import jp.gr.java_conf.falius.communication.rcvdata.FileSink;
 import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
 
 /**
@@ -21,7 +29,7 @@ import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
  * Senderとは異なり、一度の通信の間保持されます。
  * @author "ymiyauchi"
  * @since 1.0
- * @version 1.4.0
+ * @version 1.6.0
  *
  */
 class Receiver {
@@ -31,10 +39,55 @@ class Receiver {
         ERROR, UNFINISHED, FINISHED, DISCONNECT,
     }
 
+    private final boolean mIsMultiplexed;
     private ReceiveData mLatestData = null;
-    private Entry mNonFinishedEntry = null;
+    private Queue<ByteBuffer> mLatestItems = null;  // mLatestDataが保持しているキュー
+    private int mLatestStreamId = 0;
+    private boolean mIsRecyclable = false;  // 受信データを再利用するかどうか
+    private BasicReceiveData mRecycledData = null;  // 再利用できる受信データ
+    private Queue<ByteBuffer> mRecycledItems = null;  // mRecycledDataが保持しているキュー
 
     private OnReceiveListener mListener = null;
+    private StreamingReceiveListener mStreamingListener = null;
+    private BufferAllocator mAllocator = HeapBufferAllocator.INSTANCE;
+    private ReadBuffer mReadBuffer = null;
+    private FileSink mFileSink = null;
+    private ReceiveLimits mLimits = ReceiveLimits.DEFAULT;
+
+    private boolean mIsCompact = false;  // 各サイズを可変長整数で表す形式のヘッダーを読み取るかどうか
+    private boolean mIsHandshakeChecked = false;  // 接続の先頭にハンドシェイクの値があるかどうかを確かめたかどうか
+
+    // 読み取り途中の受信単位
+    private boolean mHasStreamId = false;
+    private int mStreamId = 0;
+    private ByteBuffer[] mItems = null;
+    private int mItemIndex = 0;
+    private FileChannel[] mSinks = null;  // mItemsと同じ位置に、ファイルに直接書き込むデータの書き込み先を保持する
+    private long[] mSinkRemains = null;
+    private boolean[] mIsChunked = null;  // mItemsと同じ位置に、チャンクに分けて送られてくるデータかどうかを保持する
+    private int mChunkRemain = -1;  // 読み取り中のチャンクの残りバイト数。チャンクのサイズを読み取る前であれば-1
+    private long mChunkedItemSize = 0;  // 読み取り中のチャンクに分けられたデータの、これまでに読み取ったバイト数
+    private long mFrameSize = 0;  // チャンクに分けられたデータを含めた、受信単位全体のバイト数
+    private boolean[] mIsSpilled = null;  // mItemsと同じ位置に、一時ファイルに退避したデータかどうかを保持する
+    private String mRemoteAddress = null;
+    private int mNotifiedIndex = 0;  // StreamingReceiveListenerにまだ渡し終えていない最初のデータの位置
+    private int mNotifiedPosition = 0;  // そのデータのうち、StreamingReceiveListenerに渡した部分の終わりの位置
+
+    /**
+     * @since 1.0
+     */
+    Receiver() {
+        this(false);
+    }
+
+    /**
+     *
+     * @param isMultiplexed trueであれば、各受信単位の先頭にストリームIDが付加されているものとして読み取ります
+     * @since 1.6.0
+     */
+    Receiver(boolean isMultiplexed) {
+        mIsMultiplexed = isMultiplexed;
+    }
 
     /**
      *
@@ -45,6 +98,94 @@ class Receiver {
         mListener = listener;
     }
 
+    /**
+     * 受信単位のすべてを読み取り終えるのを待たずに、受信したデータを順次受け取るリスナーを設定します。
+     * @param listener nullであれば、受信単位のすべてを読み取り終えるまで受信データを渡しません
+     * @since 1.6.0
+     */
+    public void addStreamingReceiveListener(StreamingReceiveListener listener) {
+        mStreamingListener = listener;
+    }
+
+    /**
+     * 受信データを格納するバッファを確保するBufferAllocatorを設定します。
+     * 確保したバッファは、受信データが消費された時点でこのBufferAllocatorに返却されます。
+     * 受信を始める前に設定してください。
+     * @param allocator
+     * @since 1.6.0
+     */
+    public void setBufferAllocator(BufferAllocator allocator) {
+        mAllocator = allocator;
+    }
+
+    /**
+     * データ本体を受信する前に、データをファイルに直接書き込むかどうかを問い合わせるFileSinkを設定します。
+     * @param sink nullであれば、すべてのデータをメモリ上のバッファに受信します
+     * @since 1.6.0
+     */
+    public void setFileSink(FileSink sink) {
+        mFileSink = sink;
+    }
+
+    /**
+     * 受信単位の大きさの上限と、一時ファイルに退避するデータの大きさを設定します。
+     * 受信を始める前に設定してください。
+     * @param limits
+     * @since 1.6.0
+     */
+    public void setReceiveLimits(ReceiveLimits limits) {
+        mLimits = limits;
+    }
+
+    /**
+     * 各サイズを可変長整数で表す形式のヘッダーを読み取るようにします。
+     * ハンドシェイクの値を送信した側が、応答を読み取るために利用します。
+     * 相手からハンドシェイクの値が送られてくることはないため、確かめずに読み取ります。
+     * 受信を始める前に設定してください。
+     * @param isCompact
+     * @since 1.6.0
+     */
+    public void setCompact(boolean isCompact) {
+        mIsCompact = isCompact;
+        mIsHandshakeChecked = isCompact;
+    }
+
+    /**
+     * 各サイズを可変長整数で表す形式のヘッダーを読み取っているかどうかを返します。
+     * 接続の先頭でハンドシェイクの値を受信した場合もtrueになります。
+     * @return
+     * @since 1.6.0
+     */
+    public boolean isCompact() {
+        return mIsCompact;
+    }
+
+    /**
+     * Swapper#swapメソッドが戻った後に受信データを再利用するかどうかを設定します。
+     * 受信を始める前に設定してください。
+     * @param isRecyclable
+     * @since 1.6.0
+     */
+    public void setRecyclable(boolean isRecyclable) {
+        mIsRecyclable = isRecyclable;
+    }
+
+    /**
+     * 利用し終えた受信データを、次の受信単位のために再利用できるようにします。
+     * 受信データに残っているバッファはBufferAllocatorに返却されます。
+     * 再利用する設定でない場合、最新の受信データでない場合は何もしません。
+     * @param data
+     * @since 1.6.0
+     */
+    public void recycle(ReceiveData data) {
+        if (!mIsRecyclable || data == null || data != mLatestData || !(data instanceof BasicReceiveData)) {
+            return;
+        }
+        data.clear();
+        mRecycledData = (BasicReceiveData) data;
+        mRecycledItems = mLatestItems;
+    }
+
     /**
      * @return 最新の受信データ。まだ一度も受信していなければnull
      */
@@ -53,120 +194,524 @@ class Receiver {
     }
 
     /**
+     * 多重化された受信単位を読み取っている場合に、最新の受信データに付加されていたストリームIDを返します。
+     * @return 最新の受信データのストリームID
+     * @since 1.6.0
+     */
+    public int getStreamId() {
+        return mLatestStreamId;
+    }
+
+    /**
+     * チャネルから読み込み済みで、まだ受信単位として取り出していないデータがあるかどうかを返します。
+     * このデータはチャネルには残っていないため、読み込みの通知を待たずにreceiveメソッドで取り出す必要があります。
+     * @return 未処理のデータがあればtrue
+     * @since 1.6.0
+     */
+    public boolean hasBufferedData() {
+        return mReadBuffer != null && mReadBuffer.buffer().hasRemaining();
+    }
+
+    /**
+     * <p>
      * チャネルからデータを読み取ります。
+     * 一度の呼び出しで返すのはひとつの受信単位までです。
+     * 複数の受信単位が続けて届いている場合は、FINISHED以外が返るまで繰り返し呼び出すことができます。
+     *
+     * <p>
+     * チャネルからは接続ごとのバッファにまとめて読み込み、そこから受信単位を切り出します。
+     * そのため、すでにバッファに揃っている受信単位はチャネルからの読み込みを行わずに返します。
      *
      * @param channel 受信用ソケット・チャネル
      * @return すべての受信データを読み取ればFINISHED, まだ受信していないデータが残った状態で終わったなら
      * UNFINISHED, 通信が途切れるなどして受信できなかった場合にはERROR
      * @throws IOException チャネルからの読み取りで例外が発生した場合
      * @since 1.0
+     * @version 1.6.0
      */
     public Result receive(SocketChannel channel) throws IOException {
-        // もし送信側がByteBufferの配列を使って送信してきても、
-        //  受け取り側ではその内容がすべて連結されて送られてくる
+        if (mReadBuffer == null) {
+            mReadBuffer = new ReadBuffer(mAllocator);
+        }
+        try {
+            if (decode(channel)) {
+                return finish(channel);
+            }
 
-        Header header;
-        Entry entry;
-        if (mNonFinishedEntry == null) {
-            try {
-                header = HeaderFactory.from(channel);
-            } catch (IOException e) {
-                log.warn("header reading error", e);
+            long tmp;
+            if (mItems == null || isChunked(mItemIndex)) {
+                tmp = mReadBuffer.read(channel);
+            } else if (mSinks != null && mSinks[mItemIndex] != null) {
+                tmp = transferToSink(channel);
+            } else {
+                // データ部分はバッファを経由せず、各データのバッファに直接読み込む
+                int end = mItemIndex + 1;
+                while (end < mItems.length && (mSinks == null || mSinks[end] == null) && !isChunked(end)) {
+                    end++;
+                }
+                tmp = mReadBuffer.read(channel, mItems, mItemIndex, end - mItemIndex);
+            }
+            if (tmp < 0) {
+                if (isEmpty()) {
+                    log.debug("channel reached end of stream");
+                    return Result.DISCONNECT;
+                }
+                log.warn("recieve read returns -1");
+                closeSinks();
                 return Result.ERROR;
             }
+            if (tmp > 0 && decode(channel)) {
+                return finish(channel);
+            }
+            return Result.UNFINISHED;
+        } catch (IOException e) {
+            log.warn("header reading error", e);
+            closeSinks();
+            return Result.ERROR;
+        }
+    }
+
+    /**
+     * チャネルから、ファイルに直接書き込むデータを転送します。
+     * @return 転送したバイト数。チャネルが終端に達していれば-1
+     * @throws IOException
+     */
+    private long transferToSink(SocketChannel channel) throws IOException {
+        FileChannel sink = mSinks[mItemIndex];
+        long position = sink.position();
+        long tmp = sink.transferFrom(channel, position, mSinkRemains[mItemIndex]);
+        if (tmp == 0) {
+            // transferFromでは終端に達したかどうかが分からないため、バッファへの読み込みで確かめる
+            // 読み込んだデータはdecodeメソッドでファイルに書き込まれる
+            return mReadBuffer.read(channel);
+        }
+        sink.position(position + tmp);
+        mSinkRemains[mItemIndex] -= tmp;
+        return tmp;
+    }
+
+    /**
+     * バッファに格納されているデータから受信単位を組み立て、
+     *     StreamingReceiveListenerが設定されていれば新たに読み取った部分を渡します。
+     * @return 受信単位をすべて読み取ればtrue
+     * @throws IOException ヘッダーが不正な場合
+     */
+    private boolean decode(SocketChannel channel) throws IOException {
+        boolean isFinished = decodeItems(channel);
+        if (mStreamingListener != null && mItems != null) {
+            notifyProgress();
+        }
+        return isFinished;
+    }
+
+    /**
+     * バッファに格納されているデータから、受信単位を組み立てます。
+     * @return 受信単位をすべて読み取ればtrue
+     * @throws IOException ヘッダーが不正な場合
+     */
+    private boolean decodeItems(SocketChannel channel) throws IOException {
+        ByteBuffer buf = mReadBuffer.buffer();
+        if (mItems == null) {
+            if (!mIsHandshakeChecked) {
+                // ハンドシェイクの値は通常の形式の受信単位より短いため、４バイト揃うまで待っても問題ない
+                if (buf.remaining() < 4) {
+                    return false;
+                }
+                if (buf.getInt(buf.position()) == Header.COMPACT_HANDSHAKE) {
+                    buf.getInt();
+                    mIsCompact = true;
+                    log.debug("compact header handshake received");
+                }
+                mIsHandshakeChecked = true;
+            }
+            if (mIsMultiplexed && !mHasStreamId) {
+                if (buf.remaining() < 4) {
+                    return false;
+                }
+                mStreamId = buf.getInt();
+                mHasStreamId = true;
+            }
+            Header header;
+            if (mIsCompact) {
+                header = HeaderFactory.compactFrom(buf);
+                if (header == null && buf.remaining() > mLimits.maxFrameSize()) {
+                    throw new IOException("frame size exceeds the limit: " + buf.remaining());
+                }
+            } else {
+                checkFrameSize(buf);
+                header = HeaderFactory.from(buf);
+            }
             if (header == null) {
-                log.warn("header could not read. disconnect");
-                return Result.DISCONNECT;
+                log.debug("header unfinish reading");
+                return false;
+            }
+            if (header.allDataSizeAsLong() > mLimits.maxFrameSize()) {
+                throw new IOException("frame size exceeds the limit: " + header.allDataSizeAsLong());
+            }
+            log.debug("all data size: {}", header.allDataSizeAsLong());
+            LongBuffer sizeBuf = header.dataSizeBufferAsLong();
+            mItems = new ByteBuffer[sizeBuf.remaining()];
+            mItemIndex = 0;
+            mFrameSize = header.allDataSizeAsLong();
+            String remoteAddress = mFileSink == null && mStreamingListener == null ? null
+                    : channel.socket().getRemoteSocketAddress().toString();
+            mRemoteAddress = remoteAddress;
+            mNotifiedIndex = 0;
+            mNotifiedPosition = 0;
+            for (int i = 0; i < mItems.length; i++) {
+                long size = sizeBuf.get();
+                if (size == Header.CHUNKED) {
+                    if (mIsChunked == null) {
+                        mIsChunked = new boolean[mItems.length];
+                    }
+                    mIsChunked[i] = true;
+                } else if (size > mLimits.maxItemSize()) {
+                    throw new IOException("item size exceeds the limit: " + size);
+                }
+                FileChannel sink = mFileSink == null ? null : mFileSink.open(remoteAddress, i, size);
+                if (sink == null && size > Integer.MAX_VALUE) {
+                    // バッファにも、一時ファイルをマップしたバッファにも格納できない
+                    throw new IOException("item is too large to hold without a file sink: " + size);
+                }
+                if (sink == null && size > mLimits.spillThreshold()) {
+                    sink = openSpillFile(i);
+                }
+                if (sink == null) {
+                    // サイズの分からないデータは、チャンクを読み取るたびにバッファを広げる
+                    mItems[i] = mAllocator.allocate(size == Header.CHUNKED ? 0 : (int) size);
+                    continue;
+                }
+                // ファイルに書き込むデータは、受信データの中では空のバッファとする
+                mItems[i] = ByteBuffer.allocate(0);
+                ensureSinks();
+                mSinks[i] = sink;
+                mSinkRemains[i] = size;
             }
-            entry = new Entry(header);
-        } else {
-            header = mNonFinishedEntry.mHeader;
-            entry = mNonFinishedEntry;
         }
 
-        int tmp = entry.read(channel);
-        if (tmp < 0) {
-            log.warn("recieve read returns -1");
-            return Result.ERROR;
+        for (; mItemIndex < mItems.length; mItemIndex++) {
+            if (isChunked(mItemIndex)) {
+                if (!decodeChunks(buf)) {
+                    return false;
+                }
+                continue;
+            }
+            if (mSinks != null && mSinks[mItemIndex] != null) {
+                if (!writeToSink(buf)) {
+                    return false;
+                }
+                continue;
+            }
+            ByteBuffer item = mItems[mItemIndex];
+            if (buf.hasRemaining() && item.hasRemaining()) {
+                int length = Math.min(buf.remaining(), item.remaining());
+                ByteBuffer src = buf.duplicate();
+                src.limit(src.position() + length);
+                item.put(src);
+                buf.position(src.limit());
+            }
+            if (item.hasRemaining()) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        if (entry.isFinished()) {
-            mLatestData = entry.getData();
-            if (mListener != null) {
-                String remoteAddress = channel.socket().getRemoteSocketAddress().toString();
-                mListener.onReceive(remoteAddress, getData());
+    /**
+     * バッファに格納されているデータを、ファイルに直接書き込むデータの書き込み先に書き込みます。
+     * @return データをすべて書き込み終えればtrue
+     * @throws IOException
+     */
+    private boolean writeToSink(ByteBuffer buf) throws IOException {
+        FileChannel sink = mSinks[mItemIndex];
+        long remain = mSinkRemains[mItemIndex];
+        if (buf.hasRemaining() && remain > 0) {
+            int length = (int) Math.min(buf.remaining(), remain);
+            ByteBuffer src = buf.duplicate();
+            src.limit(src.position() + length);
+            while (src.hasRemaining()) {
+                sink.write(src);
             }
-            mNonFinishedEntry = null;
-            log.debug("reading finish");
-            return Result.FINISHED;
-        } else {
-            mNonFinishedEntry = entry;
-            return Result.UNFINISHED;
+            buf.position(src.limit());
+            mSinkRemains[mItemIndex] = remain - length;
         }
+        if (mSinkRemains[mItemIndex] > 0) {
+            return false;
+        }
+        completeSink();
+        return true;
     }
 
     /**
-     * 一度の受信単位
-     * @author "ymiyauchi"
-     * @since 1.0
+     * ファイルに直接書き込むデータを書き込み終えた際に呼び出します。
+     * 一時ファイルに退避したデータであれば、ファイルをメモリにマップしたバッファを受信データとします。
+     * @throws IOException
      */
-    private static class Entry {
-        private Header mHeader;
-        private int mRemain;
-        private Queue<ByteBuffer> mItemData = null;
+    private void completeSink() throws IOException {
+        FileChannel sink = mSinks[mItemIndex];
+        mSinks[mItemIndex] = null;
+        try {
+            if (isSpilled(mItemIndex)) {
+                ByteBuffer mapped = sink.map(FileChannel.MapMode.READ_ONLY, 0, sink.size());
+                mapped.position(mapped.limit());
+                mItems[mItemIndex] = mapped;
+            }
+        } finally {
+            sink.close();
+        }
+    }
 
-        private Entry(Header header) {
-            mHeader = header;
-            mRemain = mHeader.allDataSize() - mHeader.size();
-            log.debug("all data size: {}", mHeader.allDataSize());
+    /**
+     * 一時ファイルを作成し、書き込み用に開きます。
+     * 一時ファイルはチャネルを閉じた時点で削除されます。
+     * 削除された後も、マップしたバッファからは内容を読み取ることができます。
+     * @param index 一時ファイルに退避するデータの位置
+     * @return 一時ファイルのチャネル
+     * @throws IOException
+     */
+    private FileChannel openSpillFile(int index) throws IOException {
+        Path dir = mLimits.spillDirectory();
+        Path path = dir == null ? Files.createTempFile("communication", ".spill")
+                : Files.createTempFile(dir, "communication", ".spill");
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        if (mIsSpilled == null) {
+            mIsSpilled = new boolean[mItems.length];
         }
+        mIsSpilled[index] = true;
+        log.debug("spill item {} to {}", index, path);
+        return channel;
+    }
 
-        private void initItemData() {
-            if (mItemData != null) {
+    private void ensureSinks() {
+        if (mSinks == null) {
+            mSinks = new FileChannel[mItems.length];
+            mSinkRemains = new long[mItems.length];
+        }
+    }
+
+    /**
+     * ヘッダー全体を読み取る前に、受信単位の先頭に書かれているサイズが上限を超えていないか確かめます。
+     * @throws IOException 上限を超えている場合
+     */
+    private void checkFrameSize(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < 8) {
+            return;
+        }
+        int headerSize = buf.getInt(buf.position());
+        long allDataSize;
+        if ((headerSize & Header.LARGE) != 0) {
+            if (buf.remaining() < 12) {
                 return;
             }
-            mItemData = new ArrayDeque<>();
-            IntBuffer sizeBuf = mHeader.dataSizeBuffer();
-            while (sizeBuf.hasRemaining()) {
-                int size = sizeBuf.get();
-                ByteBuffer buf = ByteBuffer.allocate(size);
-                mItemData.add(buf);
-            }
+            headerSize &= ~Header.LARGE;
+            allDataSize = buf.getLong(buf.position() + 4);
+        } else {
+            allDataSize = buf.getInt(buf.position() + 4);
         }
+        if (headerSize > mLimits.maxFrameSize() || allDataSize > mLimits.maxFrameSize()) {
+            throw new IOException("frame size exceeds the limit: header size " + headerSize
+                    + ", all data size " + allDataSize);
+        }
+    }
 
-        private int read(SocketChannel channel) throws IOException {
-            mHeader = mHeader.read(channel);
-            if (!mHeader.isReadFinished()) {
-                log.debug("header unfinish reading");
-                return 0;
+    /**
+     * チャンクに分けて送られてくるデータを、バッファに格納されている分だけ読み取ります。
+     * @return 終端のチャンクまで読み取ればtrue
+     * @throws IOException チャンクのサイズが不正な場合
+     */
+    private boolean decodeChunks(ByteBuffer buf) throws IOException {
+        FileChannel sink = mSinks == null ? null : mSinks[mItemIndex];
+        while (true) {
+            if (mChunkRemain < 0) {
+                if (buf.remaining() < 4) {
+                    return false;
+                }
+                int size = buf.getInt();
+                if (size < 0) {
+                    throw new IOException("illegal chunk size: " + size);
+                }
+                if (size == 0) {
+                    // 終端のチャンク
+                    if (sink != null) {
+                        completeSink();
+                    }
+                    mChunkedItemSize = 0;
+                    return true;
+                }
+                mChunkedItemSize += size;
+                mFrameSize += size;
+                if (mChunkedItemSize > mLimits.maxItemSize()) {
+                    throw new IOException("item size exceeds the limit: " + mChunkedItemSize);
+                }
+                if (mFrameSize > mLimits.maxFrameSize()) {
+                    throw new IOException("frame size exceeds the limit: " + mFrameSize);
+                }
+                if (mChunkedItemSize > Integer.MAX_VALUE && (sink == null || isSpilled(mItemIndex))) {
+                    throw new IOException("chunked item is too large to hold without a file sink: "
+                            + mChunkedItemSize);
+                }
+                mChunkRemain = size;
+                if (sink == null && mChunkedItemSize > mLimits.spillThreshold()) {
+                    sink = spillItem();
+                } else if (sink == null) {
+                    ensureItemCapacity(size);
+                }
+            }
+            if (!buf.hasRemaining()) {
+                return false;
             }
-            initItemData();
 
-            int readed = 0;
-            for (ByteBuffer itemBuf : mItemData) {
-                int tmp = channel.read(itemBuf);
-                if (tmp < 0) {
-                    log.warn("entry read retuns -1");
-                    return -1;
+            int length = Math.min(buf.remaining(), mChunkRemain);
+            ByteBuffer src = buf.duplicate();
+            src.limit(src.position() + length);
+            if (sink == null) {
+                mItems[mItemIndex].put(src);
+            } else {
+                while (src.hasRemaining()) {
+                    sink.write(src);
                 }
-                readed += tmp;
             }
-            mRemain -= readed;
-            return readed;
+            buf.position(src.limit());
+            mChunkRemain -= length;
+            if (mChunkRemain == 0) {
+                mChunkRemain = -1;
+            }
         }
+    }
 
-        private ReceiveData getData() {
-            if (!isFinished()) {
-                return null;
+    /**
+     * メモリ上に読み取っていたデータを一時ファイルに書き出し、以降のチャンクを一時ファイルに書き込むようにします。
+     * @return 一時ファイルのチャネル
+     * @throws IOException
+     */
+    private FileChannel spillItem() throws IOException {
+        FileChannel sink = openSpillFile(mItemIndex);
+        try {
+            ByteBuffer item = mItems[mItemIndex];
+            item.flip();
+            while (item.hasRemaining()) {
+                sink.write(item);
             }
-            for (ByteBuffer data : mItemData) {
-                data.flip();
+            mAllocator.release(item);
+        } catch (IOException e) {
+            sink.close();
+            throw e;
+        }
+        mItems[mItemIndex] = ByteBuffer.allocate(0);
+        ensureSinks();
+        mSinks[mItemIndex] = sink;
+        return sink;
+    }
+
+    /**
+     * 読み取り中のデータのバッファに、指定したバイト数を書き込める空きがなければバッファを広げます。
+     * @throws IOException メモリ上に格納できる大きさを超える場合
+     */
+    private void ensureItemCapacity(int size) throws IOException {
+        ByteBuffer item = mItems[mItemIndex];
+        if (item.remaining() >= size) {
+            return;
+        }
+        long required = (long) item.position() + size;
+        if (required > Integer.MAX_VALUE) {
+            throw new IOException("chunked item is too large to hold in memory: " + required);
+        }
+        int capacity = (int) Math.min(Math.max(required, item.limit() * 2L), Integer.MAX_VALUE);
+        ByteBuffer newItem = mAllocator.allocate(capacity);
+        item.flip();
+        newItem.put(item);
+        mAllocator.release(item);
+        mItems[mItemIndex] = newItem;
+    }
+
+    /**
+     * 前回からデータに追加された部分と読み取り終えたデータを、StreamingReceiveListenerに渡します。
+     * 読み取り途中のデータには、ソケット・チャネルから直接読み込まれた部分も含まれます。
+     */
+    private void notifyProgress() {
+        for (; mNotifiedIndex < mItems.length; mNotifiedIndex++) {
+            ByteBuffer item = mItems[mNotifiedIndex];
+            if (item.position() > mNotifiedPosition) {
+                ByteBuffer chunk = item.asReadOnlyBuffer();
+                chunk.limit(item.position());
+                chunk.position(mNotifiedPosition);
+                mStreamingListener.onChunk(mRemoteAddress, mNotifiedIndex, chunk);
+                mNotifiedPosition = item.position();
             }
-            return new BasicReceiveData(mItemData);
+            if (mNotifiedIndex >= mItemIndex) {
+                // 読み取り途中
+                return;
+            }
+            ByteBuffer readOnlyItem = item.asReadOnlyBuffer();
+            readOnlyItem.flip();
+            mStreamingListener.onItem(mRemoteAddress, mNotifiedIndex, readOnlyItem);
+            mNotifiedPosition = 0;
         }
+    }
+
+    private boolean isSpilled(int index) {
+        return mIsSpilled != null && mIsSpilled[index];
+    }
+
+    private boolean isChunked(int index) {
+        return mIsChunked != null && mIsChunked[index];
+    }
 
-        private boolean isFinished() {
-            return mHeader.isReadFinished() && mRemain == 0;
+    private void closeSinks() {
+        if (mSinks == null) {
+            return;
+        }
+        for (FileChannel sink : mSinks) {
+            if (sink == null) {
+                continue;
+            }
+            try {
+                sink.close();
+            } catch (IOException e) {
+                log.warn("file sink closing error", e);
+            }
         }
+        mSinks = null;
+    }
+
+    private Result finish(SocketChannel channel) throws IOException {
+        Queue<ByteBuffer> itemData;
+        if (mRecycledData != null) {
+            // 再利用する受信データは空になっているので、新しいデータを格納し直す
+            itemData = mRecycledItems;
+            mLatestData = mRecycledData;
+            mRecycledData = null;
+            mRecycledItems = null;
+        } else {
+            itemData = new ArrayDeque<>(mItems.length);
+            mLatestData = new BasicReceiveData(itemData, mAllocator);
+        }
+        for (ByteBuffer item : mItems) {
+            item.flip();
+            itemData.add(item);
+        }
+        mLatestItems = itemData;
+        mLatestStreamId = mStreamId;
+        mItems = null;
+        mSinks = null;
+        mSinkRemains = null;
+        mIsChunked = null;
+        mIsSpilled = null;
+        mRemoteAddress = null;
+        mHasStreamId = false;
+        if (mListener != null) {
+            String remoteAddress = channel.socket().getRemoteSocketAddress().toString();
+            mListener.onReceive(remoteAddress, getData());
+        }
+        log.debug("reading finish");
+        return Result.FINISHED;
+    }
+
+    /**
+     * @return 読み取り途中の受信単位がなければtrue
+     */
+    private boolean isEmpty() {
+        return mItems == null && !mHasStreamId && !mReadBuffer.buffer().hasRemaining();
     }
 }
@@ -1,12 +1,23 @@
 package jp.gr.java_conf.falius.communication.core.socket;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jp.gr.java_conf.falius.communication.buffer.BufferAllocator;
+import jp.gr.java_conf.falius.communication.buffer.HeapBufferAllocator;
 import jp.gr.java_conf.falius.communication.core.Server.OnAcceptListener;
 import jp.gr.java_conf.falius.communication.listener.OnReceiveListener;
 import jp.gr.java_conf.falius.communication.listener.OnSendListener;
+import jp.gr.java_conf.falius.communication.listener.StreamingReceiveListener;
+import jp.gr.java_conf.falius.communication.rcvdata.FileSink;
+import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
 import jp.gr.java_conf.falius.communication.senddata.SendData;
+import jp.gr.java_conf.falius.communication.swapper.AsyncSwapper;
+import jp.gr.java_conf.falius.communication.swapper.AsyncSwapperFactory;
 import jp.gr.java_conf.falius.communication.swapper.Swapper;
 import jp.gr.java_conf.falius.communication.swapper.SwapperFactory;
 
@@ -21,15 +32,36 @@ class Remote {
     private static final Logger log = LoggerFactory.getLogger(Remote.class);
     private final String mRemoteAddress;
     private final Swapper mSwapper;
+    private final AsyncSwapper mAsyncSwapper;
     private final Receiver mReceiver = new Receiver();
 
     private OnAcceptListener mOnAcceptListener = null;
     private OnSendListener mOnSendListener = null;
     private OnReceiveListener mOnReceiveListener = null;
 
+    private Executor mSwapExecutor = null;
+    private boolean mIsMultiplexed = false;
+    private BufferAllocator mAllocator = HeapBufferAllocator.INSTANCE;
+    private int mStreamId = 0;
+    private boolean mIsCompactHeader = false;
+    private boolean mIsHandshakePending = false;
+
     Remote(String remoteAddress, SwapperFactory swapperFactory) {
         mRemoteAddress = remoteAddress;
         mSwapper = swapperFactory.get();
+        mAsyncSwapper = null;
+    }
+
+    /**
+     *
+     * @param remoteAddress
+     * @param swapperFactory
+     * @since 1.6.0
+     */
+    Remote(String remoteAddress, AsyncSwapperFactory swapperFactory) {
+        mRemoteAddress = remoteAddress;
+        mSwapper = null;
+        mAsyncSwapper = swapperFactory.get();
     }
 
     /**
@@ -59,6 +91,91 @@ class Remote {
         mOnReceiveListener = listener;
     }
 
+    /**
+     * Swapper#swapメソッドを実行するExecutorを設定します。
+     * nullであれば、送信を行うスレッドでそのまま実行します。
+     * @param executor
+     * @since 1.6.0
+     */
+    public void setSwapExecutor(Executor executor) {
+        mSwapExecutor = executor;
+    }
+
+    /**
+     * 送受信に利用するバッファを確保するBufferAllocatorを設定します。
+     * @param allocator
+     * @since 1.6.0
+     */
+    public void setBufferAllocator(BufferAllocator allocator) {
+        mAllocator = allocator;
+        mReceiver.setBufferAllocator(allocator);
+    }
+
+    /**
+     * 受信単位のすべてを読み取り終えるのを待たずに、受信したデータを順次受け取るリスナーを設定します。
+     * @param listener
+     * @since 1.6.0
+     */
+    public void addStreamingReceiveListener(StreamingReceiveListener listener) {
+        mReceiver.addStreamingReceiveListener(listener);
+    }
+
+    /**
+     * <p>
+     * 送信する受信単位に、各サイズを可変長整数で表す形式のヘッダーを使うようにします。
+     *
+     * <p>
+     * withHandshakeがtrueの場合は、最初の送信の先頭にハンドシェイクの値を付加し、
+     *     応答もこの形式のヘッダーで読み取るようにします。接続を開始する側が利用します。
+     * @param withHandshake
+     * @since 1.6.0
+     */
+    void useCompactHeader(boolean withHandshake) {
+        mIsCompactHeader = true;
+        mIsHandshakePending = withHandshake;
+        if (withHandshake) {
+            mReceiver.setCompact(true);
+        }
+    }
+
+    /**
+     * 受信単位の大きさの上限と、一時ファイルに退避するデータの大きさを設定します。
+     * @param limits
+     * @since 1.6.0
+     */
+    void setReceiveLimits(ReceiveLimits limits) {
+        mReceiver.setReceiveLimits(limits);
+    }
+
+    /**
+     * Swapper#swapメソッドが戻った後に受信データを再利用するかどうかを設定します。
+     * swapメソッドを非同期に実行する場合は再利用しません。
+     * @param isRecyclable
+     * @since 1.6.0
+     */
+    void setRecycleReceiveData(boolean isRecyclable) {
+        mReceiver.setRecyclable(isRecyclable);
+    }
+
+    /**
+     * 受信するデータをファイルに直接書き込むかどうかを問い合わせるFileSinkを設定します。
+     * @param sink
+     * @since 1.6.0
+     */
+    public void setFileSink(FileSink sink) {
+        mReceiver.setFileSink(sink);
+    }
+
+    /**
+     * 多重化された接続の中のひとつのストリームとして扱い、作成する送信データの先頭にストリームIDを付加するようにします。
+     * @param streamId
+     * @since 1.6.0
+     */
+    public void setStreamId(int streamId) {
+        mIsMultiplexed = true;
+        mStreamId = streamId;
+    }
+
     /**
      *
      * @return
@@ -85,17 +202,101 @@ class Remote {
      * @since 1.0
      */
     public Sender sender() throws Exception {
+        return sender(mReceiver.getData());
+    }
+
+    /**
+     * 指定した受信データを渡してSwapper#swapメソッドを実行し、得られたデータを保持した新しいSenderオブジェクトを返します。
+     * @param receiveData swapメソッドに渡す受信データ
+     * @return
+     * @throws Exception
+     * @since 1.6.0
+     */
+    public Sender sender(ReceiveData receiveData) throws Exception {
         SendData sendData;
         try {
-            sendData = mSwapper.swap(mRemoteAddress, mReceiver.getData());
+            sendData = mSwapper.swap(mRemoteAddress, receiveData);
         } catch (Exception e) {
             throw new Exception("thrown exception from swap method", e);
         }
+        if (!isSwapAsync()) {
+            // 非同期に実行している場合は、次の受信単位の読み取りと競合するため再利用しない
+            mReceiver.recycle(receiveData);
+        }
         if (sendData == null) {
             return null;
         }
-        Sender sender = new Sender(sendData, mOnSendListener);
-        return sender;
+        return newSender(sendData);
+    }
+
+    /**
+     * 送信データの作成を非同期に行うかどうかを返します。
+     * AsyncSwapperを利用している場合、あるいはswapメソッドを実行するExecutorが設定されている場合にtrueとなります。
+     * @return trueであれば{@link sender}メソッドではなく{@link senderAsync}メソッドを利用する必要があります
+     * @since 1.6.0
+     */
+    public boolean isSwapAsync() {
+        return mAsyncSwapper != null || mSwapExecutor != null;
+    }
+
+    /**
+     * AsyncSwapper#swapメソッド、あるいは設定されたExecutorでSwapper#swapメソッドを実行し、
+     * 得られたデータを保持した新しいSenderオブジェクトを非同期に返します。
+     * swapメソッドがnullを返した場合、Futureの値はnullになります。
+     * @return
+     * @throws RejectedExecutionException Executorがタスクを受け付けなかった場合
+     * @since 1.6.0
+     */
+    public CompletableFuture<Sender> senderAsync() {
+        return senderAsync(mReceiver.getData());
+    }
+
+    /**
+     * 指定した受信データを渡して{@link senderAsync()}と同様の処理を行います。
+     * @param receiveData swapメソッドに渡す受信データ
+     * @return
+     * @throws RejectedExecutionException Executorがタスクを受け付けなかった場合
+     * @since 1.6.0
+     */
+    public CompletableFuture<Sender> senderAsync(ReceiveData receiveData) {
+        if (mAsyncSwapper != null) {
+            CompletableFuture<SendData> sendData;
+            try {
+                sendData = mAsyncSwapper.swap(mRemoteAddress, receiveData);
+            } catch (Exception e) {
+                sendData = new CompletableFuture<>();
+                sendData.completeExceptionally(e);
+            }
+            if (sendData == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return sendData.thenApply(data -> data == null ? null : newSender(data));
+        }
+
+        CompletableFuture<Sender> future = new CompletableFuture<>();
+        mSwapExecutor.execute(() -> {
+            try {
+                future.complete(sender(receiveData));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private Sender newSender(SendData sendData) {
+        Sender.HeaderFormat format = Sender.HeaderFormat.NORMAL;
+        if (mIsHandshakePending) {
+            format = Sender.HeaderFormat.COMPACT_WITH_HANDSHAKE;
+            mIsHandshakePending = false;
+        } else if (mIsCompactHeader || mReceiver.isCompact()) {
+            // 相手からハンドシェイクの値を受け取った場合も、同じ形式で応答する
+            format = Sender.HeaderFormat.COMPACT;
+        }
+        if (mIsMultiplexed) {
+            return new Sender(sendData, mOnSendListener, mAllocator, mStreamId, format);
+        }
+        return new Sender(sendData, mOnSendListener, mAllocator, format);
     }
 
     /**
@@ -104,6 +305,9 @@ class Remote {
      * @since 1.0
      */
     public boolean doContinue() {
+        if (mAsyncSwapper != null) {
+            return mAsyncSwapper.doContinue();
+        }
         return mSwapper.doContinue();
     }
 
@@ -0,0 +1,76 @@
+package jp.gr.java_conf.falius.communication.core.socket;
+
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>
+ * Selectorのイベントループのスレッドで実行する処理を格納するキューです。
+ *
+ * <p>
+ * SelectionKey#interestOpsメソッドなどの選択キーの操作は、JDK8ではselectメソッドで待機している間
+ *     ブロックされることがあります。
+ * そのため、送信データの作成を終えた別スレッドからは選択キーを直接操作せず、このキューに処理を格納して
+ *     Selectorをwakeupし、イベントループのスレッドで{@link #runTasks}メソッドによって実行します。
+ *
+ * <p>
+ * イベントループを終えた後は{@link #close}メソッドを呼んでください。
+ * 残っている処理と、それ以降に格納された処理は呼び出したスレッドでそのまま実行されます。
+ * 選択キーはすでに無効になっているため、処理の中で送信データの送信を中止できます。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+class SelectorTaskQueue implements Executor {
+    private final Selector mSelector;
+    private final Queue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean mIsClosed = false;
+
+    /**
+     *
+     * @param selector 処理を格納したときにwakeupするSelector
+     * @since 1.6.0
+     */
+    SelectorTaskQueue(Selector selector) {
+        mSelector = selector;
+    }
+
+    /**
+     * イベントループのスレッドで処理を実行します。
+     * このメソッドはスレッドセーフです。
+     * @param task
+     * @since 1.6.0
+     */
+    @Override
+    public void execute(Runnable task) {
+        mTasks.add(task);
+        if (mIsClosed) {
+            runTasks();
+        } else {
+            mSelector.wakeup();
+        }
+    }
+
+    /**
+     * 格納されている処理をすべて実行します。
+     * イベントループのスレッドで、selectメソッドから戻るたびに呼び出してください。
+     * @since 1.6.0
+     */
+    void runTasks() {
+        Runnable task;
+        while ((task = mTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * 残っている処理を実行し、これ以降に格納された処理はすぐに実行するようにします。
+     * @since 1.6.0
+     */
+    void close() {
+        mIsClosed = true;
+        runTasks();
+    }
+}
@@ -1,15 +1,22 @@
 package jp.gr.java_conf.falius.communication.core.socket;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
 import java.nio.channels.SocketChannel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jp.gr.java_conf.falius.communication.buffer.BufferAllocator;
+import jp.gr.java_conf.falius.communication.buffer.HeapBufferAllocator;
 import jp.gr.java_conf.falius.communication.header.Header;
 import jp.gr.java_conf.falius.communication.header.HeaderFactory;
 import jp.gr.java_conf.falius.communication.listener.OnSendListener;
+import jp.gr.java_conf.falius.communication.senddata.FileRegion;
+import jp.gr.java_conf.falius.communication.senddata.FrozenSendData;
+import jp.gr.java_conf.falius.communication.senddata.PackedSendData;
 import jp.gr.java_conf.falius.communication.senddata.SendData;
 
 /**
@@ -20,9 +27,21 @@ import jp.gr.java_conf.falius.communication.senddata.SendData;
  * <p>
  * 接続の間ずっと共有されるReceiverオブジェクトとは異なり、こちらは一度の送信ごとに使い捨てとなります。
  * そのため、再利用はできません。
+ *
+ * <p>
+ * 送信データは一つのバッファにコピーせず、ヘッダーとSendDataの各バッファをまとめて集約書き込みします。
+ * そのため、送信を終えるまではSendDataに格納したバッファを変更しないでください。
+ * ファイルの参照として格納されたデータは、FileChannel#transferToメソッドでファイルから直接送信します。
+ * 転送の進み具合と開いたファイルはFileRegionではなくSenderごとに保持するため、同じSendDataを繰り返し送信できます。
+ * チャンクに分けて送信するストリームは、書き込めるようになるたびに一定量ずつ読み込んで送信します。
+ * PackedSendDataは、ヘッダーをデータの直前に書き込んだ一つのバッファとして送信します。
+ * FrozenSendDataは、ヘッダーを作成せずに符号化済みのバッファを複製して送信します。
+ * 作成した時点でSendData#retainメソッドを、送信を終えた時点でSendData#recycleメソッドを呼び、
+ *     プールから取り出されたSendDataを、同時に行っているすべての送信を終えた時点でプールに戻します。
+ * 送信の途中で接続が切断された場合は{@link #abort}メソッドで送信を中止し、開いているファイルやストリームを閉じます。
  * @author "ymiyauchi"
  * @since 1.0
- * @version 1.4.0
+ * @version 1.6.0
  *
  */
 class Sender {
@@ -30,30 +49,215 @@ class Sender {
     enum Result {
         FINISHED, UNFINISHED,
     }
+
+    /**
+     * 書き込むヘッダーの形式です。
+     * @since 1.6.0
+     */
+    enum HeaderFormat {
+        /** 通常の形式 */
+        NORMAL,
+        /** 各サイズを可変長整数で表す形式 */
+        COMPACT,
+        /** 各サイズを可変長整数で表す形式で、先頭にハンドシェイクの値を付加する */
+        COMPACT_WITH_HANDSHAKE,
+    }
+    /**
+     * チャンクに分けて送信するストリームから、一度に読み込む最大のバイト数です。
+     * @since 1.6.0
+     */
+    static final int CHUNK_SIZE = 8192;
+
     private final OnSendListener mListener;
-    private final ByteBuffer mData;
+    private final BufferAllocator mAllocator;
+    private final SendData mSendData;
+    private final ByteBuffer mHeader;
+    private final ByteBuffer[] mData;
+    private final FileRegion.Transfer[] mTransfers;  // mDataと同じ位置に、ファイルの参照として格納されたデータの転送を保持する
+    private final InputStream[] mChunkedStreams;  // mDataと同じ位置に、チャンクに分けて送信するストリームを保持する
+    private final PackedSendData mFramed;  // ヘッダーを書き込んだ内部のバッファから送信している場合のPackedSendData
+    private int mOffset = 0;
+    private ByteBuffer mChunk = null;  // 送信中のチャンク(サイズとデータ)
+    private boolean mIsChunkEnded = false;
+    private boolean mIsDone = false;  // 送信を終えたか、中止した
 
     Sender(SendData data, OnSendListener listener) {
-        mData = initBuffer(data);
+        this(data, listener, HeapBufferAllocator.INSTANCE);
+    }
+
+    /**
+     *
+     * @param data
+     * @param listener
+     * @param allocator ヘッダー用のバッファを確保するBufferAllocator。送信を終えた時点でバッファを返却します
+     * @since 1.6.0
+     */
+    Sender(SendData data, OnSendListener listener, BufferAllocator allocator) {
+        this(data, listener, allocator, HeaderFormat.NORMAL);
+    }
+
+    /**
+     *
+     * @param data
+     * @param listener
+     * @param allocator ヘッダー用のバッファを確保するBufferAllocator。送信を終えた時点でバッファを返却します
+     * @param format 書き込むヘッダーの形式
+     * @since 1.6.0
+     */
+    Sender(SendData data, OnSendListener listener, BufferAllocator allocator, HeaderFormat format) {
+        mAllocator = allocator;
+        mSendData = data;
+        Header header = createHeader(data, format);
+        mHeader = initHeader(header, false, 0, format);
+        mData = initBuffers(data, header, mHeader, format);
+        mTransfers = initTransfers(data, mData.length);
+        mChunkedStreams = initChunkedStreams(data, mData.length);
+        mFramed = initFramed(data);
         mListener = listener;
+        data.retain();
     }
 
-    private ByteBuffer initBuffer(SendData data) {
-        Header header = HeaderFactory.from(data);
-        ByteBuffer headerBuf = header.toByteBuffer();
-        int size = headerBuf.limit();
-        for (ByteBuffer item : data) {
-            size += item.limit();
+    /**
+     * 送信データの先頭にストリームIDを付加して送信するSenderを作成します。
+     * @param data
+     * @param listener
+     * @param allocator ヘッダー用のバッファを確保するBufferAllocator。送信を終えた時点でバッファを返却します
+     * @param streamId
+     * @since 1.6.0
+     */
+    Sender(SendData data, OnSendListener listener, BufferAllocator allocator, int streamId) {
+        this(data, listener, allocator, streamId, HeaderFormat.NORMAL);
+    }
+
+    /**
+     * 送信データの先頭にストリームIDを付加して送信するSenderを作成します。
+     * @param data
+     * @param listener
+     * @param allocator ヘッダー用のバッファを確保するBufferAllocator。送信を終えた時点でバッファを返却します
+     * @param streamId
+     * @param format 書き込むヘッダーの形式
+     * @since 1.6.0
+     */
+    Sender(SendData data, OnSendListener listener, BufferAllocator allocator, int streamId, HeaderFormat format) {
+        mAllocator = allocator;
+        mSendData = data;
+        Header header = createHeader(data, format);
+        mHeader = initHeader(header, true, streamId, format);
+        mData = initBuffers(data, header, mHeader, format);
+        mTransfers = initTransfers(data, mData.length);
+        mChunkedStreams = initChunkedStreams(data, mData.length);
+        mFramed = initFramed(data);
+        mListener = listener;
+        data.retain();
+    }
+
+    /**
+     * 送信データのヘッダーを作成します。
+     * FrozenSendDataはヘッダーまで符号化済みのため、nullを返します。
+     */
+    private static Header createHeader(SendData data, HeaderFormat format) {
+        if (data instanceof FrozenSendData) {
+            return null;
         }
-        ByteBuffer ret = ByteBuffer.allocate(size);
-        ret.put(headerBuf);
-        for (ByteBuffer item : data) {
-            ret.put(item);
+        return format == HeaderFormat.NORMAL ? HeaderFactory.from(data) : HeaderFactory.compactFrom(data);
+    }
+
+    /**
+     * ハンドシェイクの値とストリームID、ヘッダーを書き込んだバッファを作成します。
+     * headerがnullであれば、ハンドシェイクの値とストリームIDだけを書き込みます。
+     */
+    private ByteBuffer initHeader(Header header, boolean hasStreamId, int streamId, HeaderFormat format) {
+        int prefixSize = hasStreamId ? 4 : 0;
+        if (format == HeaderFormat.COMPACT_WITH_HANDSHAKE) {
+            prefixSize += 4;
         }
-        ret.flip();
-        if (ret.limit() != header.allDataSize()) {
+        ByteBuffer ret = mAllocator.allocate(prefixSize + (header == null ? 0 : header.size()));
+        if (format == HeaderFormat.COMPACT_WITH_HANDSHAKE) {
+            // ストリームIDよりも前に、接続の中で一度だけ書き込む
+            ret.putInt(Header.COMPACT_HANDSHAKE);
+        }
+        if (hasStreamId) {
+            ret.putInt(streamId);
+        }
+        if (header != null) {
+            // 全データのサイズに応じて、サイズを４バイトあるいは８バイトで表す形式のヘッダーが書き込まれる
+            ret.put(header.toByteBuffer());
+        }
+        if (ret.hasRemaining()) {
             throw new IllegalStateException();
         }
+        ret.flip();
+        return ret;
+    }
+
+    /**
+     * ヘッダーに続けて各データのバッファを並べた配列を作成します。
+     * データはコピーせず、SendDataが保持しているバッファのpositionからlimitまでを切り出して集約書き込みに利用します。
+     * 切り出したバッファから書き込むため、送信しても元のバッファのpositionは変わりません。
+     * PackedSendDataであれば、ヘッダーとデータが一つに連続したバッファだけの配列になります。
+     * FrozenSendDataであれば、符号化済みのバッファの複製だけか、その前にストリームIDなどを並べた配列になります。
+     */
+    private static ByteBuffer[] initBuffers(SendData data, Header header, ByteBuffer headerBuf, HeaderFormat format) {
+        if (data instanceof FrozenSendData) {
+            ByteBuffer frame = ((FrozenSendData) data).frame(format != HeaderFormat.NORMAL);
+            return headerBuf.hasRemaining() ? new ByteBuffer[] { headerBuf, frame } : new ByteBuffer[] { frame };
+        }
+        if (data instanceof PackedSendData) {
+            PackedSendData packed = (PackedSendData) data;
+            ByteBuffer frame = packed.frame(headerBuf);
+            if (frame != null) {
+                return new ByteBuffer[] { frame };
+            }
+            return packed.size() == 0 ? new ByteBuffer[] { headerBuf } : new ByteBuffer[] { headerBuf, packed.body() };
+        }
+        ByteBuffer[] ret = new ByteBuffer[data.size() + 1];
+        ret[0] = headerBuf;
+        LongBuffer sizes = header.dataSizeBufferAsLong();
+        int i = 0;
+        for (ByteBuffer item : data) {
+            ByteBuffer buf = item.slice();
+            FileRegion region = data.fileRegion(i);
+            long size = region != null ? region.size()
+                    : data.chunkedStream(i) != null ? Header.CHUNKED : buf.remaining();
+            // ヘッダーに書き込んだサイズと実際に書き込むデータがずれると、相手は受信単位の区切りを見失う
+            if (i >= sizes.limit() || sizes.get(i) != size) {
+                throw new IllegalStateException("item " + i + " does not match the header. size: " + size);
+            }
+            ret[++i] = buf;
+        }
+        if (i != sizes.limit()) {
+            throw new IllegalStateException("item count does not match the header: " + i);
+        }
+        return ret;
+    }
+
+    /**
+     * PackedSendData#frameが返したバッファから送信する場合は、送信を終えた時点で解放するためにそのデータを返します。
+     */
+    private PackedSendData initFramed(SendData data) {
+        return data instanceof PackedSendData && mData[0] != mHeader ? (PackedSendData) data : null;
+    }
+
+    /**
+     * mDataと同じ長さで、ファイルの参照ごとに作成した転送をmDataと同じ位置に並べた配列を作成します。
+     * データをまとめたバッファで送信する場合はファイルの参照を含まないため、すべてnullになります。
+     */
+    private static FileRegion.Transfer[] initTransfers(SendData data, int length) {
+        FileRegion.Transfer[] ret = new FileRegion.Transfer[length];
+        for (int i = 0; i < data.size() && i + 1 < length; i++) {
+            FileRegion region = data.fileRegion(i);
+            if (region != null) {
+                ret[i + 1] = region.newTransfer();
+            }
+        }
+        return ret;
+    }
+
+    private static InputStream[] initChunkedStreams(SendData data, int length) {
+        InputStream[] ret = new InputStream[length];
+        for (int i = 0; i < data.size() && i + 1 < length; i++) {
+            ret[i + 1] = data.chunkedStream(i);
+        }
         return ret;
     }
 
@@ -63,18 +267,134 @@ class Sender {
      * @param channel 送信するチャネル
      * @return 送信予定のデータをすべて送信し終えた場合はFINISHED, まだ未送信のデータが残っていればUNFINISHED
      * @throws IOException
+     * @throws IllegalStateException すでに送信を終えているか、中止している場合
      * @since 1.0
+     * @version 1.6.0
+     */
+    public final synchronized Result send(SocketChannel channel) throws IOException {
+        if (mIsDone) {
+            throw new IllegalStateException("sending is already finished or aborted");
+        }
+        // 書き込みきれなかった場合は、次回は未送信のデータが残っている最初のデータから書き込む
+        while (mOffset < mData.length) {
+            FileRegion.Transfer transfer = mTransfers[mOffset];
+            if (transfer != null) {
+                transfer.transferTo(channel);
+                if (transfer.hasRemaining()) {
+                    return Result.UNFINISHED;
+                }
+                mOffset++;
+                continue;
+            }
+            InputStream in = mChunkedStreams[mOffset];
+            if (in != null) {
+                if (!sendChunks(channel, in)) {
+                    return Result.UNFINISHED;
+                }
+                mOffset++;
+                continue;
+            }
+
+            // 次のファイルの参照あるいはストリームまでのバッファをまとめて書き込む
+            int end = mOffset + 1;
+            while (end < mData.length && mTransfers[end] == null && mChunkedStreams[end] == null) {
+                end++;
+            }
+            channel.write(mData, mOffset, end - mOffset);
+            while (mOffset < end && !mData[mOffset].hasRemaining()) {
+                mOffset++;
+            }
+            if (mOffset < end) {
+                return Result.UNFINISHED;
+            }
+        }
+        mIsDone = true;
+        mAllocator.release(mHeader);
+        if (mFramed != null) {
+            mFramed.releaseFrame();
+        }
+        mSendData.recycle();
+        if (mListener != null) {
+            String remoteAddress = channel.socket().getInetAddress().toString();
+            mListener.onSend(remoteAddress);
+        }
+        log.debug("writing finish");
+        return Result.FINISHED;
+    }
+
+    /**
+     * 送信を途中で中止します。
+     * まだ送信し終えていないファイルの参照とチャンクに分けて送信するストリームを閉じ、
+     *     ヘッダー用のバッファを返却します。
+     * 接続が切断された時点で、送信キューに残っているSenderに対して呼ばれます。
+     * 読み書きを行うスレッド以外から呼ばれることもあります。
+     * すでに送信を終えているか中止している場合は何もしません。
+     * @since 1.6.0
+     */
+    synchronized void abort() {
+        if (mIsDone) {
+            return;
+        }
+        mIsDone = true;
+        for (int i = mOffset; i < mData.length; i++) {
+            try {
+                if (mTransfers[i] != null) {
+                    mTransfers[i].close();
+                }
+                if (mChunkedStreams[i] != null) {
+                    mChunkedStreams[i].close();
+                }
+            } catch (IOException e) {
+                log.warn("error during closing aborted data", e);
+            }
+        }
+        mAllocator.release(mHeader);
+        if (mFramed != null) {
+            mFramed.releaseFrame();
+        }
+        mSendData.recycle();
+        log.debug("writing aborted");
+    }
+
+    /**
+     * ストリームから読み込んだデータを、書き込めなくなるまでチャンクとして送信します。
+     * ストリームの終端に達すれば、終端を表すサイズ０のチャンクを送信してストリームを閉じます。
+     * @return 終端のチャンクまで送信し終えればtrue
+     * @throws IOException
      */
-    public final Result send(SocketChannel channel) throws IOException {
-        channel.write(mData);
-        if (mData.hasRemaining()) {
-            return Result.UNFINISHED;
-        }
-            if (mListener != null) {
-                String remoteAddress = channel.socket().getInetAddress().toString();
-                mListener.onSend(remoteAddress);
+    private boolean sendChunks(SocketChannel channel, InputStream in) throws IOException {
+        if (mChunk == null) {
+            mChunk = ByteBuffer.allocate(4 + CHUNK_SIZE);
+            mChunk.limit(0);
+        }
+        while (true) {
+            if (mChunk.hasRemaining()) {
+                channel.write(mChunk);
+                if (mChunk.hasRemaining()) {
+                    return false;
+                }
+            }
+            if (mIsChunkEnded) {
+                mChunk = null;
+                mIsChunkEnded = false;
+                in.close();
+                return true;
+            }
+
+            int len = in.read(mChunk.array(), 4, CHUNK_SIZE);
+            if (len == 0) {
+                // サイズ０のチャンクは終端を表すため送信しない
+                return false;
+            }
+            mChunk.clear();
+            if (len < 0) {
+                mChunk.putInt(0);
+                mIsChunkEnded = true;
+            } else {
+                mChunk.putInt(len);
+                mChunk.position(4 + len);
             }
-            log.debug("writing finish");
-            return Result.FINISHED;
+            mChunk.flip();
+        }
     }
 }
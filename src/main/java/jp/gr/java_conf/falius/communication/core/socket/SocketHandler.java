@@ -7,6 +7,7 @@ import java.nio.channels.SelectionKey;
  * 接続や送受信などのソケット通信における処理を担当するクラスが実装するインターフェース
  * @author "ymiyauchi"
  * @since 1.4.3
+ * @version 1.6.0
  *
  */
 interface SocketHandler {
@@ -18,4 +19,25 @@ interface SocketHandler {
      * @since 1.4.3
      */
     void handle(SelectionKey key) throws IOException;
+
+    /**
+     * 接続が切断されたときに呼ばれます。
+     * 送信の途中であれば送信を中止し、開いているファイルやストリームを閉じます。
+     * 何度呼ばれても構いません。
+     * @since 1.6.0
+     */
+    default void close() {
+    }
+
+    /**
+     * キーに添付されたハンドラの{@link #close}メソッドを呼びます。
+     * @param key
+     * @since 1.6.0
+     */
+    static void close(SelectionKey key) {
+        Object attachment = key.attachment();
+        if (attachment instanceof SocketHandler) {
+            ((SocketHandler) attachment).close();
+        }
+    }
 }
@@ -0,0 +1,145 @@
+package jp.gr.java_conf.falius.communication.core.socket;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * 受け入れ済みの接続に対する読み書きを担当するイベントループです。
+ * 自身のSelectorを持ち、{@link AcceptHandler}から渡されたチャネルを登録して
+ * {@link ReadingHandler}および{@link WritingHandler}による送受信を行います。
+ *
+ * <p>
+ * Selectorへの登録はイベントループのスレッドで行う必要があるため、
+ * 他のスレッドから渡されたチャネルは一旦キューに格納され、次のループで登録されます。
+ * 選択キーの操作など、イベントループのスレッドで行うべき処理も同じキューを通して{@link #execute}メソッドで実行します。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+class WorkerLoop implements Runnable, Executor {
+    private static final Logger log = LoggerFactory.getLogger(WorkerLoop.class);
+
+    private final Selector mSelector;
+    private final SelectorTaskQueue mTasks;
+
+    private volatile boolean mIsRunning = true;
+
+    /**
+     *
+     * @throws IOException Selectorを開けなかった場合
+     * @since 1.6.0
+     */
+    WorkerLoop() throws IOException {
+        mSelector = Selector.open();
+        mTasks = new SelectorTaskQueue(mSelector);
+    }
+
+    /**
+     * チャネルをこのイベントループに登録します。
+     * このメソッドはスレッドセーフです。
+     * @param channel ノンブロッキングモードに設定済のチャネル
+     * @param ops
+     * @param handler
+     * @since 1.6.0
+     */
+    void register(SocketChannel channel, int ops, SocketHandler handler) {
+        execute(() -> {
+            try {
+                channel.register(mSelector, ops, handler);
+            } catch (ClosedChannelException e) {
+                log.warn("channel closed before registration", e);
+            }
+        });
+    }
+
+    /**
+     * このイベントループに登録されたチャネルの選択キーを返します。
+     * 登録前や登録を取り消された後はnullを返します。
+     * @param channel
+     * @return
+     * @since 1.6.0
+     */
+    SelectionKey keyFor(SelectableChannel channel) {
+        return channel.keyFor(mSelector);
+    }
+
+    /**
+     * イベントループのスレッドで処理を実行します。
+     * このメソッドはスレッドセーフです。
+     * イベントループを終えた後は、呼び出したスレッドでそのまま実行します。
+     * @param task
+     * @since 1.6.0
+     */
+    @Override
+    public void execute(Runnable task) {
+        mTasks.execute(task);
+    }
+
+    /**
+     * {@link shutdown}メソッドが呼ばれるまでイベントループを実行します。
+     * 終了時には、このループに登録されたすべてのチャネルを閉じます。
+     * @since 1.6.0
+     */
+    @Override
+    public void run() {
+        log.debug("worker loop start");
+        try {
+            while (mIsRunning) {
+                mSelector.select();
+                mTasks.runTasks();
+
+                Iterator<SelectionKey> iter = mSelector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    SocketHandler handler = (SocketHandler) key.attachment();
+                    handler.handle(key);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("worker loop error", e);
+        } finally {
+            close();
+        }
+        log.debug("worker loop finish");
+    }
+
+    /**
+     * イベントループを停止します。
+     * @since 1.6.0
+     */
+    void shutdown() {
+        mIsRunning = false;
+        mSelector.wakeup();
+    }
+
+    private void close() {
+        for (SelectionKey key : mSelector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                log.warn("error during closing channel", e);
+            }
+            SocketHandler.close(key);
+        }
+        mTasks.close();
+        try {
+            mSelector.close();
+        } catch (IOException e) {
+            log.warn("error during closing selector", e);
+        }
+    }
+}
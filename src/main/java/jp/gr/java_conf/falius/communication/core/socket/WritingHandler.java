@@ -3,6 +3,7 @@ package jp.gr.java_conf.falius.communication.core.socket;
 import java.io.IOException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +12,7 @@ import org.slf4j.LoggerFactory;
  * 書き込み操作を行うハンドラ
  * @author "ymiyauchi"
  * @since 1.0
+ * @version 1.6.0
  *
  */
 class WritingHandler implements SocketHandler {
@@ -19,17 +21,29 @@ class WritingHandler implements SocketHandler {
     private final Disconnectable mDisconnectable;
     private final Remote mRemote;
     private final boolean mIsClient;
-    private Sender mSender = null;
+    private final Executor mLoop;
+    private volatile Sender mSender = null;
+    private boolean mIsSwapping = false;
 
-    WritingHandler(Disconnectable disconnectable, Remote remote, boolean isClient) {
+    /**
+     *
+     * @param disconnectable
+     * @param remote
+     * @param isClient
+     * @param loop チャネルを登録したSelectorのイベントループのスレッドで処理を実行するExecutor
+     * @since 1.6.0
+     */
+    WritingHandler(Disconnectable disconnectable, Remote remote, boolean isClient, Executor loop) {
         mDisconnectable = disconnectable;
         mRemote = remote;
         mIsClient = isClient;
+        mLoop = loop;
     }
 
     /**
      * {@inheritDoc}
      * @since 1.0
+     * @version 1.6.0
      */
     @Override
     public void handle(SelectionKey key) throws IOException {
@@ -46,6 +60,10 @@ class WritingHandler implements SocketHandler {
 
             Sender sender;
             if (mSender == null) {
+                if (mRemote.isSwapAsync()) {
+                    startSwap(key, channel);
+                    return;
+                }
                 sender = mSender = mRemote.sender();
             } else {
                 sender = mSender;
@@ -65,7 +83,12 @@ class WritingHandler implements SocketHandler {
 
             if (mIsClient || mRemote.doContinue()) {
                 key.interestOps(SelectionKey.OP_READ);
-                key.attach(new ReadingHandler(mDisconnectable, mRemote, mIsClient));
+                ReadingHandler handler = new ReadingHandler(mDisconnectable, mRemote, mIsClient, mLoop);
+                key.attach(handler);
+                if (mRemote.receiver().hasBufferedData()) {
+                    // 続けて届いていたデータはすでに読み込まれていて読み込みの通知が来ないため、ここで処理する
+                    handler.handle(key);
+                }
             } else {
                 mDisconnectable.disconnect(channel, key, null);
             }
@@ -76,4 +99,69 @@ class WritingHandler implements SocketHandler {
         }
 
     }
+
+    /**
+     * 別スレッドでの送信データの作成を開始します。
+     * 作成が終わるまでの間はこの接続に対する入出力の通知を受け取らないようにし、
+     * 作成が終わった時点で改めて書き込みの通知を受け取るようにします。
+     * 選択キーの操作はselectメソッドの間ブロックされることがあるため、作成を終えた後の処理はイベントループのスレッドで行います。
+     * @param key
+     * @param channel
+     */
+    private void startSwap(SelectionKey key, SocketChannel channel) {
+        if (mIsSwapping) {
+            return;
+        }
+        mIsSwapping = true;
+        key.interestOps(0);
+        mRemote.senderAsync().whenComplete((sender, e) -> mLoop.execute(() -> onSwapped(key, channel, sender, e)));
+    }
+
+    /**
+     * 送信データの作成を終えた後に、イベントループのスレッドで書き込みを再開します。
+     * 再開できなかった場合は送信を中止して切断します。
+     */
+    private void onSwapped(SelectionKey key, SocketChannel channel, Sender sender, Throwable e) {
+        try {
+            if (e != null) {
+                log.warn("swap error", e);
+                mDisconnectable.disconnect(channel, key, e);
+                return;
+            }
+            if (sender == null) {
+                log.debug("disconnect by send data returned null");
+                mDisconnectable.disconnect(channel, key, null);
+                return;
+            }
+            mSender = sender;
+            if (!key.isValid()) {
+                // 作成している間に切断された
+                sender.abort();
+                return;
+            }
+            key.interestOps(SelectionKey.OP_WRITE);
+        } catch (Throwable t) {
+            log.warn("resuming writing error", t);
+            if (sender != null) {
+                sender.abort();
+            }
+            try {
+                mDisconnectable.disconnect(channel, key, t);
+            } catch (Throwable t2) {
+                log.warn("disconnect error", t2);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * @since 1.6.0
+     */
+    @Override
+    public void close() {
+        Sender sender = mSender;
+        if (sender != null) {
+            sender.abort();
+        }
+    }
 }
@@ -0,0 +1,106 @@
+package jp.gr.java_conf.falius.communication.header;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * チャネルから直接読み込んでいる途中のヘッダです。
+ * 非推奨の{@link HeaderFactory#from(SocketChannel)}のためだけに利用します。
+ * 先頭４バイトからヘッダ自身のサイズを読み取り、ヘッダ全体が揃った時点で{@link HeaderFactory#from(ByteBuffer)}により
+ *     サイズの整合性を確かめながら読み取ります。
+ * ヘッダの直後に続くデータは読み込みません。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+class ChannelHeader implements Header {
+    private static final IntBuffer EMPTY_INT_BUFFER = IntBuffer.allocate(0);
+
+    private ByteBuffer mBuf;
+
+    /**
+     *
+     * @param prefixBuf 容量が４バイトで、途中まで読み込まれたバッファ
+     * @since 1.6.0
+     */
+    ChannelHeader(ByteBuffer prefixBuf) {
+        mBuf = prefixBuf;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public Header read(SocketChannel channel) throws IOException {
+        while (true) {
+            if (mBuf.hasRemaining()) {
+                if (channel.read(mBuf) < 0) {
+                    throw new IOException("channel closed during reading header");
+                }
+                if (mBuf.hasRemaining()) {
+                    return this;
+                }
+            }
+            if (mBuf.capacity() == 4) {
+                // 先頭４バイトからヘッダ全体のサイズが分かる
+                int headerSize = mBuf.getInt(0);
+                boolean isLarge = (headerSize & Header.LARGE) != 0;
+                int wholeHeaderSize = headerSize & ~Header.LARGE;
+                if (wholeHeaderSize < (isLarge ? 12 : 8)) {
+                    throw new IOException("illegal header. header size: " + wholeHeaderSize);
+                }
+                ByteBuffer buf = ByteBuffer.allocate(wholeHeaderSize);
+                mBuf.flip();
+                buf.put(mBuf);
+                mBuf = buf;
+                continue;
+            }
+            mBuf.flip();
+            return HeaderFactory.from(mBuf);
+        }
+    }
+
+    /**
+     * @return 読み取りが終わっていないため、常に0
+     * @since 1.6.0
+     */
+    @Override
+    public int size() {
+        return 0;
+    }
+
+    /**
+     * @return 読み取りが終わっていないため、常に0
+     * @since 1.6.0
+     */
+    @Override
+    public int allDataSize() {
+        return 0;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public IntBuffer dataSizeBuffer() {
+        return EMPTY_INT_BUFFER;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public ByteBuffer toByteBuffer() {
+        throw new IllegalStateException();
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public boolean isReadFinished() {
+        return false;
+    }
+}
@@ -0,0 +1,173 @@
+package jp.gr.java_conf.falius.communication.header;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * <p>
+ * 各サイズを可変長整数で表す、小さなデータを頻繁に送受信する通信向けのヘッダを表すクラスです。
+ *
+ * <p>
+ * フラグ(１バイト)、データの個数、各データのサイズを並べたものです。
+ * データの個数と各データのサイズは、下位から７ビットずつ、続きがあれば最上位ビットを立てたバイトで表します。
+ * 全データのサイズはヘッダ自体のサイズと各データのサイズから求めるため、ヘッダには含みません。
+ *
+ * <p>
+ * {@link #FLAG_CHUNKED}フラグが立っている場合は、各データのサイズに１を足した値を格納し、
+ *     ０でチャンクに分けて送信されるデータを表します。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+class CompactHeader extends FinishedHeader {
+    /**
+     * チャンクに分けて送信されるデータを含むことを表すフラグです。
+     * @since 1.6.0
+     */
+    static final int FLAG_CHUNKED = 0x01;
+
+    private final int mFlags;
+
+    /**
+     *
+     * @param flags
+     * @param headerSize
+     * @param allDataSize
+     * @param itemDataSizes
+     * @since 1.6.0
+     */
+    private CompactHeader(int flags, int headerSize, long allDataSize, LongBuffer itemDataSizes) {
+        super(headerSize, allDataSize, itemDataSizes, false);
+        mFlags = flags;
+    }
+
+    /**
+     * 各データのサイズから、ヘッダ自体のサイズと全データのサイズを求めてヘッダを作成します。
+     * @param itemDataSizes positionからlimitまでに各データのサイズが格納されたバッファ
+     * @return
+     * @since 1.6.0
+     */
+    static CompactHeader of(LongBuffer itemDataSizes) {
+        int flags = 0;
+        for (int i = itemDataSizes.position(); i < itemDataSizes.limit(); i++) {
+            if (itemDataSizes.get(i) == Header.CHUNKED) {
+                flags |= FLAG_CHUNKED;
+            }
+        }
+        long headerSize = 1 + varintSize(itemDataSizes.remaining());
+        long itemSizeSum = 0;
+        for (int i = itemDataSizes.position(); i < itemDataSizes.limit(); i++) {
+            long size = itemDataSizes.get(i);
+            headerSize += varintSize(encode(flags, size));
+            if (size > 0) {
+                itemSizeSum += size;
+            }
+        }
+        return new CompactHeader(flags, (int) headerSize, headerSize + itemSizeSum, itemDataSizes);
+    }
+
+    /**
+     * バッファに格納されたデータからヘッダを読み取ります。
+     * @param buf
+     * @return 読み取りが完全に終わったヘッダ。ヘッダ全体がまだバッファに揃っていなければnull
+     * @throws IOException ヘッダが不正な場合
+     * @since 1.6.0
+     */
+    static CompactHeader from(ByteBuffer buf) throws IOException {
+        if (!buf.hasRemaining()) {
+            return null;
+        }
+        ByteBuffer src = buf.duplicate();
+        int flags = src.get() & 0xFF;
+        if ((flags & ~FLAG_CHUNKED) != 0) {
+            throw new IOException("illegal compact header flags: " + flags);
+        }
+        long count = getVarint(src);
+        if (count < 0) {
+            return null;
+        }
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException("illegal item count: " + count);
+        }
+        if (count > src.remaining()) {
+            // 各データのサイズは少なくとも１バイトずつ必要
+            return null;
+        }
+        LongBuffer dataSizes = LongBuffer.allocate((int) count);
+        while (dataSizes.hasRemaining()) {
+            long value = getVarint(src);
+            if (value < 0) {
+                return null;
+            }
+            dataSizes.put(decode(flags, value));
+        }
+        dataSizes.flip();
+        CompactHeader header = of(dataSizes);
+        if (header.size() != src.position() - buf.position() || header.mFlags != flags) {
+            // 冗長な表現で書かれたヘッダ
+            throw new IOException("illegal compact header encoding");
+        }
+        buf.position(src.position());
+        return header;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public ByteBuffer toByteBuffer() {
+        LongBuffer dataSizes = dataSizeBufferAsLong();
+        ByteBuffer ret = ByteBuffer.allocate(size());
+        ret.put((byte) mFlags);
+        putVarint(ret, dataSizes.remaining());
+        while (dataSizes.hasRemaining()) {
+            putVarint(ret, encode(mFlags, dataSizes.get()));
+        }
+        ret.flip();
+        return ret;
+    }
+
+    private static long encode(int flags, long size) {
+        return (flags & FLAG_CHUNKED) == 0 ? size : size + 1;
+    }
+
+    private static long decode(int flags, long value) {
+        return (flags & FLAG_CHUNKED) == 0 ? value : value - 1;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    /**
+     * @return 読み取った値。バッファに値が揃っていなければ-1
+     * @throws IOException 値が63ビットに収まらない場合
+     */
+    private static long getVarint(ByteBuffer buf) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 63; shift += 7) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint is too long");
+    }
+}
@@ -2,6 +2,7 @@ package jp.gr.java_conf.falius.communication.header;
 
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.nio.channels.SocketChannel;
 
 import org.slf4j.Logger;
@@ -11,14 +12,16 @@ import org.slf4j.LoggerFactory;
  * 受信時に読み取りが完全に完了したヘッダ、あるいは書き込み時のヘッダを表すクラス
  * @author "ymiyauchi"
  * @since 1.4.0
+ * @version 1.6.0
  *
  */
 class FinishedHeader implements Header {
     private static final Logger log = LoggerFactory.getLogger(FinishedHeader.class);
     // ヘッダーのサイズ(自身を含む), 全データのサイズ(ヘッダーを含む), データ１のサイズ, データ２のサイズ...
     private final int mHeaderSize;  // ヘッダー自身のサイズ
-    private final int mAllDataSize;  // ヘッダー含む全データサイズ
-    private final IntBuffer mItemDataSizes;  // 各アイテムごとのデータサイズ
+    private final long mAllDataSize;  // ヘッダー含む全データサイズ
+    private final LongBuffer mItemDataSizes;  // 各アイテムごとのデータサイズ
+    private final boolean mIsLarge;  // サイズを８バイトで表す形式かどうか
 
     /**
      *
@@ -26,11 +29,33 @@ class FinishedHeader implements Header {
      * @param allDataSize
      * @param itemDataSizes
      * @since 1.4.0
+     * @version 1.6.0
      */
     FinishedHeader(int headerSize, int allDataSize, IntBuffer itemDataSizes) {
+        mHeaderSize = headerSize;
+        mAllDataSize = allDataSize;
+        LongBuffer sizes = LongBuffer.allocate(itemDataSizes.remaining());
+        while (itemDataSizes.hasRemaining()) {
+            sizes.put(itemDataSizes.get());
+        }
+        sizes.flip();
+        mItemDataSizes = sizes.asReadOnlyBuffer();
+        mIsLarge = false;
+    }
+
+    /**
+     *
+     * @param headerSize フラグを除いたヘッダー自身のサイズ
+     * @param allDataSize
+     * @param itemDataSizes
+     * @param isLarge サイズを８バイトで表す形式であればtrue
+     * @since 1.6.0
+     */
+    FinishedHeader(int headerSize, long allDataSize, LongBuffer itemDataSizes, boolean isLarge) {
         mHeaderSize = headerSize;
         mAllDataSize = allDataSize;
         mItemDataSizes = itemDataSizes.asReadOnlyBuffer();
+        mIsLarge = isLarge;
     }
 
     /**
@@ -43,34 +68,82 @@ class FinishedHeader implements Header {
 
     /**
      * @since 1.4.0
+     * @version 1.6.0
      */
     @Override
     public int allDataSize() {
+        if (mAllDataSize > Integer.MAX_VALUE) {
+            throw new IllegalStateException("all data size exceeds int: " + mAllDataSize);
+        }
+        return (int) mAllDataSize;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public long allDataSizeAsLong() {
         return mAllDataSize;
     }
 
     /**
      * @since 1.4.0
+     * @version 1.6.0
      */
     @Override
     public IntBuffer dataSizeBuffer() {
+        LongBuffer sizes = dataSizeBufferAsLong();
+        IntBuffer ret = IntBuffer.allocate(sizes.remaining());
+        while (sizes.hasRemaining()) {
+            long size = sizes.get();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("item size exceeds int: " + size);
+            }
+            ret.put((int) size);
+        }
+        ret.flip();
+        return ret.asReadOnlyBuffer();
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public LongBuffer dataSizeBufferAsLong() {
         mItemDataSizes.rewind();
         return mItemDataSizes;
     }
 
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public boolean isLarge() {
+        return mIsLarge;
+    }
+
     /**
      * @since 1.4.0
+     * @version 1.6.0
      */
     @Override
     public ByteBuffer toByteBuffer() {
-        // ヘッダーのサイズ(自身を含む), 全データのサイズ(ヘッダーを含む), データ１のサイズ, データ２のサイズ...
-        IntBuffer dataSizes = mItemDataSizes;
-        dataSizes.rewind();
+        LongBuffer dataSizes = dataSizeBufferAsLong();
         ByteBuffer ret = ByteBuffer.allocate(mHeaderSize);
-        ret.putInt(mHeaderSize);
-        ret.putInt(mAllDataSize);
-        while (dataSizes.hasRemaining()) {
-            ret.putInt(dataSizes.get());
+        if (mIsLarge) {
+            // ヘッダーのサイズ(自身を含む)にフラグを立て、全データのサイズ(ヘッダーを含む), 各データのサイズを８バイトずつ
+            ret.putInt(mHeaderSize | Header.LARGE);
+            ret.putLong(mAllDataSize);
+            while (dataSizes.hasRemaining()) {
+                ret.putLong(dataSizes.get());
+            }
+        } else {
+            // ヘッダーのサイズ(自身を含む), 全データのサイズ(ヘッダーを含む), データ１のサイズ, データ２のサイズ...
+            ret.putInt(mHeaderSize);
+            ret.putInt((int) mAllDataSize);
+            while (dataSizes.hasRemaining()) {
+                ret.putInt((int) dataSizes.get());
+            }
         }
         ret.flip();
         return ret;
@@ -92,4 +165,4 @@ class FinishedHeader implements Header {
     public boolean isReadFinished() {
         return true;
     }
-}
\ No newline at end of file
+}
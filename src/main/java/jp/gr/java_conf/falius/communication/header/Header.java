@@ -3,16 +3,62 @@ package jp.gr.java_conf.falius.communication.header;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.nio.channels.SocketChannel;
 
 /**
+ * <p>
+ * 受信単位の先頭に置かれ、受信単位に含まれる各データのサイズを表すヘッダです。
  *
+ * <p>
+ * 通常のヘッダは、ヘッダ自体のサイズ、全データのサイズ、各データのサイズを４バイトずつ並べたものです。
+ * 全データのサイズがintで表せない場合は、ヘッダ自体のサイズに{@link #LARGE}フラグを立て、
+ *     全データのサイズと各データのサイズを８バイトずつ並べた形式になります。
+ * 送信時にはintで表せる限り通常の形式が使われるため、
+ *     この形式を読み取れない以前のバージョンとも2GB未満の受信単位であれば通信できます。
  * @author "ymiyauchi"
  * @since 1.4.0
+ * @version 1.6.0
  *
  */
 public interface Header {
 
+    /**
+     * <p>
+     * ヘッダ自体のサイズの最上位ビットに立てられ、全データのサイズと各データのサイズを
+     *     ８バイトで表す形式のヘッダであることを表すフラグです。
+     *
+     * <p>
+     * この形式のヘッダは、フラグを立てたヘッダ自体のサイズ(４バイト)、全データのサイズ(８バイト)、
+     *     各データのサイズ(８バイトずつ)を並べたものになります。
+     * @since 1.6.0
+     */
+    int LARGE = 0x80000000;
+
+    /**
+     * <p>
+     * 接続の開始時に送信し、以降の受信単位で{@link HeaderFactory#compactFrom(ByteBuffer)}の形式のヘッダを使うことを
+     *     相手に伝える４バイトの値です。
+     * 通常の形式のヘッダ自体のサイズとしては不正な値であるため、ヘッダと区別できます。
+     *
+     * <p>
+     * この値を受け取った側は、その接続で送信する受信単位にも同じ形式のヘッダを使います。
+     * @since 1.6.0
+     */
+    int COMPACT_HANDSHAKE = 0x434D5632;  // "CMV2"
+
+    /**
+     * <p>
+     * サイズが分からないまま、チャンクに分けて送信されるデータであることを表すデータサイズです。
+     *
+     * <p>
+     * このデータの本体は、４バイトのチャンクのサイズとチャンクのデータの組を繰り返したあとに、
+     *     終端としてサイズ０のチャンクを置いたものになります。
+     * 全データのサイズには、このデータの本体は含まれません。
+     * @since 1.6.0
+     */
+    int CHUNKED = -1;
+
     /**
      * ヘッダ自体のサイズを返します。
      * @return
@@ -23,19 +69,58 @@ public interface Header {
     /**
      * ヘッダ自体も含む、すべてのデータのサイズを返します。
      * @return
+     * @throws IllegalStateException サイズがintで表せない場合
      * @since 1.4.0
+     * @version 1.6.0
      */
     int allDataSize();
 
+    /**
+     * ヘッダ自体も含む、すべてのデータのサイズをlongで返します。
+     * 全データのサイズを８バイトで表す形式のヘッダであっても、正しいサイズを返します。
+     * @return
+     * @since 1.6.0
+     */
+    default long allDataSizeAsLong() {
+        return allDataSize();
+    }
+
     /**
      * 各データのサイズが格納された整数バッファを返します。
      * ヘッダ自体のサイズは含まれません。
      * ヘッダの読み取りが最後まで終わっていない場合は常に空のバッファが返されます。
      * @return
+     * @throws IllegalStateException intで表せないサイズのデータが含まれる場合
      * @since 1.4.0
+     * @version 1.6.0
      */
     IntBuffer dataSizeBuffer();
 
+    /**
+     * 各データのサイズが格納されたlongのバッファを返します。
+     * 各データのサイズを８バイトで表す形式のヘッダであっても、正しいサイズを返します。
+     * @return
+     * @since 1.6.0
+     */
+    default LongBuffer dataSizeBufferAsLong() {
+        IntBuffer sizes = dataSizeBuffer();
+        LongBuffer ret = LongBuffer.allocate(sizes.remaining());
+        while (sizes.hasRemaining()) {
+            ret.put(sizes.get());
+        }
+        ret.flip();
+        return ret;
+    }
+
+    /**
+     *
+     * @return 全データのサイズと各データのサイズを８バイトで表す形式のヘッダであればtrue
+     * @since 1.6.0
+     */
+    default boolean isLarge() {
+        return false;
+    }
+
     /**
      *
      * @return
@@ -4,11 +4,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jp.gr.java_conf.falius.communication.senddata.FileRegion;
+import jp.gr.java_conf.falius.communication.senddata.PackedSendData;
 import jp.gr.java_conf.falius.communication.senddata.SendData;
 
 /**
@@ -22,84 +26,251 @@ public class HeaderFactory {
     private static final Logger log = LoggerFactory.getLogger(HeaderFactory.class);
 
     /**
-     *
+     * 全データのサイズがintで表せる場合は通常の形式の、そうでなければサイズを８バイトで表す形式のヘッダを作成します。
      * @param data
      * @return 読み取りが完全に終わったヘッダ
      * @since 1.4.0
+     * @version 1.6.0
      */
     public static Header from(SendData data) {
-        IntBuffer buf = IntBuffer.allocate(data.size());
-        int headerSize = 4 + 4 + data.size() * 4;
-        int dataSize = headerSize;
-        for (ByteBuffer elem : data) {
-            int size = elem.limit();
-            dataSize += size;
-            buf.put(size);
+        LongBuffer buf = itemSizes(data);
+        long itemSizeSum = 0;
+        for (int i = 0; i < buf.limit(); i++) {
+            itemSizeSum += Math.max(buf.get(i), 0);
         }
-        buf.flip();
+
+        long headerSize = 4 + 4 + data.size() * 4L;
+        boolean isLarge = headerSize + itemSizeSum > Integer.MAX_VALUE;
+        if (isLarge) {
+            headerSize = 4 + 8 + data.size() * 8L;
+        }
+        long dataSize = headerSize + itemSizeSum;
         log.debug("send header size : {}", headerSize);
         log.debug("send all data size: {}", dataSize);
-        return new FinishedHeader(headerSize, dataSize, buf);
+        return new FinishedHeader((int) headerSize, dataSize, buf, isLarge);
+    }
+
+    /**
+     * 各サイズを可変長整数で表す形式のヘッダを作成します。
+     * 通常の形式より小さく、小さなデータを頻繁に送受信する通信に向いています。
+     * 接続の開始時に{@link Header#COMPACT_HANDSHAKE}を送り、相手がこの形式を読み取れる場合にのみ利用してください。
+     * @param data
+     * @return 読み取りが完全に終わったヘッダ
+     * @since 1.6.0
+     */
+    public static Header compactFrom(SendData data) {
+        return CompactHeader.of(itemSizes(data));
+    }
+
+    /**
+     * バッファに格納されたデータから、各サイズを可変長整数で表す形式のヘッダを読み取ります。
+     * ヘッダ全体がバッファに揃っていればpositionをヘッダの直後まで進め、
+     *     揃っていなければpositionを変更せずにnullを返します。
+     * @param buf positionからlimitまでに受信したデータが格納されたバッファ
+     * @return 読み取りが完全に終わったヘッダ。ヘッダ全体がまだバッファに揃っていなければnull
+     * @throws IOException ヘッダが不正な場合
+     * @since 1.6.0
+     */
+    public static Header compactFrom(ByteBuffer buf) throws IOException {
+        return CompactHeader.from(buf);
+    }
+
+    /**
+     * 送信データに含まれる各データのサイズを求めます。
+     * チャンクに分けて送信するデータのサイズは{@link Header#CHUNKED}になります。
+     * バッファとして格納されたデータのサイズは、送信されるpositionからlimitまでのバイト数です。
+     * PackedSendDataであれば、各データのバッファを作成せずに記録されたサイズを利用します。
+     */
+    private static LongBuffer itemSizes(SendData data) {
+        LongBuffer buf = LongBuffer.allocate(data.size());
+        if (data instanceof PackedSendData) {
+            PackedSendData packed = (PackedSendData) data;
+            for (int i = 0; i < packed.size(); i++) {
+                buf.put(packed.itemSize(i));
+            }
+            buf.flip();
+            return buf;
+        }
+        int index = 0;
+        for (ByteBuffer elem : data) {
+            if (data.chunkedStream(index) != null) {
+                index++;
+                buf.put(Header.CHUNKED);
+                continue;
+            }
+            FileRegion region = data.fileRegion(index++);
+            buf.put(region == null ? elem.remaining() : region.size());
+        }
+        buf.flip();
+        return buf;
     }
 
     /**
      * チャネルからヘッダ情報を読み込みます。
-     * ヘッダは一度にすべてを読み込まれる必要はありませんが、最低でも８バイトは読み込まれる必要があります。
+     * ヘッダは一度にすべてを読み込まれる必要はありません。
+     * 読み込めたデータがヘッダ全体に満たない場合は、まだ読み取りが完全に終わっていないヘッダを返します。
+     * ヘッダの直後に続くデータは読み込みません。
      * @param channel
-     * @return 読み取りが完全に終わったヘッダ、あるいはまだ読み取りが完全に終わっていないヘッダ
-     * @throws IOException ヘッダの読み込みエラーが起きた場合、８バイト未満しか読み込めなかった場合
+     * @return 読み取りが完全に終わったヘッダ、あるいはまだ読み取りが完全に終わっていないヘッダ。
+     *     相手がすでに切断していればnull
+     * @throws IOException ヘッダの読み込みエラーが起きた場合、ヘッダに格納されたサイズが不正な場合
      * @since 1.4.0
+     * @version 1.6.0
+     * @deprecated 受信データは読み込んだバッファから{@link #from(ByteBuffer)}で読み取ってください。
+     *     次のメジャーバージョンで削除します
      */
+    @Deprecated
     public static Header from(SocketChannel channel) throws IOException {
-        ByteBuffer headerSizeBuf = ByteBuffer.allocate(8);
-        int tmp = channel.read(headerSizeBuf);
-        if (tmp < 0) {
+        ByteBuffer prefixBuf = ByteBuffer.allocate(4);
+        if (channel.read(prefixBuf) < 0) {
             return null;
         }
-        if (tmp < 8) {
-            throw new IOException("read less than 8 bytes");
-        }
-        headerSizeBuf.flip();
-        int headerSize = headerSizeBuf.getInt();
-        int dataSize = headerSizeBuf.getInt();
-
-        ByteBuffer headerBuf = ByteBuffer.allocate(headerSize - 8);
+        return new ChannelHeader(prefixBuf).read(channel);
+    }
 
-        Header header = new UnFinishedHeader(headerSize, dataSize, headerBuf);
-        return header.read(channel);
+    /**
+     * <p>
+     * バッファに格納されたデータからヘッダ情報を読み取ります。
+     * ヘッダ全体がバッファに揃っていればpositionをヘッダの直後まで進め、読み取りが完全に終わったヘッダを返します。
+     *
+     * <p>
+     * ヘッダがまだ揃っていない場合はpositionを変更せずにnullを返します。
+     *
+     * <p>
+     * サイズを８バイトで表す形式のヘッダも読み取ることができます。
+     * @param buf positionからlimitまでに受信したデータが格納されたバッファ
+     * @return 読み取りが完全に終わったヘッダ。ヘッダ全体がまだバッファに揃っていなければnull
+     * @throws IOException ヘッダに格納されたサイズが不正な場合
+     * @since 1.6.0
+     */
+    public static Header from(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < 4) {
+            return null;
+        }
+        if ((buf.getInt(buf.position()) & Header.LARGE) != 0) {
+            return largeFrom(buf);
+        }
+        if (buf.remaining() < 8) {
+            return null;
+        }
+        int start = buf.position();
+        int headerSize = buf.getInt(start);
+        int dataSize = buf.getInt(start + 4);
+        if (headerSize < 8 || headerSize % 4 != 0 || dataSize < headerSize) {
+            throw new IOException("illegal header. header size: " + headerSize + ", all data size: " + dataSize);
+        }
+        if (buf.remaining() < headerSize) {
+            return null;
+        }
+        buf.position(start + 8);
+        IntBuffer dataSizes = IntBuffer.allocate(headerSize / 4 - 2);
+        long itemSizeSum = 0;
+        while (dataSizes.hasRemaining()) {
+            int size = buf.getInt();
+            if (size < 0 && size != Header.CHUNKED) {
+                throw new IOException("illegal item size: " + size);
+            }
+            if (size > 0) {
+                itemSizeSum += size;
+            }
+            dataSizes.put(size);
+        }
+        if (itemSizeSum != dataSize - headerSize) {
+            throw new IOException("item sizes do not match all data size: " + dataSize);
+        }
+        dataSizes.flip();
+        return new FinishedHeader(headerSize, dataSize, dataSizes);
+    }
 
+    /**
+     * バッファに格納されたデータから、サイズを８バイトで表す形式のヘッダを読み取ります。
+     * @see #from(ByteBuffer)
+     */
+    private static Header largeFrom(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < 12) {
+            return null;
+        }
+        int start = buf.position();
+        int headerSize = buf.getInt(start) & ~Header.LARGE;
+        long dataSize = buf.getLong(start + 4);
+        if (headerSize < 12 || (headerSize - 12) % 8 != 0 || dataSize < headerSize) {
+            throw new IOException("illegal large header. header size: " + headerSize
+                    + ", all data size: " + dataSize);
+        }
+        if (buf.remaining() < headerSize) {
+            return null;
+        }
+        buf.position(start + 12);
+        LongBuffer dataSizes = LongBuffer.allocate((headerSize - 12) / 8);
+        long itemSizeSum = 0;
+        while (dataSizes.hasRemaining()) {
+            long size = buf.getLong();
+            if (size < 0 && size != Header.CHUNKED) {
+                throw new IOException("illegal item size: " + size);
+            }
+            if (size > 0) {
+                itemSizeSum += size;
+            }
+            dataSizes.put(size);
+        }
+        if (itemSizeSum != dataSize - headerSize) {
+            throw new IOException("item sizes do not match all data size: " + dataSize);
+        }
+        dataSizes.flip();
+        return new FinishedHeader(headerSize, dataSize, dataSizes, true);
     }
 
     /**
-     *
+     * サイズを８バイトで表す形式のヘッダも読み取ることができます。
      * @param is
      * @return 読み取りが完全に終わったヘッダ
-     * @throws IOException ヘッダの読み取りエラーが起きた場合、データが8バイト未満の場合
+     * @throws IOException ヘッダの読み取りエラーが起きた場合、データが8バイト未満の場合、ヘッダに格納されたサイズが不正な場合
+     * @version 1.6.0
      */
     public static Header from(InputStream is) throws IOException {
         byte[] headerBytes = new byte[8];
-        int tmp = is.read(headerBytes);
-        if (tmp < 0) {
+        int tmp = readFully(is, headerBytes);
+        if (tmp == 0) {
             return null;
         }
         if (tmp < 8) {
             throw new IOException("read less than 8 bytes");
         }
-        ByteBuffer headerSizeBuf = ByteBuffer.allocate(8);
-        headerSizeBuf.put(headerBytes);
-        headerSizeBuf.flip();
-        int headerSize = headerSizeBuf.getInt();
-        int dataSize = headerSizeBuf.getInt();
+        int headerSize = ByteBuffer.wrap(headerBytes).getInt();
+        boolean isLarge = (headerSize & Header.LARGE) != 0;
+        int wholeHeaderSize = isLarge ? headerSize & ~Header.LARGE : headerSize;
+        if (wholeHeaderSize < (isLarge ? 12 : 8)) {
+            throw new IOException("illegal header. header size: " + wholeHeaderSize);
+        }
 
-        ByteBuffer headerBuf = ByteBuffer.allocate(headerSize - 8);
-        byte[] remainHeaderBytes = new byte[headerSize - 8];
-        tmp = is.read(remainHeaderBytes);
-        headerBuf.put(remainHeaderBytes);
-        headerBuf.flip();
+        // 残りのヘッダを読み込み、バッファからサイズの整合性を確かめながら読み取る
+        byte[] wholeHeaderBytes = Arrays.copyOf(headerBytes, wholeHeaderSize);
+        if (readFully(is, wholeHeaderBytes, headerBytes.length) < wholeHeaderSize) {
+            throw new IOException("stream closed during reading header");
+        }
+        return from(ByteBuffer.wrap(wholeHeaderBytes));
+    }
 
-        IntBuffer dataSizes = UnFinishedHeader.datasizesFromHeaderBuf(headerSize, headerBuf);
+    /**
+     * 配列がいっぱいになるか、ストリームが終端に達するまで読み込みます。
+     * @return 読み込んだバイト数
+     */
+    private static int readFully(InputStream is, byte[] bytes) throws IOException {
+        return readFully(is, bytes, 0);
+    }
 
-        Header header = new FinishedHeader(headerSize, dataSize, dataSizes);
-        return header;
+    /**
+     * 配列の指定した位置から、配列がいっぱいになるか、ストリームが終端に達するまで読み込みます。
+     * @return 配列の先頭から読み込んだ位置までのバイト数
+     */
+    private static int readFully(InputStream is, byte[] bytes, int offset) throws IOException {
+        while (offset < bytes.length) {
+            int tmp = is.read(bytes, offset, bytes.length - offset);
+            if (tmp < 0) {
+                break;
+            }
+            offset += tmp;
+        }
+        return offset;
     }
 }
@@ -0,0 +1,45 @@
+package jp.gr.java_conf.falius.communication.listener;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * 受信単位のすべてを読み取り終えるのを待たずに、受信したデータを順次受け取るリスナーです。
+ * 受信単位に含まれるデータを一つ読み取り終えるごとに{@link #onItem}メソッドが呼ばれます。
+ * 読み取り途中のデータを受け取る場合は、{@link #onChunk}メソッドをオーバーライドしてください。
+ *
+ * <p>
+ * いずれのメソッドも通信を行うスレッドから呼ばれるため、時間のかかる処理は行わないでください。
+ * 引数のバッファは読み取り専用で、メソッドの呼び出しの間だけ有効です。
+ * 受信単位のすべてを読み取り終えた後には、これまで通り{@link OnReceiveListener}やSwapperに受信データが渡されます。
+ *
+ * <p>
+ * FileSinkによってファイルに書き込まれたデータは、空のバッファとして渡されます。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+@FunctionalInterface
+public interface StreamingReceiveListener {
+
+    /**
+     * 受信単位に含まれるデータを一つ読み取り終えるごとに呼ばれます。
+     * @param remoteAddress 送信してきたリモートのアドレス
+     * @param index 受信単位の中での、データの位置
+     * @param item 読み取り終えたデータ
+     * @since 1.6.0
+     */
+    void onItem(String remoteAddress, int index, ByteBuffer item);
+
+    /**
+     * チャネルから読み込んだデータのうち、まだ渡していない部分が読み取り途中のデータに追加されるごとに呼ばれます。
+     * 空でないデータについては、{@link #onItem}メソッドより前に一回以上呼ばれます。
+     * デフォルトでは何もしません。
+     * @param remoteAddress 送信してきたリモートのアドレス
+     * @param index 受信単位の中での、データの位置
+     * @param chunk 新たに読み込んだ部分
+     * @since 1.6.0
+     */
+    default void onChunk(String remoteAddress, int index, ByteBuffer chunk) {
+    }
+}
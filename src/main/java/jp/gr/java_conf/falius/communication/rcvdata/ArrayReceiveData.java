@@ -1,17 +1,32 @@
 package jp.gr.java_conf.falius.communication.rcvdata;
 
 import java.lang.invoke.WrongMethodTypeException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.NoSuchElementException;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 
+import jp.gr.java_conf.falius.communication.senddata.ArraySendData;
 import jp.gr.java_conf.falius.util.range.IntRange;
 
 /**
+ * <p>
+ * {@link ArraySendData}で送信された配列を受け取る際に利用するReceiveDataです。
  *
+ * <p>
+ * JSON文字列として送信された配列と、バイナリ形式で送信された配列のどちらも読み取ることができます。
+ * JSON文字列は必ず'['で始まるため、先頭のバイトで形式を判別します。
+ * バイナリ形式の配列は文字列を経由せず、各要素をバッファのビューから一括で読み取ります。
  * @author "ymiyauchi"
  * @since 1.4.1
+ * @version 1.6.0
  *
  */
 public class ArrayReceiveData extends ExtendableReceiveData {
@@ -29,15 +44,27 @@ public class ArrayReceiveData extends ExtendableReceiveData {
      *
      * @return
      * @since 1.4.1
+     * @version 1.6.0
      */
     public int[] getIntArray() {
-        JSONArray json = getJson();
-        int size = json.length();
-        int[] ret = new int[size];
-        for (int i : new IntRange(size)) {
-            ret[i] = json.getInt(i);
+        ByteBuffer buf = nextBuffer();
+        try {
+            if (isBinary(buf)) {
+                IntBuffer values = binaryValues(buf, ArraySendData.TYPE_INT, Integer.BYTES).asIntBuffer();
+                int[] ret = new int[values.remaining()];
+                values.get(ret);
+                return ret;
+            }
+            JSONArray json = toJson(buf);
+            int size = json.length();
+            int[] ret = new int[size];
+            for (int i : new IntRange(size)) {
+                ret[i] = json.getInt(i);
+            }
+            return ret;
+        } finally {
+            release(buf);
         }
-        return ret;
     }
 
     /**
@@ -46,73 +73,151 @@ public class ArrayReceiveData extends ExtendableReceiveData {
      * @since 1.4.1
      */
     public String[] getStringArray() {
-        JSONArray json = getJson();
-        int size = json.length();
-        String[] ret = new String[size];
-        for (int i : new IntRange(size)) {
-            ret[i] = json.getString(i);
+        ByteBuffer buf = nextBuffer();
+        try {
+            JSONArray json = toJson(buf);
+            int size = json.length();
+            String[] ret = new String[size];
+            for (int i : new IntRange(size)) {
+                ret[i] = json.getString(i);
+            }
+            return ret;
+        } finally {
+            release(buf);
         }
-        return ret;
     }
 
     /**
      *
      * @return
      * @since 1.4.1
+     * @version 1.6.0
      */
     public long[] getLongArray() {
-        JSONArray json = getJson();
-        int size = json.length();
-        long[] ret = new long[size];
-        for (int i : new IntRange(size)) {
-            ret[i] = json.getLong(i);
+        ByteBuffer buf = nextBuffer();
+        try {
+            if (isBinary(buf)) {
+                LongBuffer values = binaryValues(buf, ArraySendData.TYPE_LONG, Long.BYTES).asLongBuffer();
+                long[] ret = new long[values.remaining()];
+                values.get(ret);
+                return ret;
+            }
+            JSONArray json = toJson(buf);
+            int size = json.length();
+            long[] ret = new long[size];
+            for (int i : new IntRange(size)) {
+                ret[i] = json.getLong(i);
+            }
+            return ret;
+        } finally {
+            release(buf);
         }
-        return ret;
     }
 
     /**
      *
      * @return
      * @since 1.4.1
+     * @version 1.6.0
      */
     public double[] getDoubleArray() {
-        JSONArray json = getJson();
-        int size = json.length();
-        double[] ret = new double[size];
-        for (int i : new IntRange(size)) {
-            ret[i] = json.getDouble(i);
+        ByteBuffer buf = nextBuffer();
+        try {
+            if (isBinary(buf)) {
+                DoubleBuffer values = binaryValues(buf, ArraySendData.TYPE_DOUBLE, Double.BYTES).asDoubleBuffer();
+                double[] ret = new double[values.remaining()];
+                values.get(ret);
+                return ret;
+            }
+            JSONArray json = toJson(buf);
+            int size = json.length();
+            double[] ret = new double[size];
+            for (int i : new IntRange(size)) {
+                ret[i] = json.getDouble(i);
+            }
+            return ret;
+        } finally {
+            release(buf);
         }
-        return ret;
     }
 
     /**
      *
      * @return
      * @since 1.4.1
+     * @version 1.6.0
      */
     public float[] getFloatArray() {
-        JSONArray json = getJson();
-        int size = json.length();
-        float[] ret = new float[size];
-        for (int i : new IntRange(size)) {
-            ret[i] = (float)json.getDouble(i);
+        ByteBuffer buf = nextBuffer();
+        try {
+            if (isBinary(buf)) {
+                FloatBuffer values = binaryValues(buf, ArraySendData.TYPE_FLOAT, Float.BYTES).asFloatBuffer();
+                float[] ret = new float[values.remaining()];
+                values.get(ret);
+                return ret;
+            }
+            JSONArray json = toJson(buf);
+            int size = json.length();
+            float[] ret = new float[size];
+            for (int i : new IntRange(size)) {
+                ret[i] = (float)json.getDouble(i);
+            }
+            return ret;
+        } finally {
+            release(buf);
         }
-        return ret;
+    }
+
+    /**
+     * @return 次のデータ
+     * @throws NoSuchElementException データがない場合
+     */
+    private ByteBuffer nextBuffer() {
+        ByteBuffer buf = get();
+        if (buf == null) {
+            throw new NoSuchElementException();
+        }
+        return buf;
+    }
+
+    /**
+     * @return バイナリ形式のデータであればtrue
+     */
+    private static boolean isBinary(ByteBuffer buf) {
+        return buf.hasRemaining() && buf.get(buf.position()) != '[';
+    }
+
+    /**
+     * 型タグと要素数を確かめ、positionを各要素の値の先頭まで進めます。
+     * @return 各要素の値がpositionからlimitまでに格納されたバッファ
+     * @throws WrongMethodTypeException 型タグが異なる場合、要素数とデータのサイズが合わない場合
+     */
+    private static ByteBuffer binaryValues(ByteBuffer buf, byte type, int elementSize) {
+        if (buf.remaining() < ArraySendData.BINARY_PREFIX_SIZE) {
+            throw new WrongMethodTypeException("data less than " + ArraySendData.BINARY_PREFIX_SIZE + " bytes");
+        }
+        byte actualType = buf.get();
+        if (actualType != type) {
+            throw new WrongMethodTypeException("array type is " + actualType);
+        }
+        int length = buf.getInt();
+        if (length < 0 || (long) length * elementSize != buf.remaining()) {
+            throw new WrongMethodTypeException("illegal array length: " + length);
+        }
+        return buf;
     }
 
     /**
      *
      * @return
      * @since 1.4.1
+     * @version 1.6.0
      */
-    private JSONArray getJson() {
+    private static JSONArray toJson(ByteBuffer buf) {
         try {
-            String strJson = getString();
-            if (strJson == null) {
-                throw new NoSuchElementException();
-            }
+            String strJson = StandardCharsets.UTF_8.newDecoder().decode(buf).toString();
             return new JSONArray(strJson);
-        } catch (JSONException e) {
+        } catch (JSONException | CharacterCodingException e) {
             throw new WrongMethodTypeException();
         }
     }
@@ -11,16 +11,27 @@ import java.nio.charset.StandardCharsets;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 
+import jp.gr.java_conf.falius.communication.buffer.BufferAllocator;
+import jp.gr.java_conf.falius.communication.buffer.HeapBufferAllocator;
+
 /**
  * {@inheritDoc}
  *
+ * <p>
+ * getXXXメソッドでデータを取得した場合と{@link clear}メソッドを実行した場合、
+ *     そのデータを格納していたバッファは受信に利用したBufferAllocatorに返却されます。
+ * {@link get}メソッドおよび{@link getAll}メソッドで取得したバッファは返却されないため、
+ *     必要に応じて利用し終えた時点で{@link release}メソッドに渡してください。
+ *
  * @author "ymiyauchi"
  * @since 1.4.0
+ * @version 1.6.0
  */
 public class BasicReceiveData implements ReceiveData {
     private final static ByteBuffer[] EMPTY_BUFFER_ARRAY = new ByteBuffer[0];
     private final CharsetDecoder DECODER = StandardCharsets.UTF_8.newDecoder();
     private final Queue<ByteBuffer> mData;
+    private final BufferAllocator mAllocator;
 
     /**
      *
@@ -28,7 +39,18 @@ public class BasicReceiveData implements ReceiveData {
      * @since 1.4.0
      */
     public BasicReceiveData(Queue<ByteBuffer> data) {
+        this(data, HeapBufferAllocator.INSTANCE);
+    }
+
+    /**
+     *
+     * @param data
+     * @param allocator dataの各バッファを確保したBufferAllocator
+     * @since 1.6.0
+     */
+    public BasicReceiveData(Queue<ByteBuffer> data, BufferAllocator allocator) {
         mData = data;
+        mAllocator = allocator;
     }
 
     /**
@@ -64,7 +86,18 @@ public class BasicReceiveData implements ReceiveData {
      */
     @Override
     public void clear() {
-        mData.clear();
+        ByteBuffer buf;
+        while ((buf = mData.poll()) != null) {
+            mAllocator.release(buf);
+        }
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public void release(ByteBuffer buf) {
+        mAllocator.release(buf);
     }
 
     /**
@@ -82,6 +115,8 @@ public class BasicReceiveData implements ReceiveData {
             return DECODER.decode(buf).toString();
         } catch (CharacterCodingException e) {
             throw new WrongMethodTypeException("decode error");
+        } finally {
+            mAllocator.release(buf);
         }
     }
 
@@ -100,6 +135,8 @@ public class BasicReceiveData implements ReceiveData {
         } catch (BufferUnderflowException e) {
             // データが4バイトより少ない
             throw new WrongMethodTypeException("deta less than 4 bytes: " + buf.remaining());
+        } finally {
+            mAllocator.release(buf);
         }
     }
 
@@ -118,6 +155,8 @@ public class BasicReceiveData implements ReceiveData {
         } catch (BufferUnderflowException e) {
             // データが８バイトより少ない
             throw new WrongMethodTypeException("deta less than 8 bytes: " + buf.remaining());
+        } finally {
+            mAllocator.release(buf);
         }
     }
 
@@ -136,6 +175,8 @@ public class BasicReceiveData implements ReceiveData {
         } catch (BufferUnderflowException e) {
             // データが８バイトより少ない
             throw new WrongMethodTypeException("deta less than 8 bytes: " + buf.remaining());
+        } finally {
+            mAllocator.release(buf);
         }
     }
 
@@ -154,6 +195,8 @@ public class BasicReceiveData implements ReceiveData {
         } catch (BufferUnderflowException e) {
             // データが4バイトより少ない
             throw new WrongMethodTypeException("deta less than 4 bytes: " + buf.remaining());
+        } finally {
+            mAllocator.release(buf);
         }
     }
 
@@ -177,13 +220,20 @@ public class BasicReceiveData implements ReceiveData {
             }
 
             if (buf.hasArray()) {
-                byte[] bytes = buf.array();
-                out.write(bytes);
+                out.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
             } else {
-                for (int i = buf.position(), len = buf.limit(); i < len; i++) {
-                    out.write(buf.get());
+                // ダイレクトバッファは一定量ずつ配列に写してから書き込む
+                byte[] bytes = new byte[Math.min(buf.remaining(), 8192)];
+                while (buf.hasRemaining()) {
+                    int len = Math.min(buf.remaining(), bytes.length);
+                    buf.get(bytes, 0, len);
+                    out.write(bytes, 0, len);
                 }
             }
+        } finally {
+            if (buf != null) {
+                mAllocator.release(buf);
+            }
         }
     }
 }
@@ -1,6 +1,10 @@
 package jp.gr.java_conf.falius.communication.rcvdata;
 
 import java.lang.invoke.WrongMethodTypeException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -11,12 +15,21 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import jp.gr.java_conf.falius.communication.senddata.CollectionSendData;
 import jp.gr.java_conf.falius.util.range.IntRange;
 
 /**
+ * <p>
+ * {@link CollectionSendData}で送信されたコレクションを受け取る際に利用するReceiveDataです。
  *
+ * <p>
+ * JSON文字列として送信されたコレクションと、バイナリ形式で送信されたコレクションのどちらも読み取ることができます。
+ * JSON文字列は必ず'['か'{'で始まるため、先頭のバイトで形式を判別します。
+ * バイナリ形式のコレクションは、JSONのオブジェクトを経由せずにバッファから直接復元されます。
+ * 要素の型を保ったまま取得するには、{@link #getObjectList}あるいは{@link #getObjectMap}メソッドを利用してください。
  * @author "ymiyauchi"
  * @since 1.4.0
+ * @version 1.6.0
  *
  */
 public class CollectionReceiveData extends ExtendableReceiveData {
@@ -26,50 +39,259 @@ public class CollectionReceiveData extends ExtendableReceiveData {
     }
 
     /**
-     *
+     * 各要素を文字列として取得します。
+     * バイナリ形式のデータであれば、各要素を{@link String#valueOf(Object)}メソッドで変換します。
      * @return
      * @throws WrongMethodTypeException Listに変換できないデータをこのメソッドで取得しようとした場合
      * @since 1.4.0
+     * @version 1.6.0
      */
     public List<String> getList() {
-        String jsonString = getString();
-        if (jsonString == null) {
+        ByteBuffer buf = get();
+        if (buf == null) {
             return Collections.emptyList();
         }
         try {
-            JSONArray json = new JSONArray(jsonString);
-            List<String> ret = new ArrayList<>();
+            if (isBinary(buf)) {
+                List<String> ret = new ArrayList<>();
+                for (Object element : readList(buf)) {
+                    ret.add(String.valueOf(element));
+                }
+                return ret;
+            }
+            String jsonString = toString(buf);
+            try {
+                JSONArray json = new JSONArray(jsonString);
+                List<String> ret = new ArrayList<>();
 
-            for (int i : new IntRange(json.length())) {
-                ret.add(json.getString(i));
+                for (int i : new IntRange(json.length())) {
+                    ret.add(json.getString(i));
+                }
+                return ret;
+            } catch (JSONException e) {
+                throw new WrongMethodTypeException("could not convert to List data: " + jsonString);
             }
-            return ret;
-        } catch (JSONException e) {
-            throw new WrongMethodTypeException("could not convert to List data: " + jsonString);
+        } finally {
+            release(buf);
         }
     }
 
     /**
-     *
+     * 各値を文字列として取得します。
+     * バイナリ形式のデータであれば、各値を{@link String#valueOf(Object)}メソッドで変換します。
      * @return
      * @throws WrongMethodTypeException Mapに変換できないデータをこのメソッドで取得しようとした場合
      * @since 1.4.0
+     * @version 1.6.0
      */
     public Map<String, String> getMap() {
-        String jsonString = getString();
-        if (jsonString == null) {
+        ByteBuffer buf = get();
+        if (buf == null) {
+            return Collections.emptyMap();
+        }
+        try {
+            if (isBinary(buf)) {
+                Map<String, String> ret = new LinkedHashMap<>();
+                for (Map.Entry<String, Object> entry : readMap(buf).entrySet()) {
+                    ret.put(entry.getKey(), String.valueOf(entry.getValue()));
+                }
+                return ret;
+            }
+            String jsonString = toString(buf);
+            try {
+                JSONObject json = new JSONObject(jsonString);
+                Map<String, String> ret = new LinkedHashMap<>();
+
+                for (String key : json.keySet()) {
+                    ret.put(key, json.getString(key));
+                }
+                return ret;
+            } catch (JSONException e) {
+                throw new WrongMethodTypeException("could not convert to Map data: " + jsonString);
+            }
+        } finally {
+            release(buf);
+        }
+    }
+
+    /**
+     * <p>
+     * 各要素の型を保ったまま取得します。
+     * 要素は、null、Boolean、Integer、Long、Double、String、あるいはこれらを要素とするList及びMapです。
+     *
+     * <p>
+     * JSON文字列として送信されたデータでは、数値の型はJSONの解析結果に従います。
+     * @return
+     * @throws WrongMethodTypeException Listに変換できないデータをこのメソッドで取得しようとした場合
+     * @since 1.6.0
+     */
+    public List<Object> getObjectList() {
+        ByteBuffer buf = get();
+        if (buf == null) {
+            return Collections.emptyList();
+        }
+        try {
+            if (isBinary(buf)) {
+                return readList(buf);
+            }
+            String jsonString = toString(buf);
+            try {
+                return new JSONArray(jsonString).toList();
+            } catch (JSONException e) {
+                throw new WrongMethodTypeException("could not convert to List data: " + jsonString);
+            }
+        } finally {
+            release(buf);
+        }
+    }
+
+    /**
+     * <p>
+     * 各値の型を保ったまま取得します。
+     * 値は、null、Boolean、Integer、Long、Double、String、あるいはこれらを要素とするList及びMapです。
+     *
+     * <p>
+     * JSON文字列として送信されたデータでは、数値の型はJSONの解析結果に従います。
+     * @return
+     * @throws WrongMethodTypeException Mapに変換できないデータをこのメソッドで取得しようとした場合
+     * @since 1.6.0
+     */
+    public Map<String, Object> getObjectMap() {
+        ByteBuffer buf = get();
+        if (buf == null) {
             return Collections.emptyMap();
         }
         try {
-            JSONObject json = new JSONObject(jsonString);
-            Map<String, String> ret = new LinkedHashMap<>();
+            if (isBinary(buf)) {
+                return readMap(buf);
+            }
+            String jsonString = toString(buf);
+            try {
+                return new JSONObject(jsonString).toMap();
+            } catch (JSONException e) {
+                throw new WrongMethodTypeException("could not convert to Map data: " + jsonString);
+            }
+        } finally {
+            release(buf);
+        }
+    }
+
+    /**
+     * @return バイナリ形式のデータであればtrue
+     */
+    private static boolean isBinary(ByteBuffer buf) {
+        if (!buf.hasRemaining()) {
+            return false;
+        }
+        byte first = buf.get(buf.position());
+        return first == CollectionSendData.TAG_LIST || first == CollectionSendData.TAG_MAP;
+    }
+
+    private static String toString(ByteBuffer buf) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder().decode(buf).toString();
+        } catch (CharacterCodingException e) {
+            throw new WrongMethodTypeException("data is not UTF-8 string");
+        }
+    }
+
+    /**
+     * バイナリ形式のListを、バッファから直接読み取ります。
+     * @throws WrongMethodTypeException Listでない場合、データが壊れている場合
+     */
+    private static List<Object> readList(ByteBuffer buf) {
+        Object ret = readWhole(buf);
+        if (!(ret instanceof List)) {
+            throw new WrongMethodTypeException("could not convert to List data");
+        }
+        @SuppressWarnings("unchecked")
+        List<Object> list = (List<Object>) ret;
+        return list;
+    }
+
+    /**
+     * バイナリ形式のMapを、バッファから直接読み取ります。
+     * @throws WrongMethodTypeException Mapでない場合、データが壊れている場合
+     */
+    private static Map<String, Object> readMap(ByteBuffer buf) {
+        Object ret = readWhole(buf);
+        if (!(ret instanceof Map)) {
+            throw new WrongMethodTypeException("could not convert to Map data");
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = (Map<String, Object>) ret;
+        return map;
+    }
 
-            for (String key : json.keySet()) {
-                ret.put(key, json.getString(key));
+    private static Object readWhole(ByteBuffer buf) {
+        try {
+            Object ret = readValue(buf);
+            if (buf.hasRemaining()) {
+                throw new WrongMethodTypeException("extra data remains: " + buf.remaining() + " bytes");
             }
             return ret;
-        } catch (JSONException e) {
-            throw new WrongMethodTypeException("could not convert to Map data: " + jsonString);
+        } catch (BufferUnderflowException e) {
+            throw new WrongMethodTypeException("collection data is broken");
+        }
+    }
+
+    private static Object readValue(ByteBuffer buf) {
+        byte tag = buf.get();
+        switch (tag) {
+        case CollectionSendData.TAG_NULL:
+            return null;
+        case CollectionSendData.TAG_BOOLEAN:
+            return buf.get() != 0;
+        case CollectionSendData.TAG_INT:
+            return buf.getInt();
+        case CollectionSendData.TAG_LONG:
+            return buf.getLong();
+        case CollectionSendData.TAG_DOUBLE:
+            return buf.getDouble();
+        case CollectionSendData.TAG_STRING:
+            return readStringBody(buf);
+        case CollectionSendData.TAG_LIST: {
+            int size = readSize(buf);
+            // 要素は最低でも１バイトなので、残りのバイト数を超える容量は確保しない
+            List<Object> list = new ArrayList<>(Math.min(size, buf.remaining()));
+            for (int i = 0; i < size; i++) {
+                list.add(readValue(buf));
+            }
+            return list;
+        }
+        case CollectionSendData.TAG_MAP: {
+            int size = readSize(buf);
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                if (buf.get() != CollectionSendData.TAG_STRING) {
+                    throw new WrongMethodTypeException("map key is not string");
+                }
+                String key = readStringBody(buf);
+                map.put(key, readValue(buf));
+            }
+            return map;
+        }
+        default:
+            throw new WrongMethodTypeException("unknown tag: " + tag);
+        }
+    }
+
+    private static int readSize(ByteBuffer buf) {
+        int size = buf.getInt();
+        if (size < 0) {
+            throw new WrongMethodTypeException("illegal size: " + size);
+        }
+        return size;
+    }
+
+    private static String readStringBody(ByteBuffer buf) {
+        int size = readSize(buf);
+        if (size > buf.remaining()) {
+            throw new BufferUnderflowException();
         }
+        ByteBuffer bytes = buf.slice();
+        bytes.limit(size);
+        buf.position(buf.position() + size);
+        return toString(bytes);
     }
 }
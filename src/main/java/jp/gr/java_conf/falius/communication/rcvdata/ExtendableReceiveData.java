@@ -111,4 +111,12 @@ public abstract class ExtendableReceiveData implements ReceiveData {
 
     }
 
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public final void release(ByteBuffer buf) {
+        mSource.release(buf);
+    }
+
 }
@@ -0,0 +1,36 @@
+package jp.gr.java_conf.falius.communication.rcvdata;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * 受信するデータの書き込み先となるファイルを決めるインターフェースです。
+ *
+ * <p>
+ * ヘッダの読み取りを終え、データ本体を受信する前にデータごとに呼び出されます。
+ * ファイルのチャネルを返したデータは、メモリ上のバッファに格納されることなくチャネルから直接ファイルに書き込まれます。
+ * そのようなデータは、受信データの中では空のバッファとして格納されます。
+ *
+ * <p>
+ * 返したチャネルは、データを書き込み終えた時点あるいは受信に失敗した時点で閉じられます。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+@FunctionalInterface
+public interface FileSink {
+
+    /**
+     *
+     * @param remoteAddress 送信してきたリモートのアドレス
+     * @param index 受信単位の中での、データの位置
+     * @param size データのサイズ。チャンクに分けて送られてくるデータであれば{@link jp.gr.java_conf.falius.communication.header.Header#CHUNKED}。
+     *     2GB以上のデータはメモリ上に受信できないため、ファイルのチャネルを返してください
+     * @return データを書き込むファイルのチャネル。現在の位置から書き込まれます。
+     *     メモリ上のバッファに受信する場合はnull
+     * @throws IOException ファイルを開けなかった場合
+     * @since 1.6.0
+     */
+    FileChannel open(String remoteAddress, int index, long size) throws IOException;
+}
@@ -5,13 +5,18 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.nio.ByteBuffer;
 
+import jp.gr.java_conf.falius.communication.senddata.ObjectStreamContext;
+
 /**
  * シリアライズ可能オブジェクトを受信することができるReceiveDataです。
+ * 送信側で{@link ObjectStreamContext}を利用した場合は、受信側でも同じ接続に対応するObjectStreamContextを渡してください。
  * @author "ymiyauchi"
  * @since 1.4.0
+ * @version 1.6.0
  *
  */
 public class ObjectReceiveData extends ExtendableReceiveData {
+    private final ObjectStreamContext mContext;
 
     /**
      *
@@ -19,7 +24,18 @@ public class ObjectReceiveData extends ExtendableReceiveData {
      * @since 1.4.0
      */
     public ObjectReceiveData(ReceiveData receiveData) {
+        this(receiveData, null);
+    }
+
+    /**
+     *
+     * @param receiveData
+     * @param context 送信元との接続に対応するObjectStreamContext。nullであれば通常のデシリアライズを行います
+     * @since 1.6.0
+     */
+    public ObjectReceiveData(ReceiveData receiveData, ObjectStreamContext context) {
         super(receiveData);
+        mContext = context;
     }
 
     /**
@@ -28,18 +44,34 @@ public class ObjectReceiveData extends ExtendableReceiveData {
      * @throws IOException
      * @throws ClassNotFoundException
      * @since 1.4.0
+     * @version 1.6.0
      */
     public Object getObject() throws IOException, ClassNotFoundException {
         ByteBuffer buf = get();
         if (buf == null) {
             return null;
         }
+        ByteArrayInputStream bais;
         if (buf.hasArray()) {
-            ByteArrayInputStream bais = new ByteArrayInputStream(buf.array());
-            ObjectInputStream ois = new ObjectInputStream(bais);
+            bais = new ByteArrayInputStream(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+        } else {
+            // ダイレクトバッファ
+            byte[] bytes = new byte[buf.remaining()];
+            buf.get(bytes);
+            bais = new ByteArrayInputStream(bytes);
+        }
+        if (mContext != null) {
+            try {
+                return mContext.readObject(bais);
+            } finally {
+                release(buf);
+            }
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(bais)) {
             Object ret = ois.readObject();
             return ret;
+        } finally {
+            release(buf);
         }
-        throw new UnsupportedOperationException();  // unreachable
     }
 }
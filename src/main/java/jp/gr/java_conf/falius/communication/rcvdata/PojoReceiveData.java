@@ -0,0 +1,34 @@
+package jp.gr.java_conf.falius.communication.rcvdata;
+
+import jp.gr.java_conf.falius.communication.codec.ItemField;
+import jp.gr.java_conf.falius.communication.codec.PojoCodec;
+
+/**
+ * {@link ItemField}で注釈したフィールドを持つオブジェクトを受信することができるReceiveDataです。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+public class PojoReceiveData extends ExtendableReceiveData {
+
+    /**
+     *
+     * @param receiveData
+     * @since 1.6.0
+     */
+    public PojoReceiveData(ReceiveData receiveData) {
+        super(receiveData);
+    }
+
+    /**
+     *
+     * @param type
+     * @return
+     * @throws IllegalArgumentException typeが{@link PojoCodec}で変換できない場合
+     * @see PojoCodec#decode
+     * @since 1.6.0
+     */
+    public <T> T getPojo(Class<T> type) {
+        return PojoCodec.of(type).decode(this);
+    }
+}
@@ -125,4 +125,20 @@ public interface ReceiveData {
      * @since 1.4.0
      */
     void clear();
+
+    /**
+     * <p>
+     * {@link get}メソッドなどで取得したバッファを利用し終えたことを知らせます。
+     * 受信に利用したBufferAllocatorがバッファをプールしている場合、バッファはプールに返却されます。
+     * 返却したバッファはその後参照しないでください。
+     *
+     * <p>
+     * バッファを返却しなくても、ガベージコレクションによって回収されます。
+     * デフォルトの実装では何もしません。
+     * @param buf
+     * @since 1.6.0
+     */
+    default void release(ByteBuffer buf) {
+        // empty
+    }
 }
@@ -1,17 +1,40 @@
 package jp.gr.java_conf.falius.communication.senddata;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import org.json.JSONArray;
 
 /**
+ * <p>
  * 配列を送信する際に利用するSejindDataです。
  * 配列を１単位として送信します。
+ *
+ * <p>
+ * デフォルトでは配列をJSON文字列にして送信します。
+ * バイナリ形式を指定すると、プリミティブ型の配列を型タグ(１バイト)、要素数(４バイト)、
+ *     ビッグエンディアンで並べた各要素の値として送信します。
+ * 文字列に変換しないため、大きな配列を送信する場合のデータ量と変換の負荷を大きく減らせます。
+ * 受信側の{@link jp.gr.java_conf.falius.communication.rcvdata.ArrayReceiveData}はどちらの形式も読み取ることができますが、
+ *     1.6.0より前のバージョンではバイナリ形式を読み取れません。
  * @author "ymiyauchi"
  * @since 1.4.1
+ * @version 1.6.0
  *
  */
 public class ArraySendData extends ExtendableSendData {
+    /** int配列を表すバイナリ形式の型タグ */
+    public static final byte TYPE_INT = 0x01;
+    /** long配列を表すバイナリ形式の型タグ */
+    public static final byte TYPE_LONG = 0x02;
+    /** float配列を表すバイナリ形式の型タグ */
+    public static final byte TYPE_FLOAT = 0x03;
+    /** double配列を表すバイナリ形式の型タグ */
+    public static final byte TYPE_DOUBLE = 0x04;
+    /** バイナリ形式で、各要素の値より前に置かれる型タグと要素数のバイト数 */
+    public static final int BINARY_PREFIX_SIZE = 5;
+
+    private final boolean mIsBinary;
 
     /**
      *
@@ -19,15 +42,34 @@ public class ArraySendData extends ExtendableSendData {
      * @since 1.4.1
      */
     public ArraySendData(SendData sendData) {
+        this(sendData, false);
+    }
+
+    /**
+     *
+     * @param sendData
+     * @param isBinary trueであれば、プリミティブ型の配列をバイナリ形式で送信します。
+     *     文字列の配列は常にJSON文字列として送信します
+     * @since 1.6.0
+     */
+    public ArraySendData(SendData sendData, boolean isBinary) {
         super(sendData);
+        mIsBinary = isBinary;
     }
 
     /**
      *
      * @param data
      * @since 1.4.1
+     * @version 1.6.0
      */
     public SendData put(int[] data) {
+        if (mIsBinary) {
+            ByteBuffer buf = allocateBinary(TYPE_INT, data.length, Integer.BYTES);
+            buf.asIntBuffer().put(data);
+            buf.rewind();
+            return put(buf);
+        }
         JSONArray json = new JSONArray(data);
         return put(json.toString());
     }
@@ -48,6 +90,12 @@ public class ArraySendData extends ExtendableSendData {
      * @since 1.4.1
      */
     public SendData put(long[] data) {
+        if (mIsBinary) {
+            ByteBuffer buf = allocateBinary(TYPE_LONG, data.length, Long.BYTES);
+            buf.asLongBuffer().put(data);
+            buf.rewind();
+            return put(buf);
+        }
         JSONArray json = new JSONArray(data);
         return put(json.toString());
     }
@@ -58,6 +106,12 @@ public class ArraySendData extends ExtendableSendData {
      * @since 1.4.1
      */
     public SendData put(double[] data) {
+        if (mIsBinary) {
+            ByteBuffer buf = allocateBinary(TYPE_DOUBLE, data.length, Double.BYTES);
+            buf.asDoubleBuffer().put(data);
+            buf.rewind();
+            return put(buf);
+        }
         JSONArray json = new JSONArray(data);
         return put(json.toString());
     }
@@ -68,7 +122,29 @@ public class ArraySendData extends ExtendableSendData {
      * @since 1.4.1
      */
     public SendData put(float[] data) {
+        if (mIsBinary) {
+            ByteBuffer buf = allocateBinary(TYPE_FLOAT, data.length, Float.BYTES);
+            buf.asFloatBuffer().put(data);
+            buf.rewind();
+            return put(buf);
+        }
         JSONArray json = new JSONArray(data);
         return put(json.toString());
     }
+
+    /**
+     * 型タグと要素数を書き込んだバイナリ形式のバッファを確保します。
+     * 戻り値のバッファのpositionは各要素の値を書き込む位置にあるため、ビューを作成して一括で書き込めます。
+     * @throws IllegalArgumentException 配列が大きすぎて一つのバッファに格納できない場合
+     */
+    private static ByteBuffer allocateBinary(byte type, int length, int elementSize) {
+        long size = BINARY_PREFIX_SIZE + (long) length * elementSize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("array is too large: " + length);
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        buf.put(type);
+        buf.putInt(length);
+        return buf;
+    }
 }
@@ -6,17 +6,26 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 送信データを格納するクラスです。
  * @author "ymiyauchi"
  * @since 1.4.0
+ * @version 1.6.0
  *
  */
 public class BasicSendData implements SendData {
     private final Queue<ByteBuffer> mData = new ArrayDeque<>();
+    private final Map<Integer, FileRegion> mFileRegions = new HashMap<>();
+    private final Map<Integer, InputStream> mChunkedStreams = new HashMap<>();
+    private Runnable mRecycler = null;
+    private final AtomicInteger mSendingCount = new AtomicInteger();  // 送信中の数
 
     /**
      * @since 1.4.0
@@ -137,6 +146,44 @@ public class BasicSendData implements SendData {
         return put(result);
     }
 
+    /**
+     * 2GB以上のファイルも、そのまま一つのデータとして送信できます。
+     * @since 1.6.0
+     */
+    @Override
+    public BasicSendData put(FileRegion region) {
+        mFileRegions.put(mData.size(), region);
+        // データの順番とサイズを保つため、空のバッファを代わりに格納しておく
+        mData.add(ByteBuffer.allocate(0));
+        return this;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public FileRegion fileRegion(int index) {
+        return mFileRegions.get(index);
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public BasicSendData putChunked(InputStream in) {
+        mChunkedStreams.put(mData.size(), Objects.requireNonNull(in));
+        mData.add(ByteBuffer.allocate(0));
+        return this;
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public InputStream chunkedStream(int index) {
+        return mChunkedStreams.get(index);
+    }
+
     /**
      * @since 1.4.0
      */
@@ -155,6 +202,7 @@ public class BasicSendData implements SendData {
 
     /**
      * @since 1.4.0
+     * @version 1.6.0
      */
     @Override
     public boolean hasRemain() {
@@ -163,6 +211,49 @@ public class BasicSendData implements SendData {
                 return true;
             }
         }
+        for (FileRegion region : mFileRegions.values()) {
+            if (region.size() > 0) {
+                return true;
+            }
+        }
         return false;
     }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public void reset() {
+        mData.clear();
+        mFileRegions.clear();
+        mChunkedStreams.clear();
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public void retain() {
+        mSendingCount.incrementAndGet();
+    }
+
+    /**
+     * 他の接続への送信が残っている間は、プールに戻しません。
+     * @since 1.6.0
+     */
+    @Override
+    public void recycle() {
+        if (mSendingCount.updateAndGet(count -> Math.max(count - 1, 0)) == 0 && mRecycler != null) {
+            mRecycler.run();
+        }
+    }
+
+    /**
+     * {@link SendDataPool}が、送信を終えたインスタンスをプールに戻す処理を設定します。
+     * @param recycler
+     * @since 1.6.0
+     */
+    void setRecycler(Runnable recycler) {
+        mRecycler = recycler;
+    }
 }
@@ -1,5 +1,7 @@
 package jp.gr.java_conf.falius.communication.senddata;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
@@ -7,12 +9,43 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 /**
+ * <p>
  * コレクションの形でデータを送信する際に利用するSendDataです。
+ *
+ * <p>
+ * デフォルトではコレクションをJSON文字列にして送信します。
+ * バイナリ形式を指定すると、各要素を型タグ(１バイト)とその型に応じた値として送信します。
+ * 受信側では要素の型が保たれ、JSONを経由せずに直接コレクションに復元されます。
+ * バイナリ形式で送信できる要素は、null、Boolean、Byte、Short、Integer、Long、Float、Double、String
+ *     と、これらを要素とするList及びMapです。Mapのキーは文字列に変換して送信します。
+ * 受信側の{@link jp.gr.java_conf.falius.communication.rcvdata.CollectionReceiveData}はどちらの形式も読み取ることができますが、
+ *     1.6.0より前のバージョンではバイナリ形式を読み取れません。
  * @author "ymiyauchi"
  * @since 1.4.0
+ * @version 1.6.0
  *
  */
 public class CollectionSendData extends ExtendableSendData {
+    /** バイナリ形式でnullを表す型タグ */
+    public static final byte TAG_NULL = 0x00;
+    /** バイナリ形式でbooleanを表す型タグ。値は１バイト */
+    public static final byte TAG_BOOLEAN = 0x01;
+    /** バイナリ形式でintを表す型タグ。値は４バイト */
+    public static final byte TAG_INT = 0x02;
+    /** バイナリ形式でlongを表す型タグ。値は８バイト */
+    public static final byte TAG_LONG = 0x03;
+    /** バイナリ形式でdoubleを表す型タグ。値は８バイト */
+    public static final byte TAG_DOUBLE = 0x04;
+    /** バイナリ形式で文字列を表す型タグ。値はバイト数(４バイト)とUTF-8でエンコードしたバイト列 */
+    public static final byte TAG_STRING = 0x05;
+    /** バイナリ形式でListを表す型タグ。値は要素数(４バイト)と各要素 */
+    public static final byte TAG_LIST = 0x06;
+    /** バイナリ形式でMapを表す型タグ。値はエントリー数(４バイト)と、キーの文字列と値の組 */
+    public static final byte TAG_MAP = 0x07;
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final boolean mIsBinary;
 
     /**
      *
@@ -20,16 +53,32 @@ public class CollectionSendData extends ExtendableSendData {
      * @since 1.4.0
      */
     public CollectionSendData(SendData sendData) {
+        this(sendData, false);
+    }
+
+    /**
+     *
+     * @param sendData
+     * @param isBinary trueであれば、コレクションをバイナリ形式で送信します
+     * @since 1.6.0
+     */
+    public CollectionSendData(SendData sendData, boolean isBinary) {
         super(sendData);
+        mIsBinary = isBinary;
     }
 
     /**
      *
      * @param list
      * @return
+     * @throws IllegalArgumentException バイナリ形式で、送信できない型の要素が含まれていた場合
      * @since 1.4.0
+     * @version 1.6.0
      */
     public SendData put(List<?> list) {
+        if (mIsBinary) {
+            return put(new BinaryEncoder().writeValue(list).finish());
+        }
         JSONArray json = new JSONArray(list);
         return put(json.toString());
     }
@@ -38,10 +87,81 @@ public class CollectionSendData extends ExtendableSendData {
      *
      * @param map
      * @return
+     * @throws IllegalArgumentException バイナリ形式で、送信できない型の要素が含まれていた場合
      * @since 1.4.0
+     * @version 1.6.0
      */
     public SendData put(Map<?, ?> map) {
+        if (mIsBinary) {
+            return put(new BinaryEncoder().writeValue(map).finish());
+        }
         JSONObject json = new JSONObject(map);
         return put(json.toString());
     }
+
+    /**
+     * コレクションをバイナリ形式で書き込むクラスです。
+     * 書き込み先のバッファは、容量が足りなくなるごとに倍の大きさに確保し直します。
+     * @since 1.6.0
+     */
+    private static class BinaryEncoder {
+        private ByteBuffer mBuf = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+        private BinaryEncoder writeValue(Object value) {
+            if (value == null) {
+                ensure(1).put(TAG_NULL);
+            } else if (value instanceof String) {
+                writeString((String) value);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                ensure(1 + Integer.BYTES).put(TAG_INT).putInt(((Number) value).intValue());
+            } else if (value instanceof Long) {
+                ensure(1 + Long.BYTES).put(TAG_LONG).putLong((Long) value);
+            } else if (value instanceof Double || value instanceof Float) {
+                ensure(1 + Double.BYTES).put(TAG_DOUBLE).putDouble(((Number) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                ensure(2).put(TAG_BOOLEAN).put((byte) ((Boolean) value ? 1 : 0));
+            } else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                ensure(1 + Integer.BYTES).put(TAG_LIST).putInt(list.size());
+                for (Object element : list) {
+                    writeValue(element);
+                }
+            } else if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                ensure(1 + Integer.BYTES).put(TAG_MAP).putInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeString(String.valueOf(entry.getKey()));
+                    writeValue(entry.getValue());
+                }
+            } else {
+                throw new IllegalArgumentException("unsupported type: " + value.getClass().getName());
+            }
+            return this;
+        }
+
+        private void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(1 + Integer.BYTES + bytes.length).put(TAG_STRING).putInt(bytes.length).put(bytes);
+        }
+
+        private ByteBuffer ensure(int size) {
+            if (mBuf.remaining() < size) {
+                long required = (long) mBuf.position() + size;
+                if (required > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("collection is too large");
+                }
+                int capacity = (int) Math.min(Math.max((long) mBuf.capacity() * 2, required), Integer.MAX_VALUE);
+                ByteBuffer newBuf = ByteBuffer.allocate(capacity);
+                mBuf.flip();
+                newBuf.put(mBuf);
+                mBuf = newBuf;
+            }
+            return mBuf;
+        }
+
+        private ByteBuffer finish() {
+            mBuf.flip();
+            return mBuf;
+        }
+    }
 }
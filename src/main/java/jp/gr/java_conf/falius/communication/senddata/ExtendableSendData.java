@@ -103,6 +103,38 @@ public abstract class ExtendableSendData implements SendData {
         return mSource.put(in);
     }
 
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public final SendData put(FileRegion region) {
+        return mSource.put(region);
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public final FileRegion fileRegion(int index) {
+        return mSource.fileRegion(index);
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public final SendData putChunked(InputStream in) {
+        return mSource.putChunked(in);
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public final InputStream chunkedStream(int index) {
+        return mSource.chunkedStream(index);
+    }
+
     /**
      * @since 1.4.0
      */
@@ -126,4 +158,20 @@ public abstract class ExtendableSendData implements SendData {
     public final boolean hasRemain() {
         return mSource.hasRemain();
     }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public final void reset() {
+        mSource.reset();
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public final void recycle() {
+        mSource.recycle();
+    }
 }
@@ -0,0 +1,170 @@
+package jp.gr.java_conf.falius.communication.senddata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * 送信データの一項目として、ファイルの一部あるいは全体を参照するクラスです。
+ *
+ * <p>
+ * ファイルの内容はJVM内に読み込まれず、送信時に{@link FileChannel#transferTo}メソッドによって
+ *     ファイルから直接送信先のチャネルに転送されます。
+ * そのため、ヒープの大きさに関係なく大きなファイルを送信することができます。
+ *
+ * <p>
+ * このクラスはパスと参照する範囲だけを保持する不変のクラスで、転送の進み具合は保持しません。
+ * 転送は送信ごとに{@link #newTransfer}メソッドで作成する{@link Transfer}オブジェクトで行うため、
+ *     同じ送信データを繰り返し送信したり、複数の接続に同時に送信したりできます。
+ * ファイルの内容は作成した時点ではなく、送信する時点で読み込まれます。
+ * 送信を終えるまでの間に参照しているファイルを変更しないでください。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+public final class FileRegion {
+    private final Path mPath;
+    private final long mPosition;
+    private final long mCount;
+
+    /**
+     * ファイル全体を参照します。
+     * @param path
+     * @throws IOException ファイルのサイズを取得できなかった場合
+     * @since 1.6.0
+     */
+    public FileRegion(Path path) throws IOException {
+        this(path, 0, Files.size(path));
+    }
+
+    /**
+     * ファイルの一部を参照します。
+     * @param path
+     * @param position 参照する範囲の、ファイル先頭からの位置
+     * @param count 参照する範囲のバイト数
+     * @throws IllegalArgumentException positionあるいはcountが負の場合
+     * @since 1.6.0
+     */
+    public FileRegion(Path path, long position, long count) {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("position: " + position + ", count: " + count);
+        }
+        mPath = path;
+        mPosition = position;
+        mCount = count;
+    }
+
+    /**
+     *
+     * @return 参照しているファイルのパス
+     * @since 1.6.0
+     */
+    public Path path() {
+        return mPath;
+    }
+
+    /**
+     *
+     * @return 参照している範囲のバイト数
+     * @since 1.6.0
+     */
+    public long size() {
+        return mCount;
+    }
+
+    /**
+     * 参照している範囲を先頭から転送するTransferオブジェクトを作成します。
+     * 一度の送信ごとに作成してください。
+     * @return 新しいTransferオブジェクト
+     * @since 1.6.0
+     */
+    public Transfer newTransfer() {
+        return new Transfer(this);
+    }
+
+    /**
+     * <p>
+     * 一度の送信で、FileRegionが参照している範囲を転送するクラスです。
+     * 転送の進み具合と開いているファイルを保持するため、使い捨てとなります。
+     *
+     * <p>
+     * ファイルは最初の転送時に開かれ、すべて転送し終えた時点で閉じられます。
+     * 転送を途中で中止する場合は{@link #close}メソッドを呼んでください。
+     * @author "ymiyauchi"
+     * @since 1.6.0
+     *
+     */
+    public static final class Transfer implements Closeable {
+        private final FileRegion mRegion;
+        private long mTransferred = 0;
+        private FileChannel mChannel = null;
+
+        private Transfer(FileRegion region) {
+            mRegion = region;
+        }
+
+        /**
+         *
+         * @return まだ転送していない部分があればtrue
+         * @since 1.6.0
+         */
+        public boolean hasRemaining() {
+            return mTransferred < mRegion.mCount;
+        }
+
+        /**
+         * <p>
+         * まだ転送していない部分を、指定したチャネルに転送します。
+         * ノンブロッキングモードのチャネルであれば一度にすべてを転送できるとは限りません。
+         * すべてを転送し終えるまで、繰り返し呼び出してください。
+         *
+         * <p>
+         * すべてを転送し終えた時点でファイルを閉じます。
+         * @param target 転送先のチャネル
+         * @return 今回転送したバイト数
+         * @throws IOException ファイルの読み込みあるいはチャネルへの書き込みで例外が発生した場合、
+         *     転送の途中でファイルの終端に達した場合
+         * @since 1.6.0
+         */
+        public long transferTo(WritableByteChannel target) throws IOException {
+            if (!hasRemaining()) {
+                return 0;
+            }
+            if (mChannel == null) {
+                mChannel = FileChannel.open(mRegion.mPath, StandardOpenOption.READ);
+            }
+            try {
+                long position = mRegion.mPosition + mTransferred;
+                long tmp = mChannel.transferTo(position, mRegion.mCount - mTransferred, target);
+                if (tmp == 0 && position >= mChannel.size()) {
+                    throw new IOException("file is shorter than expected: " + mRegion.mPath);
+                }
+                mTransferred += tmp;
+                if (!hasRemaining()) {
+                    close();
+                }
+                return tmp;
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * ファイルを開いていれば閉じます。
+         * @since 1.6.0
+         */
+        @Override
+        public void close() throws IOException {
+            if (mChannel != null) {
+                mChannel.close();
+                mChannel = null;
+            }
+        }
+    }
+}
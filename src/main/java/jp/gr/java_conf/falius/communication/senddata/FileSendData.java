@@ -1,16 +1,22 @@
 package jp.gr.java_conf.falius.communication.senddata;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 /**
+ * <p>
  * ファイルを送信する際に利用するSendData
+ *
+ * <p>
+ * ファイルの内容はメモリに読み込まず、{@link FileRegion}として参照だけを保持します。
+ * ファイルの内容は送信時にファイルから直接送信されます。
+ * そのため、putメソッドを呼んだ時点ではなく送信する時点のファイルの内容が送信されます。
+ * ファイルのサイズだけはputメソッドを呼んだ時点で取得するため、送信を終えるまではファイルを変更しないでください。
  * @author "ymiyauchi"
  * @since 1.4.0
+ * @version 1.6.0
  *
  */
 public class FileSendData extends ExtendableSendData {
@@ -25,25 +31,29 @@ public class FileSendData extends ExtendableSendData {
     }
 
     /**
-     *
+     * ファイル全体を送信データに追加します。
+     * ファイルの内容はこの時点では読み込まず、送信する時点で読み込みます。
      * @param filePath
      * @return
-     * @throws IOException
+     * @throws IOException ファイルのサイズを取得できなかった場合
      * @since 1.4.0
+     * @version 1.6.0
      */
     public SendData put(Path filePath) throws IOException {
-        return put(Files.readAllBytes(filePath));
+        return put(new FileRegion(filePath));
     }
 
     /**
-     *
+     * ファイル全体を送信データに追加します。
+     * ファイルの内容はこの時点では読み込まず、送信する時点で読み込みます。
      * @param file
      * @return
-     * @throws IOException
+     * @throws IOException ファイルのサイズを取得できなかった場合
      * @since 1.4.0
+     * @version 1.6.0
      */
     public SendData put(File file) throws IOException {
-        return put(new FileInputStream(file));
+        return put(file.toPath());
     }
 
     /**
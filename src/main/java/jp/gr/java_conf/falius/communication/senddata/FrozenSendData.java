@@ -0,0 +1,287 @@
+package jp.gr.java_conf.falius.communication.senddata;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import jp.gr.java_conf.falius.communication.header.Header;
+import jp.gr.java_conf.falius.communication.header.HeaderFactory;
+
+/**
+ * <p>
+ * ヘッダーとすべてのデータを、あらかじめ一つの読み取り専用のバッファに書き込んでおく不変のSendDataです。
+ *
+ * <p>
+ * 同じデータを多くの接続に送信する場合や、同じ応答を繰り返し返す場合に利用します。
+ * 通常のSendDataは送信のたびにヘッダーを作成しますが、このクラスは作成時に一度だけヘッダーを作成して
+ *     データと続けて書き込み、送信時には{@link ByteBuffer#duplicate}で作成したバッファから送信します。
+ * そのため、いくつの接続に送信してもヘッダーの作成やデータのコピーは行われません。
+ * 各サイズを可変長整数で表す形式のヘッダーで送信する場合は、最初にその形式で送信する時点で一度だけ作成します。
+ *
+ * <p>
+ * 不変クラスであり、スレッドセーフです。
+ * 複数のスレッドで同時に送信しても構いません。
+ * put系メソッドはUnsupportedOperationExceptionを投げます。
+ * Swapper#swapメソッドでは、同じインスタンスを何度返しても構いません。
+ *
+ * <p>
+ * ファイルの参照及びチャンクに分けて送信するストリームを格納した送信データからは作成できません。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+public final class FrozenSendData implements SendData {
+    private final ByteBuffer mFrame;  // 通常の形式のヘッダーとデータを格納した読み取り専用のバッファ
+    private final int mHeaderSize;
+    private final int[] mEnds;  // 各データの終端の、データ部分の先頭からの位置
+    private final boolean mIsDirect;
+    private volatile ByteBuffer mCompactFrame = null;
+
+    /**
+     * ダイレクトバッファに書き込んで作成します。
+     * @param source 送信するデータ。各データのpositionからlimitまでをコピーします。
+     *     作成後にsourceを変更しても、このインスタンスには影響しません
+     * @throws IllegalArgumentException sourceがファイルの参照あるいはチャンクに分けて送信するストリームを含む場合、
+     *     データが大きすぎて一つのバッファに収まらない場合
+     * @since 1.6.0
+     */
+    public FrozenSendData(SendData source) {
+        this(source, true);
+    }
+
+    /**
+     *
+     * @param source 送信するデータ。各データのpositionからlimitまでをコピーします。
+     *     作成後にsourceを変更しても、このインスタンスには影響しません
+     * @param isDirect trueであればダイレクトバッファを利用します
+     * @throws IllegalArgumentException sourceがファイルの参照あるいはチャンクに分けて送信するストリームを含む場合、
+     *     データが大きすぎて一つのバッファに収まらない場合
+     * @since 1.6.0
+     */
+    public FrozenSendData(SendData source, boolean isDirect) {
+        mEnds = new int[source.size()];
+        long bodySize = 0;
+        int index = 0;
+        for (ByteBuffer item : source) {
+            if (source.fileRegion(index) != null || source.chunkedStream(index) != null) {
+                throw new IllegalArgumentException("file region and chunked stream cannot be frozen");
+            }
+            bodySize += item.remaining();
+            if (bodySize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("data is too large");
+            }
+            mEnds[index++] = (int) bodySize;
+        }
+
+        Header header = HeaderFactory.from(source);
+        if (header.size() + bodySize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("data is too large");
+        }
+        mIsDirect = isDirect;
+        mHeaderSize = header.size();
+        ByteBuffer frame = allocate(mHeaderSize + (int) bodySize);
+        frame.put(header.toByteBuffer());
+        for (ByteBuffer item : source) {
+            // ヘッダーに書き込んだサイズと同じく、positionからlimitまでをデータとする
+            frame.put(item.duplicate());
+        }
+        frame.flip();
+        mFrame = frame.asReadOnlyBuffer();
+    }
+
+    private ByteBuffer allocate(int size) {
+        return mIsDirect ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    /**
+     * 受信単位全体を格納したバッファを返します。
+     * 戻り値は内部のバッファを共有する読み取り専用の新しいバッファで、positionを進めても他の送信には影響しません。
+     * @param isCompact trueであれば各サイズを可変長整数で表す形式の、falseであれば通常の形式のヘッダーを書き込んだもの
+     * @return positionからlimitまでにヘッダーとすべてのデータが格納されたバッファ
+     * @since 1.6.0
+     */
+    public ByteBuffer frame(boolean isCompact) {
+        if (!isCompact) {
+            return mFrame.duplicate();
+        }
+        ByteBuffer compact = mCompactFrame;
+        if (compact == null) {
+            // 同時に作成されても内容は同じため、排他制御はせずにどちらかを残す
+            compact = encodeCompact();
+            mCompactFrame = compact;
+        }
+        return compact.duplicate();
+    }
+
+    private ByteBuffer encodeCompact() {
+        ByteBuffer header = HeaderFactory.compactFrom(this).toByteBuffer();
+        ByteBuffer body = body();
+        ByteBuffer ret = allocate(header.remaining() + body.remaining());
+        ret.put(header);
+        ret.put(body);
+        ret.flip();
+        return ret.asReadOnlyBuffer();
+    }
+
+    /**
+     *
+     * @return 内部のバッファを共有する読み取り専用の新しいバッファで、positionからlimitまでにすべてのデータが格納されたもの
+     * @since 1.6.0
+     */
+    public ByteBuffer body() {
+        ByteBuffer ret = mFrame.duplicate();
+        ret.position(mHeaderSize);
+        return ret;
+    }
+
+    /**
+     *
+     * @param index
+     * @return index番目のデータのバイト数
+     * @throws IndexOutOfBoundsException
+     * @since 1.6.0
+     */
+    public int itemSize(int index) {
+        if (index < 0 || index >= mEnds.length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + mEnds.length);
+        }
+        return index == 0 ? mEnds[0] : mEnds[index] - mEnds[index - 1];
+    }
+
+    /**
+     * @throws UnsupportedOperationException 常に投げます
+     * @since 1.6.0
+     */
+    @Override
+    public SendData put(ByteBuffer buf) {
+        throw new UnsupportedOperationException("frozen send data is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException 常に投げます
+     * @since 1.6.0
+     */
+    @Override
+    public SendData put(ByteBuffer[] bufs) {
+        throw new UnsupportedOperationException("frozen send data is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException 常に投げます
+     * @since 1.6.0
+     */
+    @Override
+    public SendData put(byte[] bytes) {
+        throw new UnsupportedOperationException("frozen send data is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException 常に投げます
+     * @since 1.6.0
+     */
+    @Override
+    public SendData put(int num) {
+        throw new UnsupportedOperationException("frozen send data is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException 常に投げます
+     * @since 1.6.0
+     */
+    @Override
+    public SendData put(long num) {
+        throw new UnsupportedOperationException("frozen send data is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException 常に投げます
+     * @since 1.6.0
+     */
+    @Override
+    public SendData put(double num) {
+        throw new UnsupportedOperationException("frozen send data is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException 常に投げます
+     * @since 1.6.0
+     */
+    @Override
+    public SendData put(float num) {
+        throw new UnsupportedOperationException("frozen send data is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException 常に投げます
+     * @since 1.6.0
+     */
+    @Override
+    public SendData put(boolean bl) {
+        throw new UnsupportedOperationException("frozen send data is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException 常に投げます
+     * @since 1.6.0
+     */
+    @Override
+    public SendData put(String msg) {
+        throw new UnsupportedOperationException("frozen send data is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException 常に投げます
+     * @since 1.6.0
+     */
+    @Override
+    public SendData put(InputStream in) {
+        throw new UnsupportedOperationException("frozen send data is immutable");
+    }
+
+    /**
+     * 各データを、内部のバッファを共有する読み取り専用の新しいバッファとして返します。
+     * @since 1.6.0
+     */
+    @Override
+    public Iterator<ByteBuffer> iterator() {
+        return new Iterator<ByteBuffer>() {
+            private int mIndex = 0;
+
+            @Override
+            public boolean hasNext() {
+                return mIndex < mEnds.length;
+            }
+
+            @Override
+            public ByteBuffer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ByteBuffer ret = mFrame.duplicate();
+                int start = mHeaderSize + (mIndex == 0 ? 0 : mEnds[mIndex - 1]);
+                ret.limit(mHeaderSize + mEnds[mIndex]);
+                ret.position(start);
+                mIndex++;
+                return ret.slice();
+            }
+        };
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public int size() {
+        return mEnds.length;
+    }
+
+    /**
+     * 送信してもデータは消費されないため、データが格納されていればtrueを返します。
+     * @since 1.6.0
+     */
+    @Override
+    public boolean hasRemain() {
+        return mEnds.length > 0;
+    }
+}
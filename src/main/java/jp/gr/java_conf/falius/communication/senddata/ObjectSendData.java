@@ -7,11 +7,14 @@ import java.io.Serializable;
 
 /**
  * シリアライズ可能オブジェクトを送信する際に利用するSendData
+ * {@link ObjectStreamContext}を渡すと、接続ごとにクラス記述子を共有して送信するデータを小さくします。
  * @author "ymiyauchi"
  * @since 1.4.0
+ * @version 1.6.0
  *
  */
 public class ObjectSendData extends ExtendableSendData {
+    private final ObjectStreamContext mContext;
 
     /**
      *
@@ -19,7 +22,18 @@ public class ObjectSendData extends ExtendableSendData {
      * @since 1.4.0
      */
     public ObjectSendData(SendData sendData) {
+        this(sendData, null);
+    }
+
+    /**
+     *
+     * @param sendData
+     * @param context 送信先との接続に対応するObjectStreamContext。nullであれば通常のシリアライズを行います
+     * @since 1.6.0
+     */
+    public ObjectSendData(SendData sendData, ObjectStreamContext context) {
         super(sendData);
+        mContext = context;
     }
 
     /**
@@ -28,8 +42,12 @@ public class ObjectSendData extends ExtendableSendData {
      * @return
      * @throws IOException
      * @since 1.4.0
+     * @version 1.6.0
      */
     public SendData putObject(Serializable obj) throws IOException {
+        if (mContext != null) {
+            return put(mContext.writeObject(obj));
+        }
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ObjectOutputStream oos = new ObjectOutputStream(baos);
         oos.writeObject(obj);
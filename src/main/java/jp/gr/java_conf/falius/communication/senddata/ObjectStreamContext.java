@@ -0,0 +1,171 @@
+package jp.gr.java_conf.falius.communication.senddata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * 一つの接続でやり取りするシリアライズ可能オブジェクトについて、クラス記述子を共有するためのクラスです。
+ * {@link ObjectSendData}及び{@link jp.gr.java_conf.falius.communication.rcvdata.ObjectReceiveData}に渡して利用します。
+ *
+ * <p>
+ * 通常のシリアライズではオブジェクトを送信するたびにクラス記述子(クラス名、フィールドの名前と型など)がすべて書き込まれます。
+ * このクラスを利用すると、クラス記述子はその接続で初めて送信する時にだけ書き込まれ、
+ *     二回目以降は４バイトのIDに置き換えられます。
+ * 受信側も読み取ったクラス記述子を保持するため、同じクラス記述子を繰り返し解析することがありません。
+ * ストリームヘッダーも省略されます。
+ *
+ * <p>
+ * {@link #register}メソッドで事前に登録したクラスは、初めて送信する時からIDだけが書き込まれます。
+ * 送信側と受信側で、同じクラスを同じ順番で登録してください。
+ *
+ * <p>
+ * IDは書き込んだ順番に割り当てられるため、接続の両端でそれぞれ一つのインスタンスを利用し、
+ *     オブジェクトを書き込んだ順番の通りに送信してください。
+ * 受信側は送られてきた順番の通りに読み取る必要があります。
+ * 接続をやり直した場合は、新しいインスタンスを作成してください。
+ * このクラスで書き込んだデータは、このクラスを利用しなければ読み取れません。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+public class ObjectStreamContext {
+    private static final int NEW_DESCRIPTOR = -1;
+
+    private final Map<Class<?>, Integer> mSentIds = new HashMap<>();
+    private final List<ObjectStreamClass> mReceivedDescriptors = new ArrayList<>();
+    private boolean mIsUsed = false;
+
+    /**
+     * 送信する前からIDを割り当てておくクラスを登録します。
+     * @param cls
+     * @return このインスタンス
+     * @throws IllegalArgumentException シリアライズ可能なクラスでない場合、既に登録されている場合
+     * @throws IllegalStateException 既にオブジェクトを書き込んだか読み取った後である場合
+     * @since 1.6.0
+     */
+    public synchronized ObjectStreamContext register(Class<? extends Serializable> cls) {
+        if (mIsUsed) {
+            throw new IllegalStateException("classes must be registered before use");
+        }
+        ObjectStreamClass desc = ObjectStreamClass.lookup(cls);
+        if (desc == null) {
+            throw new IllegalArgumentException("not serializable: " + cls.getName());
+        }
+        if (mSentIds.containsKey(cls)) {
+            throw new IllegalArgumentException("already registered: " + cls.getName());
+        }
+        mSentIds.put(cls, mReceivedDescriptors.size());
+        mReceivedDescriptors.add(desc);
+        return this;
+    }
+
+    /**
+     * オブジェクトを書き込みます。
+     * 書き込みに失敗した場合、今回初めて書き込もうとしたクラス記述子は送信していないものとして扱います。
+     * @param obj
+     * @return 書き込んだバイト列
+     * @throws IOException
+     * @since 1.6.0
+     */
+    public synchronized byte[] writeObject(Serializable obj) throws IOException {
+        mIsUsed = true;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ContextObjectOutputStream oos = new ContextObjectOutputStream(baos);
+        oos.writeObject(obj);
+        oos.flush();
+        mSentIds.putAll(oos.mPendingIds);
+        return baos.toByteArray();
+    }
+
+    /**
+     * オブジェクトを読み取ります。
+     * @param is
+     * @return
+     * @throws IOException 記述子のIDが不正な場合を含みます
+     * @throws ClassNotFoundException
+     * @since 1.6.0
+     */
+    public synchronized Object readObject(InputStream is) throws IOException, ClassNotFoundException {
+        mIsUsed = true;
+        ContextObjectInputStream ois = new ContextObjectInputStream(is);
+        Object ret = ois.readObject();
+        mReceivedDescriptors.addAll(ois.mPendingDescriptors);
+        return ret;
+    }
+
+    /**
+     * 送信済みのクラス記述子をIDに置き換えるObjectOutputStreamです。
+     */
+    private class ContextObjectOutputStream extends ObjectOutputStream {
+        private final Map<Class<?>, Integer> mPendingIds = new HashMap<>();
+
+        private ContextObjectOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void writeStreamHeader() {
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            Class<?> cls = desc.forClass();
+            Integer id = mSentIds.get(cls);
+            if (id == null) {
+                id = mPendingIds.get(cls);
+            }
+            if (id != null) {
+                writeInt(id);
+                return;
+            }
+            mPendingIds.put(cls, mSentIds.size() + mPendingIds.size());
+            writeInt(NEW_DESCRIPTOR);
+            super.writeClassDescriptor(desc);
+        }
+    }
+
+    /**
+     * IDに置き換えられたクラス記述子を、保持しているクラス記述子から復元するObjectInputStreamです。
+     */
+    private class ContextObjectInputStream extends ObjectInputStream {
+        private final List<ObjectStreamClass> mPendingDescriptors = new ArrayList<>();
+
+        private ContextObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected void readStreamHeader() {
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            int id = readInt();
+            if (id == NEW_DESCRIPTOR) {
+                ObjectStreamClass desc = super.readClassDescriptor();
+                mPendingDescriptors.add(desc);
+                return desc;
+            }
+            int received = mReceivedDescriptors.size();
+            if (id >= 0 && id < received) {
+                return mReceivedDescriptors.get(id);
+            }
+            if (id >= received && id - received < mPendingDescriptors.size()) {
+                return mPendingDescriptors.get(id - received);
+            }
+            throw new StreamCorruptedException("unknown class descriptor id: " + id);
+        }
+    }
+}
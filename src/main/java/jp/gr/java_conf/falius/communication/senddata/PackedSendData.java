@@ -0,0 +1,427 @@
+package jp.gr.java_conf.falius.communication.senddata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * すべてのデータを一つのバッファに続けて格納するSendDataです。
+ *
+ * <p>
+ * {@link BasicSendData}はデータを追加するたびにバッファを作成しますが、
+ *     このクラスは一つのバッファの末尾にデータを書き込み、各データの区切りをint配列で記録します。
+ * バッファの容量が足りなくなった場合は倍の大きさに確保し直します。
+ * バッファの先頭にはヘッダーを書き込むための領域を空けてあり、送信時にはヘッダーをデータの直前に書き込んで
+ *     受信単位全体を一つの連続したバッファとして書き込みます。
+ * この領域はデータの数に応じて広げるため、データがいくつあってもヘッダーは収まります。
+ * 同じインスタンスを複数の接続で同時に送信する場合、ヘッダーを書き込んだバッファで送信するのは一度に一つだけで、
+ *     それ以外の送信ではヘッダーとデータの二つのバッファを集約書き込みします。
+ *
+ * <p>
+ * 追加したデータはコピーされるため、追加した後に元のバッファや配列を変更しても送信データには影響しません。
+ * 送信してもデータは消費されないため、同じインスタンスを繰り返し送信することができます。
+ * ただし、送信を終えるまではデータを追加しないでください。
+ * {@link #clear}でデータを破棄すると、確保したバッファをそのまま使ってデータを追加し直せます。
+ * {@link SendDataPool}から取り出したインスタンスは、同時に行っているすべての送信を終えた時点でプールに戻されるため、
+ *     他の接続が送信している間にバッファが書き換えられることはありません。
+ *
+ * <p>
+ * ファイルの参照及びチャンクに分けて送信するストリームは格納できません。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+public class PackedSendData implements SendData {
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int DEFAULT_HEADER_ROOM = 64;
+
+    private final boolean mIsDirect;
+    private ByteBuffer mBuf;  // mHeaderRoomからpositionまでにデータが格納された状態を保つ
+    private int mHeaderRoom;
+    private int[] mEnds = new int[16];  // 各データの終端の、mHeaderRoomからの位置
+    private int mCount = 0;
+    private Runnable mRecycler = null;
+    private final AtomicInteger mSendingCount = new AtomicInteger();  // 送信中の数
+    private final AtomicBoolean mIsFrameInUse = new AtomicBoolean(false);  // frameが返したバッファを送信している
+
+    /**
+     * デフォルトの容量で作成します。
+     * @since 1.6.0
+     */
+    public PackedSendData() {
+        this(DEFAULT_CAPACITY, DEFAULT_HEADER_ROOM, false);
+    }
+
+    /**
+     *
+     * @param capacity データを格納する領域の初期容量
+     * @param headerRoom ヘッダーを書き込むために空けておく領域の初期サイズ。
+     *     データが増えて足りなくなった場合は、データを追加する際に広げます
+     * @param isDirect trueであればダイレクトバッファを利用します
+     * @throws IllegalArgumentException capacityが1未満の場合、headerRoomが負の場合
+     * @since 1.6.0
+     */
+    public PackedSendData(int capacity, int headerRoom, boolean isDirect) {
+        if (capacity < 1 || headerRoom < 0) {
+            throw new IllegalArgumentException("capacity: " + capacity + ", header room: " + headerRoom);
+        }
+        mIsDirect = isDirect;
+        mHeaderRoom = headerRoom;
+        mBuf = allocate(headerRoom + capacity);
+        mBuf.position(headerRoom);
+    }
+
+    private ByteBuffer allocate(int size) {
+        return mIsDirect ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    /**
+     * データの数がcountのときに、ヘッダーのために空けておく領域のサイズを返します。
+     * サイズを８バイトで表す形式のヘッダーとストリームID、あるいは各サイズを可変長整数で表す形式のヘッダーと
+     *     ハンドシェイクの値、ストリームIDが収まる大きさです。
+     * データの数があらかじめ分かっている場合は、コンストラクタにこの値を渡すとヘッダーのための領域を広げ直さずに済みます。
+     * @param count データの数
+     * @return どの形式のヘッダーでも収まる、ヘッダーのための領域のサイズ
+     * @since 1.6.0
+     */
+    public static int headerRoomFor(int count) {
+        return 16 + count * 8;
+    }
+
+    /**
+     * データを一つ書き込めるだけの容量を確保します。
+     * バッファを確保し直す場合は、追加するデータの分までヘッダーのための領域も広げます。
+     */
+    private ByteBuffer ensure(int size) {
+        if (mBuf.remaining() >= size) {
+            return mBuf;
+        }
+        int dataSize = mBuf.position() - mHeaderRoom;
+        int headerRoom = Math.max(mHeaderRoom, headerRoomFor(mCount + 1));
+        long required = (long) headerRoom + dataSize + size;
+        if (required > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("data is too large");
+        }
+        long capacity = Math.max(required, (long) headerRoom + (mBuf.capacity() - mHeaderRoom) * 2L);
+        relocate(headerRoom, (int) Math.min(capacity, Integer.MAX_VALUE));
+        return mBuf;
+    }
+
+    /**
+     * 新しいバッファを確保し、ヘッダーのための領域をheaderRoomだけ空けてデータをコピーします。
+     */
+    private void relocate(int headerRoom, int capacity) {
+        ByteBuffer newBuf = allocate(capacity);
+        mBuf.flip();
+        mBuf.position(mHeaderRoom);
+        newBuf.position(headerRoom);
+        newBuf.put(mBuf);
+        mBuf = newBuf;
+        mHeaderRoom = headerRoom;
+    }
+
+    /**
+     * 書き込み終えたデータの終端を記録します。
+     * ヘッダーが空けてある領域に収まらなくなった場合は、領域を広げてデータをずらします。
+     */
+    private PackedSendData endItem() {
+        if (mCount == mEnds.length) {
+            mEnds = Arrays.copyOf(mEnds, mCount * 2);
+        }
+        mEnds[mCount++] = mBuf.position() - mHeaderRoom;
+        if (headerRoomFor(mCount) > mHeaderRoom) {
+            // データを追加するたびにずらさないよう、倍に広げる
+            int headerRoom = Math.max(headerRoomFor(mCount), mHeaderRoom * 2);
+            int dataSize = mBuf.position() - mHeaderRoom;
+            long capacity = (long) headerRoom + Math.max(dataSize, mBuf.capacity() - mHeaderRoom);
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("data is too large");
+            }
+            relocate(headerRoom, (int) capacity);
+        }
+        return this;
+    }
+
+    /**
+     * bufのpositionからlimitまでをコピーします。bufのpositionは変更しません。
+     * @throws IllegalArgumentException bufに残りがない場合
+     * @since 1.6.0
+     */
+    @Override
+    public PackedSendData put(ByteBuffer buf) {
+        if (!buf.hasRemaining()) {
+            throw new IllegalArgumentException("data have no remaining. might not flip()");
+        }
+        int position = buf.position();
+        ensure(buf.remaining()).put(buf);
+        buf.position(position);
+        return endItem();
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public PackedSendData put(ByteBuffer[] bufs) {
+        for (ByteBuffer buf : bufs) {
+            put(buf);
+        }
+        return this;
+    }
+
+    /**
+     * @throws IllegalArgumentException bytesが空の場合
+     * @since 1.6.0
+     */
+    @Override
+    public PackedSendData put(byte[] bytes) {
+        if (bytes.length == 0) {
+            throw new IllegalArgumentException("data have no remaining");
+        }
+        ensure(bytes.length).put(bytes);
+        return endItem();
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public PackedSendData put(int num) {
+        ensure(4).putInt(num);
+        return endItem();
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public PackedSendData put(long num) {
+        ensure(8).putLong(num);
+        return endItem();
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public PackedSendData put(double num) {
+        ensure(8).putDouble(num);
+        return endItem();
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public PackedSendData put(float num) {
+        ensure(4).putFloat(num);
+        return endItem();
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public PackedSendData put(boolean bl) {
+        return put(bl ? 1 : 0);
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public PackedSendData put(String msg) {
+        return put(msg.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * ストリームの終端まで読み込んだデータを、一つのデータとして追加します。
+     * 読み込みの途中で例外が発生した場合、それまでに読み込んだデータは破棄され、追加されません。
+     * @throws IllegalArgumentException ストリームが空の場合
+     * @since 1.6.0
+     */
+    @Override
+    public PackedSendData put(InputStream in) throws IOException {
+        int start = mBuf.position() - mHeaderRoom;  // 途中で確保し直されてもずれないよう、データ部分からの位置で保持する
+        byte[] bytes = new byte[4096 * 2];
+        int len;
+        try {
+            while ((len = in.read(bytes)) != -1) {
+                ensure(len).put(bytes, 0, len);
+            }
+        } catch (IOException | RuntimeException e) {
+            // 書き込みかけたデータが次のデータの先頭にならないように取り除く
+            mBuf.position(mHeaderRoom + start);
+            throw e;
+        }
+        if (mBuf.position() - mHeaderRoom == start) {
+            throw new IllegalArgumentException("data have no remaining");
+        }
+        return endItem();
+    }
+
+    /**
+     *
+     * @param index
+     * @return index番目のデータのバイト数
+     * @throws IndexOutOfBoundsException
+     * @since 1.6.0
+     */
+    public int itemSize(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + mCount);
+        }
+        return index == 0 ? mEnds[0] : mEnds[index] - mEnds[index - 1];
+    }
+
+    /**
+     * <p>
+     * ヘッダーをデータの直前に書き込み、受信単位全体を一つのバッファとして返します。
+     * 戻り値は内部のバッファを共有する新しいバッファで、positionからlimitまでに受信単位全体が格納されています。
+     *
+     * <p>
+     * ヘッダーは内部のバッファに書き込むため、戻り値を送信し終えたら{@link #releaseFrame}を呼んでください。
+     * それまでの間は、他の送信がヘッダーを上書きしないようにnullを返します。
+     * ヘッダーが空けてある領域に収まらない場合もnullを返します。
+     * nullが返された場合は{@link #body}と組み合わせて送信してください。
+     * @param header positionからlimitまでにヘッダーが格納されたバッファ。positionは変更しません
+     * @return ヘッダーとデータを格納したバッファ。ヘッダーが収まらないか、前に返したバッファを送信している間はnull
+     * @since 1.6.0
+     */
+    public ByteBuffer frame(ByteBuffer header) {
+        int headerSize = header.remaining();
+        if (headerSize > mHeaderRoom || !mIsFrameInUse.compareAndSet(false, true)) {
+            return null;
+        }
+        ByteBuffer ret = mBuf.duplicate();
+        ret.limit(mBuf.position());
+        ret.position(mHeaderRoom - headerSize);
+        int position = header.position();
+        ret.put(header);
+        header.position(position);
+        ret.position(mHeaderRoom - headerSize);
+        return ret;
+    }
+
+    /**
+     * {@link #frame}が返したバッファの送信を終えたことを知らせます。
+     * 送信を中止した場合にも呼んでください。
+     * これ以降のframeメソッドの呼び出しは、再びヘッダーを書き込んだバッファを返します。
+     * @since 1.6.0
+     */
+    public void releaseFrame() {
+        mIsFrameInUse.set(false);
+    }
+
+    /**
+     *
+     * @return 内部のバッファを共有する新しいバッファで、positionからlimitまでにすべてのデータが格納されたもの
+     * @since 1.6.0
+     */
+    public ByteBuffer body() {
+        ByteBuffer ret = mBuf.duplicate();
+        ret.limit(mBuf.position());
+        ret.position(mHeaderRoom);
+        return ret;
+    }
+
+    /**
+     * 格納しているデータをすべて破棄し、同じバッファを使ってデータを追加し直せるようにします。
+     * @since 1.6.0
+     */
+    public void clear() {
+        mBuf.clear();
+        mBuf.position(mHeaderRoom);
+        mCount = 0;
+    }
+
+    /**
+     * 各データを、内部のバッファを共有する新しいバッファとして返します。
+     * @since 1.6.0
+     */
+    @Override
+    public Iterator<ByteBuffer> iterator() {
+        return new Iterator<ByteBuffer>() {
+            private int mIndex = 0;
+
+            @Override
+            public boolean hasNext() {
+                return mIndex < mCount;
+            }
+
+            @Override
+            public ByteBuffer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ByteBuffer ret = mBuf.duplicate();
+                int start = mHeaderRoom + (mIndex == 0 ? 0 : mEnds[mIndex - 1]);
+                ret.limit(mHeaderRoom + mEnds[mIndex]);
+                ret.position(start);
+                mIndex++;
+                return ret.slice();
+            }
+        };
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * 送信してもデータは消費されないため、データが格納されていればtrueを返します。
+     * @since 1.6.0
+     */
+    @Override
+    public boolean hasRemain() {
+        return mCount > 0;
+    }
+
+    /**
+     * {@link #clear}と同じです。
+     * @since 1.6.0
+     */
+    @Override
+    public void reset() {
+        clear();
+    }
+
+    /**
+     * @since 1.6.0
+     */
+    @Override
+    public void retain() {
+        mSendingCount.incrementAndGet();
+    }
+
+    /**
+     * 他の接続への送信が残っている間は、プールに戻しません。
+     * @since 1.6.0
+     */
+    @Override
+    public void recycle() {
+        if (mSendingCount.updateAndGet(count -> Math.max(count - 1, 0)) == 0 && mRecycler != null) {
+            mRecycler.run();
+        }
+    }
+
+    /**
+     * {@link SendDataPool}が、送信を終えたインスタンスをプールに戻す処理を設定します。
+     * @param recycler
+     * @since 1.6.0
+     */
+    void setRecycler(Runnable recycler) {
+        mRecycler = recycler;
+    }
+}
@@ -0,0 +1,37 @@
+package jp.gr.java_conf.falius.communication.senddata;
+
+import jp.gr.java_conf.falius.communication.codec.ItemField;
+import jp.gr.java_conf.falius.communication.codec.PojoCodec;
+
+/**
+ * {@link ItemField}で注釈したフィールドを持つオブジェクトを送信する際に利用するSendDataです。
+ * シリアライズを行わず、注釈したフィールドをそれぞれ一項目として送信します。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+public class PojoSendData extends ExtendableSendData {
+
+    /**
+     *
+     * @param sendData
+     * @since 1.6.0
+     */
+    public PojoSendData(SendData sendData) {
+        super(sendData);
+    }
+
+    /**
+     *
+     * @param obj
+     * @return
+     * @throws IllegalArgumentException objのクラスが{@link PojoCodec}で変換できない場合
+     * @see PojoCodec#encode
+     * @since 1.6.0
+     */
+    public <T> SendData putPojo(T obj) {
+        @SuppressWarnings("unchecked")
+        PojoCodec<T> codec = (PojoCodec<T>) PojoCodec.of(obj.getClass());
+        return codec.encode(obj, this);
+    }
+}
@@ -12,8 +12,13 @@ import java.nio.ByteBuffer;
  * 一度の送信ごとに使い捨てとなります。
  * そのため、再利用はできません。
  * Swapper#swapメソッドでは必ず新しく作成したインスタンスを返すようにしてください。
+ *
+ * <p>
+ * ただし、{@link #reset}メソッドに対応した実装であれば、送信を終えた後にデータを破棄して再利用できます。
+ * {@link SendDataPool}から取り出したインスタンスは、送信を終えた時点で自動的にプールに戻されます。
  * @author "ymiyauchi"
  * @since 1.4.0
+ * @version 1.6.0
  *
  */
 public interface SendData extends Iterable<ByteBuffer> {
@@ -103,6 +108,64 @@ public interface SendData extends Iterable<ByteBuffer> {
      */
     SendData put(InputStream in) throws IOException;
 
+    /**
+     * <p>
+     * ファイルの参照をひとつのデータとして書き込みます。
+     * ファイルの内容は読み込まれず、送信時にファイルから直接送信されます。
+     *
+     * <p>
+     * イテレータではこのデータは空のバッファとして返されます。
+     * データの内容は{@link fileRegion}メソッドで、データの位置を指定して取得してください。
+     * @param region
+     * @return
+     * @throws UnsupportedOperationException ファイルの参照を扱えない実装の場合
+     * @since 1.6.0
+     */
+    default SendData put(FileRegion region) {
+        throw new UnsupportedOperationException("file region is not supported");
+    }
+
+    /**
+     * 指定した位置のデータがファイルの参照として書き込まれたものであれば、そのファイルの参照を返します。
+     * @param index 書き込んだ順番での、データの位置
+     * @return ファイルの参照。ファイルの参照として書き込まれたデータでなければnull
+     * @since 1.6.0
+     */
+    default FileRegion fileRegion(int index) {
+        return null;
+    }
+
+    /**
+     * <p>
+     * ストリームの内容を、サイズを決めないままひとつのデータとして書き込みます。
+     * ストリームの内容はあらかじめ読み込まれず、送信時に一定量ずつ読み込んではチャンクとして送信されます。
+     * ストリームの終端に達した時点でこのデータの送信を終え、ストリームを閉じます。
+     *
+     * <p>
+     * 送信時のストリームからの読み込みは送信を行うスレッドで行われるため、読み込みでブロックすると
+     *     その間は同じスレッドで扱う他の接続の送受信も止まることに注意してください。
+     *
+     * <p>
+     * イテレータではこのデータは空のバッファとして返されます。
+     * @param in
+     * @return
+     * @throws UnsupportedOperationException チャンクに分けた送信を扱えない実装の場合
+     * @since 1.6.0
+     */
+    default SendData putChunked(InputStream in) {
+        throw new UnsupportedOperationException("chunked stream is not supported");
+    }
+
+    /**
+     * 指定した位置のデータがチャンクに分けて送信するストリームとして書き込まれたものであれば、そのストリームを返します。
+     * @param index 書き込んだ順番での、データの位置
+     * @return チャンクに分けて送信するストリーム。そのように書き込まれたデータでなければnull
+     * @since 1.6.0
+     */
+    default InputStream chunkedStream(int index) {
+        return null;
+    }
+
     /**
      *
      * @return
@@ -116,4 +179,34 @@ public interface SendData extends Iterable<ByteBuffer> {
      * @since 1.4.0
      */
     boolean hasRemain();
+
+    /**
+     * 書き込んだデータをすべて破棄し、新しくデータを書き込めるようにします。
+     * デフォルトではUnsupportedOperationExceptionを投げます。
+     * @throws UnsupportedOperationException 再利用に対応していない場合
+     * @since 1.6.0
+     */
+    default void reset() {
+        throw new UnsupportedOperationException("reset is not supported");
+    }
+
+    /**
+     * 送信を始める時点で呼ばれます。
+     * 同じインスタンスを複数の接続に同時に送信している場合は、送信ごとに呼ばれます。
+     * デフォルトでは何もしません。
+     * @since 1.6.0
+     */
+    default void retain() {
+    }
+
+    /**
+     * 送信を終えた時点で呼ばれます。
+     * プールから取り出されたインスタンスであれば、{@link #retain}と同じ回数呼ばれた時点、
+     *     つまり同時に行っているすべての送信を終えた時点でデータを破棄してプールに戻します。
+     * 呼ばれた後はこのインスタンスを利用しないでください。
+     * デフォルトでは何もしません。
+     * @since 1.6.0
+     */
+    default void recycle() {
+    }
 }
@@ -0,0 +1,96 @@
+package jp.gr.java_conf.falius.communication.senddata;
+
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * SendDataを使い回すためのプールです。
+ *
+ * <p>
+ * {@link #acquire}で取り出したインスタンスにデータを書き込んで送信すると、
+ *     送信を終えた時点で{@link SendData#recycle}メソッドによってデータが破棄され、このプールに戻されます。
+ * 自動的に戻されるのは{@link BasicSendData}と{@link PackedSendData}です。
+ * 同じインスタンスを複数の接続に同時に送信した場合は、すべての送信を終えた時点で戻されます。
+ * それ以外のSendDataは送信を終えた後に{@link #release}メソッドで戻してください。
+ * 送信した後のインスタンスは、プールから取り出し直すまで利用しないでください。
+ *
+ * <p>
+ * このクラスはスレッドセーフです。
+ * 送信を終えたインスタンスは送信を行ったスレッドでプールに戻されるため、
+ *     インスタンスを取り出すスレッドと戻すスレッドは異なることがあります。
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ * @param <T> プールするSendDataの型
+ */
+public class SendDataPool<T extends SendData> {
+    private final Supplier<? extends T> mFactory;
+    private final int mMaxPooledCount;
+    private final Deque<T> mPool = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger mCount = new AtomicInteger();  // ConcurrentLinkedDeque#sizeは要素をたどるため別に数える
+
+    /**
+     *
+     * @param factory プールが空の場合に新しいインスタンスを作成するSupplier
+     * @param maxPooledCount プールしておくインスタンスの最大数。超えた分は破棄されます
+     * @throws IllegalArgumentException maxPooledCountが負の場合
+     * @since 1.6.0
+     */
+    public SendDataPool(Supplier<? extends T> factory, int maxPooledCount) {
+        if (maxPooledCount < 0) {
+            throw new IllegalArgumentException("max pooled count must not be negative: " + maxPooledCount);
+        }
+        mFactory = Objects.requireNonNull(factory);
+        mMaxPooledCount = maxPooledCount;
+    }
+
+    /**
+     * プールからインスタンスを取り出します。プールが空であれば新しく作成します。
+     * @return データが書き込まれていないインスタンス
+     * @since 1.6.0
+     */
+    public T acquire() {
+        T data = mPool.pollFirst();
+        if (data != null) {
+            mCount.decrementAndGet();
+            return data;
+        }
+        T created = Objects.requireNonNull(mFactory.get());
+        // 送信を終えた時点で戻されるように、作成した時に一度だけ設定する
+        if (created instanceof BasicSendData) {
+            ((BasicSendData) created).setRecycler(() -> release(created));
+        } else if (created instanceof PackedSendData) {
+            ((PackedSendData) created).setRecycler(() -> release(created));
+        }
+        return created;
+    }
+
+    /**
+     * データを破棄して、インスタンスをプールに戻します。
+     * @param data
+     * @throws UnsupportedOperationException dataが{@link SendData#reset}メソッドに対応していない場合
+     * @since 1.6.0
+     */
+    public void release(T data) {
+        data.reset();
+        // 先に枠を確保してから戻すことで、同時に戻されても最大数を超えない
+        if (mCount.incrementAndGet() <= mMaxPooledCount) {
+            mPool.addFirst(data);
+        } else {
+            mCount.decrementAndGet();
+        }
+    }
+
+    /**
+     *
+     * @return プールされているインスタンスの数
+     * @since 1.6.0
+     */
+    public int pooledCount() {
+        return mCount.get();
+    }
+}
@@ -0,0 +1,53 @@
+package jp.gr.java_conf.falius.communication.swapper;
+
+import java.util.concurrent.CompletableFuture;
+
+import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
+import jp.gr.java_conf.falius.communication.senddata.SendData;
+
+/**
+ * <p>
+ * 送信データを非同期に作成する{@link Swapper}です。
+ * 送信データの作成に他のサービスへの問い合わせなど時間のかかる処理が必要な場合に利用します。
+ *
+ * <p>
+ * swapメソッドは送信データそのものではなく、送信データを返す{@link CompletableFuture}を返します。
+ * 読み書きを行うスレッドはFutureの完了を待たずに他の接続先の処理を続け、
+ * Futureが完了した時点でその接続先への送信を開始します。
+ * そのため、完了していない送信データが多数あってもそれぞれにスレッドを割り当てる必要はありません。
+ *
+ * <p>
+ * 受信データの扱いや通信を終えるタイミングについては{@link Swapper}と同じです。
+ * Futureが完了するまでの間、その接続先との読み書きは行われません。
+ *
+ * @author "ymiyauchi"
+ * @since 1.6.0
+ *
+ */
+public interface AsyncSwapper {
+
+    /**
+     * <p>
+     * 受信データが格納されたReceiveDataからデータを取得し、
+     * 送信するデータを格納したSendDataオブジェクトを返すFutureを作成して戻り値としてください。
+     *
+     * <p>
+     * Futureの値がnullの場合は{@link Swapper#swap}メソッドがnullを返した場合と同じく、通信を強制的に終了します。
+     * Futureが例外によって完了した場合は、その例外を原因として接続を切断します。
+     *
+     * @param remoteAddress
+     * @param receiveData
+     * @return 送信データを返すFuture
+     * @throws Exception
+     * @since 1.6.0
+     */
+    CompletableFuture<SendData> swap(String remoteAddress, ReceiveData receiveData) throws Exception;
+
+    /**
+     * 通信を続けるかどうかを返すメソッドです。
+     * 呼ばれるタイミングは{@link Swapper#doContinue}メソッドと同じです。
+     * @return 通信を続けるかどうか
+     * @since 1.6.0
+     */
+    boolean doContinue();
+}
@@ -0,0 +1,16 @@
+package jp.gr.java_conf.falius.communication.swapper;
+
+/**
+ * AsyncSwapperを生成するファクトリメソッドを持つインターフェースです。
+ * 役割は{@link SwapperFactory}と同じです。
+ * @since 1.6.0
+ */
+public interface AsyncSwapperFactory {
+
+    /**
+     *
+     * @return
+     * @since 1.6.0
+     */
+    AsyncSwapper get();
+}
@@ -0,0 +1,101 @@
+package jp.gr.java_conf.falius.communication.core.socket;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.gr.java_conf.falius.communication.buffer.HeapBufferAllocator;
+
+public class ReadBufferTest {
+    private SocketChannel mWriter;
+    private SocketChannel mReader;
+
+    @Before
+    public void connect() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            mWriter = SocketChannel.open(server.getLocalAddress());
+            mReader = server.accept();
+        }
+    }
+
+    @After
+    public void close() throws IOException {
+        mWriter.close();
+        mReader.close();
+    }
+
+    private void write(int size) throws IOException, InterruptedException {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        while (buf.hasRemaining()) {
+            mWriter.write(buf);
+        }
+        // 読み込む側で一度に読み込めるよう、届くのを待つ
+        Thread.sleep(50);
+    }
+
+    /**
+     * バッファに読み込んだデータを、すべて処理したことにします。
+     */
+    private static void consume(ReadBuffer readBuffer) {
+        ByteBuffer buf = readBuffer.buffer();
+        buf.position(buf.limit());
+    }
+
+    @Test
+    public void testGrowAndShrink() throws IOException, InterruptedException {
+        ReadBuffer readBuffer = new ReadBuffer(HeapBufferAllocator.INSTANCE);
+        assertThat(readBuffer.buffer().capacity(), is(ReadBuffer.INITIAL_SIZE));
+
+        // バッファを使い切ったので、次回は倍のサイズで読み込む
+        write(ReadBuffer.INITIAL_SIZE * 2);
+        assertThat(readBuffer.read(mReader), is(ReadBuffer.INITIAL_SIZE));
+        consume(readBuffer);
+        assertThat(readBuffer.read(mReader), is(ReadBuffer.INITIAL_SIZE));
+        assertThat(readBuffer.buffer().capacity(), is(ReadBuffer.INITIAL_SIZE * 2));
+        consume(readBuffer);
+
+        // 半分のサイズで足りる読み込みが続くと半分のサイズに縮める
+        write(10);
+        assertThat(readBuffer.read(mReader), is(10));
+        consume(readBuffer);
+        assertThat(readBuffer.buffer().capacity(), is(ReadBuffer.INITIAL_SIZE * 2));
+        write(10);
+        assertThat(readBuffer.read(mReader), is(10));
+        assertThat(readBuffer.buffer().capacity(), is(ReadBuffer.INITIAL_SIZE));
+    }
+
+    @Test
+    public void testGrowBeyondMaxForUnprocessedData() throws IOException, InterruptedException {
+        ReadBuffer readBuffer = new ReadBuffer(HeapBufferAllocator.INSTANCE);
+        write(ReadBuffer.INITIAL_SIZE + 10);
+        assertThat(readBuffer.read(mReader), is(ReadBuffer.INITIAL_SIZE));
+
+        // 未処理のデータだけでバッファが埋まっていれば、処理できるように広げてから読み込む
+        assertThat(readBuffer.read(mReader), is(10));
+        ByteBuffer buf = readBuffer.buffer();
+        assertThat(buf.capacity(), is(ReadBuffer.INITIAL_SIZE * 2));
+        assertThat(buf.remaining(), is(ReadBuffer.INITIAL_SIZE + 10));
+    }
+
+    @Test
+    public void testKeepUnprocessedData() throws IOException, InterruptedException {
+        ReadBuffer readBuffer = new ReadBuffer(HeapBufferAllocator.INSTANCE);
+        write(100);
+        assertThat(readBuffer.read(mReader), is(100));
+        readBuffer.buffer().position(60);
+
+        write(20);
+        assertThat(readBuffer.read(mReader), is(20));
+        assertThat(readBuffer.buffer().remaining(), is(60));
+    }
+}
@@ -0,0 +1,136 @@
+package jp.gr.java_conf.falius.communication.core.socket;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
+
+public class ReceiverTest {
+    private SocketChannel mWriter;
+    private SocketChannel mReader;
+
+    @Before
+    public void connect() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            mWriter = SocketChannel.open(server.getLocalAddress());
+            mReader = server.accept();
+        }
+    }
+
+    @After
+    public void close() throws IOException {
+        mWriter.close();
+        mReader.close();
+    }
+
+    /**
+     * int値を一つずつデータとした、通常の形式の受信単位を作成します。
+     */
+    private static byte[] frame(int... values) {
+        int headerSize = 4 + 4 + values.length * 4;
+        ByteBuffer buf = ByteBuffer.allocate(headerSize + values.length * 4);
+        buf.putInt(headerSize).putInt(buf.capacity());
+        for (int i = 0; i < values.length; i++) {
+            buf.putInt(4);
+        }
+        for (int value : values) {
+            buf.putInt(value);
+        }
+        return buf.array();
+    }
+
+    private void write(byte[] bytes, int from, int to) throws IOException, InterruptedException {
+        ByteBuffer buf = ByteBuffer.wrap(Arrays.copyOfRange(bytes, from, to));
+        while (buf.hasRemaining()) {
+            mWriter.write(buf);
+        }
+        // 読み込む側で一度に読み込めるよう、届くのを待つ
+        Thread.sleep(50);
+    }
+
+    @Test
+    public void testPrefixSplitAcrossReads() throws IOException, InterruptedException {
+        Receiver receiver = new Receiver();
+        byte[] frame = frame(42, 43);
+
+        write(frame, 0, 3);
+        assertThat(receiver.receive(mReader), is(Receiver.Result.UNFINISHED));
+        write(frame, 3, 6);
+        assertThat(receiver.receive(mReader), is(Receiver.Result.UNFINISHED));
+        write(frame, 6, 10);
+        assertThat(receiver.receive(mReader), is(Receiver.Result.UNFINISHED));
+        write(frame, 10, frame.length);
+        assertThat(receiver.receive(mReader), is(Receiver.Result.FINISHED));
+
+        ReceiveData data = receiver.getData();
+        assertThat(data.getInt(), is(42));
+        assertThat(data.getInt(), is(43));
+        assertThat(receiver.hasBufferedData(), is(false));
+    }
+
+    @Test
+    public void testSeveralFramesInOneRead() throws IOException, InterruptedException {
+        Receiver receiver = new Receiver();
+        byte[] first = frame(1);
+        byte[] second = frame(2, 3);
+        byte[] third = frame(4);
+        ByteBuffer all = ByteBuffer.allocate(first.length + second.length + third.length);
+        all.put(first).put(second).put(third);
+        write(all.array(), 0, all.capacity());
+
+        assertThat(receiver.receive(mReader), is(Receiver.Result.FINISHED));
+        assertThat(receiver.getData().getInt(), is(1));
+        assertThat(receiver.hasBufferedData(), is(true));
+
+        // 残りの受信単位はチャネルから読み込まずにバッファから取り出す
+        assertThat(receiver.receive(mReader), is(Receiver.Result.FINISHED));
+        ReceiveData data = receiver.getData();
+        assertThat(data.getInt(), is(2));
+        assertThat(data.getInt(), is(3));
+        assertThat(receiver.receive(mReader), is(Receiver.Result.FINISHED));
+        assertThat(receiver.getData().getInt(), is(4));
+        assertThat(receiver.hasBufferedData(), is(false));
+    }
+
+    @Test
+    public void testFrameBoundaryInsidePrefix() throws IOException, InterruptedException {
+        Receiver receiver = new Receiver();
+        byte[] first = frame(1);
+        byte[] second = frame(2);
+        ByteBuffer all = ByteBuffer.allocate(first.length + second.length);
+        all.put(first).put(second);
+        // 二つ目の受信単位のサイズの途中までを、一つ目と一緒に届ける
+        write(all.array(), 0, first.length + 5);
+
+        assertThat(receiver.receive(mReader), is(Receiver.Result.FINISHED));
+        assertThat(receiver.getData().getInt(), is(1));
+        assertThat(receiver.hasBufferedData(), is(true));
+
+        write(all.array(), first.length + 5, all.capacity());
+        assertThat(receiver.receive(mReader), is(Receiver.Result.FINISHED));
+        assertThat(receiver.getData().getInt(), is(2));
+    }
+
+    @Test
+    public void testInconsistentHeader() throws IOException, InterruptedException {
+        Receiver receiver = new Receiver();
+        byte[] frame = frame(1, 2);
+        // 全データのサイズと各データのサイズの合計が一致しない
+        ByteBuffer.wrap(frame).putInt(4, frame.length + 4);
+        write(frame, 0, frame.length);
+
+        assertThat(receiver.receive(mReader), is(Receiver.Result.ERROR));
+    }
+}
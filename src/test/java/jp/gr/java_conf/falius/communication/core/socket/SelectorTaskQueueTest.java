@@ -0,0 +1,75 @@
+package jp.gr.java_conf.falius.communication.core.socket;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SelectorTaskQueueTest {
+    private Selector mSelector;
+
+    @Before
+    public void open() throws IOException {
+        mSelector = Selector.open();
+    }
+
+    @After
+    public void close() throws IOException {
+        mSelector.close();
+    }
+
+    @Test
+    public void testExecuteOnLoopThread() throws IOException, InterruptedException, ExecutionException,
+            TimeoutException {
+        SelectorTaskQueue tasks = new SelectorTaskQueue(mSelector);
+        CompletableFuture<Thread> ranOn = new CompletableFuture<>();
+        Thread loop = new Thread(() -> {
+            try {
+                // executeによってwakeupされるまで待機する
+                mSelector.select();
+                tasks.runTasks();
+            } catch (IOException e) {
+                ranOn.completeExceptionally(e);
+            }
+        });
+        loop.start();
+
+        CompletableFuture.runAsync(() -> tasks.execute(() -> ranOn.complete(Thread.currentThread())));
+        assertThat(ranOn.get(10, TimeUnit.SECONDS), is(loop));
+        loop.join();
+    }
+
+    @Test
+    public void testRunTasksInOrder() {
+        SelectorTaskQueue tasks = new SelectorTaskQueue(mSelector);
+        StringBuilder sb = new StringBuilder();
+        tasks.execute(() -> sb.append("a"));
+        tasks.execute(() -> sb.append("b"));
+        assertThat(sb.toString(), is(""));
+        tasks.runTasks();
+        assertThat(sb.toString(), is("ab"));
+    }
+
+    @Test
+    public void testExecuteAfterClose() {
+        SelectorTaskQueue tasks = new SelectorTaskQueue(mSelector);
+        AtomicInteger count = new AtomicInteger();
+        tasks.execute(count::incrementAndGet);
+
+        // 残っていた処理は閉じた時点で、それ以降の処理はその場で実行される
+        tasks.close();
+        assertThat(count.get(), is(1));
+        tasks.execute(count::incrementAndGet);
+        assertThat(count.get(), is(2));
+    }
+}
@@ -4,6 +4,7 @@ import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
 
 import java.io.IOException;
+import java.lang.invoke.WrongMethodTypeException;
 import java.util.concurrent.TimeoutException;
 
 import org.junit.AfterClass;
@@ -116,4 +117,85 @@ public class ArraySendDataTest {
         }
     }
 
+    @Test
+    public void testPutBinaryIntArray() throws IOException, TimeoutException {
+        int[] data = { 1, -2, Integer.MAX_VALUE, Integer.MIN_VALUE, 0 };
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        ArraySendData sendData = new ArraySendData(new BasicSendData(), true);
+        sendData.put(data);
+        ReceiveData rcv = client.send(sendData);
+        ArrayReceiveData ret = new ArrayReceiveData(rcv);
+        int[] result = ret.getIntArray();
+
+        assertThat(result.length, is(data.length));
+        for (int i : new IntRange(data.length)) {
+            assertThat(result[i], is(data[i]));
+        }
+    }
+
+    @Test
+    public void testPutBinaryLongArray() throws IOException, TimeoutException {
+        long[] data = { 112L, -22342L, Long.MAX_VALUE, Long.MIN_VALUE, 512839L };
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        ArraySendData sendData = new ArraySendData(new BasicSendData(), true);
+        sendData.put(data);
+        ReceiveData rcv = client.send(sendData);
+        ArrayReceiveData ret = new ArrayReceiveData(rcv);
+        long[] result = ret.getLongArray();
+
+        assertThat(result.length, is(data.length));
+        for (int i : new IntRange(data.length)) {
+            assertThat(result[i], is(data[i]));
+        }
+    }
+
+    @Test
+    public void testPutBinaryDoubleArray() throws IOException, TimeoutException {
+        int size = 100000;
+        double[] data = new double[size];
+        for (int i : new IntRange(size)) {
+            data[i] = i * 0.37 - 1000.0;
+        }
+        data[0] = Double.NaN;
+        data[1] = Double.NEGATIVE_INFINITY;
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        ArraySendData sendData = new ArraySendData(new BasicSendData(), true);
+        sendData.put(data);
+        ReceiveData rcv = client.send(sendData);
+        ArrayReceiveData ret = new ArrayReceiveData(rcv);
+        double[] result = ret.getDoubleArray();
+
+        assertThat(result.length, is(data.length));
+        for (int i : new IntRange(data.length)) {
+            assertThat(result[i], is(data[i]));
+        }
+    }
+
+    @Test
+    public void testPutBinaryFloatArray() throws IOException, TimeoutException {
+        float[] data = { 11.2f, 2.2342f, 0.3796f, 4798.43279f, 0.00512839f };
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        ArraySendData sendData = new ArraySendData(new BasicSendData(), true);
+        sendData.put(data);
+        ReceiveData rcv = client.send(sendData);
+        ArrayReceiveData ret = new ArrayReceiveData(rcv);
+        float[] result = ret.getFloatArray();
+
+        assertThat(result.length, is(data.length));
+        for (int i : new IntRange(data.length)) {
+            assertThat(result[i], is(data[i]));
+        }
+    }
+
+    @Test(expected = WrongMethodTypeException.class)
+    public void testGetBinaryArrayWithWrongType() throws IOException, TimeoutException {
+        int[] data = { 1, 2, 3 };
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        ArraySendData sendData = new ArraySendData(new BasicSendData(), true);
+        sendData.put(data);
+        ReceiveData rcv = client.send(sendData);
+        ArrayReceiveData ret = new ArrayReceiveData(rcv);
+        ret.getDoubleArray();
+    }
+
 }
@@ -5,7 +5,9 @@ import static org.hamcrest.Matchers.*;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeoutException;
@@ -80,4 +82,62 @@ public class CollectionSendDataTest {
         assertThat(receiveData.get(), is(nullValue()));
     }
 
+    @Test
+    public void testPutBinaryListKeepsType() throws IOException, TimeoutException {
+        List<Object> sendData = new ArrayList<>();
+        sendData.add(1);
+        sendData.add(Long.MAX_VALUE);
+        sendData.add(0.25);
+        sendData.add("日本語");
+        sendData.add(true);
+        sendData.add(null);
+        sendData.add(Arrays.asList(2, "nested"));
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        CollectionSendData data = new CollectionSendData(new BasicSendData(), true);
+        data.put(sendData);
+        ReceiveData receiveData = client.send(data);
+        List<Object> ret = new CollectionReceiveData(receiveData).getObjectList();
+        assertThat(ret, is(sendData));
+
+        assertThat(receiveData.get(), is(nullValue()));
+    }
+
+    @Test
+    public void testPutBinaryMapKeepsType() throws IOException, TimeoutException {
+        Map<String, Object> inner = new LinkedHashMap<>();
+        inner.put("count", 3);
+        inner.put("values", Arrays.asList(1.5, 2.5));
+        Map<String, Object> sendData = new LinkedHashMap<>();
+        sendData.put("key1", "data1");
+        sendData.put("key2", 42L);
+        sendData.put("inner", inner);
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        CollectionSendData data = new CollectionSendData(new BasicSendData(), true);
+        data.put(sendData);
+        ReceiveData receiveData = client.send(data);
+        Map<String, Object> ret = new CollectionReceiveData(receiveData).getObjectMap();
+        assertThat(ret, is(sendData));
+        assertThat(ret.keySet(), contains("key1", "key2", "inner"));
+    }
+
+    @Test
+    public void testGetBinaryMapAsString() throws IOException, TimeoutException {
+        Map<String, Object> sendData = new LinkedHashMap<>();
+        sendData.put("key1", "data1");
+        sendData.put("key2", 42);
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        CollectionSendData data = new CollectionSendData(new BasicSendData(), true);
+        data.put(sendData);
+        ReceiveData receiveData = client.send(data);
+        Map<String, String> ret = new CollectionReceiveData(receiveData).getMap();
+        assertThat(ret, hasEntry("key1", "data1"));
+        assertThat(ret, hasEntry("key2", "42"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutBinaryUnsupportedType() {
+        CollectionSendData data = new CollectionSendData(new BasicSendData(), true);
+        data.put(Arrays.asList(new Object()));
+    }
+
 }
@@ -7,6 +7,7 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -135,4 +136,32 @@ public class FileReceiveDataTest {
         assertThat(Files.lines(targetFile).collect(Collectors.joining()), is(FILE_CONTENT));
     }
 
+    @Test
+    public void testFileSink() throws IOException, TimeoutException {
+        String fileName = "test_testFileSink";
+        Path originFile = Paths.get(mOriginTmpDir.toString(), fileName);
+        byte[] bytes = new byte[2 * 1024 * 1024];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i % 127);
+        }
+        Files.write(originFile, bytes);
+
+        Path targetFile = Paths.get(mTargetTmpDir.toString(), fileName);
+        NonBlockingClient client = new NonBlockingClient(HOST, mServer.getPort());
+        client.setFileSink((remoteAddress, index, size) -> index == 1
+                ? FileChannel.open(targetFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+                : null);
+        FileSendData sendData = new FileSendData(new BasicSendData());
+        sendData.put("name");
+        sendData.put(originFile);
+        sendData.put(5);
+        ReceiveData ret = client.send(sendData);
+
+        assertThat(ret.getString(), is("name"));
+        // ファイルに書き込んだデータは空のバッファとして格納されている
+        assertThat(ret.get().remaining(), is(0));
+        assertThat(ret.getInt(), is(5));
+        assertThat(Arrays.equals(Files.readAllBytes(targetFile), bytes), is(true));
+    }
+
 }
@@ -5,10 +5,12 @@ import static org.hamcrest.Matchers.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
@@ -22,6 +24,7 @@ import jp.gr.java_conf.falius.communication.core.SwapClient;
 import jp.gr.java_conf.falius.communication.core.socket.NonBlockingClient;
 import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
 import jp.gr.java_conf.falius.communication.senddata.BasicSendData;
+import jp.gr.java_conf.falius.communication.senddata.FileRegion;
 import jp.gr.java_conf.falius.communication.senddata.FileSendData;
 import jp.gr.java_conf.falius.communication.test.helper.EchoServer;
 import jp.gr.java_conf.falius.communication.test.helper.ServerHelper;
@@ -80,4 +83,70 @@ public class FileSendDataTest {
                         .collect(Collectors.joining())));
     }
 
+    @Test
+    public void testPutFileRegion() throws IOException, TimeoutException {
+        Path path = Files.createTempFile("FileSendDataTest", ".bin");
+        try {
+            byte[] bytes = new byte[3 * 1024 * 1024];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) i;
+            }
+            Files.write(path, bytes);
+
+            SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+            FileSendData sendData = new FileSendData(new BasicSendData());
+            sendData.put("before");
+            sendData.put(path);
+            sendData.put(new FileRegion(path, 10, 100));
+            sendData.put(1);
+            ReceiveData receiveData = client.send(sendData);
+
+            assertThat(receiveData.getString(), is("before"));
+            ByteBuffer file = receiveData.get();
+            assertThat(file.remaining(), is(bytes.length));
+            byte[] received = new byte[file.remaining()];
+            file.get(received);
+            assertThat(Arrays.equals(received, bytes), is(true));
+            ByteBuffer region = receiveData.get();
+            byte[] receivedRegion = new byte[region.remaining()];
+            region.get(receivedRegion);
+            assertThat(Arrays.equals(receivedRegion, Arrays.copyOfRange(bytes, 10, 110)), is(true));
+            assertThat(receiveData.getInt(), is(1));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testResendFileRegion() throws IOException, TimeoutException {
+        Path path = Files.createTempFile("FileSendDataTest", ".bin");
+        try {
+            byte[] bytes = new byte[1024 * 1024];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) (i * 7);
+            }
+            Files.write(path, bytes);
+
+            FileSendData sendData = new FileSendData(new BasicSendData());
+            sendData.put(path);
+            sendData.put(new FileRegion(path, 100, 200));
+
+            // 転送の進み具合は送信ごとに保持されるため、同じ送信データを何度でも送信できる
+            for (int n = 0; n < 2; n++) {
+                SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+                ReceiveData receiveData = client.send(sendData);
+                ByteBuffer file = receiveData.get();
+                byte[] received = new byte[file.remaining()];
+                file.get(received);
+                assertThat(Arrays.equals(received, bytes), is(true));
+                ByteBuffer region = receiveData.get();
+                byte[] receivedRegion = new byte[region.remaining()];
+                region.get(receivedRegion);
+                assertThat(Arrays.equals(receivedRegion, Arrays.copyOfRange(bytes, 100, 300)), is(true));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
 }
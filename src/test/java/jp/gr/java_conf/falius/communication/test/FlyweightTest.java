@@ -0,0 +1,118 @@
+package jp.gr.java_conf.falius.communication.test;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jp.gr.java_conf.falius.communication.buffer.PooledDirectBufferAllocator;
+import jp.gr.java_conf.falius.communication.core.socket.NonBlockingClient;
+import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
+import jp.gr.java_conf.falius.communication.senddata.BasicSendData;
+import jp.gr.java_conf.falius.communication.test.helper.EchoServer;
+import jp.gr.java_conf.falius.communication.test.helper.QuoteFlyweight;
+import jp.gr.java_conf.falius.communication.test.helper.ServerHelper;
+import jp.gr.java_conf.falius.util.range.IntRange;
+
+public class FlyweightTest {
+    private static Logger log = LoggerFactory.getLogger(FlyweightTest.class);
+    private static final String HOST = "localhost";
+    private static final ServerHelper mServer = new EchoServer();
+
+    @BeforeClass
+    public static void setupServer() throws IOException {
+        mServer.beforeClass();
+    }
+
+    @AfterClass
+    public static void shutdownServer() throws IOException {
+        mServer.afterClass();
+    }
+
+    @Test
+    public void testSendAndReceiveInPlace() throws IOException, TimeoutException {
+        PooledDirectBufferAllocator allocator = new PooledDirectBufferAllocator();
+        NonBlockingClient client = new NonBlockingClient(HOST, mServer.getPort());
+        client.setBufferAllocator(allocator);
+        QuoteFlyweight sendQuote = new QuoteFlyweight();
+        sendQuote.allocate(allocator);
+        QuoteFlyweight rcvQuote = new QuoteFlyweight();
+
+        for (int i : new IntRange(3)) {
+            // 同じバッファに書き込み直して送信する
+            sendQuote.instrumentId(i).price(100.5 + i).quantity(1000L * i).side((short) (i % 2));
+            ReceiveData rcv = client.send(new BasicSendData().put(sendQuote.toSend()));
+
+            ByteBuffer buf = rcv.get();
+            rcvQuote.wrap(buf);
+            assertThat(rcvQuote.instrumentId(), is(i));
+            assertThat(rcvQuote.price(), is(100.5 + i));
+            assertThat(rcvQuote.quantity(), is(1000L * i));
+            assertThat(rcvQuote.side(), is((short) (i % 2)));
+            rcv.release(buf);
+        }
+        sendQuote.release(allocator);
+    }
+
+    @Test
+    public void testWrapAtOffset() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(QuoteFlyweight.ENCODED_LENGTH * 2);
+        QuoteFlyweight quote = new QuoteFlyweight();
+        quote.wrap(buf, QuoteFlyweight.ENCODED_LENGTH);
+        quote.instrumentId(7).price(1.25);
+
+        assertThat(buf.getInt(QuoteFlyweight.ENCODED_LENGTH), is(7));
+        assertThat(buf.position(), is(0));
+        ByteBuffer send = quote.toSend();
+        assertThat(send.position(), is(QuoteFlyweight.ENCODED_LENGTH));
+        assertThat(send.remaining(), is(QuoteFlyweight.ENCODED_LENGTH));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRewrapAfterToSend() {
+        // toSendでlimitを狭めたバッファでは、limitを超える位置にwrapできない
+        ByteBuffer buf = ByteBuffer.allocate(QuoteFlyweight.ENCODED_LENGTH * 2);
+        QuoteFlyweight quote = new QuoteFlyweight();
+        quote.wrap(buf, 0);
+        quote.toSend();
+        quote.wrap(buf, QuoteFlyweight.ENCODED_LENGTH);
+    }
+
+    @Test
+    public void testRewrapAfterClear() {
+        ByteBuffer buf = ByteBuffer.allocate(QuoteFlyweight.ENCODED_LENGTH * 2);
+        QuoteFlyweight quote = new QuoteFlyweight();
+        quote.wrap(buf, 0);
+        quote.toSend();
+
+        buf.clear();
+        quote.wrap(buf, QuoteFlyweight.ENCODED_LENGTH);
+        quote.instrumentId(3);
+        assertThat(quote.instrumentId(), is(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrapBeyondLimit() {
+        ByteBuffer buf = ByteBuffer.allocate(QuoteFlyweight.ENCODED_LENGTH * 2);
+        buf.limit(QuoteFlyweight.ENCODED_LENGTH + 1);
+        new QuoteFlyweight().wrap(buf, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrapTooSmallBuffer() {
+        new QuoteFlyweight().wrap(ByteBuffer.allocate(QuoteFlyweight.ENCODED_LENGTH - 1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testToSendWithoutWrap() {
+        new QuoteFlyweight().toSend();
+    }
+}
@@ -0,0 +1,156 @@
+package jp.gr.java_conf.falius.communication.test;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import jp.gr.java_conf.falius.communication.core.SwapClient;
+import jp.gr.java_conf.falius.communication.core.socket.NonBlockingClient;
+import jp.gr.java_conf.falius.communication.core.socket.NonBlockingServer;
+import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
+import jp.gr.java_conf.falius.communication.senddata.BasicSendData;
+import jp.gr.java_conf.falius.communication.senddata.FrozenSendData;
+import jp.gr.java_conf.falius.communication.senddata.PackedSendData;
+import jp.gr.java_conf.falius.communication.senddata.SendData;
+import jp.gr.java_conf.falius.communication.swapper.OnceSwapper;
+import jp.gr.java_conf.falius.communication.swapper.Swapper;
+import jp.gr.java_conf.falius.communication.swapper.SwapperFactory;
+import jp.gr.java_conf.falius.communication.test.helper.EchoServer;
+import jp.gr.java_conf.falius.communication.test.helper.ServerHelper;
+import jp.gr.java_conf.falius.util.range.IntRange;
+
+public class FrozenSendDataTest {
+    private static final String HOST = "localhost";
+    private static final ServerHelper mServer = new EchoServer();
+
+    @BeforeClass
+    public static void setupServer() throws IOException {
+        mServer.beforeClass();
+    }
+
+    @AfterClass
+    public static void shutdownServer() throws IOException {
+        mServer.afterClass();
+    }
+
+    private static FrozenSendData snapshot() {
+        SendData source = new BasicSendData();
+        source.put(1).put("config").put(2.5).put(new byte[1000]);
+        return new FrozenSendData(source);
+    }
+
+    private static void assertSnapshot(ReceiveData rcv) {
+        assertThat(rcv.dataCount(), is(4));
+        assertThat(rcv.getInt(), is(1));
+        assertThat(rcv.getString(), is("config"));
+        assertThat(rcv.getDouble(), is(2.5));
+        assertThat(rcv.get().remaining(), is(1000));
+    }
+
+    @Test
+    public void testSendRepeatedly() throws IOException, TimeoutException {
+        FrozenSendData data = snapshot();
+        for (int i : new IntRange(5)) {
+            SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+            assertSnapshot(client.send(data));
+        }
+        assertThat(data.size(), is(4));
+        assertThat(data.frame(false).remaining(), is(4 + 4 + 4 * 4 + 4 + 6 + 8 + 1000));
+    }
+
+    @Test
+    public void testSendWithCompactHeader() throws IOException, TimeoutException {
+        FrozenSendData data = snapshot();
+        for (boolean isCompact : new boolean[] { true, false, true }) {
+            NonBlockingClient client = new NonBlockingClient(HOST, mServer.getPort());
+            client.setCompactHeader(isCompact);
+            assertSnapshot(client.send(data));
+        }
+        assertThat(data.frame(true).remaining(), is(lessThan(data.frame(false).remaining())));
+    }
+
+    @Test
+    public void testFrameIsReadOnly() {
+        FrozenSendData data = new FrozenSendData(new PackedSendData().put(7L), false);
+        assertThat(data.frame(false).isReadOnly(), is(true));
+        assertThat(data.body().getLong(), is(7L));
+        assertThat(data.itemSize(0), is(8));
+        for (ByteBuffer item : data) {
+            assertThat(item.isReadOnly(), is(true));
+            assertThat(item.getLong(), is(7L));
+        }
+    }
+
+    @Test
+    public void testSourceWithPosition() throws IOException, TimeoutException {
+        // positionより前のバイトは凍結せず、ヘッダーのサイズも残りのバイト数に合わせる
+        ByteBuffer buf = ByteBuffer.wrap(new byte[] { 9, 9, 1, 2, 3 });
+        buf.position(2);
+        SendData source = new BasicSendData();
+        source.put(buf).put(4);
+        FrozenSendData data = new FrozenSendData(source);
+
+        assertThat(buf.position(), is(2));
+        assertThat(data.itemSize(0), is(3));
+        assertThat(data.frame(false).remaining(), is(4 + 4 + 4 * 2 + 3 + 4));
+
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        ReceiveData rcv = client.send(data);
+        assertThat(rcv.dataCount(), is(2));
+        ByteBuffer item = rcv.get();
+        assertThat(item.remaining(), is(3));
+        assertThat(item.get(), is((byte) 1));
+        assertThat(item.get(), is((byte) 2));
+        assertThat(item.get(), is((byte) 3));
+        assertThat(rcv.getInt(), is(4));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPut() {
+        snapshot().put(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testChunkedSource() {
+        SendData source = new BasicSendData();
+        source.putChunked(new ByteArrayInputStream(new byte[] { 1 }));
+        new FrozenSendData(source);
+    }
+
+    @Test
+    public void testBroadcast() throws IOException, TimeoutException, InterruptedException {
+        int port = 8979;
+        FrozenSendData data = snapshot();
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new OnceSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) {
+                        return data;
+                    }
+                };
+            }
+        })) {
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            for (int i : new IntRange(10)) {
+                SwapClient client = new NonBlockingClient(HOST, port);
+                SendData request = new BasicSendData();
+                request.put(i);
+                assertSnapshot(client.send(request));
+            }
+        }
+    }
+}
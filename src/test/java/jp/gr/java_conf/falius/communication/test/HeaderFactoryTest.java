@@ -0,0 +1,261 @@
+package jp.gr.java_conf.falius.communication.test;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+import jp.gr.java_conf.falius.communication.header.Header;
+import jp.gr.java_conf.falius.communication.header.HeaderFactory;
+import jp.gr.java_conf.falius.communication.senddata.BasicSendData;
+import jp.gr.java_conf.falius.communication.senddata.FileRegion;
+import jp.gr.java_conf.falius.communication.senddata.SendData;
+
+public class HeaderFactoryTest {
+    // ヘッダーの作成時にはファイルを開かないため、存在しないファイルでよい
+    private static final Path PATH = Paths.get("large.bin");
+    private static final long LARGE_SIZE = 3L * 1024 * 1024 * 1024;
+
+    @Test
+    public void testSmallHeader() throws IOException {
+        SendData data = new BasicSendData();
+        data.put(new byte[10]);
+        data.put(new byte[20]);
+        Header header = HeaderFactory.from(data);
+        assertThat(header.isLarge(), is(false));
+        assertThat(header.size(), is(16));
+        assertThat(header.allDataSize(), is(46));
+
+        ByteBuffer buf = header.toByteBuffer();
+        assertThat(buf.getInt(0), is(16));
+        Header read = HeaderFactory.from(buf);
+        assertThat(read.isLarge(), is(false));
+        assertThat(read.allDataSize(), is(46));
+        assertThat(read.dataSizeBuffer().get(1), is(20));
+    }
+
+    @Test
+    public void testLargeHeader() throws IOException {
+        SendData data = new BasicSendData();
+        data.put(new byte[10]);
+        data.put(new FileRegion(PATH, 0, LARGE_SIZE));
+        Header header = HeaderFactory.from(data);
+        assertThat(header.isLarge(), is(true));
+        assertThat(header.size(), is(4 + 8 + 2 * 8));
+        assertThat(header.allDataSizeAsLong(), is(28 + 10 + LARGE_SIZE));
+
+        ByteBuffer buf = header.toByteBuffer();
+        assertThat(buf.getInt(0) & Header.LARGE, is(not(0)));
+        Header read = HeaderFactory.from(buf);
+        assertThat(buf.hasRemaining(), is(false));
+        assertThat(read.isLarge(), is(true));
+        assertThat(read.allDataSizeAsLong(), is(header.allDataSizeAsLong()));
+        LongBuffer sizes = read.dataSizeBufferAsLong();
+        assertThat(sizes.get(), is(10L));
+        assertThat(sizes.get(), is(LARGE_SIZE));
+    }
+
+    @Test
+    public void testLargeHeaderFromStream() throws IOException {
+        SendData data = new BasicSendData();
+        data.put(new FileRegion(PATH, 0, LARGE_SIZE));
+        data.putChunked(new ByteArrayInputStream(new byte[0]));
+        ByteBuffer buf = HeaderFactory.from(data).toByteBuffer();
+
+        Header read = HeaderFactory.from(new ByteArrayInputStream(buf.array()));
+        assertThat(read.isLarge(), is(true));
+        LongBuffer sizes = read.dataSizeBufferAsLong();
+        assertThat(sizes.get(), is(LARGE_SIZE));
+        assertThat(sizes.get(), is((long) Header.CHUNKED));
+    }
+
+    @Test
+    public void testIncompleteLargeHeader() throws IOException {
+        SendData data = new BasicSendData();
+        data.put(new FileRegion(PATH, 0, LARGE_SIZE));
+        ByteBuffer buf = HeaderFactory.from(data).toByteBuffer();
+        buf.limit(buf.limit() - 1);
+        assertThat(HeaderFactory.from(buf), is(nullValue()));
+        assertThat(buf.position(), is(0));
+    }
+
+    @Test
+    public void testCompactHeader() throws IOException {
+        SendData data = new BasicSendData();
+        for (int i = 0; i < 5; i++) {
+            data.put(i);
+        }
+        data.put(new byte[300]);
+        Header header = HeaderFactory.compactFrom(data);
+        // フラグ、データの個数、各データのサイズ(300のみ２バイト)
+        assertThat(header.size(), is(1 + 1 + 5 + 2));
+        assertThat(header.allDataSize(), is(9 + 5 * 4 + 300));
+
+        ByteBuffer buf = header.toByteBuffer();
+        assertThat(buf.remaining(), is(header.size()));
+        Header read = HeaderFactory.compactFrom(buf);
+        assertThat(buf.hasRemaining(), is(false));
+        assertThat(read.allDataSize(), is(header.allDataSize()));
+        IntBuffer sizes = read.dataSizeBuffer();
+        assertThat(sizes.remaining(), is(6));
+        assertThat(sizes.get(0), is(4));
+        assertThat(sizes.get(5), is(300));
+    }
+
+    @Test
+    public void testCompactHeaderWithChunked() throws IOException {
+        SendData data = new BasicSendData();
+        data.put(new FileRegion(PATH, 0, LARGE_SIZE));
+        data.putChunked(new ByteArrayInputStream(new byte[0]));
+        data.put(new byte[1]);
+        ByteBuffer buf = HeaderFactory.compactFrom(data).toByteBuffer();
+
+        Header read = HeaderFactory.compactFrom(buf);
+        LongBuffer sizes = read.dataSizeBufferAsLong();
+        assertThat(sizes.get(), is(LARGE_SIZE));
+        assertThat(sizes.get(), is((long) Header.CHUNKED));
+        assertThat(sizes.get(), is(1L));
+    }
+
+    @Test
+    public void testIncompleteCompactHeader() throws IOException {
+        SendData data = new BasicSendData();
+        data.put(new byte[300]);
+        ByteBuffer buf = HeaderFactory.compactFrom(data).toByteBuffer();
+        for (int limit = 0; limit < buf.capacity(); limit++) {
+            buf.limit(limit);
+            assertThat(HeaderFactory.compactFrom(buf), is(nullValue()));
+            assertThat(buf.position(), is(0));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testIllegalCompactHeaderFlags() throws IOException {
+        HeaderFactory.compactFrom(ByteBuffer.wrap(new byte[] { (byte) 0x80, 0 }));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIntSizeOfLargeHeader() {
+        SendData data = new BasicSendData();
+        data.put(new FileRegion(PATH, 0, LARGE_SIZE));
+        HeaderFactory.from(data).allDataSize();
+    }
+
+    private static ByteBuffer header(int headerSize, int allDataSize, int... itemSizes) {
+        ByteBuffer buf = ByteBuffer.allocate(8 + itemSizes.length * 4);
+        buf.putInt(headerSize).putInt(allDataSize);
+        for (int size : itemSizes) {
+            buf.putInt(size);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Test
+    public void testIncompleteHeaderFromBuffer() throws IOException {
+        ByteBuffer buf = header(16, 46, 10, 20);
+        buf.limit(12);
+        assertThat(HeaderFactory.from(buf), is(nullValue()));
+        assertThat(buf.position(), is(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTooSmallHeaderSize() throws IOException {
+        HeaderFactory.from(header(4, 46, 10, 20));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnalignedHeaderSize() throws IOException {
+        HeaderFactory.from(header(14, 46, 10, 20));
+    }
+
+    @Test(expected = IOException.class)
+    public void testAllDataSizeSmallerThanHeader() throws IOException {
+        HeaderFactory.from(header(16, 12, 10, 20));
+    }
+
+    @Test(expected = IOException.class)
+    public void testItemSizesNotMatchAllDataSize() throws IOException {
+        HeaderFactory.from(header(16, 50, 10, 20));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNegativeItemSize() throws IOException {
+        HeaderFactory.from(header(16, 16, 10, -10));
+    }
+
+    @Test(expected = IOException.class)
+    public void testLargeHeaderNotMatchAllDataSize() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(20);
+        buf.putInt(20 | Header.LARGE).putLong(20 + 11).putLong(10);
+        buf.flip();
+        HeaderFactory.from(buf);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInconsistentHeaderFromStream() throws IOException {
+        HeaderFactory.from(new ByteArrayInputStream(header(16, 50, 10, 20).array()));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testHeaderFromChannel() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            try (SocketChannel out = SocketChannel.open(server.getLocalAddress());
+                    SocketChannel in = server.accept()) {
+                ByteBuffer frame = ByteBuffer.allocate(16 + 30 + 1);
+                frame.put(header(16, 46, 10, 20)).put(new byte[30]).put((byte) 7);
+                frame.flip();
+
+                // ヘッダが分割されて届いた場合は、読み取りが終わっていないヘッダが返される
+                frame.limit(6);
+                out.write(frame);
+                Header header = HeaderFactory.from(in);
+                assertThat(header.isReadFinished(), is(false));
+
+                frame.limit(frame.capacity());
+                out.write(frame);
+                header = header.read(in);
+                assertThat(header.isReadFinished(), is(true));
+                assertThat(header.size(), is(16));
+                assertThat(header.allDataSize(), is(46));
+                assertThat(header.dataSizeBuffer().get(1), is(20));
+
+                // ヘッダに続くデータは読み込まれずにチャネルに残る
+                ByteBuffer rest = ByteBuffer.allocate(31);
+                while (rest.hasRemaining()) {
+                    in.read(rest);
+                }
+                assertThat(rest.get(30), is((byte) 7));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    @SuppressWarnings("deprecation")
+    public void testInconsistentHeaderFromChannel() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            try (SocketChannel out = SocketChannel.open(server.getLocalAddress());
+                    SocketChannel in = server.accept()) {
+                out.write(header(16, 50, 10, 20));
+                Header header = HeaderFactory.from(in);
+                while (!header.isReadFinished()) {
+                    header = header.read(in);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package jp.gr.java_conf.falius.communication.test;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeoutException;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jp.gr.java_conf.falius.communication.core.SwapClient;
+import jp.gr.java_conf.falius.communication.core.socket.NonBlockingClient;
+import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
+import jp.gr.java_conf.falius.communication.senddata.BasicSendData;
+import jp.gr.java_conf.falius.communication.senddata.PackedSendData;
+import jp.gr.java_conf.falius.communication.test.helper.EchoServer;
+import jp.gr.java_conf.falius.communication.test.helper.LoginSchema;
+import jp.gr.java_conf.falius.communication.test.helper.LoginSchemaMessage;
+import jp.gr.java_conf.falius.communication.test.helper.ServerHelper;
+
+public class MessageSchemaProcessorTest {
+    private static Logger log = LoggerFactory.getLogger(MessageSchemaProcessorTest.class);
+    private static final String HOST = "localhost";
+    private static final ServerHelper mServer = new EchoServer();
+
+    @BeforeClass
+    public static void setupServer() throws IOException {
+        mServer.beforeClass();
+    }
+
+    @AfterClass
+    public static void shutdownServer() throws IOException {
+        mServer.afterClass();
+    }
+
+    @Test
+    public void testEncodeAndDecode() throws IOException, TimeoutException {
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        LoginSchemaMessage message = new LoginSchemaMessage(12, "token", 1234567890123L, true, new byte[] { 1, 2 });
+        ReceiveData rcv = client.send(LoginSchemaMessage.encode(message, new BasicSendData()));
+
+        assertThat(rcv.dataCount(), is(LoginSchemaMessage.ITEM_COUNT));
+        LoginSchema ret = LoginSchemaMessage.decode(rcv);
+        assertThat(ret.userId(), is(12));
+        assertThat(ret.token(), is("token"));
+        assertThat(ret.expires(), is(1234567890123L));
+        assertThat(ret.remember(), is(true));
+        assertThat(ret.signature(), is(new byte[] { 1, 2 }));
+    }
+
+    @Test
+    public void testEncodePacked() throws IOException, TimeoutException {
+        LoginSchemaMessage message = new LoginSchemaMessage(12, "トークン", 1234567890123L, true, new byte[] { 1, 2 });
+        PackedSendData data = LoginSchemaMessage.encode(message);
+
+        // 大きさを事前に求めて確保しているため、余分な領域はない
+        int dataSize = LoginSchemaMessage.FIXED_DATA_SIZE + "トークン".getBytes(StandardCharsets.UTF_8).length + 2;
+        ByteBuffer body = data.body();
+        assertThat(body.remaining(), is(dataSize));
+        assertThat(body.capacity(), is(PackedSendData.headerRoomFor(LoginSchemaMessage.ITEM_COUNT) + dataSize));
+        ByteBuffer header = ByteBuffer.allocate(LoginSchemaMessage.HEADER_SIZE);
+        assertThat(data.frame(header), is(notNullValue()));
+        data.releaseFrame();
+
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        LoginSchema ret = LoginSchemaMessage.decode(client.send(data));
+        assertThat(ret.userId(), is(12));
+        assertThat(ret.token(), is("トークン"));
+        assertThat(ret.expires(), is(1234567890123L));
+        assertThat(ret.remember(), is(true));
+        assertThat(ret.signature(), is(new byte[] { 1, 2 }));
+    }
+
+    @Test
+    public void testItemsInOrder() {
+        LoginSchemaMessage message = new LoginSchemaMessage(12, "token", 1234567890123L, false, new byte[] { 1 });
+        BasicSendData data = new BasicSendData();
+        LoginSchemaMessage.encode(message, data);
+
+        assertThat(data.size(), is(5));
+        assertThat(data.iterator().next().getInt(), is(12));
+    }
+
+    @Test
+    public void testConstants() {
+        assertThat(LoginSchemaMessage.ITEM_COUNT, is(5));
+        assertThat(LoginSchemaMessage.FIXED_DATA_SIZE, is(Integer.BYTES + Long.BYTES + Integer.BYTES));
+        assertThat(LoginSchemaMessage.IS_FIXED_SIZE, is(false));
+        assertThat(LoginSchemaMessage.HEADER_SIZE, is(Integer.BYTES * 7));
+    }
+
+    @Test
+    public void testUnsupportedTypeIsCompileError() throws IOException {
+        String source = "package sample;\n"
+                + "import jp.gr.java_conf.falius.communication.codec.ItemField;\n"
+                + "import jp.gr.java_conf.falius.communication.codec.MessageSchema;\n"
+                + "@MessageSchema\n"
+                + "public interface Broken {\n"
+                + "    @ItemField(1) Object value();\n"
+                + "}\n";
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///sample/Broken.java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        Path out = Files.createTempDirectory("schema");
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        boolean success = compiler.getTask(null, null, diagnostics,
+                Arrays.asList("-d", out.toString(), "-classpath", System.getProperty("java.class.path"),
+                        "-processor", "jp.gr.java_conf.falius.communication.codec.processor.MessageSchemaProcessor"),
+                null, Arrays.asList(file)).call();
+
+        assertThat(success, is(false));
+        assertThat(diagnostics.getDiagnostics().get(0).getMessage(null), containsString("unsupported item type"));
+    }
+}
@@ -4,6 +4,7 @@ import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -30,6 +31,7 @@ import jp.gr.java_conf.falius.communication.senddata.BasicSendData;
 import jp.gr.java_conf.falius.communication.senddata.SendData;
 import jp.gr.java_conf.falius.communication.swapper.OnceSwapper;
 import jp.gr.java_conf.falius.communication.test.helper.EchoServer;
+import jp.gr.java_conf.falius.communication.test.helper.QuoteFlyweight;
 import jp.gr.java_conf.falius.communication.test.helper.ServerHelper;
 import jp.gr.java_conf.falius.util.check.CheckList;
 import jp.gr.java_conf.falius.util.range.IntRange;
@@ -317,4 +319,31 @@ public class NonBlockingClientTest {
             });
         }
     }
+
+    @Test
+    public void testSendItemWithPosition() throws IOException, TimeoutException {
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        buf.putInt(-1).putInt(-2);
+        QuoteFlyweight quote = new QuoteFlyweight();
+        quote.wrap(buf, 8);
+        quote.instrumentId(3).price(1.5).quantity(100L).side((short) 1);
+        ByteBuffer item = quote.toSend();
+        assertThat(item.position(), is(8));
+
+        // positionからlimitまでがデータとして送信され、元のバッファのpositionは変わらない
+        for (int i : new IntRange(2)) {
+            SendData sendData = new BasicSendData();
+            sendData.put(item).put(7);
+            ReceiveData receiveData = client.send(sendData);
+            ByteBuffer rcv = receiveData.get();
+            assertThat(rcv.remaining(), is(QuoteFlyweight.ENCODED_LENGTH));
+            QuoteFlyweight echo = new QuoteFlyweight();
+            echo.wrap(rcv);
+            assertThat(echo.instrumentId(), is(3));
+            assertThat(echo.quantity(), is(100L));
+            assertThat(receiveData.getInt(), is(7));
+            assertThat(item.position(), is(8));
+        }
+    }
 }
@@ -0,0 +1,176 @@
+package jp.gr.java_conf.falius.communication.test;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import jp.gr.java_conf.falius.communication.core.Client;
+import jp.gr.java_conf.falius.communication.core.socket.NonBlockingMultiplexClient;
+import jp.gr.java_conf.falius.communication.core.socket.NonBlockingServer;
+import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
+import jp.gr.java_conf.falius.communication.senddata.BasicSendData;
+import jp.gr.java_conf.falius.communication.senddata.SendData;
+import jp.gr.java_conf.falius.communication.swapper.FixedRepeatSwapper;
+import jp.gr.java_conf.falius.communication.swapper.RepeatSwapper;
+import jp.gr.java_conf.falius.communication.swapper.Swapper;
+import jp.gr.java_conf.falius.communication.swapper.SwapperFactory;
+
+public class NonBlockingMultiplexClientTest {
+    private static final String HOST = "localhost";
+    private static final int PORT = 10100;
+    private static NonBlockingServer mServer;
+    private static ExecutorService mSwapExecutor;
+
+    @BeforeClass
+    public static void setupServer() throws IOException, InterruptedException {
+        mServer = new NonBlockingServer(PORT, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new RepeatSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) throws Exception {
+                        int value = receiveData.getInt();
+                        // 応答の順番が入れ替わるよう、値によって処理時間を変える
+                        Thread.sleep(value % 4 * 20);
+                        SendData sendData = new BasicSendData();
+                        sendData.put(value * 2);
+                        return sendData;
+                    }
+
+                };
+            }
+
+        });
+        mSwapExecutor = Executors.newFixedThreadPool(4);
+        mServer.setMultiplexed(true);
+        mServer.setSwapExecutor(mSwapExecutor);
+        mServer.startOnNewThread();
+        Thread.sleep(100);
+    }
+
+    @AfterClass
+    public static void shutdownServer() throws IOException {
+        mServer.close();
+        mSwapExecutor.shutdown();
+    }
+
+    @Test
+    public void testSendFromThreads() throws IOException, InterruptedException, ExecutionException {
+        int threadCount = 8;
+        int sendCount = 10;
+        AtomicInteger connectCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try (NonBlockingMultiplexClient client = new NonBlockingMultiplexClient(HOST, PORT, 5000L)) {
+            client.addOnConnectListener(new Client.OnConnectListener() {
+
+                @Override
+                public void onConnect(String remoteAddress) {
+                    connectCount.incrementAndGet();
+                }
+            });
+
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                int base = i * sendCount;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < sendCount; j++) {
+                        SendData sendData = new BasicSendData();
+                        sendData.put(base + j);
+                        ReceiveData receiveData = client.send(sendData);
+                        if (receiveData.getInt() != (base + j) * 2) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertThat(future.get(), is(true));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // すべてのスレッドでひとつの接続を共有している
+        assertThat(connectCount.get(), is(1));
+    }
+
+    @Test
+    public void testSendAsync() throws IOException, InterruptedException, ExecutionException {
+        int sendCount = 20;
+        try (NonBlockingMultiplexClient client = new NonBlockingMultiplexClient(HOST, PORT)) {
+            List<CompletableFuture<ReceiveData>> futures = new ArrayList<>();
+            for (int i = 0; i < sendCount; i++) {
+                SendData sendData = new BasicSendData();
+                sendData.put(i);
+                futures.add(client.sendAsync(sendData));
+            }
+            // 応答が届く順番に関わらず、送信に対応する応答が得られる
+            for (int i = 0; i < sendCount; i++) {
+                assertThat(futures.get(i).get().getInt(), is(i * 2));
+            }
+        }
+    }
+
+    @Test
+    public void testStart() throws IOException, TimeoutException {
+        int repeatLen = 5;
+        try (NonBlockingMultiplexClient client = new NonBlockingMultiplexClient(HOST, PORT)) {
+            ReceiveData result = client.start(new FixedRepeatSwapper(repeatLen) {
+
+                @Override
+                public SendData onSwap(String remoteAddress, ReceiveData receiveData) {
+                    SendData sendData = new BasicSendData();
+                    sendData.put(receiveData == null ? 1 : receiveData.getInt());
+                    return sendData;
+                }
+            });
+            assertThat(result.getInt(), is(1 << repeatLen));
+        }
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void testDisconnectWhileWaiting() throws IOException, InterruptedException, ExecutionException {
+        int port = PORT + 1;
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new RepeatSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) {
+                        // 送信データがnullであれば接続ごと切断される
+                        return null;
+                    }
+                };
+            }
+        })) {
+            server.setMultiplexed(true);
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            try (NonBlockingMultiplexClient client = new NonBlockingMultiplexClient(HOST, port)) {
+                SendData sendData = new BasicSendData();
+                sendData.put(0);
+                // 応答を待っている間に切断されると例外完了する
+                client.sendAsync(sendData).get();
+            }
+        }
+    }
+}
@@ -3,26 +3,52 @@ package jp.gr.java_conf.falius.communication.test;
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jp.gr.java_conf.falius.communication.buffer.PooledDirectBufferAllocator;
 import jp.gr.java_conf.falius.communication.core.Server;
 import jp.gr.java_conf.falius.communication.core.SwapClient;
 import jp.gr.java_conf.falius.communication.core.socket.NonBlockingClient;
 import jp.gr.java_conf.falius.communication.core.socket.NonBlockingServer;
+import jp.gr.java_conf.falius.communication.header.Header;
 import jp.gr.java_conf.falius.communication.listener.OnDisconnectCallback;
 import jp.gr.java_conf.falius.communication.listener.OnReceiveListener;
+import jp.gr.java_conf.falius.communication.listener.StreamingReceiveListener;
+import jp.gr.java_conf.falius.communication.rcvdata.ObjectReceiveData;
 import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
 import jp.gr.java_conf.falius.communication.senddata.BasicSendData;
+import jp.gr.java_conf.falius.communication.senddata.ObjectSendData;
 import jp.gr.java_conf.falius.communication.senddata.SendData;
+import jp.gr.java_conf.falius.communication.swapper.AsyncSwapper;
+import jp.gr.java_conf.falius.communication.swapper.AsyncSwapperFactory;
 import jp.gr.java_conf.falius.communication.swapper.FixedRepeatSwapper;
 import jp.gr.java_conf.falius.communication.swapper.OnceSwapper;
 import jp.gr.java_conf.falius.communication.swapper.RepeatSwapper;
@@ -261,6 +287,849 @@ public class NonBlockingServerTest {
         }
     }
 
+    @Test
+    public void testWorkers() throws IOException, InterruptedException, ExecutionException {
+        int port = 8996;
+        int clientCount = 20;
+        try (Server server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new OnceSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) {
+                        SendData sendData = new BasicSendData();
+                        sendData.put(receiveData.getInt() * 2);
+                        return sendData;
+                    }
+                };
+            }
+        }, 4)) {
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            ExecutorService executor = Executors.newFixedThreadPool(clientCount);
+            List<Future<ReceiveData>> futures = new ArrayList<>();
+            for (int i : new IntRange(clientCount)) {
+                futures.add(executor.submit(() -> {
+                    SwapClient client = new NonBlockingClient(HOST, port);
+                    SendData sendData = new BasicSendData();
+                    sendData.put(i);
+                    return client.send(sendData);
+                }));
+            }
+            for (int i : new IntRange(clientCount)) {
+                assertThat(futures.get(i).get().getInt(), is(i * 2));
+            }
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSwapExecutor() throws IOException, InterruptedException, ExecutionException {
+        // 時間のかかるswapの実行中も、他の接続先との送受信が行われることの確認
+        int port = 8995;
+        CountDownLatch latch = new CountDownLatch(1);
+        ExecutorService swapExecutor = Executors.newCachedThreadPool();
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new OnceSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) throws Exception {
+                        int rcv = receiveData.getInt();
+                        SendData sendData = new BasicSendData();
+                        if (rcv == 0) {
+                            sendData.put(latch.await(5, TimeUnit.SECONDS));
+                        } else {
+                            latch.countDown();
+                            sendData.put(true);
+                        }
+                        return sendData;
+                    }
+                };
+            }
+        })) {
+            server.setSwapExecutor(swapExecutor);
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            Future<ReceiveData> slow = executor.submit(() -> {
+                SendData sendData = new BasicSendData();
+                sendData.put(0);
+                return new NonBlockingClient(HOST, port).send(sendData);
+            });
+            Thread.sleep(100);
+            Future<ReceiveData> fast = executor.submit(() -> {
+                SendData sendData = new BasicSendData();
+                sendData.put(1);
+                return new NonBlockingClient(HOST, port).send(sendData);
+            });
+
+            assertThat(fast.get().getBoolean(), is(true));
+            assertThat(slow.get().getBoolean(), is(true));
+            executor.shutdown();
+        } finally {
+            swapExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsyncSwapper() throws IOException, TimeoutException, InterruptedException {
+        int port = 8994;
+        int repeatLen = 5;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (NonBlockingServer server = new NonBlockingServer(port, new AsyncSwapperFactory() {
+
+            @Override
+            public AsyncSwapper get() {
+                return new AsyncSwapper() {
+                    private int count = 0;
+
+                    @Override
+                    public CompletableFuture<SendData> swap(String remoteAddress, ReceiveData receiveData) {
+                        int rcv = receiveData.getInt();
+                        count++;
+                        return CompletableFuture.supplyAsync(() -> {
+                            SendData sendData = new BasicSendData();
+                            sendData.put(rcv + 1);
+                            return sendData;
+                        }, executor);
+                    }
+
+                    @Override
+                    public boolean doContinue() {
+                        return count < repeatLen;
+                    }
+                };
+            }
+        })) {
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            NonBlockingClient client = new NonBlockingClient(HOST, port);
+            ReceiveData result = client.start(new AsyncSwapper() {
+                private int count = 0;
+
+                @Override
+                public CompletableFuture<SendData> swap(String remoteAddress, ReceiveData receiveData) {
+                    SendData sendData = new BasicSendData();
+                    sendData.put(receiveData == null ? 0 : receiveData.getInt() + 1);
+                    count++;
+                    return CompletableFuture.completedFuture(sendData);
+                }
+
+                @Override
+                public boolean doContinue() {
+                    return count < repeatLen;
+                }
+            });
+
+            assertThat(result.getInt(), is(repeatLen * 2 - 1));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsyncSwapperCompletedByOtherThread() throws IOException, TimeoutException, InterruptedException {
+        int port = 8978;
+        int repeatLen = 5;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new RepeatSwapper() {
+                    private int count = 0;
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) {
+                        SendData sendData = new BasicSendData();
+                        sendData.put(receiveData.getInt() + 1);
+                        count++;
+                        if (count == repeatLen) {
+                            finish();
+                        }
+                        return sendData;
+                    }
+                };
+            }
+        })) {
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            // Futureの完了によるwakeupを、タイムアウトと取り違えないこと
+            NonBlockingClient client = new NonBlockingClient(HOST, port, 2000);
+            ReceiveData result = client.start(new AsyncSwapper() {
+                private int count = 0;
+
+                @Override
+                public CompletableFuture<SendData> swap(String remoteAddress, ReceiveData receiveData) {
+                    int value = receiveData == null ? 0 : receiveData.getInt() + 1;
+                    count++;
+                    return CompletableFuture.supplyAsync(() -> {
+                        try {
+                            Thread.sleep(50);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        SendData sendData = new BasicSendData();
+                        sendData.put(value);
+                        return sendData;
+                    }, executor);
+                }
+
+                @Override
+                public boolean doContinue() {
+                    return count < repeatLen;
+                }
+            });
+
+            assertThat(result.getInt(), is(repeatLen * 2 - 1));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFullDuplex() throws IOException, TimeoutException, InterruptedException {
+        int port = 8993;
+        int repeatLen = 10;
+        ExecutorService swapExecutor = Executors.newSingleThreadExecutor();
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new FixedRepeatSwapper(repeatLen) {
+
+                    @Override
+                    public SendData onSwap(String remoteAddress, ReceiveData receiveData) {
+                        SendData sendData = new BasicSendData();
+                        sendData.put(receiveData.getInt() + 1);
+                        return sendData;
+                    }
+                };
+            }
+        })) {
+            server.setFullDuplex(true);
+            server.setSwapExecutor(swapExecutor);
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            // 全二重のクライアント、通常のクライアントのどちらとも送受信できることの確認
+            for (boolean isFullDuplex : new boolean[] { true, false }) {
+                NonBlockingClient client = new NonBlockingClient(HOST, port);
+                client.setFullDuplex(isFullDuplex);
+                ReceiveData result = client.start(new FixedRepeatSwapper(repeatLen) {
+
+                    @Override
+                    public SendData onSwap(String remoteAddress, ReceiveData receiveData) {
+                        SendData sendData = new BasicSendData();
+                        sendData.put(receiveData == null ? 0 : receiveData.getInt() + 1);
+                        return sendData;
+                    }
+                });
+                assertThat(result.getInt(), is(repeatLen * 2 - 1));
+            }
+        } finally {
+            swapExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDuplexBackpressure() throws IOException, InterruptedException, ExecutionException {
+        assertBackpressure(8977, false);
+    }
+
+    @Test
+    public void testMultiplexBackpressure() throws IOException, InterruptedException, ExecutionException {
+        assertBackpressure(8976, true);
+    }
+
+    /**
+     * 応答を読み取らずに要求を送り続けるクライアントに対して、サーバーが読み込みを止めることを確かめます。
+     * 応答を読み取り始めると、サーバーは読み込みを再開してすべての要求に応答します。
+     */
+    private void assertBackpressure(int port, boolean isMultiplexed)
+            throws IOException, InterruptedException, ExecutionException {
+        int itemSize = 1024;
+        int requestCount = 16 * 1024;
+        AtomicInteger swapCount = new AtomicInteger();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new RepeatSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) {
+                        swapCount.incrementAndGet();
+                        SendData sendData = new BasicSendData();
+                        sendData.put(receiveData.get());
+                        return sendData;
+                    }
+                };
+            }
+        }); Socket socket = new Socket()) {
+            server.setFullDuplex(true);
+            server.setMultiplexed(isMultiplexed);
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            // クライアント側で受け取れる応答の量を小さくしておく
+            socket.setReceiveBufferSize(64 * 1024);
+            socket.connect(new InetSocketAddress(HOST, port));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            Future<?> writing = executor.submit(() -> {
+                byte[] item = new byte[itemSize];
+                for (int i = 0; i < requestCount; i++) {
+                    if (isMultiplexed) {
+                        out.writeInt(1);
+                    }
+                    out.writeInt(12);
+                    out.writeInt(12 + itemSize);
+                    out.writeInt(itemSize);
+                    out.write(item);
+                }
+                out.flush();
+                return null;
+            });
+
+            // 応答を読み取らない間は、送信キューが溢れないようにサーバーが読み込みを止めている
+            int last = -1;
+            long deadline = System.currentTimeMillis() + 30000;
+            while (swapCount.get() != last && swapCount.get() < requestCount
+                    && System.currentTimeMillis() < deadline) {
+                last = swapCount.get();
+                Thread.sleep(1000);
+            }
+            assertThat(swapCount.get(), is(lessThan(requestCount)));
+            assertThat(writing.isDone(), is(false));
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            for (int i = 0; i < requestCount; i++) {
+                if (isMultiplexed) {
+                    assertThat(in.readInt(), is(1));
+                }
+                assertThat(in.readInt(), is(12));
+                assertThat(in.readInt(), is(12 + itemSize));
+                assertThat(in.readInt(), is(itemSize));
+                in.readFully(new byte[itemSize]);
+            }
+            writing.get();
+            assertThat(swapCount.get(), is(requestCount));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPipeline() throws IOException, TimeoutException, InterruptedException {
+        int port = 8989;
+        int repeatLen = 50;
+        for (boolean isFullDuplexServer : new boolean[] { false, true }) {
+            port++; // 直前のサーバーの終了を待たずに済むよう、ポートを変える
+            try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+                @Override
+                public Swapper get() {
+                    return new FixedRepeatSwapper(repeatLen) {
+
+                        @Override
+                        public SendData onSwap(String remoteAddress, ReceiveData receiveData) {
+                            SendData sendData = new BasicSendData();
+                            sendData.put(receiveData.getInt() * 10);
+                            return sendData;
+                        }
+                    };
+                }
+            })) {
+                server.setFullDuplex(isFullDuplexServer);
+                server.startOnNewThread();
+                Thread.sleep(100);
+
+                // 応答は送信した順番で届く
+                List<Integer> responses = new ArrayList<>();
+                NonBlockingClient client = new NonBlockingClient(HOST, port);
+                client.setPipelineDepth(8);
+                client.start(new FixedRepeatSwapper(repeatLen) {
+                    private int mNext = 0;
+
+                    @Override
+                    public SendData onSwap(String remoteAddress, ReceiveData receiveData) {
+                        if (receiveData != null) {
+                            responses.add(receiveData.getInt());
+                        }
+                        SendData sendData = new BasicSendData();
+                        sendData.put(mNext++);
+                        return sendData;
+                    }
+                });
+                // 最後の8個の応答はswapメソッドに渡されない
+                assertThat(responses.size(), is(repeatLen - 8));
+                for (int i = 0; i < responses.size(); i++) {
+                    assertThat(responses.get(i), is(i * 10));
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalPipelineDepth() {
+        new NonBlockingClient(HOST, PORT).setPipelineDepth(0);
+    }
+
+    @Test
+    public void testPooledBufferAllocator() throws IOException, TimeoutException, InterruptedException,
+            ClassNotFoundException {
+        int port = 8988;
+        PooledDirectBufferAllocator allocator = new PooledDirectBufferAllocator();
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new OnceSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) throws Exception {
+                        ObjectReceiveData ord = new ObjectReceiveData(receiveData);
+                        String str = ord.getString();
+                        Object obj = ord.getObject();
+                        ObjectSendData sendData = new ObjectSendData(new BasicSendData());
+                        sendData.put(str + obj);
+                        sendData.put(receiveData.getInt() * 2);
+                        sendData.putObject(new ArrayList<>(Arrays.asList(str, obj)));
+                        return sendData;
+                    }
+                };
+            }
+        })) {
+            server.setBufferAllocator(allocator);
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            NonBlockingClient client = new NonBlockingClient(HOST, port);
+            client.setBufferAllocator(allocator);
+            ObjectSendData sendData = new ObjectSendData(new BasicSendData());
+            sendData.put("pooled");
+            sendData.putObject("object");
+            sendData.put(21);
+            ObjectReceiveData result = new ObjectReceiveData(client.send(sendData));
+            assertThat(result.getString(), is("pooledobject"));
+            assertThat(result.getInt(), is(42));
+            assertThat(result.getObject(), is(Arrays.asList("pooled", "object")));
+            // 消費した受信データのバッファと送信を終えたバッファはプールに返却されている
+            assertThat(allocator.pooledCount(64), is(greaterThan(0)));
+        }
+    }
+
+    @Test
+    public void testLargeData() throws IOException, TimeoutException, InterruptedException {
+        int port = 8987;
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new OnceSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) throws Exception {
+                        SendData sendData = new BasicSendData();
+                        sendData.put(receiveData.getAll());
+                        return sendData;
+                    }
+                };
+            }
+        })) {
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            // 一度の書き込みでは送りきれないサイズのデータを複数格納する
+            int size = 8 * 1024 * 1024;
+            byte[][] items = new byte[3][size];
+            for (int i = 0; i < items.length; i++) {
+                Arrays.fill(items[i], (byte) (i + 1));
+            }
+            SendData sendData = new BasicSendData();
+            for (byte[] item : items) {
+                sendData.put(item);
+            }
+
+            NonBlockingClient client = new NonBlockingClient(HOST, port, 10000);
+            ReceiveData result = client.send(sendData);
+            assertThat(result.dataCount(), is(items.length));
+            for (byte[] item : items) {
+                ByteBuffer buf = result.get();
+                byte[] bytes = new byte[buf.remaining()];
+                buf.get(bytes);
+                assertThat(Arrays.equals(bytes, item), is(true));
+            }
+        }
+    }
+
+    @Test
+    public void testChunkedData() throws IOException, TimeoutException, InterruptedException {
+        int port = 8986;
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new OnceSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) throws Exception {
+                        String str = receiveData.getString();
+                        ByteBuffer buf = receiveData.get();
+                        byte[] bytes = new byte[buf.remaining()];
+                        buf.get(bytes);
+                        SendData sendData = new BasicSendData();
+                        sendData.put(str);
+                        sendData.putChunked(new ByteArrayInputStream(bytes));
+                        sendData.put(receiveData.getInt());
+                        return sendData;
+                    }
+                };
+            }
+        })) {
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            // サイズを事前に決めずに、ストリームの終端まで送信する
+            byte[] item = new byte[3 * 1024 * 1024 + 5];
+            for (int i = 0; i < item.length; i++) {
+                item[i] = (byte) i;
+            }
+            AtomicBoolean isClosed = new AtomicBoolean(false);
+            SendData sendData = new BasicSendData();
+            sendData.put("chunked");
+            sendData.putChunked(new ByteArrayInputStream(item) {
+
+                @Override
+                public void close() throws IOException {
+                    isClosed.set(true);
+                    super.close();
+                }
+            });
+            sendData.put(7);
+
+            NonBlockingClient client = new NonBlockingClient(HOST, port, 10000);
+            ReceiveData result = client.send(sendData);
+            assertThat(result.dataCount(), is(3));
+            assertThat(result.getString(), is("chunked"));
+            ByteBuffer buf = result.get();
+            byte[] bytes = new byte[buf.remaining()];
+            buf.get(bytes);
+            assertThat(Arrays.equals(bytes, item), is(true));
+            assertThat(result.getInt(), is(7));
+            assertThat(isClosed.get(), is(true));
+        }
+    }
+
+    @Test
+    public void testAbortChunkedData() throws IOException, InterruptedException {
+        int port = 8975;
+        CountDownLatch closed = new CountDownLatch(1);
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new OnceSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) throws Exception {
+                        // 終端のないストリームは、相手が切断するまで送信を終えない
+                        SendData sendData = new BasicSendData();
+                        sendData.putChunked(new InputStream() {
+
+                            @Override
+                            public int read() {
+                                return 0;
+                            }
+
+                            @Override
+                            public int read(byte[] b, int off, int len) {
+                                return len;
+                            }
+
+                            @Override
+                            public void close() {
+                                closed.countDown();
+                            }
+                        });
+                        return sendData;
+                    }
+                };
+            }
+        })) {
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            try (Socket socket = new Socket(HOST, port)) {
+                DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+                dos.writeInt(12);
+                dos.writeInt(12 + 4);
+                dos.writeInt(4);
+                dos.writeInt(1);
+                dos.flush();
+
+                DataInputStream dis = new DataInputStream(socket.getInputStream());
+                dis.readFully(new byte[64 * 1024]);
+                // 送信の途中で切断する
+                socket.setSoLinger(true, 0);
+            }
+
+            assertThat(closed.await(5, TimeUnit.SECONDS), is(true));
+        }
+    }
+
+    @Test
+    public void testStreamingReceiveListener() throws IOException, TimeoutException, InterruptedException {
+        int port = 8985;
+        int size = 2 * 1024 * 1024;
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        long[] chunkBytes = new long[3];
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new OnceSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) throws Exception {
+                        events.add("swap");
+                        SendData sendData = new BasicSendData();
+                        sendData.put(receiveData.dataCount());
+                        return sendData;
+                    }
+                };
+            }
+        })) {
+            server.addStreamingReceiveListener(new StreamingReceiveListener() {
+
+                @Override
+                public void onItem(String remoteAddress, int index, ByteBuffer item) {
+                    events.add("item" + index + ":" + item.remaining());
+                }
+
+                @Override
+                public void onChunk(String remoteAddress, int index, ByteBuffer chunk) {
+                    chunkBytes[index] += chunk.remaining();
+                }
+            });
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            SendData sendData = new BasicSendData();
+            sendData.put("first");
+            sendData.put(new byte[size]);
+            sendData.put(3);
+
+            NonBlockingClient client = new NonBlockingClient(HOST, port, 10000);
+            ReceiveData result = client.send(sendData);
+            assertThat(result.getInt(), is(3));
+            // 受信単位のすべてを読み取り終える前に、各データが順に渡されている
+            assertThat(events, is(Arrays.asList("item0:5", "item1:" + size, "item2:4", "swap")));
+            assertThat(chunkBytes[0], is(5L));
+            assertThat(chunkBytes[1], is((long) size));
+            assertThat(chunkBytes[2], is(4L));
+        }
+    }
+
+    @Test
+    public void testSpillThreshold() throws IOException, TimeoutException, InterruptedException {
+        int port = 8984;
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new OnceSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) throws Exception {
+                        // 一時ファイルに退避されたデータは、読み取り専用のバッファとして格納されている
+                        SendData sendData = new BasicSendData();
+                        sendData.put(receiveData.getString());
+                        ByteBuffer buf = receiveData.get();
+                        sendData.put(buf.isReadOnly());
+                        sendData.put(buf);
+                        return sendData;
+                    }
+                };
+            }
+        })) {
+            server.setSpillThreshold(1024, null);
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            byte[] item = new byte[3 * 1024 * 1024];
+            for (int i = 0; i < item.length; i++) {
+                item[i] = (byte) (i * 7);
+            }
+            SendData sendData = new BasicSendData();
+            sendData.put("small");
+            sendData.put(item);
+
+            NonBlockingClient client = new NonBlockingClient(HOST, port, 10000);
+            ReceiveData result = client.send(sendData);
+            assertThat(result.getString(), is("small"));
+            assertThat(result.getBoolean(), is(true));
+            ByteBuffer buf = result.get();
+            byte[] bytes = new byte[buf.remaining()];
+            buf.get(bytes);
+            assertThat(Arrays.equals(bytes, item), is(true));
+        }
+    }
+
+    @Test
+    public void testMaxFrameSize() throws IOException, TimeoutException, InterruptedException {
+        int port = 8983;
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new OnceSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) throws Exception {
+                        SendData sendData = new BasicSendData();
+                        sendData.put(receiveData.get().remaining());
+                        return sendData;
+                    }
+                };
+            }
+        })) {
+            server.setMaxFrameSize(1024);
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            // 上限を超える受信単位を送信すると、応答を得られずに切断される
+            SendData tooLarge = new BasicSendData();
+            tooLarge.put(new byte[4096]);
+            NonBlockingClient client = new NonBlockingClient(HOST, port, 10000);
+            ReceiveData result = client.send(tooLarge);
+            assertThat(result, is(nullValue()));
+
+            // 上限以下であれば受信できる
+            SendData small = new BasicSendData();
+            small.put(new byte[512]);
+            result = new NonBlockingClient(HOST, port, 10000).send(small);
+            assertThat(result.getInt(), is(512));
+        }
+    }
+
+    @Test
+    public void testLargeHeaderFrame() throws IOException, InterruptedException {
+        int port = 8982;
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new OnceSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) throws Exception {
+                        SendData sendData = new BasicSendData();
+                        sendData.put(receiveData.getString() + receiveData.getInt());
+                        return sendData;
+                    }
+                };
+            }
+        })) {
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            // サイズを８バイトで表す形式のヘッダーは、小さな受信単位でも読み取れる
+            byte[] str = "large".getBytes(StandardCharsets.UTF_8);
+            int headerSize = 4 + 8 + 2 * 8;
+            try (Socket socket = new Socket(HOST, port)) {
+                DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+                dos.writeInt(headerSize | Header.LARGE);
+                dos.writeLong(headerSize + str.length + 4);
+                dos.writeLong(str.length);
+                dos.writeLong(4);
+                dos.write(str);
+                dos.writeInt(64);
+                dos.flush();
+
+                // 応答は通常の形式のヘッダーで返される
+                DataInputStream dis = new DataInputStream(socket.getInputStream());
+                assertThat(dis.readInt(), is(12));
+                assertThat(dis.readInt(), is(12 + 7));
+                assertThat(dis.readInt(), is(7));
+                byte[] result = new byte[7];
+                dis.readFully(result);
+                assertThat(new String(result, StandardCharsets.UTF_8), is("large64"));
+            }
+        }
+    }
+
+    @Test
+    public void testCompactHeader() throws IOException, TimeoutException, InterruptedException {
+        int port = 8981;
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new OnceSwapper() {
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) throws Exception {
+                        int sum = 0;
+                        while (receiveData.dataCount() > 1) {
+                            sum += receiveData.getInt();
+                        }
+                        ByteBuffer buf = receiveData.get();
+                        byte[] bytes = new byte[buf.remaining()];
+                        buf.get(bytes);
+                        SendData sendData = new BasicSendData();
+                        sendData.put(sum);
+                        sendData.putChunked(new ByteArrayInputStream(bytes));
+                        return sendData;
+                    }
+                };
+            }
+        })) {
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            byte[] item = new byte[100000];
+            Arrays.fill(item, (byte) 3);
+            for (boolean isCompact : new boolean[] { true, false }) {
+                // 同じサーバーに、ハンドシェイクを行う接続と行わない接続が混在できる
+                SendData sendData = new BasicSendData();
+                for (int i = 1; i <= 5; i++) {
+                    sendData.put(i);
+                }
+                sendData.put(item);
+                NonBlockingClient client = new NonBlockingClient(HOST, port, 10000);
+                client.setCompactHeader(isCompact);
+                ReceiveData result = client.send(sendData);
+                assertThat(result.getInt(), is(15));
+                ByteBuffer buf = result.get();
+                byte[] bytes = new byte[buf.remaining()];
+                buf.get(bytes);
+                assertThat(Arrays.equals(bytes, item), is(true));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalWorkerCount() {
+        new NonBlockingServer(PORT, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return null;
+            }
+        }, 0);
+    }
+
     // @Test(expected = ExecutionException.class)
     public void testStartAfterShutdown() throws IOException, InterruptedException, ExecutionException {
         // shutdownメソッドが呼ばれたら再度startOnNewThradできないことの確認
@@ -3,6 +3,7 @@ package jp.gr.java_conf.falius.communication.test;
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.concurrent.TimeoutException;
 
@@ -18,9 +19,11 @@ import jp.gr.java_conf.falius.communication.rcvdata.ObjectReceiveData;
 import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
 import jp.gr.java_conf.falius.communication.senddata.BasicSendData;
 import jp.gr.java_conf.falius.communication.senddata.ObjectSendData;
+import jp.gr.java_conf.falius.communication.senddata.ObjectStreamContext;
 import jp.gr.java_conf.falius.communication.test.helper.EchoServer;
 import jp.gr.java_conf.falius.communication.test.helper.SerializableTest;
 import jp.gr.java_conf.falius.communication.test.helper.ServerHelper;
+import jp.gr.java_conf.falius.util.range.IntRange;
 
 public class ObjectSendDataTest {
     private static Logger log = LoggerFactory.getLogger(ObjectSendDataTest.class);
@@ -52,4 +55,54 @@ public class ObjectSendDataTest {
         assertThat(obj, is(not(sameInstance(data))));
     }
 
+    @Test
+    public void testPutAndGetObjectWithContext() throws IOException, TimeoutException, ClassNotFoundException {
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        // エコーサーバーなので、送信と受信で同じコンテキストを使う
+        ObjectStreamContext context = new ObjectStreamContext();
+        for (int i : new IntRange(3)) {
+            SerializableTest data = new SerializableTest("test sample" + i, 25 + i, SerializableTest.Sex.FEMALE);
+            ObjectSendData sendData = new ObjectSendData(new BasicSendData(), context);
+            sendData.putObject(data);
+            ReceiveData rcv = client.send(sendData);
+            Object obj = new ObjectReceiveData(rcv, context).getObject();
+
+            assertThat(obj, is(instanceOf(SerializableTest.class)));
+            assertThat(obj.toString(), is(data.toString()));
+        }
+    }
+
+    @Test
+    public void testContextSendsDescriptorOnce() throws IOException, ClassNotFoundException {
+        ObjectStreamContext context = new ObjectStreamContext();
+        SerializableTest data = new SerializableTest("test sample", 25, SerializableTest.Sex.MALE);
+        byte[] first = context.writeObject(data);
+        byte[] second = context.writeObject(data);
+
+        assertThat(second.length, is(lessThan(first.length)));
+
+        ObjectStreamContext receiver = new ObjectStreamContext();
+        assertThat(receiver.readObject(new ByteArrayInputStream(first)).toString(), is(data.toString()));
+        assertThat(receiver.readObject(new ByteArrayInputStream(second)).toString(), is(data.toString()));
+    }
+
+    @Test
+    public void testContextWithRegisteredClass() throws IOException, ClassNotFoundException {
+        ObjectStreamContext sender = new ObjectStreamContext()
+                .register(SerializableTest.class).register(SerializableTest.Sex.class);
+        ObjectStreamContext receiver = new ObjectStreamContext()
+                .register(SerializableTest.class).register(SerializableTest.Sex.class);
+        SerializableTest data = new SerializableTest("test sample", 25, SerializableTest.Sex.MALE);
+        byte[] bytes = sender.writeObject(data);
+
+        assertThat(receiver.readObject(new ByteArrayInputStream(bytes)).toString(), is(data.toString()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRegisterAfterUse() throws IOException {
+        ObjectStreamContext context = new ObjectStreamContext();
+        context.writeObject("data");
+        context.register(SerializableTest.class);
+    }
+
 }
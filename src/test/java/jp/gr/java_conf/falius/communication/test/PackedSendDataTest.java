@@ -0,0 +1,199 @@
+package jp.gr.java_conf.falius.communication.test;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jp.gr.java_conf.falius.communication.core.SwapClient;
+import jp.gr.java_conf.falius.communication.core.socket.NonBlockingClient;
+import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
+import jp.gr.java_conf.falius.communication.senddata.PackedSendData;
+import jp.gr.java_conf.falius.communication.test.helper.EchoServer;
+import jp.gr.java_conf.falius.communication.test.helper.ServerHelper;
+import jp.gr.java_conf.falius.util.range.IntRange;
+
+public class PackedSendDataTest {
+    private static Logger log = LoggerFactory.getLogger(PackedSendDataTest.class);
+    private static final String HOST = "localhost";
+    private static final ServerHelper mServer = new EchoServer();
+
+    @BeforeClass
+    public static void setupServer() throws IOException {
+        mServer.beforeClass();
+    }
+
+    @AfterClass
+    public static void shutdownServer() throws IOException {
+        mServer.afterClass();
+    }
+
+    @Test
+    public void testSendManyFields() throws IOException, TimeoutException {
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        PackedSendData data = new PackedSendData();
+        for (int i : new IntRange(10)) {
+            data.put(i).put("field" + i).put(i * 1.5);
+        }
+        ReceiveData rcv = client.send(data);
+
+        assertThat(rcv.dataCount(), is(30));
+        for (int i : new IntRange(10)) {
+            assertThat(rcv.getInt(), is(i));
+            assertThat(rcv.getString(), is("field" + i));
+            assertThat(rcv.getDouble(), is(i * 1.5));
+        }
+    }
+
+    @Test
+    public void testFrameManyFields() {
+        PackedSendData data = new PackedSendData();
+        for (int i : new IntRange(30)) {
+            data.put(i);
+        }
+
+        // 通常の形式のヘッダーとストリームIDも、データの直前の領域に収まる
+        ByteBuffer header = ByteBuffer.allocate(4 + 4 + 4 * 30 + 4);
+        ByteBuffer frame = data.frame(header);
+        assertThat(frame, is(notNullValue()));
+        assertThat(frame.remaining(), is(header.capacity() + 4 * 30));
+        frame.position(frame.position() + header.capacity());
+        for (int i : new IntRange(30)) {
+            assertThat(frame.getInt(), is(i));
+        }
+        data.releaseFrame();
+    }
+
+    @Test
+    public void testSendWithoutHeaderRoom() throws IOException, TimeoutException {
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        PackedSendData data = new PackedSendData(64, 0, true);
+        data.put(1).put(2L).put(true).put(new ByteArrayInputStream(new byte[] { 3, 4, 5 }));
+
+        // データを追加した時点で、ヘッダーのための領域が確保される
+        ByteBuffer frame = data.frame(ByteBuffer.allocate(4 + 4 + 4 * 4));
+        assertThat(frame, is(notNullValue()));
+        data.releaseFrame();
+        ReceiveData rcv = client.send(data);
+        assertThat(rcv.getInt(), is(1));
+        assertThat(rcv.getLong(), is(2L));
+        assertThat(rcv.getBoolean(), is(true));
+        assertThat(rcv.get().remaining(), is(3));
+    }
+
+    @Test
+    public void testResendAndClear() throws IOException, TimeoutException {
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        PackedSendData data = new PackedSendData();
+        data.put("first");
+        assertThat(client.send(data).getString(), is("first"));
+        assertThat(client.send(data).getString(), is("first"));
+
+        data.clear();
+        data.put("second");
+        ReceiveData rcv = client.send(data);
+        assertThat(rcv.dataCount(), is(1));
+        assertThat(rcv.getString(), is("second"));
+    }
+
+    @Test
+    public void testSendWhileFrameInUse() throws IOException, TimeoutException {
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        PackedSendData data = new PackedSendData();
+        data.put("in use").put(3);
+
+        // 他の送信がヘッダーを書き込んだバッファを使っている間は、内部のバッファに書き込まずに送信する
+        ByteBuffer header = ByteBuffer.allocate(4 + 4 + 4 * 2);
+        ByteBuffer frame = data.frame(header);
+        assertThat(frame, is(notNullValue()));
+        byte[] before = new byte[frame.remaining()];
+        frame.duplicate().get(before);
+        assertThat(data.frame(header), is(nullValue()));
+
+        ReceiveData rcv = client.send(data);
+        assertThat(rcv.getString(), is("in use"));
+        assertThat(rcv.getInt(), is(3));
+        byte[] after = new byte[frame.remaining()];
+        frame.duplicate().get(after);
+        assertThat(Arrays.equals(after, before), is(true));
+        assertThat(data.frame(header), is(nullValue()));
+
+        data.releaseFrame();
+        assertThat(data.frame(header), is(notNullValue()));
+        data.releaseFrame();
+        assertThat(client.send(data).getString(), is("in use"));
+    }
+
+    @Test
+    public void testItemBoundaries() {
+        PackedSendData data = new PackedSendData(4, 8, false);
+        ByteBuffer src = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+        data.put(7).put(src).put(8L);
+
+        assertThat(src.position(), is(0));
+        assertThat(data.size(), is(3));
+        assertThat(data.itemSize(0), is(4));
+        assertThat(data.itemSize(1), is(3));
+        assertThat(data.itemSize(2), is(8));
+        assertThat(data.body().remaining(), is(15));
+        int i = 0;
+        for (ByteBuffer item : data) {
+            assertThat(item.remaining(), is(data.itemSize(i++)));
+        }
+    }
+
+    @Test
+    public void testPutFailingStream() throws IOException {
+        PackedSendData data = new PackedSendData(16, 8, false);
+        data.put(1);
+        InputStream failing = new InputStream() {
+            private boolean mIsRead = false;
+
+            @Override
+            public int read() throws IOException {
+                throw new IOException("read error");
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                // バッファを確保し直すだけ読み込んでから失敗する
+                if (mIsRead) {
+                    throw new IOException("read error");
+                }
+                mIsRead = true;
+                Arrays.fill(b, off, off + 100, (byte) 9);
+                return 100;
+            }
+        };
+        try {
+            data.put(failing);
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("read error"));
+        }
+
+        // 読み込みかけたデータは残らない
+        data.put(2);
+        assertThat(data.size(), is(2));
+        assertThat(data.itemSize(1), is(4));
+        assertThat(data.body().remaining(), is(8));
+        ByteBuffer body = data.body();
+        assertThat(body.getInt(), is(1));
+        assertThat(body.getInt(), is(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutEmpty() {
+        new PackedSendData().put(new byte[0]);
+    }
+}
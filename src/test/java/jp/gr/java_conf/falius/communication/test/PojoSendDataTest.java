@@ -0,0 +1,146 @@
+package jp.gr.java_conf.falius.communication.test;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jp.gr.java_conf.falius.communication.codec.ItemField;
+import jp.gr.java_conf.falius.communication.codec.PojoCodec;
+import jp.gr.java_conf.falius.communication.core.SwapClient;
+import jp.gr.java_conf.falius.communication.core.socket.NonBlockingClient;
+import jp.gr.java_conf.falius.communication.rcvdata.PojoReceiveData;
+import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
+import jp.gr.java_conf.falius.communication.senddata.BasicSendData;
+import jp.gr.java_conf.falius.communication.senddata.PojoSendData;
+import jp.gr.java_conf.falius.communication.test.helper.EchoServer;
+import jp.gr.java_conf.falius.communication.test.helper.PojoTest;
+import jp.gr.java_conf.falius.communication.test.helper.ServerHelper;
+
+public class PojoSendDataTest {
+    private static Logger log = LoggerFactory.getLogger(PojoSendDataTest.class);
+    private static final String HOST = "localhost";
+    private static final ServerHelper mServer = new EchoServer();
+
+    @BeforeClass
+    public static void setupServer() throws IOException {
+        mServer.beforeClass();
+    }
+
+    @AfterClass
+    public static void shutdownServer() throws IOException {
+        mServer.afterClass();
+    }
+
+    @Test
+    public void testPutAndGetPojo() throws IOException, TimeoutException {
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        PojoTest data = new PojoTest(12, "test sample", 0.75, 1234567890123L, true, 2.5f, new byte[] { 1, 2, 3 });
+        data.setNotSent(99);
+        PojoSendData sendData = new PojoSendData(new BasicSendData());
+        sendData.putPojo(data);
+        ReceiveData rcv = client.send(sendData);
+        PojoTest ret = new PojoReceiveData(rcv).getPojo(PojoTest.class);
+
+        assertThat(ret.getId(), is(data.getId()));
+        assertThat(ret.getName(), is(data.getName()));
+        assertThat(ret.getScore(), is(data.getScore()));
+        assertThat(ret.getTime(), is(data.getTime()));
+        assertThat(ret.isActive(), is(data.isActive()));
+        assertThat(ret.getRate(), is(data.getRate()));
+        assertThat(ret.getPayload(), is(data.getPayload()));
+        assertThat(ret.getNotSent(), is(0));
+        assertThat(rcv.get(), is(nullValue()));
+    }
+
+    @Test
+    public void testPojoItemsInOrder() throws IOException, TimeoutException {
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+        PojoTest data = new PojoTest(12, "test sample", 0.75, 1234567890123L, false, 2.5f, new byte[] { 1 });
+        PojoSendData sendData = new PojoSendData(new BasicSendData());
+        sendData.putPojo(data).put("after");
+        ReceiveData rcv = client.send(sendData);
+
+        assertThat(rcv.dataCount(), is(PojoCodec.of(PojoTest.class).itemCount() + 1));
+        assertThat(rcv.getInt(), is(12));
+        assertThat(rcv.getString(), is("test sample"));
+        PojoReceiveData pojoRcv = new PojoReceiveData(rcv);
+        assertThat(pojoRcv.getDouble(), is(0.75));
+        assertThat(pojoRcv.getLong(), is(1234567890123L));
+        assertThat(pojoRcv.getBoolean(), is(false));
+        assertThat(pojoRcv.getFloat(), is(2.5f));
+        assertThat(pojoRcv.get().remaining(), is(1));
+        assertThat(pojoRcv.getString(), is("after"));
+    }
+
+    @Test
+    public void testCodecIsCached() {
+        assertThat(PojoCodec.of(PojoTest.class), is(sameInstance(PojoCodec.of(PojoTest.class))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoAnnotatedField() {
+        PojoCodec.of(String.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateOrder() {
+        PojoCodec.of(DuplicateOrder.class);
+    }
+
+    @Test
+    public void testEncodeNullField() {
+        // 後ろのフィールドがnullでも、前のフィールドだけが追加された送信データは残らない
+        NullableFields obj = new NullableFields();
+        obj.mId = 1;
+        obj.mName = "name";
+        BasicSendData dst = new BasicSendData();
+        try {
+            PojoCodec.of(NullableFields.class).encode(obj, dst);
+        } catch (NullPointerException e) {
+            assertThat(e.getMessage(), containsString("mBytes"));
+        }
+        assertThat(dst.size(), is(0));
+
+        obj.mBytes = new byte[] { 1 };
+        PojoCodec.of(NullableFields.class).encode(obj, dst);
+        assertThat(dst.size(), is(3));
+    }
+
+    @Test
+    public void testEncodeEmptyField() {
+        NullableFields obj = new NullableFields();
+        obj.mName = "";
+        obj.mBytes = new byte[] { 1 };
+        BasicSendData dst = new BasicSendData();
+        try {
+            PojoCodec.of(NullableFields.class).encode(obj, dst);
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("mName"));
+        }
+        assertThat(dst.size(), is(0));
+    }
+
+    private static class NullableFields {
+        @ItemField(1)
+        private int mId;
+        @ItemField(2)
+        private String mName;
+        @ItemField(3)
+        private byte[] mBytes;
+    }
+
+    private static class DuplicateOrder {
+        @ItemField(1)
+        private int mA;
+        @ItemField(1)
+        private int mB;
+    }
+}
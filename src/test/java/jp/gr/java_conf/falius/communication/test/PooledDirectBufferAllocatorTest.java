@@ -0,0 +1,81 @@
+package jp.gr.java_conf.falius.communication.test;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import jp.gr.java_conf.falius.communication.buffer.PooledDirectBufferAllocator;
+
+public class PooledDirectBufferAllocatorTest {
+
+    @Test
+    public void testAllocate() {
+        PooledDirectBufferAllocator allocator = new PooledDirectBufferAllocator();
+        ByteBuffer buf = allocator.allocate(100);
+        assertThat(buf.isDirect(), is(true));
+        assertThat(buf.position(), is(0));
+        assertThat(buf.limit(), is(100));
+        assertThat(buf.capacity(), is(128));
+    }
+
+    @Test
+    public void testReuse() {
+        PooledDirectBufferAllocator allocator = new PooledDirectBufferAllocator();
+        ByteBuffer buf = allocator.allocate(100);
+        buf.putInt(1);
+        allocator.release(buf);
+        assertThat(allocator.pooledCount(100), is(1));
+
+        // 同じサイズクラスであれば、返却したバッファが再利用される
+        ByteBuffer reused = allocator.allocate(70);
+        assertThat(reused, is(sameInstance(buf)));
+        assertThat(reused.position(), is(0));
+        assertThat(reused.limit(), is(70));
+        assertThat(allocator.pooledCount(100), is(0));
+    }
+
+    @Test
+    public void testMinSize() {
+        PooledDirectBufferAllocator allocator = new PooledDirectBufferAllocator();
+        ByteBuffer buf = allocator.allocate(4);
+        assertThat(buf.capacity(), is(PooledDirectBufferAllocator.DEFAULT_MIN_SIZE));
+        assertThat(buf.limit(), is(4));
+    }
+
+    @Test
+    public void testLargerThanMaxSize() {
+        PooledDirectBufferAllocator allocator = new PooledDirectBufferAllocator(64, 1024, 4);
+        ByteBuffer buf = allocator.allocate(2000);
+        assertThat(buf.capacity(), is(2000));
+        allocator.release(buf);
+        assertThat(allocator.pooledCount(2000), is(0));
+    }
+
+    @Test
+    public void testMaxPooledCount() {
+        PooledDirectBufferAllocator allocator = new PooledDirectBufferAllocator(64, 1024, 2);
+        ByteBuffer[] bufs = new ByteBuffer[3];
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = allocator.allocate(64);
+        }
+        for (ByteBuffer buf : bufs) {
+            allocator.release(buf);
+        }
+        assertThat(allocator.pooledCount(64), is(2));
+    }
+
+    @Test
+    public void testReleaseHeapBuffer() {
+        PooledDirectBufferAllocator allocator = new PooledDirectBufferAllocator();
+        allocator.release(ByteBuffer.allocate(64));
+        assertThat(allocator.pooledCount(64), is(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalSize() {
+        new PooledDirectBufferAllocator(128, 64, 4);
+    }
+}
@@ -0,0 +1,214 @@
+package jp.gr.java_conf.falius.communication.test;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import jp.gr.java_conf.falius.communication.core.SwapClient;
+import jp.gr.java_conf.falius.communication.core.socket.NonBlockingClient;
+import jp.gr.java_conf.falius.communication.core.socket.NonBlockingServer;
+import jp.gr.java_conf.falius.communication.rcvdata.ReceiveData;
+import jp.gr.java_conf.falius.communication.senddata.BasicSendData;
+import jp.gr.java_conf.falius.communication.senddata.PackedSendData;
+import jp.gr.java_conf.falius.communication.senddata.SendData;
+import jp.gr.java_conf.falius.communication.senddata.SendDataPool;
+import jp.gr.java_conf.falius.communication.swapper.RepeatSwapper;
+import jp.gr.java_conf.falius.communication.swapper.Swapper;
+import jp.gr.java_conf.falius.communication.swapper.SwapperFactory;
+import jp.gr.java_conf.falius.communication.test.helper.EchoServer;
+import jp.gr.java_conf.falius.communication.test.helper.ServerHelper;
+
+public class SendDataPoolTest {
+    private static final String HOST = "localhost";
+    private static final ServerHelper mServer = new EchoServer();
+
+    @BeforeClass
+    public static void setupServer() throws IOException {
+        mServer.beforeClass();
+    }
+
+    @AfterClass
+    public static void shutdownServer() throws IOException {
+        mServer.afterClass();
+    }
+
+    @Test
+    public void testRecycleAfterSend() throws IOException, TimeoutException {
+        SendDataPool<BasicSendData> pool = new SendDataPool<>(BasicSendData::new, 4);
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+
+        BasicSendData data = pool.acquire();
+        data.put(1).put("first");
+        ReceiveData rcv = client.send(data);
+        assertThat(rcv.getInt(), is(1));
+        assertThat(rcv.getString(), is("first"));
+        assertThat(pool.pooledCount(), is(1));
+
+        BasicSendData reused = pool.acquire();
+        assertThat(reused, is(sameInstance(data)));
+        assertThat(reused.size(), is(0));
+        assertThat(pool.pooledCount(), is(0));
+
+        reused.put(2);
+        rcv = client.send(reused);
+        assertThat(rcv.dataCount(), is(1));
+        assertThat(rcv.getInt(), is(2));
+    }
+
+    @Test
+    public void testRecyclePackedSendData() throws IOException, TimeoutException {
+        SendDataPool<PackedSendData> pool = new SendDataPool<>(PackedSendData::new, 4);
+        SwapClient client = new NonBlockingClient(HOST, mServer.getPort());
+
+        PackedSendData data = pool.acquire();
+        data.put(10L).put(true);
+        ReceiveData rcv = client.send(data);
+        assertThat(rcv.getLong(), is(10L));
+        assertThat(rcv.getBoolean(), is(true));
+
+        assertThat(pool.acquire(), is(sameInstance(data)));
+        assertThat(data.size(), is(0));
+    }
+
+    @Test
+    public void testRecycleAfterAllSends() {
+        // 複数の接続に同時に送信している間は、最後の送信を終えるまでプールに戻さない
+        SendDataPool<PackedSendData> pool = new SendDataPool<>(PackedSendData::new, 4);
+        PackedSendData data = pool.acquire();
+        data.put(5).put("shared");
+        data.retain();
+        data.retain();
+
+        data.recycle();
+        assertThat(pool.pooledCount(), is(0));
+        assertThat(data.size(), is(2));
+        assertThat(data.body().getInt(), is(5));
+
+        data.recycle();
+        assertThat(pool.pooledCount(), is(1));
+        assertThat(data.size(), is(0));
+        assertThat(pool.acquire(), is(sameInstance(data)));
+    }
+
+    @Test
+    public void testMaxPooledCount() {
+        SendDataPool<BasicSendData> pool = new SendDataPool<>(BasicSendData::new, 1);
+        BasicSendData first = pool.acquire();
+        BasicSendData second = pool.acquire();
+        first.put(1);
+        second.put(2);
+
+        pool.release(first);
+        pool.release(second);
+        assertThat(pool.pooledCount(), is(1));
+        assertThat(first.size(), is(0));
+        assertThat(second.size(), is(0));
+    }
+
+    @Test
+    public void testConcurrentAcquireAndRelease() throws InterruptedException, ExecutionException {
+        // 送信を終えたインスタンスは読み書きを行うスレッドで戻され、取り出すのは別のスレッドになる
+        SendDataPool<BasicSendData> pool = new SendDataPool<>(BasicSendData::new, 8);
+        Set<BasicSendData> inUse = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 10000; j++) {
+                        BasicSendData data = pool.acquire();
+                        if (!inUse.add(data)) {
+                            // 同じインスタンスが同時に二つのスレッドへ渡された
+                            return false;
+                        }
+                        data.put(j);
+                        inUse.remove(data);
+                        pool.release(data);
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertThat(future.get(), is(true));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(pool.pooledCount(), is(both(greaterThan(0)).and(lessThanOrEqualTo(8))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalMaxPooledCount() {
+        new SendDataPool<>(BasicSendData::new, -1);
+    }
+
+    @Test
+    public void testRecycleReceiveData() throws IOException, TimeoutException, InterruptedException {
+        final int repeatLen = 10;
+        int port = 8980;
+        Set<ReceiveData> received = Collections.newSetFromMap(new IdentityHashMap<>());
+        try (NonBlockingServer server = new NonBlockingServer(port, new SwapperFactory() {
+
+            @Override
+            public Swapper get() {
+                return new RepeatSwapper() {
+                    private int count = 0;
+
+                    @Override
+                    public SendData swap(String remoteAddress, ReceiveData receiveData) {
+                        received.add(receiveData);
+                        int rcv = receiveData.getInt();
+                        SendData sendData = new BasicSendData();
+                        sendData.put(rcv + 1);
+
+                        count++;
+                        if (count == repeatLen) {
+                            finish();
+                        }
+                        return sendData;
+                    }
+                };
+            }
+        })) {
+            server.setRecycleReceiveData(true);
+            server.startOnNewThread();
+            Thread.sleep(100);
+
+            SwapClient client = new NonBlockingClient(HOST, port);
+            ReceiveData receiveData = client.start(new RepeatSwapper() {
+                private int count = 0;
+
+                @Override
+                public SendData swap(String remoteAddress, ReceiveData receiveData) {
+                    SendData sendData = new BasicSendData();
+                    sendData.put(count == 0 ? 0 : receiveData.getInt() + 1);
+
+                    count++;
+                    if (count == repeatLen) {
+                        finish();
+                    }
+                    return sendData;
+                }
+            });
+
+            assertThat(receiveData.getInt(), is(repeatLen * 2 - 1));
+            assertThat(received.size(), is(1));
+        }
+    }
+}
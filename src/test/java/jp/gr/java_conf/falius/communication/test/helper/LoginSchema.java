@@ -0,0 +1,23 @@
+package jp.gr.java_conf.falius.communication.test.helper;
+
+import jp.gr.java_conf.falius.communication.codec.ItemField;
+import jp.gr.java_conf.falius.communication.codec.MessageSchema;
+
+@MessageSchema
+public interface LoginSchema {
+
+    @ItemField(2)
+    String token();
+
+    @ItemField(1)
+    int userId();
+
+    @ItemField(3)
+    long expires();
+
+    @ItemField(4)
+    boolean remember();
+
+    @ItemField(5)
+    byte[] signature();
+}
@@ -0,0 +1,70 @@
+package jp.gr.java_conf.falius.communication.test.helper;
+
+import jp.gr.java_conf.falius.communication.codec.ItemField;
+
+public class PojoTest {
+    @ItemField(1)
+    private int mId;
+    @ItemField(2)
+    private String mName;
+    @ItemField(3)
+    private double mScore;
+    @ItemField(4)
+    private long mTime;
+    @ItemField(5)
+    private boolean mActive;
+    @ItemField(6)
+    private float mRate;
+    @ItemField(7)
+    private byte[] mPayload;
+    private int mNotSent = 0;
+
+    private PojoTest() {
+    }
+
+    public PojoTest(int id, String name, double score, long time, boolean active, float rate, byte[] payload) {
+        mId = id;
+        mName = name;
+        mScore = score;
+        mTime = time;
+        mActive = active;
+        mRate = rate;
+        mPayload = payload;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public double getScore() {
+        return mScore;
+    }
+
+    public long getTime() {
+        return mTime;
+    }
+
+    public boolean isActive() {
+        return mActive;
+    }
+
+    public float getRate() {
+        return mRate;
+    }
+
+    public byte[] getPayload() {
+        return mPayload;
+    }
+
+    public int getNotSent() {
+        return mNotSent;
+    }
+
+    public void setNotSent(int notSent) {
+        mNotSent = notSent;
+    }
+}
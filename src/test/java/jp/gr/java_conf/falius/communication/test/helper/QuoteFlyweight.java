@@ -0,0 +1,48 @@
+package jp.gr.java_conf.falius.communication.test.helper;
+
+import jp.gr.java_conf.falius.communication.codec.Flyweight;
+
+public class QuoteFlyweight extends Flyweight {
+    public static final int ENCODED_LENGTH = 22;
+
+    @Override
+    public int encodedLength() {
+        return ENCODED_LENGTH;
+    }
+
+    public int instrumentId() {
+        return getInt(0);
+    }
+
+    public QuoteFlyweight instrumentId(int value) {
+        putInt(0, value);
+        return this;
+    }
+
+    public double price() {
+        return getDouble(4);
+    }
+
+    public QuoteFlyweight price(double value) {
+        putDouble(4, value);
+        return this;
+    }
+
+    public long quantity() {
+        return getLong(12);
+    }
+
+    public QuoteFlyweight quantity(long value) {
+        putLong(12, value);
+        return this;
+    }
+
+    public short side() {
+        return getShort(20);
+    }
+
+    public QuoteFlyweight side(short value) {
+        putShort(20, value);
+        return this;
+    }
+}